@@ -57,6 +57,9 @@ create TABLE IF NOT EXISTS conferences
 	nonmember_permissions INT NOT NULL DEFAULT 0,
 	created DATETIME NOT NULL DEFAULT NOW(),
 	lasttext DATETIME NOT NULL DEFAULT NOW(),
+	firstmsg INT NOT NULL DEFAULT 0,
+	lastmsg INT NOT NULL DEFAULT 0,
+	lastlocalnum INT NOT NULL DEFAULT 0,
 	PRIMARY KEY(id),	
 	FOREIGN KEY (id) REFERENCES names(id) ON delete CASCADE,
 	INDEX admin_ix(administrator),
@@ -76,6 +79,7 @@ create TABLE IF NOT EXISTS memberships
 	permissions INT NOT NULL DEFAULT 0,
 	negation_mask INT NOT NULL DEFAULT 0,
 	markers TEXT,
+	markerdata BLOB,
 	PRIMARY KEY(conference, user),
 	INDEX mbrconf_ix(conference),
 	FOREIGN KEY (conference) REFERENCES conferences(id) ON delete CASCADE,
@@ -57,6 +57,9 @@ CREATE TABLE IF NOT EXISTS conferences
 	nonmember_permissions INT NOT NULL,
 	created DATETIME NOT NULL,
 	lasttext DATETIME NOT NULL,
+	firstmsg INT NOT NULL DEFAULT 0,
+	lastmsg INT NOT NULL DEFAULT 0,
+	lastlocalnum INT NOT NULL DEFAULT 0,
 	PRIMARY KEY(id),	
 	FOREIGN KEY (id) REFERENCES names(id) ON DELETE CASCADE,
 	INDEX admin_ix(administrator),
@@ -76,6 +79,7 @@ CREATE TABLE IF NOT EXISTS memberships
 	permissions INT NOT NULL,
 	negation_mask INT NOT NULL,	
 	markers TEXT,
+	markerdata BLOB,
 	PRIMARY KEY(conference, user),
 	INDEX mbrconf_ix(conference),
 	FOREIGN KEY (conference) REFERENCES conferences(id) ON DELETE CASCADE,
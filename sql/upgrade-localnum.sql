@@ -0,0 +1,11 @@
+USE kom;
+
+-- Adds the counter that local message numbers are allocated from to the
+-- conferences table of an existing database. It must start at the highest
+-- number ever used, deleted occurrences included.
+--
+ALTER TABLE conferences
+	ADD COLUMN lastlocalnum INT NOT NULL DEFAULT 0;
+
+UPDATE conferences c SET
+	c.lastlocalnum = (SELECT IFNULL(MAX(mo.localnum), 0) FROM messageoccurrences mo WHERE mo.conference = c.id);
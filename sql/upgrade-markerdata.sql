@@ -0,0 +1,9 @@
+USE kom;
+
+-- Adds the binary read markers to the memberships table of an existing
+-- database. Nothing needs to be converted up front: the server reads the old
+-- text markers as long as there are no binary ones, and replaces them with
+-- binary markers the next time they're saved.
+--
+ALTER TABLE memberships
+	ADD COLUMN markerdata BLOB;
@@ -0,0 +1,12 @@
+USE kom;
+
+-- Adds the first and last message numbers to the conferences table of an
+-- existing database. The server keeps them up to date from here on.
+--
+ALTER TABLE conferences
+	ADD COLUMN firstmsg INT NOT NULL DEFAULT 0,
+	ADD COLUMN lastmsg INT NOT NULL DEFAULT 0;
+
+UPDATE conferences c SET
+	c.firstmsg = (SELECT IFNULL(MIN(mo.localnum), 0) FROM messageoccurrences mo WHERE mo.conference = c.id AND mo.kind != 3),
+	c.lastmsg = (SELECT IFNULL(MAX(mo.localnum), 0) FROM messageoccurrences mo WHERE mo.conference = c.id AND mo.kind != 3);
@@ -0,0 +1,44 @@
+/*
+ * This file contains software that has been made available under
+ * The Frameworx Open License 1.0. Use and distribution hereof are
+ * subject to the restrictions set forth therein.
+ *
+ * Copyright (c) 2003 The Frameworx Company
+ * All Rights Reserved
+ */
+
+package com.frameworx.util;
+
+/**
+ * A value held by a <code>StripedCache</code>, along with the bookkeeping needed by the
+ * replacement policies. Extends <code>ListAtom</code> so that policies can keep nodes in linked
+ * queues.
+ *
+ * @author Pontus Rydin
+ */
+class CacheNode extends ListAtom {
+  static final long serialVersionUID = 2005;
+
+  /** The key */
+  final Object m_key;
+
+  /** The value */
+  volatile Object m_value;
+
+  /** Set on every access. Used by policies that approximate recency. */
+  volatile boolean m_referenced;
+
+  /** Weight of the value. Guarded by the segment lock. */
+  int m_weight;
+
+  /** Policy specific position, e.g. a slot number. Guarded by the segment lock. */
+  int m_slot;
+
+  /** Policy specific queue the node belongs to. Guarded by the segment lock. */
+  byte m_queue;
+
+  CacheNode(final Object key, final Object value) {
+    m_key = key;
+    m_value = value;
+  }
+}
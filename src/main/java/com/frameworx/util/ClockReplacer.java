@@ -0,0 +1,81 @@
+/*
+ * This file contains software that has been made available under
+ * The Frameworx Open License 1.0. Use and distribution hereof are
+ * subject to the restrictions set forth therein.
+ *
+ * Copyright (c) 2003 The Frameworx Company
+ * All Rights Reserved
+ */
+
+package com.frameworx.util;
+
+/**
+ * CLOCK (second chance) replacement. Nodes sit in an array swept by a "hand". A node that has been
+ * referenced since the hand last passed gets its reference bit cleared and is spared. The first
+ * unreferenced node the hand finds is the victim.
+ *
+ * @author Pontus Rydin
+ */
+class ClockReplacer extends ReplacementPolicy.Replacer {
+  /** The nodes. One spare slot, since a node is inserted before a victim is selected. */
+  private final CacheNode[] m_clock;
+
+  /** Number of nodes on the clock */
+  private int m_count;
+
+  /** The clock hand */
+  private int m_hand;
+
+  ClockReplacer(final int maxSize) {
+    m_clock = new CacheNode[maxSize + 1];
+  }
+
+  @Override
+  void onInsert(final CacheNode node) {
+    node.m_slot = m_count;
+    m_clock[m_count++] = node;
+  }
+
+  @Override
+  void onRemove(final CacheNode node) {
+    removeSlot(node.m_slot);
+  }
+
+  /** Terminates within two laps, since the first lap clears all reference bits. */
+  @Override
+  CacheNode selectVictim() {
+    for (; ; ) {
+      final CacheNode candidate = m_clock[m_hand];
+      if (candidate.m_referenced) {
+        candidate.m_referenced = false;
+        m_hand = (m_hand + 1) % m_count;
+        continue;
+      }
+      removeSlot(m_hand);
+      return candidate;
+    }
+  }
+
+  @Override
+  void clear() {
+    for (int idx = 0; idx < m_count; ++idx) {
+      m_clock[idx] = null;
+    }
+    m_count = 0;
+    m_hand = 0;
+  }
+
+  /** Removes a node from the clock by moving the last node into its slot. */
+  private void removeSlot(final int slot) {
+    final int last = --m_count;
+    if (slot != last) {
+      final CacheNode moved = m_clock[last];
+      moved.m_slot = slot;
+      m_clock[slot] = moved;
+    }
+    m_clock[last] = null;
+    if (m_hand >= m_count) {
+      m_hand = 0;
+    }
+  }
+}
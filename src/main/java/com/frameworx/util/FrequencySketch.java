@@ -0,0 +1,103 @@
+/*
+ * This file contains software that has been made available under
+ * The Frameworx Open License 1.0. Use and distribution hereof are
+ * subject to the restrictions set forth therein.
+ *
+ * Copyright (c) 2003 The Frameworx Company
+ * All Rights Reserved
+ */
+
+package com.frameworx.util;
+
+/**
+ * Count-min sketch estimating how often keys have been seen recently. Each key maps to one counter
+ * in each of four rows, and the estimate is the smallest of them. Counters saturate at 15 and are
+ * all halved once enough increments have been made, so old popularity fades away. <br>
+ * Increments may race and get lost. That only makes the estimate slightly less accurate, which is
+ * fine for an estimate.
+ *
+ * @author Pontus Rydin
+ */
+class FrequencySketch {
+  private static final int DEPTH = 4;
+
+  private static final int MAX_COUNT = 15;
+
+  private static final int[] SEEDS = {0x97cb3127, 0xb2c3ad85, 0x5dac5aa7, 0x9e3779b9};
+
+  /** The counters, one row after the other */
+  private final byte[] m_counters;
+
+  /** Width of a row minus one */
+  private final int m_mask;
+
+  /** Number of increments after which counters are halved */
+  private final int m_sampleSize;
+
+  /** Number of increments since last halving */
+  private int m_additions;
+
+  FrequencySketch(final int maxSize) {
+    int width = 16;
+    while (width < maxSize) {
+      width <<= 1;
+    }
+    m_counters = new byte[width * DEPTH];
+    m_mask = width - 1;
+    m_sampleSize = Math.max(10 * maxSize, 160);
+  }
+
+  /**
+   * Records an occurrence of a key.
+   *
+   * @param key The key
+   */
+  void increment(final Object key) {
+    final int hash = spread(key.hashCode());
+    boolean added = false;
+    for (int row = 0; row < DEPTH; ++row) {
+      final int idx = indexOf(hash, row);
+      if (m_counters[idx] < MAX_COUNT) {
+        ++m_counters[idx];
+        added = true;
+      }
+    }
+    if (added && ++m_additions >= m_sampleSize) {
+      reset();
+    }
+  }
+
+  /**
+   * Returns the estimated number of recent occurrences of a key.
+   *
+   * @param key The key
+   */
+  int frequency(final Object key) {
+    final int hash = spread(key.hashCode());
+    int answer = MAX_COUNT;
+    for (int row = 0; row < DEPTH; ++row) {
+      answer = Math.min(answer, m_counters[indexOf(hash, row)]);
+    }
+    return answer;
+  }
+
+  /** Halves all counters */
+  private void reset() {
+    for (int idx = 0; idx < m_counters.length; ++idx) {
+      m_counters[idx] >>>= 1;
+    }
+    m_additions >>>= 1;
+  }
+
+  private int indexOf(final int hash, final int row) {
+    int h = (hash + SEEDS[row]) * SEEDS[row];
+    h += h >>> 16;
+    return row * (m_mask + 1) + (h & m_mask);
+  }
+
+  private static int spread(int h) {
+    h ^= h >>> 16;
+    h *= 0x45d9f3b;
+    return h ^ (h >>> 16);
+  }
+}
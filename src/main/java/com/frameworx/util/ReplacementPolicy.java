@@ -0,0 +1,132 @@
+/*
+ * This file contains software that has been made available under
+ * The Frameworx Open License 1.0. Use and distribution hereof are
+ * subject to the restrictions set forth therein.
+ *
+ * Copyright (c) 2003 The Frameworx Company
+ * All Rights Reserved
+ */
+
+package com.frameworx.util;
+
+/**
+ * Decides which values a <code>StripedCache</code> keeps when it runs out of space. Every segment
+ * of the cache gets its own <code>Replacer</code> from the policy.
+ *
+ * @author Pontus Rydin
+ */
+public abstract class ReplacementPolicy {
+  /** CLOCK (second chance). Approximates LRU and never needs a lock on reads. */
+  public static final ReplacementPolicy CLOCK =
+      new ReplacementPolicy("clock") {
+        @Override
+        Replacer newReplacer(final int maxSize) {
+          return new ClockReplacer(maxSize);
+        }
+      };
+
+  /**
+   * Window TinyLFU. New values enter a small LRU window and then have to compete, based on an
+   * estimate of how often they have been asked for, with the values already in the segmented main
+   * region. A single scan over many keys can't flush out a frequently used working set.
+   */
+  public static final ReplacementPolicy TINY_LFU =
+      new ReplacementPolicy("tinylfu") {
+        @Override
+        Replacer newReplacer(final int maxSize) {
+          return new TinyLfuReplacer(maxSize);
+        }
+      };
+
+  private final String m_name;
+
+  private ReplacementPolicy(final String name) {
+    m_name = name;
+  }
+
+  /**
+   * Returns the policy with the specified name.
+   *
+   * @param name The name, e.g. "clock" or "tinylfu". Case insensitive.
+   * @throws IllegalArgumentException If there's no policy by that name.
+   */
+  public static ReplacementPolicy forName(final String name) {
+    if (CLOCK.m_name.equalsIgnoreCase(name)) {
+      return CLOCK;
+    }
+    if (TINY_LFU.m_name.equalsIgnoreCase(name)) {
+      return TINY_LFU;
+    }
+    throw new IllegalArgumentException("Unknown replacement policy: " + name);
+  }
+
+  /** Returns the name of the policy. */
+  public String getName() {
+    return m_name;
+  }
+
+  @Override
+  public String toString() {
+    return m_name;
+  }
+
+  /**
+   * Creates the per segment state of this policy.
+   *
+   * @param maxSize The maximum number of values in the segment.
+   */
+  abstract Replacer newReplacer(int maxSize);
+
+  /**
+   * Per segment state of a replacement policy. Everything except <code>recordAccess</code> is
+   * called with the segment lock held.
+   */
+  abstract static class Replacer {
+    /**
+     * Called on every hit without any lock held. Must be cheap and safe to call concurrently.
+     *
+     * @param node The node that was accessed.
+     */
+    void recordAccess(final CacheNode node) {
+      node.m_referenced = true;
+    }
+
+    /**
+     * Returns <code>true</code> if hits should also be reported through <code>onAccess</code>.
+     * The cache only does that when the segment lock is free, so some hits may go unreported.
+     */
+    boolean isOrderedByAccess() {
+      return false;
+    }
+
+    /**
+     * Called after a hit, with the segment lock held.
+     *
+     * @param node The node that was accessed.
+     */
+    void onAccess(final CacheNode node) {}
+
+    /**
+     * Called when a node has been added to the segment.
+     *
+     * @param node The new node.
+     */
+    abstract void onInsert(CacheNode node);
+
+    /**
+     * Called when a node has been removed from the segment for reasons other than eviction.
+     *
+     * @param node The removed node.
+     */
+    abstract void onRemove(CacheNode node);
+
+    /**
+     * Picks a node to evict and forgets about it. Only called when the segment holds more values
+     * than it should, so there is always something to pick.
+     */
+    abstract CacheNode selectVictim();
+
+    /** Forgets about all nodes. */
+    abstract void clear();
+  }
+}
@@ -0,0 +1,373 @@
+/*
+ * This file contains software that has been made available under
+ * The Frameworx Open License 1.0. Use and distribution hereof are
+ * subject to the restrictions set forth therein.
+ *
+ * Copyright (c) 2003 The Frameworx Company
+ * All Rights Reserved
+ */
+
+package com.frameworx.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+
+/**
+ * Concurrent cache with a bounded size, split into a number of independently locked segments. The
+ * size is normally the number of values, but a <code>Weigher</code> can be supplied to let some
+ * values take up more room than others. <br>
+ * Lookups never take a lock. They go straight to a <code>ConcurrentHashMap</code> and merely mark
+ * the value as recently used. Insertions and removals lock only the segment the key hashes to, so
+ * threads working on different keys rarely contend. Each segment evicts values on its own, as
+ * decided by a <code>ReplacementPolicy</code>. The default policy is CLOCK (second chance), which
+ * approximates LRU without having to reorder a list on every read.
+ *
+ * @author Pontus Rydin
+ */
+public class StripedCache {
+  /** Smallest number of values we want to keep in a segment */
+  private static final int MIN_SEGMENT_SIZE = 16;
+
+  /** The segments */
+  private final Segment[] m_segments;
+
+  /** Mask used to select a segment from a hash code */
+  private final int m_segmentMask;
+
+  /** The specified maximum size */
+  private final int m_maxSize;
+
+  /** Decides what to evict when a segment is full */
+  private final ReplacementPolicy m_replacementPolicy;
+
+  /** Calculates the weight of each value */
+  private final Weigher m_weigher;
+
+  /**
+   * Eviction policy, i.e. a class that will be called whenever a value is about to be discarded
+   * from the cache.
+   */
+  private volatile MRUCache.EvictionPolicy m_evictionPolicy;
+
+  /**
+   * Creates a new <code>StripedCache</code> with a specified maximum size. The number of segments
+   * is derived from the number of available processors.
+   *
+   * @param maxSize The maximum size.
+   */
+  public StripedCache(final int maxSize) {
+    this(maxSize, ReplacementPolicy.CLOCK);
+  }
+
+  /**
+   * Creates a new <code>StripedCache</code> with a specified maximum size and replacement policy.
+   *
+   * @param maxSize The maximum size.
+   * @param replacementPolicy The policy deciding what to evict when the cache is full
+   */
+  public StripedCache(final int maxSize, final ReplacementPolicy replacementPolicy) {
+    this(maxSize, replacementPolicy, Weigher.SINGLETON);
+  }
+
+  /**
+   * Creates a new <code>StripedCache</code> holding values of different weights.
+   *
+   * @param maxSize The maximum total weight.
+   * @param replacementPolicy The policy deciding what to evict when the cache is full
+   * @param weigher Calculates the weight of each value
+   */
+  public StripedCache(
+      final int maxSize, final ReplacementPolicy replacementPolicy, final Weigher weigher) {
+    this(
+        maxSize,
+        Runtime.getRuntime().availableProcessors() * 2,
+        replacementPolicy,
+        weigher,
+        MRUCache.s_voidPolicy);
+  }
+
+  /**
+   * Creates a new <code>StripedCache</code> with a specified maximum size and an eviction policy
+   * that will be called whenever a value is about to be discarded from the cache.
+   *
+   * @param maxSize The maximum size.
+   * @param evictionPolicy The eviction policy
+   */
+  public StripedCache(final int maxSize, final MRUCache.EvictionPolicy evictionPolicy) {
+    this(
+        maxSize,
+        Runtime.getRuntime().availableProcessors() * 2,
+        ReplacementPolicy.CLOCK,
+        Weigher.SINGLETON,
+        evictionPolicy);
+  }
+
+  /**
+   * Creates a new <code>StripedCache</code>.
+   *
+   * @param maxSize The maximum size, or total weight if values are weighed.
+   * @param concurrency The desired number of segments. Rounded to a power of two and capped so that
+   *     no segment gets too small to make sensible eviction decisions.
+   * @param replacementPolicy The policy deciding what to evict when the cache is full
+   * @param weigher Calculates the weight of each value
+   * @param evictionPolicy The eviction policy
+   */
+  public StripedCache(
+      final int maxSize,
+      final int concurrency,
+      final ReplacementPolicy replacementPolicy,
+      final Weigher weigher,
+      final MRUCache.EvictionPolicy evictionPolicy) {
+    int n = 1;
+    while (n < concurrency && maxSize / (n << 1) >= MIN_SEGMENT_SIZE) {
+      n <<= 1;
+    }
+    m_maxSize = maxSize;
+    m_segmentMask = n - 1;
+    m_replacementPolicy = replacementPolicy;
+    m_weigher = weigher;
+    m_evictionPolicy = evictionPolicy;
+    m_segments = new Segment[n];
+    final int segmentSize = Math.max(1, (maxSize + n - 1) / n);
+    for (int idx = 0; idx < n; ++idx) {
+      m_segments[idx] = new Segment(segmentSize, replacementPolicy);
+    }
+  }
+
+  /**
+   * Returns the value associated with the specified key, or null if no value exists for this key.
+   * Never blocks.
+   *
+   * @param key The key
+   */
+  public Object get(final Object key) {
+    return segmentFor(key).get(key);
+  }
+
+  /**
+   * Associates a key with a value and stores it in the cache. If the segment the key belongs to is
+   * full, the replacement policy picks a value to discard.
+   *
+   * @param key The key
+   * @param value The value
+   */
+  public Object put(final Object key, final Object value) {
+    segmentFor(key).put(key, value, weigh(key, value), m_evictionPolicy);
+    return value;
+  }
+
+  /**
+   * Replaces the value associated with a key with one computed from it. The function gets the
+   * current value (<code>null</code> if there is none) and returns the new one, or <code>null
+   * </code> to remove the key. Nobody else can update the key while the function runs, so keep it
+   * short.
+   *
+   * @param key The key
+   * @param function Computes the new value from the current one
+   */
+  protected void compute(final Object key, final UnaryOperator<Object> function) {
+    final Segment segment = segmentFor(key);
+    segment.lock();
+    try {
+      final Object value = function.apply(segment.peek(key));
+      if (value != null) {
+        segment.put(key, value, weigh(key, value), m_evictionPolicy);
+      } else {
+        segment.remove(key);
+      }
+    } finally {
+      segment.unlock();
+    }
+  }
+
+  /**
+   * Consciously remove the object corresponding to the <code>key</code> from the cache. The <code>
+   * EvictionPolicy</code> will not be enforced on the removed object.
+   *
+   * @param key The key.
+   */
+  public Object remove(final Object key) {
+    return segmentFor(key).remove(key);
+  }
+
+  /** Removes all values from the cache. */
+  public void clear() {
+    for (final Segment each : m_segments) {
+      each.clear(m_evictionPolicy);
+    }
+  }
+
+  /** Returns the current number of values in the cache. */
+  public int size() {
+    int answer = 0;
+    for (final Segment each : m_segments) {
+      answer += each.m_map.size();
+    }
+    return answer;
+  }
+
+  /** Returns the current total weight of the values in the cache. */
+  public long weight() {
+    long answer = 0;
+    for (final Segment each : m_segments) {
+      answer += each.m_weight;
+    }
+    return answer;
+  }
+
+  /** Returns the specified maximum size. */
+  public int getMaxSize() {
+    return m_maxSize;
+  }
+
+  /** Returns the number of segments. */
+  public int getConcurrency() {
+    return m_segments.length;
+  }
+
+  /** Returns the replacement policy. */
+  public ReplacementPolicy getReplacementPolicy() {
+    return m_replacementPolicy;
+  }
+
+  /** Returns the eviction policy. */
+  public MRUCache.EvictionPolicy getEvictionPolicy() {
+    return m_evictionPolicy;
+  }
+
+  /**
+   * Sets the eviction policy to be called when values are discarded from the cache.
+   *
+   * @param evictionPolicy The eviction policy.
+   */
+  public void setEvictionPolicy(final MRUCache.EvictionPolicy evictionPolicy) {
+    m_evictionPolicy = evictionPolicy;
+  }
+
+  private int weigh(final Object key, final Object value) {
+    return Math.max(1, m_weigher.weigh(key, value));
+  }
+
+  private Segment segmentFor(final Object key) {
+    int h = key.hashCode();
+    h ^= h >>> 16;
+    h *= 0x9E3779B9;
+    return m_segments[(h >>> 16) & m_segmentMask];
+  }
+
+  /**
+   * One independently locked part of the cache. The map is safe for lock-free reads, while the
+   * replacer is only touched with the lock held.
+   */
+  private static final class Segment extends ReentrantLock {
+    static final long serialVersionUID = 2005;
+
+    final ConcurrentHashMap<Object, CacheNode> m_map;
+
+    final ReplacementPolicy.Replacer m_replacer;
+
+    final int m_maxWeight;
+
+    volatile long m_weight;
+
+    Segment(final int maxSize, final ReplacementPolicy replacementPolicy) {
+      m_map = new ConcurrentHashMap<>(maxSize);
+      m_replacer = replacementPolicy.newReplacer(maxSize);
+      m_maxWeight = maxSize;
+    }
+
+    Object get(final Object key) {
+      final CacheNode node = m_map.get(key);
+      if (node == null) {
+        return null;
+      }
+      m_replacer.recordAccess(node);
+
+      // Let the replacer reorder its queues, but only if we can do it without waiting.
+      //
+      if (m_replacer.isOrderedByAccess() && tryLock()) {
+        try {
+          if (m_map.get(key) == node) {
+            m_replacer.onAccess(node);
+          }
+        } finally {
+          unlock();
+        }
+      }
+      return node.m_value;
+    }
+
+    /** Returns the value of a key without counting it as an access */
+    Object peek(final Object key) {
+      final CacheNode node = m_map.get(key);
+      return node != null ? node.m_value : null;
+    }
+
+    void put(
+        final Object key,
+        final Object value,
+        final int weight,
+        final MRUCache.EvictionPolicy evictionPolicy) {
+      lock();
+      try {
+        CacheNode node = m_map.get(key);
+        if (node != null) {
+          m_weight += weight - node.m_weight;
+          node.m_value = value;
+          node.m_weight = weight;
+          m_replacer.recordAccess(node);
+          m_replacer.onAccess(node);
+        } else {
+          node = new CacheNode(key, value);
+          node.m_weight = weight;
+          m_map.put(key, node);
+          m_replacer.onInsert(node);
+          m_weight += weight;
+        }
+
+        // Make room if needed
+        //
+        while (m_weight > m_maxWeight) {
+          final CacheNode victim = m_replacer.selectVictim();
+          m_map.remove(victim.m_key);
+          m_weight -= victim.m_weight;
+          evictionPolicy.evict(victim.m_key, victim.m_value);
+        }
+      } finally {
+        unlock();
+      }
+    }
+
+    Object remove(final Object key) {
+      lock();
+      try {
+        final CacheNode node = m_map.remove(key);
+        if (node == null) {
+          return null;
+        }
+        m_replacer.onRemove(node);
+        m_weight -= node.m_weight;
+        return node.m_value;
+      } finally {
+        unlock();
+      }
+    }
+
+    void clear(final MRUCache.EvictionPolicy evictionPolicy) {
+      lock();
+      try {
+        if (evictionPolicy != MRUCache.s_voidPolicy) {
+          for (final CacheNode each : m_map.values()) {
+            evictionPolicy.evict(each.m_key, each.m_value);
+          }
+        }
+        m_replacer.clear();
+        m_map.clear();
+        m_weight = 0;
+      } finally {
+        unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * This file contains software that has been made available under
+ * The Frameworx Open License 1.0. Use and distribution hereof are
+ * subject to the restrictions set forth therein.
+ *
+ * Copyright (c) 2003 The Frameworx Company
+ * All Rights Reserved
+ */
+
+package com.frameworx.util;
+
+/**
+ * Window TinyLFU replacement. New nodes enter a small LRU window. Nodes falling out of the window
+ * move to the probation queue of the main region, and a node accessed while on probation is
+ * promoted to the protected queue. When space is needed, the newest node on probation (the
+ * candidate) is compared to the oldest one (the victim) using a frequency sketch, and the one that
+ * has been asked for less often is evicted.
+ *
+ * @author Pontus Rydin
+ */
+class TinyLfuReplacer extends ReplacementPolicy.Replacer {
+  private static final byte WINDOW = 0;
+
+  private static final byte PROBATION = 1;
+
+  private static final byte PROTECTED = 2;
+
+  /** Heads of the three LRU queues. Most recently used right after the head. */
+  private final ListAtom m_window = new ListAtom();
+
+  private final ListAtom m_probation = new ListAtom();
+
+  private final ListAtom m_protected = new ListAtom();
+
+  private final int m_maxWindow;
+
+  private final int m_maxProtected;
+
+  private int m_windowSize;
+
+  private int m_protectedSize;
+
+  private final FrequencySketch m_sketch;
+
+  TinyLfuReplacer(final int maxSize) {
+    m_maxWindow = Math.max(1, maxSize / 100);
+    m_maxProtected = Math.max(1, (maxSize - m_maxWindow) * 4 / 5);
+    m_sketch = new FrequencySketch(maxSize);
+  }
+
+  @Override
+  void recordAccess(final CacheNode node) {
+    m_sketch.increment(node.m_key);
+  }
+
+  @Override
+  boolean isOrderedByAccess() {
+    return true;
+  }
+
+  @Override
+  void onAccess(final CacheNode node) {
+    switch (node.m_queue) {
+      case WINDOW:
+        node.succeed(m_window);
+        break;
+      case PROBATION:
+        node.m_queue = PROTECTED;
+        node.succeed(m_protected);
+        if (++m_protectedSize > m_maxProtected) {
+          // Demote the least recently used protected node
+          //
+          final CacheNode demoted = (CacheNode) m_protected.previous();
+          demoted.m_queue = PROBATION;
+          demoted.succeed(m_probation);
+          --m_protectedSize;
+        }
+        break;
+      default:
+        node.succeed(m_protected);
+        break;
+    }
+  }
+
+  @Override
+  void onInsert(final CacheNode node) {
+    m_sketch.increment(node.m_key);
+    node.m_queue = WINDOW;
+    node.succeed(m_window);
+    if (++m_windowSize > m_maxWindow) {
+      // Window is full. Let the oldest node move on to probation.
+      //
+      final CacheNode moved = (CacheNode) m_window.previous();
+      moved.m_queue = PROBATION;
+      moved.succeed(m_probation);
+      --m_windowSize;
+    }
+  }
+
+  @Override
+  void onRemove(final CacheNode node) {
+    node.yank();
+    if (node.m_queue == WINDOW) {
+      --m_windowSize;
+    } else if (node.m_queue == PROTECTED) {
+      --m_protectedSize;
+    }
+  }
+
+  @Override
+  CacheNode selectVictim() {
+    final CacheNode victim = oldest(m_probation);
+    if (victim == null) {
+      // Nothing on probation. Fall back to plain LRU on the other queues.
+      //
+      final CacheNode answer = oldest(m_protected);
+      return detach(answer != null ? answer : oldest(m_window));
+    }
+
+    // Let the latest arrival compete with the oldest node on probation
+    //
+    final CacheNode candidate = (CacheNode) m_probation.next();
+    if (candidate != victim
+        && m_sketch.frequency(candidate.m_key) > m_sketch.frequency(victim.m_key)) {
+      return detach(victim);
+    }
+    return detach(candidate);
+  }
+
+  @Override
+  void clear() {
+    m_window.yank();
+    m_probation.yank();
+    m_protected.yank();
+    m_windowSize = 0;
+    m_protectedSize = 0;
+  }
+
+  private CacheNode detach(final CacheNode node) {
+    onRemove(node);
+    return node;
+  }
+
+  private static CacheNode oldest(final ListAtom head) {
+    final ListAtom answer = head.previous();
+    return answer != head ? (CacheNode) answer : null;
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * This file contains software that has been made available under
+ * The Frameworx Open License 1.0. Use and distribution hereof are
+ * subject to the restrictions set forth therein.
+ *
+ * Copyright (c) 2003 The Frameworx Company
+ * All Rights Reserved
+ */
+
+package com.frameworx.util;
+
+/**
+ * Calculates how much of a cache's capacity a value takes up. Lets a cache bound the approximate
+ * memory it holds rather than the number of values.
+ *
+ * @author Pontus Rydin
+ */
+public interface Weigher {
+  /** Weigher giving every value a weight of one, i.e. the cache is bounded by number of values. */
+  Weigher SINGLETON =
+      new Weigher() {
+        @Override
+        public int weigh(final Object key, final Object value) {
+          return 1;
+        }
+      };
+
+  /**
+   * Returns the weight of a value. Weights less than one are treated as one.
+   *
+   * @param key The key
+   * @param value The value
+   */
+  int weigh(Object key, Object value);
+}
@@ -28,11 +28,30 @@ public class SystemSettings {
     return m_resources.getProperty(key);
   }
 
+  public String getString(final String key, final String defaultValue) {
+    return m_resources.getProperty(key, defaultValue);
+  }
+
   public int getInt(final String key) {
     return Integer.parseInt(getString(key));
   }
 
+  public int getInt(final String key, final int defaultValue) {
+    final String value = getString(key);
+    return value != null ? Integer.parseInt(value) : defaultValue;
+  }
+
   public long getLong(final String key) {
     return Long.parseLong(getString(key));
   }
+
+  public long getLong(final String key, final long defaultValue) {
+    final String value = getString(key);
+    return value != null ? Long.parseLong(value) : defaultValue;
+  }
+
+  public boolean getBoolean(final String key, final boolean defaultValue) {
+    final String value = getString(key);
+    return value != null ? Boolean.parseBoolean(value) : defaultValue;
+  }
 }
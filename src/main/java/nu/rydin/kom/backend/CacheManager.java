@@ -6,28 +6,103 @@
  */
 package nu.rydin.kom.backend;
 
+import com.frameworx.util.ReplacementPolicy;
+import com.frameworx.util.Weigher;
+import nu.rydin.kom.structs.Message;
+import nu.rydin.kom.structs.MessageOccurrence;
+import nu.rydin.kom.structs.ReplyTree;
+
 /** @author Pontus Rydin */
 public class CacheManager {
+  /**
+   * Weighs objects in the message cache. A message takes one unit plus one unit per started 512
+   * characters of body text, so a few huge messages can't push out lots of small headers.
+   */
+  private static final Weigher s_messageWeigher =
+      (key, value) -> {
+        if (value instanceof Message) {
+          final String body = ((Message) value).getBody();
+          return 1 + (body != null ? (body.length() + 511) / 512 : 0);
+        }
+        if (value instanceof MessageOccurrence[]) {
+          return 1 + ((MessageOccurrence[]) value).length / 8;
+        }
+        return 1;
+      };
+
+  /**
+   * Weighs reply trees by the number of messages in them, so the reply tree cache is bounded by
+   * the total number of messages it holds rather than the number of threads.
+   */
+  private static final Weigher s_replyTreeWeigher =
+      (key, value) -> value instanceof ReplyTree ? 1 + ((ReplyTree) value).size() : 1;
+
   private static final CacheManager s_instance = new CacheManager();
 
-  private final KOMCache m_userCache = new KOMCache(1000); // TODO: Read from config
+  private final KOMCache m_userCache = createCache("user", 1000);
+
+  private final KOMCache m_conferenceCache = createCache("conference", 5000);
 
-  private final KOMCache m_conferenceCache = new KOMCache(5000); // TODO: Read from config
+  private final KOMCache m_messageCache = createCache("message", 5000, s_messageWeigher);
 
-  private final KOMCache m_messageCache = new KOMCache(100); // TODO: Read from config
+  /**
+   * Reply trees keyed by thread. Threads go cold quickly once people have read them, so this one
+   * defaults to a recency based policy.
+   */
+  private final KOMCache m_replyTreeCache =
+      createCache(
+          "replytree", 20000, ReplacementPolicy.CLOCK.getName(), s_replyTreeWeigher);
 
-  private final KOMCache m_nameCache = new KOMCache(1000); // TODO: Read from config
+  private final KOMCache m_nameCache = createCache("name", 1000);
 
-  private final KOMCache m_permissionCache = new KOMCache(1000); // TODO: Read from config
+  private final KOMCache m_permissionCache = createCache("permission", 1000);
 
   public static CacheManager instance() {
     return s_instance;
   }
 
+  /**
+   * Creates a cache sized and configured according to the <tt>server.cache.&lt;name&gt;.size</tt>
+   * and <tt>server.cache.&lt;name&gt;.policy</tt> Backend parameters.
+   *
+   * @param name The name of the cache
+   * @param defaultSize The size to use if none is configured
+   */
+  private static KOMCache createCache(final String name, final int defaultSize) {
+    return createCache(name, defaultSize, Weigher.SINGLETON);
+  }
+
+  private static KOMCache createCache(
+      final String name, final int defaultSize, final Weigher weigher) {
+    return createCache(name, defaultSize, ReplacementPolicy.TINY_LFU.getName(), weigher);
+  }
+
+  private static KOMCache createCache(
+      final String name,
+      final int defaultSize,
+      final String defaultPolicy,
+      final Weigher weigher) {
+    return new KOMCache(
+        ServerSettings.getCacheSize(name, defaultSize),
+        ReplacementPolicy.forName(ServerSettings.getCachePolicy(name, defaultPolicy)),
+        weigher);
+  }
+
+  /** Starts a transaction in all caches. Call it before reading anything from the database. */
+  public void begin() {
+    m_userCache.begin();
+    m_conferenceCache.begin();
+    m_messageCache.begin();
+    m_replyTreeCache.begin();
+    m_nameCache.begin();
+    m_permissionCache.begin();
+  }
+
   public void commit() {
     m_userCache.commit();
     m_conferenceCache.commit();
     m_messageCache.commit();
+    m_replyTreeCache.commit();
     m_nameCache.commit();
     m_permissionCache.commit();
   }
@@ -36,6 +111,7 @@ public class CacheManager {
     m_userCache.rollback();
     m_conferenceCache.rollback();
     m_messageCache.rollback();
+    m_replyTreeCache.rollback();
     m_nameCache.rollback();
     m_permissionCache.rollback();
   }
@@ -44,6 +120,7 @@ public class CacheManager {
     m_userCache.clear();
     m_conferenceCache.clear();
     m_messageCache.clear();
+    m_replyTreeCache.clear();
     m_nameCache.clear();
     m_permissionCache.clear();
   }
@@ -60,6 +137,10 @@ public class CacheManager {
     return m_messageCache;
   }
 
+  public KOMCache getReplyTreeCache() {
+    return m_replyTreeCache;
+  }
+
   public KOMCache getNameCache() {
     return m_nameCache;
   }
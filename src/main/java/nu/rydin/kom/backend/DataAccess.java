@@ -8,6 +8,7 @@ package nu.rydin.kom.backend;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
 import nu.rydin.kom.backend.data.ConferenceManager;
 import nu.rydin.kom.backend.data.FileManager;
 import nu.rydin.kom.backend.data.MembershipManager;
@@ -54,8 +55,13 @@ public class DataAccess {
   /** Toolkit object handling relationships */
   private final RelationshipManager m_relationshipManager;
 
-  public DataAccess(Connection conn) throws UnexpectedException {
-    m_conn = conn;
+  public DataAccess(Connection realConn) throws UnexpectedException {
+    m_conn = realConn;
+
+    // The managers prepare their statements up front. Let them think they do.
+    //
+    final Connection conn =
+        ServerSettings.getLazyStatementPreparation() ? LazyPreparation.wrap(realConn) : realConn;
     try {
       m_nameManager = new NameManager(conn);
       m_userManager = new UserManager(conn, CacheManager.instance(), m_nameManager);
@@ -128,12 +134,24 @@ public class DataAccess {
     }
   }
 
+  /** Closes the underlying connection, along with all statements prepared on it. */
+  public void close() {
+    try {
+      m_conn.close();
+    } catch (SQLException e) {
+      // Not much we can do here...
+      //
+    }
+  }
+
   public boolean isValid() {
     try {
       // Create and execute a dummy statement just to make
       // sure the connection is still alive
       //
-      m_conn.createStatement().execute("select 0");
+      try (Statement stmt = m_conn.createStatement()) {
+        stmt.execute("select 0");
+      }
       return true;
     } catch (SQLException e) {
       // Something is wrtong with this connection!
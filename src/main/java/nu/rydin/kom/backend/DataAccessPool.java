@@ -9,81 +9,336 @@ package nu.rydin.kom.backend;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import nu.rydin.kom.exceptions.UnexpectedException;
+import nu.rydin.kom.structs.ConnectionPoolInformation;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
-/** @author Pontus Rydin */
+/**
+ * Pool of <code>DataAccess</code> objects, each wrapping a database connection. The number of
+ * connections is bounded. When all of them are in use, callers queue up in arrival order and give
+ * up after a configurable time. Idle connections are validated by a background task rather than on
+ * every checkout, and connections that have been checked out for suspiciously long are reported as
+ * possible leaks.
+ *
+ * <p>A few connections are held in reserve for threads that already have one checked out, such as
+ * a session delivering an event to another session, and for internal work that must not queue
+ * behind the sessions. Without them, a full pool of threads each waiting for a second connection
+ * would wait for each other until they time out.
+ *
+ * @author Pontus Rydin
+ */
 public class DataAccessPool {
+  private static final Logger LOG = LogManager.getLogger(DataAccessPool.class);
+
   private static final DataAccessPool s_instance;
 
+  /** Pool of connections to a read replica, or <code>null</code> if there is none */
+  private static final DataAccessPool s_replica;
+
   static {
     try {
-      s_instance = new DataAccessPool();
+      s_instance = new DataAccessPool("DataAccessPool", ServerSettings.getJDBCConnectString());
+      final String replica = ServerSettings.getJDBCReplicaConnectString();
+      s_replica = replica != null ? new DataAccessPool("ReplicaDataAccessPool", replica) : null;
     } catch (final UnexpectedException e) {
       throw new ExceptionInInitializerError(e);
     }
   }
 
-  private final LinkedList<DataAccess> m_pool = new LinkedList<>();
+  /** The JDBC URL we connect to */
+  private final String m_connectString;
+
+  /** Idle connections. Most recently used first. */
+  private final ConcurrentLinkedDeque<PooledDataAccess> m_pool = new ConcurrentLinkedDeque<>();
+
+  /** Connections currently checked out */
+  private final Map<DataAccess, PooledDataAccess> m_checkedOut = new ConcurrentHashMap<>();
+
+  /** One permit per connection we're allowed to hand out. Fair, so waiters are served in order. */
+  private final Semaphore m_permits;
+
+  /** Permits for the connections held in reserve */
+  private final Semaphore m_reservePermits;
+
+  private final int m_maxSize;
+
+  private final int m_reserve;
+
+  private final long m_timeout;
+
+  private final long m_validationInterval;
+
+  private final long m_leakThreshold;
+
+  private final boolean m_traceCheckouts;
+
+  private final Timer m_timer;
+
+  private final LongAdder m_numCreated = new LongAdder();
+
+  private final LongAdder m_numCheckouts = new LongAdder();
+
+  private final LongAdder m_numTimeouts = new LongAdder();
 
-  public DataAccessPool() throws UnexpectedException {
+  private final LongAdder m_numLeaks = new LongAdder();
+
+  private final LongAdder m_totalWaitTime = new LongAdder();
+
+  public DataAccessPool(final String name, final String connectString)
+      throws UnexpectedException {
+    m_connectString = connectString;
+    m_timer = new Timer(name, true);
     final int top = ServerSettings.getNumDataAccess();
+    m_maxSize = Math.max(top, ServerSettings.getMaxDataAccess());
+    m_timeout = ServerSettings.getDataAccessTimeout();
+    m_validationInterval = ServerSettings.getDataAccessValidationInterval();
+    m_leakThreshold = ServerSettings.getDataAccessLeakThreshold();
+    m_traceCheckouts = ServerSettings.getDataAccessLeakTrace();
+    m_reserve = ServerSettings.getDataAccessReserve();
+    m_permits = new Semaphore(m_maxSize, true);
+    m_reservePermits = new Semaphore(m_reserve, true);
     for (int idx = 0; idx < top; ++idx) {
-      m_pool.add(createDataAccess());
+      m_pool.add(new PooledDataAccess(createDataAccess()));
     }
+    m_timer.schedule(new Maintenance(), m_validationInterval, m_validationInterval);
   }
 
   public static DataAccessPool instance() {
     return s_instance;
   }
 
+  /**
+   * Returns the pool of connections to the read replica, or <code>null</code> if no replica has
+   * been configured. Only use it for operations that can live with slightly stale data.
+   */
+  public static DataAccessPool replica() {
+    return s_replica;
+  }
+
   public DataAccess getDataAccess() throws UnexpectedException {
-    // Have we already requested a da for this thread?
+    // Already holding one? Then we may be holding up someone waiting for
+    // a connection, so don't queue behind them.
+    //
+    return this.checkOut(this.holdsDataAccess());
+  }
+
+  /**
+   * Returns a connection held in reserve. Use it for internal work that holds up sessions while
+   * it's waiting, such as delivering events or writing read markers.
+   */
+  public DataAccess getReservedDataAccess() throws UnexpectedException {
+    return this.checkOut(true);
+  }
+
+  private DataAccess checkOut(final boolean reserved) throws UnexpectedException {
+    // Wait for our turn
     //
-    DataAccess da = null;
-    synchronized (this) {
-      if (!m_pool.isEmpty()) {
-        da = m_pool.removeFirst();
+    final Semaphore permits = reserved ? m_reservePermits : m_permits;
+    final long start = System.currentTimeMillis();
+    try {
+      if (!permits.tryAcquire(m_timeout, TimeUnit.MILLISECONDS)) {
+        m_numTimeouts.increment();
+        throw new UnexpectedException(
+            -1,
+            "Timed out waiting for a database connection. All "
+                + (reserved ? m_reserve + " reserved" : Integer.toString(m_maxSize))
+                + " connections are in use.");
       }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new UnexpectedException(-1, "Interrupted while waiting for a database connection", e);
     }
+    m_totalWaitTime.add(System.currentTimeMillis() - start);
+    m_numCheckouts.increment();
 
-    // Did we get anything? Is it working?
+    // Reuse an idle connection if there is one
     //
-    if (da == null || !da.isValid()) {
-      da = createDataAccess();
+    PooledDataAccess pda = m_pool.pollFirst();
+    if (pda == null) {
+      try {
+        pda = new PooledDataAccess(createDataAccess());
+      } catch (final UnexpectedException | RuntimeException e) {
+        permits.release();
+        throw e;
+      }
     }
+    pda.checkedOut(reserved, m_traceCheckouts ? new Throwable("Checked out here") : null);
+    m_checkedOut.put(pda.m_da, pda);
+    return pda.m_da;
+  }
 
-    // Associate with thread
-    //
-    return da;
+  public void returnDataAccess(final DataAccess da) {
+    final PooledDataAccess pda = m_checkedOut.remove(da);
+    if (pda == null) {
+      LOG.warn("Attempt to return a DataAccess that wasn't checked out", new Throwable());
+      return;
+    }
+    try {
+      // Whatever we do, let's not leave uncomitted transactions around
+      //
+      try {
+        da.rollback();
+      } catch (final UnexpectedException e) {
+        // This DataAccess seems broken. Don't return to pool.
+        //
+        da.close();
+        return;
+      }
+
+      // Return to pool
+      //
+      pda.returned();
+      m_pool.addFirst(pda);
+    } finally {
+      (pda.m_reserved ? m_reservePermits : m_permits).release();
+    }
+  }
+
+  /** Checks if the current thread has a connection checked out. */
+  private boolean holdsDataAccess() {
+    final Thread current = Thread.currentThread();
+    for (final PooledDataAccess each : m_checkedOut.values()) {
+      if (each.m_thread == current) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Returns a snapshot of the pool metrics. */
+  public ConnectionPoolInformation getStatistics() {
+    return new ConnectionPoolInformation(
+        m_maxSize + m_reserve,
+        m_checkedOut.size(),
+        m_pool.size(),
+        m_numCreated.sum(),
+        m_numCheckouts.sum(),
+        m_totalWaitTime.sum(),
+        m_numTimeouts.sum(),
+        m_numLeaks.sum(),
+        LazyPreparation.getNumDeferred(),
+        LazyPreparation.getNumPrepared());
   }
 
   private DataAccess createDataAccess() throws UnexpectedException {
     final Connection conn;
     try {
-      conn = DriverManager.getConnection(ServerSettings.getJDBCConnectString());
+      conn =
+          DriverManager.getConnection(
+              m_connectString, ServerSettings.getJDBCProperties());
       conn.setAutoCommit(false);
       //			Statement stmt = conn.createStatement();
       //			stmt.execute("SET AUTOCOMMIT=0");
-      return new DataAccess(conn);
+      final DataAccess da = new DataAccess(conn);
+      m_numCreated.increment();
+      return da;
     } catch (final SQLException e) {
       throw new UnexpectedException(-1, "PANIC: Error while creating connection", e);
     }
   }
 
-  public synchronized void returnDataAccess(final DataAccess da) {
-    // Whatever we do, let's not leave uncomitted transactions around
+  /** Validates idle connections and looks for leaked ones. */
+  private void maintain() {
+    // Validate connections that have been idle for a while. Take them out of the pool
+    // while we're at it, so that no one else grabs them. The ones at the tail of the
+    // pool are the ones that have been idle the longest.
     //
-    try {
-      da.rollback();
-    } catch (final UnexpectedException e) {
-      // This DataAccess seems broken. Don't return to pool.
-      //
-      return;
+    final long now = System.currentTimeMillis();
+    final List<PooledDataAccess> validated = new ArrayList<>();
+    for (final Iterator<PooledDataAccess> itor = m_pool.descendingIterator(); itor.hasNext(); ) {
+      final PooledDataAccess each = itor.next();
+      if (now - each.m_lastUsed < m_validationInterval || !m_pool.removeLastOccurrence(each)) {
+        continue;
+      }
+      if (each.m_da.isValid()) {
+        each.returned();
+        validated.add(each);
+      } else {
+        LOG.info("Discarding broken database connection");
+        each.m_da.close();
+      }
     }
+    m_pool.addAll(validated);
 
-    // Return to pool
+    // Report connections that have been checked out for too long, but only once.
     //
-    m_pool.addLast(da);
+    if (m_leakThreshold > 0) {
+      for (final PooledDataAccess each : m_checkedOut.values()) {
+        if (!each.m_reported && now - each.m_checkedOutAt > m_leakThreshold) {
+          each.m_reported = true;
+          m_numLeaks.increment();
+          LOG.warn(
+              "Possible DataAccess leak. Checked out by "
+                  + each.m_owner
+                  + " for "
+                  + (now - each.m_checkedOutAt)
+                  + " ms",
+              each.m_checkoutTrace);
+        }
+      }
+    }
+  }
+
+  private static class PooledDataAccess {
+    private final DataAccess m_da;
+
+    private volatile long m_lastUsed = System.currentTimeMillis();
+
+    private volatile long m_checkedOutAt;
+
+    private volatile String m_owner;
+
+    private volatile Thread m_thread;
+
+    private volatile boolean m_reserved;
+
+    private volatile Throwable m_checkoutTrace;
+
+    private volatile boolean m_reported;
+
+    PooledDataAccess(final DataAccess da) {
+      m_da = da;
+    }
+
+    void checkedOut(final boolean reserved, final Throwable trace) {
+      m_checkedOutAt = System.currentTimeMillis();
+      m_thread = Thread.currentThread();
+      m_owner = m_thread.getName();
+      m_reserved = reserved;
+      m_checkoutTrace = trace;
+      m_reported = false;
+    }
+
+    void returned() {
+      m_lastUsed = System.currentTimeMillis();
+      m_owner = null;
+      m_thread = null;
+      m_checkoutTrace = null;
+    }
+  }
+
+  private class Maintenance extends TimerTask {
+    @Override
+    public void run() {
+      try {
+        maintain();
+      } catch (final Throwable e) {
+        // Don't let the timer die on us
+        //
+        LOG.error("Error while maintaining DataAccess pool", e);
+      }
+    }
   }
 }
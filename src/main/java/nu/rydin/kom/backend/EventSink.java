@@ -0,0 +1,23 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.backend;
+
+import nu.rydin.kom.events.Event;
+
+/**
+ * Receives the events of a session as soon as they're posted.
+ *
+ * @author Pontus Rydin
+ */
+public interface EventSink {
+  /**
+   * Delivers an event. Called by whatever thread posted the event, so it must not block.
+   *
+   * @param e The event
+   */
+  void deliver(Event e);
+}
@@ -17,4 +17,12 @@ public interface EventSource {
    *     timeframe, <tt>null</tt> is returned.
    */
   public Event pollEvent(int timeoutMs) throws InterruptedException;
+
+  /**
+   * Delivers events to a sink as soon as they're posted, instead of keeping them until they're
+   * polled. Events that are waiting to be polled are delivered right away.
+   *
+   * @param sink The sink
+   */
+  public void setEventSink(EventSink sink);
 }
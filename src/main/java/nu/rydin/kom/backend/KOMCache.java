@@ -7,157 +7,304 @@
 package nu.rydin.kom.backend;
 
 import com.frameworx.util.MRUCache;
+import com.frameworx.util.ReplacementPolicy;
+import com.frameworx.util.StripedCache;
+import com.frameworx.util.Weigher;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
 import nu.rydin.kom.structs.CacheInformation;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-/** @author Pontus Rydin */
-public class KOMCache extends MRUCache {
-  private static final Logger LOG = LogManager.getLogger(MRUCache.class);
+/**
+ * Transactional cache. Changes are kept in a thread local transaction until committed. A value
+ * stored with <code>deferredPut</code> is one that was loaded from the database, and it's only
+ * cached if nobody has committed a change to the same key since the transaction started, since it
+ * may have been read before that change. Otherwise, whatever is cached is kept, and if nothing is,
+ * the next reader gets to load it again. Only invalidations and updates count as changes, so
+ * concurrent loads of the same key don't throw each other's values away. Updates made with
+ * <code>deferredUpdate</code> are instead applied to whatever value is cached when the transaction
+ * commits, so concurrent updates of the same value don't get lost. Reads and commits only contend
+ * with other threads touching the same cache segment.
+ *
+ * @author Pontus Rydin
+ */
+public class KOMCache extends StripedCache {
+  private static final Logger LOG = LogManager.getLogger(KOMCache.class);
+
+  /** Number of recent changes we keep track of before forgetting all of them */
+  private static final int MAX_CHANGES = 4096;
 
   private final ThreadLocal<Transaction> transaction = ThreadLocal.withInitial(Transaction::new);
-  private long era = 0;
-  private long numAccesses = 0;
-  private long numHits = 0;
-  private boolean committing = false;
+  private final AtomicLong era = new AtomicLong();
+
+  /** The era of the last committed change to each recently changed key */
+  private final Map<Object, Long> changes = new ConcurrentHashMap<>();
+
+  /** Keys changed up to this era may have been forgotten */
+  private final AtomicLong forgotten = new AtomicLong();
+  private final LongAdder numAccesses = new LongAdder();
+  private final LongAdder numHits = new LongAdder();
 
   public KOMCache(final int maxSize) {
     super(maxSize);
   }
 
-  public KOMCache(final int maxSize, final EvictionPolicy evictionPolicy) {
+  public KOMCache(final int maxSize, final ReplacementPolicy replacementPolicy) {
+    super(maxSize, replacementPolicy);
+  }
+
+  /**
+   * Creates a cache bounded by the total weight of its values rather than their number.
+   *
+   * @param maxSize The maximum total weight
+   * @param replacementPolicy The policy deciding what to evict when the cache is full
+   * @param weigher Calculates the weight of each cached object
+   */
+  public KOMCache(
+      final int maxSize, final ReplacementPolicy replacementPolicy, final Weigher weigher) {
+    super(maxSize, replacementPolicy, (key, value) -> weigher.weigh(key, ((Entry) value).data));
+  }
+
+  public KOMCache(final int maxSize, final MRUCache.EvictionPolicy evictionPolicy) {
     super(maxSize, evictionPolicy);
   }
 
   @Override
-  public synchronized Object put(final Object key, final Object value) {
-    if (committing) {
-      super.put(key, value);
-    } else {
-      LOG.warn("You should use deferredPut instead!");
-      deferredPut(key, value);
-    }
+  public Object put(final Object key, final Object value) {
+    LOG.warn("You should use deferredPut instead!");
+    deferredPut(key, value);
     return value;
   }
 
-  public synchronized Object rawGet(final Object key) {
+  public Object rawGet(final Object key) {
     return super.get(key);
   }
 
   @Override
-  public synchronized Object get(final Object key) {
+  public Object get(final Object key) {
     final Object answer = innerGet(key);
-    ++numAccesses;
+    numAccesses.increment();
     if (answer != null) {
-      ++numHits;
+      numHits.increment();
     }
     return answer;
   }
 
-  private synchronized Object innerGet(final Object key) {
-    final Transaction tx = transaction.get();
+  private Object innerGet(final Object key) {
+    final Transaction tx = this.current();
 
     // Pending deletion in this tx? No hit!
     //
     if (tx.pendingDeletion(key)) {
       return null;
     }
+
+    // Changed by this tx? Make sure we see our own changes.
+    //
+    final Object dirty = tx.get(key);
+    if (dirty != null) {
+      return dirty;
+    }
     final Entry entry = (Entry) super.get(key);
-    return entry != null ? entry.data : null;
+    return entry != null ? tx.applyUpdates(key, entry.data) : null;
+  }
+
+  /**
+   * Starts a transaction, unless one has been started already. Call it before reading from the
+   * database, so that whatever is read can't overwrite changes committed after that. A transaction
+   * is otherwise started on the first access to the cache.
+   */
+  public void begin() {
+    this.current();
+  }
+
+  private Transaction current() {
+    final Transaction tx = transaction.get();
+    if (tx.start == 0) {
+      tx.start = era.incrementAndGet();
+    }
+    return tx;
   }
 
   public long getNumAccesses() {
-    return numAccesses;
+    return numAccesses.sum();
   }
 
   public long getNumHits() {
-    return numHits;
+    return numHits.sum();
   }
 
   public CacheInformation getStatistics() {
-    return new CacheInformation(numAccesses, numHits);
+    return new CacheInformation(numAccesses.sum(), numHits.sum());
   }
 
-  public synchronized void registerInvalidation(final Object key) {
-    transaction.get().delete(key);
+  public void registerInvalidation(final Object key) {
+    this.current().delete(key);
   }
 
-  public synchronized void deferredPut(final Object key, final Object value) {
-    transaction.get().put(key, new Entry(value, ++era));
+  /**
+   * Caches a value loaded from the database when the transaction commits, unless the key has been
+   * changed since the transaction started.
+   *
+   * @param key The key
+   * @param value The value
+   */
+  public void deferredPut(final Object key, final Object value) {
+    this.current().put(key, value);
   }
 
-  public synchronized void commit() {
-    committing = true;
+  /**
+   * Registers a change to a cached value. When the transaction commits, the change is applied to
+   * the value cached at that time, if any. Until then, this transaction sees the change applied to
+   * the value cached now. The function must not modify the value it gets. It may return
+   * <code>null</code> if it can't tell what the value should be, and then the value is dropped.
+   *
+   * @param key The key
+   * @param update Returns a changed copy of the value
+   */
+  public void deferredUpdate(final Object key, final UnaryOperator<Object> update) {
+    this.current().update(key, update);
+  }
+
+  public void commit() {
     transaction.get().commit(this);
-    committing = false;
   }
 
-  public synchronized void rollback() {
+  public void rollback() {
     transaction.get().rollback();
   }
 
+  /**
+   * Records a committed invalidation or update. Must be called while holding the lock of the key.
+   */
+  private void changed(final Object key) {
+    if (changes.size() >= MAX_CHANGES) {
+      // Forget the old ones, but make sure they're still treated as changed
+      //
+      final long cutoff = forgotten.accumulateAndGet(era.get(), Math::max);
+      changes.values().removeIf(last -> last <= cutoff);
+    }
+    changes.put(key, era.incrementAndGet());
+  }
+
+  /** Checks if a key has been changed since the given era. */
+  private boolean changedSince(final Object key, final long since) {
+    final Long last = changes.get(key);
+    return (last != null ? last : forgotten.get()) > since;
+  }
+
   private static class Entry {
     private final Object data;
 
-    private final long era;
-
-    public Entry(final Object data, final long era) {
+    public Entry(final Object data) {
       super();
       this.data = data;
-      this.era = era;
     }
   }
 
+  /** The changes made by a thread since it last committed or rolled back */
   private static class Transaction {
     private final Set<Object> deletions = new HashSet<>();
 
-    private final Map<Object, Entry> dirtyData = new HashMap<>();
+    private final Map<Object, Object> dirtyData = new HashMap<>();
+
+    private final Map<Object, List<UnaryOperator<Object>>> updates = new HashMap<>();
+
+    /** The era the transaction started in, or 0 if it hasn't started */
+    private long start;
 
     private Transaction() {}
 
-    public void put(final Object key, final Entry value) {
+    private void put(final Object key, final Object value) {
+      updates.remove(key);
+      deletions.remove(key);
       dirtyData.put(key, value);
     }
 
-    public void delete(final Object key) {
+    private void update(final Object key, final UnaryOperator<Object> update) {
+      // Our own value? Then there's nothing to merge with later.
+      //
+      final Object dirty = dirtyData.get(key);
+      if (dirty != null) {
+        dirtyData.put(key, update.apply(dirty));
+        return;
+      }
+      if (!deletions.contains(key)) {
+        updates.computeIfAbsent(key, k -> new ArrayList<>()).add(update);
+      }
+    }
+
+    private void delete(final Object key) {
       dirtyData.remove(key);
+      updates.remove(key);
       deletions.add(key);
     }
 
-    public Entry get(final Object key) {
+    private Object get(final Object key) {
       return dirtyData.get(key);
     }
 
-    public boolean pendingDeletion(final Object key) {
+    private boolean pendingDeletion(final Object key) {
       return deletions.contains(key);
     }
 
-    public void commit(final KOMCache cache) {
-      for (final Map.Entry<Object, Entry> each : dirtyData.entrySet()) {
+    private Object applyUpdates(final Object key, Object value) {
+      final List<UnaryOperator<Object>> list = updates.get(key);
+      if (list != null) {
+        for (int idx = 0; value != null && idx < list.size(); ++idx) {
+          value = list.get(idx).apply(value);
+        }
+      }
+      return value;
+    }
+
+    private void commit(final KOMCache cache) {
+      for (final Map.Entry<Object, Object> each : dirtyData.entrySet()) {
         final Object key = each.getKey();
-        final Entry dirty = each.getValue();
-        final Entry clean = (Entry) cache.rawGet(key);
+        final Entry dirty = new Entry(each.getValue());
 
-        // If dirty data isn't stale...
+        // Store it unless someone else changed it after we started, since our value may
+        // have been read before that. Then keep what's there, if anything. Loading it
+        // isn't a change, though.
         //
-        if (clean == null || dirty.era > clean.era) {
-          cache.put(key, dirty);
-        }
+        cache.compute(key, clean -> cache.changedSince(key, start) ? clean : dirty);
+      }
+      for (final Map.Entry<Object, List<UnaryOperator<Object>>> each : updates.entrySet()) {
+        final Object key = each.getKey();
+        cache.compute(
+            key,
+            clean -> {
+              cache.changed(key);
+              final Object value =
+                  clean != null ? this.applyUpdates(key, ((Entry) clean).data) : null;
+              return value != null ? new Entry(value) : null;
+            });
       }
-      for (final Iterator itor = deletions.iterator(); itor.hasNext(); ) {
-        cache.remove(itor.next());
+      for (final Object each : deletions) {
+        cache.compute(
+            each,
+            clean -> {
+              cache.changed(each);
+              return null;
+            });
       }
       rollback();
     }
 
-    public void rollback() {
+    private void rollback() {
       dirtyData.clear();
+      updates.clear();
       deletions.clear();
+      start = 0;
     }
   }
 }
@@ -0,0 +1,140 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.backend;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Defers statement preparation until a statement is actually used. The data managers prepare all
+ * their statements up front, but most of them are never used on any given connection. Wrapping the
+ * connection they're given means <code>prepareStatement</code> just records what to prepare, and
+ * the real statement is prepared on the first call to it. After that, it's kept for the lifetime
+ * of the connection, just like an eagerly prepared one.
+ *
+ * @author Pontus Rydin
+ */
+class LazyPreparation {
+  private static final LongAdder s_numDeferred = new LongAdder();
+
+  private static final LongAdder s_numPrepared = new LongAdder();
+
+  /**
+   * Wraps a connection so that statements prepared through it are prepared lazily. Everything
+   * else is passed straight to the connection.
+   *
+   * @param conn The connection
+   */
+  static Connection wrap(final Connection conn) {
+    return (Connection)
+        Proxy.newProxyInstance(
+            Connection.class.getClassLoader(),
+            new Class<?>[] {Connection.class},
+            new ConnectionHandler(conn));
+  }
+
+  /** Returns the number of statements that have been requested, but not necessarily prepared. */
+  static long getNumDeferred() {
+    return s_numDeferred.sum();
+  }
+
+  /** Returns the number of statements that have actually been prepared. */
+  static long getNumPrepared() {
+    return s_numPrepared.sum();
+  }
+
+  private static Object invokeOn(final Object target, final Method method, final Object[] args)
+      throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (final InvocationTargetException e) {
+      // Unwrap InvocationTargetExceptions
+      //
+      throw e.getTargetException();
+    }
+  }
+
+  private static class ConnectionHandler implements InvocationHandler {
+    private final Connection m_conn;
+
+    ConnectionHandler(final Connection conn) {
+      m_conn = conn;
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args)
+        throws Throwable {
+      if (method.getName().equals("prepareStatement")) {
+        s_numDeferred.increment();
+        return Proxy.newProxyInstance(
+            PreparedStatement.class.getClassLoader(),
+            new Class<?>[] {PreparedStatement.class},
+            new StatementHandler(m_conn, method, args));
+      }
+      return invokeOn(m_conn, method, args);
+    }
+  }
+
+  private static class StatementHandler implements InvocationHandler {
+    private final Connection m_conn;
+
+    /** The <code>prepareStatement</code> variant we were created by */
+    private final Method m_prepareMethod;
+
+    private final Object[] m_prepareArgs;
+
+    private PreparedStatement m_stmt;
+
+    private boolean m_closed;
+
+    StatementHandler(final Connection conn, final Method prepareMethod, final Object[] prepareArgs) {
+      m_conn = conn;
+      m_prepareMethod = prepareMethod;
+      m_prepareArgs = prepareArgs;
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args)
+        throws Throwable {
+      final String name = method.getName();
+      if (method.getDeclaringClass() == Object.class) {
+        switch (name) {
+          case "equals":
+            return proxy == args[0];
+          case "hashCode":
+            return System.identityHashCode(proxy);
+          default:
+            return "Lazy statement: " + m_prepareArgs[0];
+        }
+      }
+
+      // No need to prepare a statement just to close it
+      //
+      if (m_stmt == null) {
+        if (name.equals("close")) {
+          m_closed = true;
+          return null;
+        }
+        if (name.equals("isClosed")) {
+          return m_closed;
+        }
+        if (m_closed) {
+          throw new SQLException("Statement is closed");
+        }
+        m_stmt = (PreparedStatement) invokeOn(m_conn, m_prepareMethod, m_prepareArgs);
+        s_numPrepared.increment();
+      }
+      return invokeOn(m_stmt, method, args);
+    }
+  }
+}
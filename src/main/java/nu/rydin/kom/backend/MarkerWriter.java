@@ -0,0 +1,202 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.backend;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import nu.rydin.kom.exceptions.UnexpectedException;
+import nu.rydin.kom.structs.MembershipInfo;
+import nu.rydin.kom.structs.MessageRangeList;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Saves read markers in the background. Markers are queued per membership, so a membership that
+ * is saved several times between two flushes is only written once. The queue is flushed as a
+ * single batch on a timer, when it grows too large, when a user logs out and when the server is
+ * stopped. Markers saved since the last flush are lost if the server crashes, so the flush
+ * interval is the longest stretch of reading a user can lose.
+ *
+ * @author Pontus Rydin
+ */
+public class MarkerWriter {
+  private static final Logger LOG = LogManager.getLogger(MarkerWriter.class);
+
+  /** Marks a membership that should have its markers cleared */
+  private static final byte[] NO_MARKERS = new byte[0];
+
+  /** The writer, or <code>null</code> if markers are written synchronously */
+  private static final MarkerWriter s_instance =
+      ServerSettings.getMarkerWriteBehind()
+          ? new MarkerWriter(
+              ServerSettings.getMarkerFlushInterval(), ServerSettings.getMaxPendingMarkers())
+          : null;
+
+  /** Encoded markers waiting to be written, keyed by membership */
+  private final Map<Membership, byte[]> m_pending = new ConcurrentHashMap<>();
+
+  private final int m_maxPending;
+
+  private final Timer m_timer = new Timer("MarkerWriter", true);
+
+  /** Whether a flush has been scheduled, but not started yet */
+  private final AtomicBoolean m_flushScheduled = new AtomicBoolean();
+
+  private volatile boolean m_stopped;
+
+  private MarkerWriter(final long flushInterval, final int maxPending) {
+    m_maxPending = maxPending;
+    m_timer.schedule(new Flusher(), flushInterval, flushInterval);
+  }
+
+  /**
+   * Returns the marker writer, or <code>null</code> if write-behind has been turned off and
+   * markers should be written as part of the transaction that changed them.
+   */
+  public static MarkerWriter instance() {
+    return s_instance;
+  }
+
+  /**
+   * Queues the markers of a membership for writing. The markers are copied, so the caller is free
+   * to keep modifying them.
+   *
+   * @param user The user
+   * @param conference The conference
+   * @param markers The markers
+   */
+  public void enqueue(final long user, final long conference, final MessageRangeList markers) {
+    final byte[] data = MembershipInfo.encodeMessageRangesBinary(markers);
+    m_pending.put(new Membership(user, conference), data != null ? data : NO_MARKERS);
+    if (m_pending.size() >= m_maxPending) {
+      this.flushLater();
+    }
+  }
+
+  /**
+   * Replaces the markers of memberships just read from the database with queued ones that haven't
+   * been written yet.
+   *
+   * @param user The user
+   * @param memberships The memberships of the user
+   */
+  public void applyPending(final long user, final MembershipInfo[] memberships) {
+    if (m_pending.isEmpty()) {
+      return;
+    }
+    for (final MembershipInfo each : memberships) {
+      final byte[] data = m_pending.get(new Membership(user, each.getConference()));
+      if (data != null) {
+        each.setReadMessages(data == NO_MARKERS ? null : MessageRangeList.fromByteArray(data));
+      }
+    }
+  }
+
+  /** Schedules a flush as soon as possible without waiting for it. */
+  public void flushLater() {
+    if (!m_stopped && m_flushScheduled.compareAndSet(false, true)) {
+      m_timer.schedule(new Flusher(), 0);
+    }
+  }
+
+  /**
+   * Writes everything that's been queued. Flushes are serialized, so that an older flush can't
+   * overwrite the markers written by a newer one.
+   *
+   * @throws UnexpectedException If the markers couldn't be written. They stay queued.
+   */
+  public synchronized void flush() throws UnexpectedException {
+    if (m_pending.isEmpty()) {
+      return;
+    }
+    final List<Map.Entry<Membership, byte[]>> batch = new ArrayList<>(m_pending.entrySet());
+    final int top = batch.size();
+    final long[] users = new long[top];
+    final long[] conferences = new long[top];
+    final byte[][] markers = new byte[top][];
+    for (int idx = 0; idx < top; ++idx) {
+      final Map.Entry<Membership, byte[]> each = batch.get(idx);
+      users[idx] = each.getKey().user;
+      conferences[idx] = each.getKey().conference;
+      markers[idx] = each.getValue() != NO_MARKERS ? each.getValue() : null;
+    }
+    final DataAccessPool pool = DataAccessPool.instance();
+    final DataAccess da = pool.getReservedDataAccess();
+    try {
+      da.getMembershipManager().updateMarkers(users, conferences, markers);
+      da.commit();
+    } catch (final SQLException e) {
+      throw new UnexpectedException(-1, e);
+    } finally {
+      pool.returnDataAccess(da);
+    }
+
+    // Dequeue what we wrote, unless it was queued again while we were writing it
+    //
+    for (final Map.Entry<Membership, byte[]> each : batch) {
+      m_pending.remove(each.getKey(), each.getValue());
+    }
+  }
+
+  /** Writes everything that's been queued and stops flushing in the background. */
+  public void stop() {
+    m_stopped = true;
+    m_timer.cancel();
+    try {
+      this.flush();
+    } catch (final UnexpectedException e) {
+      LOG.error("Could not save " + m_pending.size() + " read markers", e);
+    }
+  }
+
+  private static final class Membership {
+    private final long user;
+    private final long conference;
+
+    private Membership(final long user, final long conference) {
+      this.user = user;
+      this.conference = conference;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (user ^ (user >>> 32)) * 31 + (int) (conference ^ (conference >>> 32));
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (o == this) {
+        return true;
+      }
+      if (!(o instanceof Membership)) {
+        return false;
+      }
+      final Membership that = (Membership) o;
+      return user == that.user && conference == that.conference;
+    }
+  }
+
+  private class Flusher extends TimerTask {
+    @Override
+    public void run() {
+      m_flushScheduled.set(false);
+      try {
+        flush();
+      } catch (final Throwable e) {
+        // Don't let the timer die on us. Whatever we didn't write stays queued.
+        //
+        LOG.error("Error while saving read markers", e);
+      }
+    }
+  }
+}
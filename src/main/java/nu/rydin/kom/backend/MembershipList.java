@@ -8,6 +8,8 @@ package nu.rydin.kom.backend;
 
 import java.io.PrintStream;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -26,6 +28,12 @@ import nu.rydin.kom.structs.MessageRangeList;
  * @author Jepson
  */
 public class MembershipList {
+  /**
+   * How often the unread counts are recalculated from the conferences, in case a notification was
+   * missed
+   */
+  private static final long RESYNC_INTERVAL = 5 * 60 * 1000;
+
   /** Memberships keyed by conference */
   private final Map<Long, MembershipInfo> m_conferenceTable = new HashMap<>();
 
@@ -35,6 +43,27 @@ public class MembershipList {
   /** Memberships where the list of read messages has to be saved */
   private final Set<MembershipInfo> m_dirty = new HashSet<>();
 
+  /** Position of each membership in <tt>m_order</tt>, keyed by conference */
+  private final Map<Long, Integer> m_index = new HashMap<>();
+
+  /** First message of each conference when its unread count was last calculated */
+  private final int[] m_first;
+
+  /** Last message of each conference when its unread count was last calculated */
+  private final int[] m_last;
+
+  /** Number of unread messages in each conference, or -1 if it has to be recalculated */
+  private final int[] m_unread;
+
+  /** Positions of the memberships with unread messages */
+  private final BitSet m_withUnread = new BitSet();
+
+  /** Number of memberships with an unread count that has to be recalculated */
+  private int m_stale;
+
+  /** When all unread counts were last marked for recalculation */
+  private long m_lastResync = System.currentTimeMillis();
+
   /**
    * Creates a <tt>MembershipList</tt> based on an array or <tt>MembershipInfo</rr>
    *
@@ -43,11 +72,17 @@ public class MembershipList {
   public MembershipList(final MembershipInfo[] memberships) {
     final int top = memberships.length;
     m_order = new MembershipInfo[top];
+    m_first = new int[top];
+    m_last = new int[top];
+    m_unread = new int[top];
+    Arrays.fill(m_unread, -1);
+    m_stale = top;
     for (int idx = 0; idx < top; ++idx) {
       final MembershipInfo each = memberships[idx];
       final long conf = each.getConference();
       m_order[idx] = each;
       m_conferenceTable.put(conf, each);
+      m_index.put(conf, idx);
     }
   }
 
@@ -63,7 +98,7 @@ public class MembershipList {
     return mi;
   }
 
-  public void markAsRead(final long conference, final int localnum) {
+  public synchronized void markAsRead(final long conference, final int localnum) {
     final MembershipInfo mi = m_conferenceTable.get(conference);
     if (mi == null) {
       return; // We're not members, so we don't care!
@@ -73,11 +108,43 @@ public class MembershipList {
     //
     final MessageRangeList l = mi.getReadMessages();
     mi.setReadMessages(
-        l == null ? new MessageRangeList(new MessageRange(localnum, localnum)) : l.add(localnum));
+        l == null ? new MessageRangeList(localnum, localnum) : l.add(localnum));
+    m_dirty.add(mi);
+    recount(conference);
+  }
+
+  /**
+   * Marks a number of messages in a conference as read. Runs of consecutive numbers are added as
+   * ranges, so this is a lot cheaper than marking them one by one.
+   *
+   * @param conference The conference
+   * @param localnums The local message numbers. Will be sorted.
+   */
+  public synchronized void markAsRead(final long conference, final int[] localnums) {
+    final MembershipInfo mi = m_conferenceTable.get(conference);
+    if (mi == null || localnums.length == 0) {
+      return; // We're not members, so we don't care!
+    }
+    Arrays.sort(localnums);
+    MessageRangeList l = mi.getReadMessages();
+    if (l == null) {
+      l = new MessageRangeList();
+    }
+    int start = localnums[0];
+    for (int idx = 1; idx <= localnums.length; ++idx) {
+      if (idx == localnums.length || localnums[idx] > localnums[idx - 1] + 1) {
+        l.add(start, localnums[idx - 1]);
+        if (idx < localnums.length) {
+          start = localnums[idx];
+        }
+      }
+    }
+    mi.setReadMessages(l);
     m_dirty.add(mi);
+    recount(conference);
   }
 
-  public void markAsUnread(final long conference, final int localnum) {
+  public synchronized void markAsUnread(final long conference, final int localnum) {
     final MembershipInfo mi = m_conferenceTable.get(conference);
     if (mi == null) {
       return; // We're not members, so we don't care!
@@ -88,6 +155,7 @@ public class MembershipList {
     final MessageRangeList l = mi.getReadMessages();
     mi.setReadMessages(l == null ? null : l.subtract(localnum));
     m_dirty.add(mi);
+    recount(conference);
   }
 
   public boolean markAsReadEx(final long conference, final int localnum) throws ObjectNotFoundException {
@@ -99,108 +167,261 @@ public class MembershipList {
     }
   }
 
+  /**
+   * Returns the number of unread messages in a conference. The count is kept up to date as
+   * messages are read, posted and deleted, so the conference only has to be loaded the first time
+   * and after a message has been deleted from it.
+   *
+   * @param conference The conference
+   * @param cm The conference manager to load the conference with if needed
+   */
   public synchronized int countUnread(final long conference, final ConferenceManager cm)
       throws ObjectNotFoundException, SQLException {
-    final ConferenceInfo ci = cm.loadConference(conference);
-    final MessageRange total = new MessageRange(ci.getFirstMessage(), ci.getLastMessage());
-    final MembershipInfo mi = m_conferenceTable.get(conference);
-    if (mi == null) {
+    final Integer idx = m_index.get(conference);
+    if (idx == null) {
+      cm.loadConference(conference);
       return 0;
     }
+    resyncIfDue();
+    if (m_unread[idx] == -1) {
+      refresh(idx, cm.loadConference(conference));
+    }
+    return m_unread[idx];
+  }
+
+  /**
+   * Updates the unread count of a conference after a message was posted to it.
+   *
+   * @param conference The conference
+   * @param localnum The local number of the new message
+   */
+  public synchronized void messageAdded(final long conference, final int localnum) {
+    final Integer idx = m_index.get(conference);
+    if (idx == null || m_unread[idx] == -1) {
+      return;
+    }
+    if (m_first[idx] == 0) {
+      // The conference was empty. Notifications may have been coalesced, so
+      // this isn't necessarily the first message. Have it recalculated.
+      //
+      markStale(idx);
+      return;
+    }
+    m_last[idx] = Math.max(m_last[idx], localnum);
+    recount(conference);
+  }
+
+  /**
+   * Makes sure the unread count of a conference is recalculated after a message was deleted from
+   * it. We don't know which message, and that may have changed the first or last message of the
+   * conference.
+   *
+   * @param conference The conference
+   */
+  public synchronized void messageDeleted(final long conference) {
+    final Integer idx = m_index.get(conference);
+    if (idx != null) {
+      markStale(idx);
+    }
+  }
+
+  /**
+   * Makes sure all unread counts are recalculated the next time they're needed. Used when we may
+   * have missed some notifications about new or deleted messages.
+   */
+  public synchronized void markAllStale() {
+    for (int idx = 0; idx < m_order.length; ++idx) {
+      markStale(idx);
+    }
+    m_lastResync = System.currentTimeMillis();
+  }
+
+  private void markStale(final int idx) {
+    if (m_unread[idx] == -1) {
+      return;
+    }
+    m_unread[idx] = -1;
+    m_withUnread.clear(idx);
+    ++m_stale;
+  }
+
+  /**
+   * The unread counts are only kept up to date by notifications, so every now and then we check
+   * them against the conferences, in case we missed one. Loading the conferences is cheap, since
+   * they're normally cached.
+   */
+  private void resyncIfDue() {
+    if (System.currentTimeMillis() - m_lastResync > RESYNC_INTERVAL) {
+      markAllStale();
+    }
+  }
+
+  /**
+   * Recalculates the unread count of a conference using the message range of a freshly loaded
+   * conference. The read messages are trimmed to the range if needed.
+   */
+  private void refresh(final int idx, final ConferenceInfo ci) {
+    final MessageRange total = new MessageRange(ci.getFirstMessage(), ci.getLastMessage());
+    final MembershipInfo mi = m_order[idx];
 
     // Check that the list of unread messages is fully contained
     // in the list of existing messages. If not, adjust!
     //
-    MessageRangeList read = mi.getReadMessages();
+    final MessageRangeList read = mi.getReadMessages();
     if (read != null && !read.containedIn(total)) {
       // Ooops... List of read messages is not contained by the list of
       // what we think are existing messages. Someone has deleted a message
       // and we need to adjust the list of read messages
       //
-      read = read.intersect(total);
-      mi.setReadMessages(read);
+      mi.setReadMessages(read.intersect(total));
       m_dirty.add(mi);
     }
-    return total.countOverlapping(read);
+    if (m_unread[idx] == -1) {
+      --m_stale;
+    }
+    m_first[idx] = total.getMin();
+    m_last[idx] = total.getMax();
+    this.setUnread(idx, total.countOverlapping(mi.getReadMessages()));
   }
 
-  public int getNextMessageInConference(final long confId, final ConferenceManager cm)
-      throws ObjectNotFoundException, SQLException {
+  /** Recalculates the unread count of a conference after its read messages have changed. */
+  private void recount(final long conference) {
+    final Integer idx = m_index.get(conference);
+    if (idx == null || m_unread[idx] == -1) {
+      return;
+    }
+    this.setUnread(
+        idx,
+        new MessageRange(m_first[idx], m_last[idx])
+            .countOverlapping(m_order[idx].getReadMessages()));
+  }
+
+  private void setUnread(final int idx, final int n) {
+    m_unread[idx] = n;
+    m_withUnread.set(idx, n > 0);
+  }
+
+  /**
+   * Recalculates every unread count that isn't known. The conferences are loaded in bulk.
+   * Conferences that can't be found are treated as having no unread messages.
+   */
+  private void refreshStale(final ConferenceManager cm) throws SQLException {
+    resyncIfDue();
+    if (m_stale == 0) {
+      return;
+    }
+    final int top = m_order.length;
+    final int[] positions = new int[m_stale];
+    final long[] ids = new long[m_stale];
+    int n = 0;
+    for (int idx = 0; idx < top && n < ids.length; ++idx) {
+      if (m_unread[idx] == -1) {
+        positions[n] = idx;
+        ids[n++] = m_order[idx].getConference();
+      }
+    }
+    final ConferenceInfo[] cis = cm.loadConferences(ids);
+    for (int idx = 0; idx < n; ++idx) {
+      final int pos = positions[idx];
+      if (cis[idx] != null) {
+        refresh(pos, cis[idx]);
+      } else {
+        // This conference could not be found. It's probably been
+        // deleted, so just pretend it's empty.
+        //
+        --m_stale;
+        m_first[pos] = 0;
+        m_last[pos] = 0;
+        this.setUnread(pos, 0);
+      }
+    }
+  }
+
+  public synchronized int getNextMessageInConference(
+      final long confId, final ConferenceManager cm) throws ObjectNotFoundException, SQLException {
     final MembershipInfo mi = get(confId);
     final ConferenceInfo ci = cm.loadConference(confId);
+
+    // We have the conference at hand, so we might as well make sure the
+    // unread count is accurate.
+    //
+    refresh(m_index.get(confId), ci);
     final MessageRangeList mr = mi.getReadMessages();
     final int min = ci.getFirstMessage();
     return mr == null ? (min != 0 ? min : -1) : mr.getFirstUnread(min, ci.getLastMessage());
   }
 
-  public boolean isUnread(final long confId, final int num) throws ObjectNotFoundException {
+  public synchronized boolean isUnread(final long confId, final int num)
+      throws ObjectNotFoundException {
     final MembershipInfo mi = get(confId);
     final MessageRangeList mr = mi.getReadMessages();
     return mr == null || !mr.includes(num);
   }
 
-  public void changeRead(final long confId, final int low, final int high) throws ObjectNotFoundException {
+  public synchronized void changeRead(final long confId, final int low, final int high)
+      throws ObjectNotFoundException {
     final MembershipInfo mi = get(confId);
-    mi.setReadMessages(new MessageRangeList(new MessageRange(low, high)));
+    mi.setReadMessages(new MessageRangeList(low, high));
     m_dirty.add(mi);
+    recount(confId);
   }
 
-  public long getFirstConferenceWithUnreadMessages(final ConferenceManager cm) throws SQLException {
+  public synchronized long getFirstConferenceWithUnreadMessages(final ConferenceManager cm)
+      throws SQLException {
     return innerNextConferenceWithUnreadMessages(0, cm);
   }
 
-  public long getNextConferenceWithUnreadMessages(final long startId, final ConferenceManager cm)
-      throws SQLException {
-    // Find the first conference. Linear search. Believe me: It's
-    // fast enough in this case.
+  public synchronized long getNextConferenceWithUnreadMessages(
+      final long startId, final ConferenceManager cm) throws SQLException {
+    // If the first conference was not found, we start looking from the very
+    // first conference we're a member of. This is useful when the first
+    // conference is deleted. Typically, when this happens, the search will
+    // commence at the user's private mailbox.
     //
-    final int top = m_order.length;
-
-    // If the first conference was not found, "offset" will remain at zero,
-    // meaining that we start looking from the very first conference we're
-    // a member of. This is useful when the first conference is deleted.
-    // Typically, when this happens, the search will commence at the user's
-    // private mailbox.
-    //
-    int offset = 0;
-    for (int idx = 0; idx < top; ++idx) {
-      if (m_order[idx].getConference() == startId) {
-        offset = idx + 1;
-        break;
-      }
-    }
-    return innerNextConferenceWithUnreadMessages(offset, cm);
+    final Integer start = m_index.get(startId);
+    return innerNextConferenceWithUnreadMessages(start != null ? start + 1 : 0, cm);
   }
 
-  private long innerNextConferenceWithUnreadMessages(final int startIndex, final ConferenceManager cm)
+  /**
+   * Returns the conferences with unread messages, in the order they are prioritized.
+   *
+   * @param cm The conference manager to load conferences with if needed
+   */
+  public synchronized long[] listConferencesWithUnreadMessages(final ConferenceManager cm)
       throws SQLException {
-    // Find the first conference with unread messages
-    //
-    final int top = m_order.length;
-    for (int idx = 0; idx < top; ++idx) {
-      final MembershipInfo each = m_order[(idx + startIndex) % top];
-      final long id = each.getConference();
-
-      try {
-        if (countUnread(id, cm) > 0) {
-          return id;
-        }
-      } catch (final ObjectNotFoundException e) {
-        // This conference could not be found. It's probably been
-        // deleted, so just continue searching.
-      }
+    refreshStale(cm);
+    final long[] answer = new long[m_withUnread.cardinality()];
+    int n = 0;
+    for (int idx = m_withUnread.nextSetBit(0); idx >= 0; idx = m_withUnread.nextSetBit(idx + 1)) {
+      answer[n++] = m_order[idx].getConference();
     }
+    return answer;
+  }
 
-    // Nothing found
+  private long innerNextConferenceWithUnreadMessages(
+      final int startIndex, final ConferenceManager cm) throws SQLException {
+    // Find the first conference with unread messages, wrapping around
+    // to the first one if needed.
     //
-    return -1;
+    refreshStale(cm);
+    int idx = m_withUnread.nextSetBit(startIndex < m_order.length ? startIndex : 0);
+    if (idx == -1) {
+      idx = m_withUnread.nextSetBit(0);
+    }
+    return idx != -1 ? m_order[idx].getConference() : -1;
   }
 
-  public void save(final long userId, final MembershipManager mm) throws SQLException {
+  public synchronized void save(final long userId, final MembershipManager mm)
+      throws SQLException {
+    final MarkerWriter writer = MarkerWriter.instance();
     for (final Iterator<MembershipInfo> itor = m_dirty.iterator(); itor.hasNext(); ) {
       final MembershipInfo each = itor.next();
       try {
-        mm.updateMarkers(userId, each.getConference(), each.getReadMessages());
+        if (writer != null) {
+          writer.enqueue(userId, each.getConference(), each.getReadMessages());
+        } else {
+          mm.updateMarkers(userId, each.getConference(), each.getReadMessages());
+        }
       } catch (final ObjectNotFoundException e) {
         // TODO: This probably means that the conference has
         // been deleted. Should we try to do anything intelligent here?
@@ -218,16 +439,8 @@ public class MembershipList {
       out.println("Conf: " + each.getConference());
       out.print("Read markers:");
       final MessageRangeList markers = each.getReadMessages();
-      MessageRangeList rl = markers;
-      while (rl != null) {
-        final MessageRange r = rl.getRange();
-        out.print(r.getMin() + "-" + r.getMax());
-        rl = (MessageRangeList) rl.next();
-        if (rl != markers) {
-          out.print(", ");
-        } else {
-          break;
-        }
+      if (markers != null) {
+        out.print(markers);
       }
       out.println();
       out.println();
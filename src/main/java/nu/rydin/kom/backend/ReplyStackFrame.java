@@ -9,11 +9,25 @@ package nu.rydin.kom.backend;
 /** @author Pontus Rydin */
 public class ReplyStackFrame {
   private final long[] m_replies;
+  private final long m_thread;
   private final ReplyStackFrame m_next;
   private int m_idx;
 
   public ReplyStackFrame(final long[] replies, final ReplyStackFrame next) {
+    this(replies, -1, next);
+  }
+
+  /**
+   * Creates a frame for replies belonging to a thread, so that they can be looked up in the reply
+   * tree of the thread.
+   *
+   * @param replies The replies
+   * @param thread The thread, or -1 if unknown
+   * @param next The next frame
+   */
+  public ReplyStackFrame(final long[] replies, final long thread, final ReplyStackFrame next) {
     m_replies = replies;
+    m_thread = thread;
     m_next = next;
     m_idx = 0;
   }
@@ -30,6 +44,11 @@ public class ReplyStackFrame {
     return m_idx < m_replies.length;
   }
 
+  /** Returns the thread the replies belong to, or -1 if unknown */
+  public long getThread() {
+    return m_thread;
+  }
+
   public ReplyStackFrame next() {
     return m_next;
   }
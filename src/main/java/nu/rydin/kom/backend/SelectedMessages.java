@@ -6,8 +6,10 @@
  */
 package nu.rydin.kom.backend;
 
+import java.util.Arrays;
 import nu.rydin.kom.exceptions.InternalException;
 import nu.rydin.kom.exceptions.KOMException;
+import nu.rydin.kom.exceptions.UnexpectedException;
 import nu.rydin.kom.frontend.text.Context;
 import nu.rydin.kom.frontend.text.commands.MessageSearchResultPrinter;
 import nu.rydin.kom.frontend.text.commands.MessageSearchResultPrinterFactory;
@@ -15,7 +17,10 @@ import nu.rydin.kom.structs.MessageLocator;
 import nu.rydin.kom.structs.MessageSearchResult;
 
 /**
- * This class handles selection of texts in a MessageSearchResult array.
+ * This class handles selection of texts. The selected texts aren't fetched all at once. Instead,
+ * they're fetched a chunk at a time as they are read, continuing after the last text of the
+ * previous chunk. Only the ids of the texts that haven't been read yet are kept, along with a few
+ * of the ones just read so that it's possible to go back to them.
  *
  * @author Magnus Neck
  */
@@ -23,68 +28,154 @@ public class SelectedMessages {
 
   private static final int INITIAL_MESSSAGE_INDEX = -1;
 
-  private MessageSearchResult[] m_messages;
+  /** The number of texts fetched at a time */
+  private static final int CHUNK_SIZE = 100;
+
+  /** The number of texts already read that are kept */
+  private static final int HISTORY_SIZE = 20;
+
+  private Source m_source;
+  private Class<? extends MessageSearchResult> m_kind;
+  private MessageSearchResult m_last;
+  private boolean m_complete = true;
+  private long[] m_messages = new long[0];
+
+  /** The position among all the selected texts of the first one in the window */
+  private int m_offset;
+
+  /** The number of texts fetched so far */
+  private int m_size;
+
+  /** The position among all the selected texts of the next one to read */
   private int m_nextMessageIndex = INITIAL_MESSSAGE_INDEX;
 
+  /** Lists the selected texts, a chunk at a time */
+  public interface Source {
+    /**
+     * Returns a chunk of the selected texts.
+     *
+     * @param after The last text of the previous chunk, or <code>null</code> for the first chunk
+     * @param length The size of the chunk
+     * @return The texts, or an empty array if there are no more texts
+     * @throws UnexpectedException
+     */
+    MessageSearchResult[] list(MessageSearchResult after, int length) throws UnexpectedException;
+  }
+
   public boolean hasUnreadMessages() {
-    return (m_nextMessageIndex >= 0 && m_nextMessageIndex < m_messages.length);
+    return (m_nextMessageIndex >= 0 && m_nextMessageIndex < m_size);
   }
 
   public void clear() {
-    m_messages = null;
+    m_source = null;
+    m_kind = null;
+    m_last = null;
+    m_complete = true;
+    m_messages = new long[0];
+    m_offset = 0;
+    m_size = 0;
     m_nextMessageIndex = INITIAL_MESSSAGE_INDEX;
   }
 
-  public void setMessages(final MessageSearchResult[] msr, final boolean reverse) {
+  /**
+   * Selects new texts. Only the first chunk is fetched right away.
+   *
+   * @param source The texts
+   * @throws UnexpectedException
+   */
+  public void select(final Source source) throws UnexpectedException {
+    clear();
+    m_source = source;
+    m_complete = false;
+    m_messages = new long[CHUNK_SIZE];
     m_nextMessageIndex = 0;
-    if (reverse) {
-      for (int left = 0, right = msr.length - 1; left < right; left++, right--) {
-        final MessageSearchResult tmp = msr[left];
-        msr[left] = msr[right];
-        msr[right] = tmp;
-      }
-    }
-    m_messages = msr;
+    fill(CHUNK_SIZE);
   }
 
-  public MessageSearchResult[] getMessages() {
-    return m_messages;
+  /** Returns <code>true</code> if all the selected texts have been fetched */
+  public boolean isComplete() {
+    return m_complete;
   }
 
-  public void setMessages(final MessageSearchResult[] msr) {
-    setMessages(msr, false);
+  /**
+   * Lists the selected texts from the beginning, whether they have been read or not.
+   *
+   * @param after The last text of the previous chunk, or <code>null</code> for the first chunk
+   * @param length The size of the chunk
+   * @throws UnexpectedException
+   */
+  public MessageSearchResult[] list(final MessageSearchResult after, final int length)
+      throws UnexpectedException {
+    return m_source != null ? m_source.list(after, length) : new MessageSearchResult[0];
   }
 
-  public MessageLocator getNextMessage() {
+  /**
+   * Returns the next selected text. Once every fetched text has been read, the next chunk is
+   * fetched, so this has to be called within a transaction.
+   *
+   * @throws UnexpectedException
+   */
+  public MessageLocator getNextMessage() throws UnexpectedException {
     MessageLocator nextMessage = MessageLocator.NO_MESSAGE;
     if (hasUnreadMessages()) {
-      nextMessage = new MessageLocator(m_messages[m_nextMessageIndex].getGlobalId());
+      nextMessage = new MessageLocator(m_messages[m_nextMessageIndex - m_offset]);
       m_nextMessageIndex++;
+      fill(1);
     }
     return nextMessage;
   }
 
   public MessageLocator getPreviousMessage() {
     MessageLocator previousMessage = MessageLocator.NO_MESSAGE;
-    if (m_nextMessageIndex > 1) {
+    if (m_nextMessageIndex - 2 >= m_offset) {
       m_nextMessageIndex--;
       m_nextMessageIndex--;
-      previousMessage = new MessageLocator(m_messages[m_nextMessageIndex].getGlobalId());
+      previousMessage = new MessageLocator(m_messages[m_nextMessageIndex - m_offset]);
       m_nextMessageIndex++;
     }
     return previousMessage;
   }
 
+  /** Returns the number of unread texts that have been fetched so far */
   public int getUnread() {
-    return m_messages.length - m_nextMessageIndex;
+    return m_size - m_nextMessageIndex;
   }
 
   public MessageSearchResultPrinter getMessageSearchResultPrinter(final Context context)
       throws KOMException {
-    if (!hasUnreadMessages()) {
+    if (m_kind == null) {
       throw new InternalException("No messages selected");
     }
-    return MessageSearchResultPrinterFactory.createMessageSearchResultPrinter(
-        context, m_messages[0].getClass());
+    return MessageSearchResultPrinterFactory.createMessageSearchResultPrinter(context, m_kind);
+  }
+
+  /**
+   * Fetches texts until there are enough unread ones. We can only tell that all texts have been
+   * fetched when a chunk comes back empty, since duplicates are removed from the chunks. Texts
+   * that were read a while ago are dropped to make room for the new chunk.
+   *
+   * @param wanted The number of unread texts wanted
+   */
+  private void fill(final int wanted) throws UnexpectedException {
+    while (!m_complete && m_size - m_nextMessageIndex < wanted) {
+      final MessageSearchResult[] chunk = m_source.list(m_last, CHUNK_SIZE);
+      final int top = chunk.length;
+      if (top == 0) {
+        m_complete = true;
+        break;
+      }
+      final int first = Math.max(m_offset, m_nextMessageIndex - HISTORY_SIZE);
+      final int kept = m_size - first;
+      if (kept + top > m_messages.length) {
+        m_messages = Arrays.copyOf(m_messages, Math.max(m_messages.length, kept + top));
+      }
+      System.arraycopy(m_messages, first - m_offset, m_messages, 0, kept);
+      m_offset = first;
+      for (int idx = 0; idx < top; ++idx) {
+        m_messages[m_size++ - m_offset] = chunk[idx].getGlobalId();
+      }
+      m_kind = chunk[0].getClass();
+      m_last = chunk[top - 1];
+    }
   }
 }
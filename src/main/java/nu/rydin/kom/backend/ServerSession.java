@@ -62,18 +62,23 @@ import nu.rydin.kom.structs.UserLogItem;
  */
 public interface ServerSession {
   /** Returns the unique session id */
+  @Transactional(Transactional.Kind.NONE)
   int getSessionId();
 
   /** Returns <tt>true</tt> if this session is valid */
+  @Transactional(Transactional.Kind.NONE)
   boolean isValid();
 
   /** Returns the type of client that created us */
+  @Transactional(Transactional.Kind.NONE)
   short getClientType();
 
   /** Returns information about the current conference */
+  @Transactional(Transactional.Kind.READ_ONLY)
   ConferenceInfo getCurrentConference();
 
   /** Returns the id of the current conference */
+  @Transactional(Transactional.Kind.NONE)
   long getCurrentConferenceId();
 
   /**
@@ -86,12 +91,15 @@ public interface ServerSession {
   void setCurrentConferenceId(long id) throws UnexpectedException, ObjectNotFoundException;
 
   /** Returns information about the user currently logged on */
+  @Transactional(Transactional.Kind.READ_ONLY)
   UserInfo getLoggedInUser();
 
   /** Returns the id of the user currently logged on */
+  @Transactional(Transactional.Kind.NONE)
   long getLoggedInUserId();
 
   /** Returns the system time when the current user logged in */
+  @Transactional(Transactional.Kind.NONE)
   long getLoginTime();
 
   /**
@@ -112,6 +120,7 @@ public interface ServerSession {
    * @throws ObjectNotFoundException
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   void assertConferencePermission(long conferenceId, int mask)
       throws AuthorizationException, ObjectNotFoundException, UnexpectedException;
 
@@ -125,6 +134,7 @@ public interface ServerSession {
    * @throws ObjectNotFoundException
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   void assertModifyConference(long conferenceId)
       throws AuthorizationException, ObjectNotFoundException, UnexpectedException;
 
@@ -134,6 +144,7 @@ public interface ServerSession {
    * @param pattern The pattern
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   NameAssociation[] getAssociationsForPattern(String pattern) throws UnexpectedException;
 
   /**
@@ -143,6 +154,7 @@ public interface ServerSession {
    * @param kind The kind (conference or user)
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   NameAssociation[] getAssociationsForPatternAndKind(String pattern, short kind)
       throws UnexpectedException;
 
@@ -153,6 +165,7 @@ public interface ServerSession {
    * @throws ObjectNotFoundException
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   int countUnread(long conference) throws ObjectNotFoundException, UnexpectedException;
 
   /**
@@ -243,6 +256,7 @@ public interface ServerSession {
    *
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   ConferenceListItem[] listConferencesByDate() throws UnexpectedException;
 
   /**
@@ -250,6 +264,7 @@ public interface ServerSession {
    *
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   ConferenceListItem[] listConferencesByName() throws UnexpectedException;
 
   /**
@@ -444,6 +459,7 @@ public interface ServerSession {
    * @throws ObjectNotFoundException
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   MessageOccurrence globalToLocalInConference(long conferenceId, long globalNum)
       throws ObjectNotFoundException, UnexpectedException;
 
@@ -455,6 +471,7 @@ public interface ServerSession {
    * @throws ObjectNotFoundException
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   MessageOccurrence globalToLocal(long globalNum)
       throws ObjectNotFoundException, UnexpectedException;
 
@@ -508,6 +525,7 @@ public interface ServerSession {
    *
    * @throws NoCurrentMessageException
    */
+  @Transactional(Transactional.Kind.NONE)
   long getCurrentMessage() throws NoCurrentMessageException;
 
   /**
@@ -527,6 +545,7 @@ public interface ServerSession {
    * @throws NoCurrentMessageException
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   MessageOccurrence getCurrentMessageOccurrence()
       throws NoCurrentMessageException, UnexpectedException;
 
@@ -539,6 +558,7 @@ public interface ServerSession {
    * @throws ObjectNotFoundException
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   MessageOccurrence getMostRelevantOccurrence(long conferenceId, long messageId)
       throws ObjectNotFoundException, UnexpectedException;
 
@@ -552,6 +572,7 @@ public interface ServerSession {
    * @throws ObjectNotFoundException
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   MessageOccurrence getOriginalMessageOccurrence(long messageId)
       throws ObjectNotFoundException, UnexpectedException;
 
@@ -626,6 +647,7 @@ public interface ServerSession {
    * @throws ObjectNotFoundException
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   UserInfo getUser(long userId) throws ObjectNotFoundException, UnexpectedException;
 
   /**
@@ -635,6 +657,7 @@ public interface ServerSession {
    * @throws ObjectNotFoundException
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   ConferenceInfo getConference(long conferenceId)
       throws ObjectNotFoundException, UnexpectedException;
 
@@ -645,6 +668,7 @@ public interface ServerSession {
    * @throws ObjectNotFoundException
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   NamedObject getNamedObject(long id) throws ObjectNotFoundException, UnexpectedException;
 
   /**
@@ -652,6 +676,7 @@ public interface ServerSession {
    *
    * @param pattern The search pattern
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   NameAssociation[] findObjects(String pattern) throws UnexpectedException;
 
   /**
@@ -685,6 +710,7 @@ public interface ServerSession {
    * @throws ObjectNotFoundException If the user could not be found
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   NameAssociation[] listMemberships(long userId)
       throws ObjectNotFoundException, UnexpectedException;
 
@@ -696,6 +722,7 @@ public interface ServerSession {
    * @throws ObjectNotFoundException
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   MembershipInfo[] listConferenceMembers(long confId)
       throws ObjectNotFoundException, UnexpectedException;
 
@@ -707,6 +734,7 @@ public interface ServerSession {
    * @throws ObjectNotFoundException
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   NameAssociation[] listMembersByConference(long confId)
       throws ObjectNotFoundException, UnexpectedException;
 
@@ -717,6 +745,7 @@ public interface ServerSession {
    * @throws ObjectNotFoundException
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   Name getName(long id) throws ObjectNotFoundException, UnexpectedException;
 
   /**
@@ -726,6 +755,7 @@ public interface ServerSession {
    * @throws ObjectNotFoundException
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   Name[] getNames(long[] id) throws ObjectNotFoundException, UnexpectedException;
 
   /**
@@ -826,6 +856,7 @@ public interface ServerSession {
    *
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   MembershipListItem[] listNews() throws UnexpectedException;
 
   /**
@@ -834,12 +865,14 @@ public interface ServerSession {
    * @param userId User ID.
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   MembershipListItem[] listNewsFor(long userId) throws UnexpectedException;
   /**
    * Returns an array of <tt>UserListItems</tt> with the user currently logged in.
    *
    * @return
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   UserListItem[] listLoggedInUsers() throws UnexpectedException;
 
   /**
@@ -847,12 +880,14 @@ public interface ServerSession {
    *
    * @param userId User ID.
    */
+  @Transactional(Transactional.Kind.NONE)
   boolean hasSession(long userId);
 
   /**
    * Returns the <tt>EventSource</tt> i.e. an object returning event objects when they are ready to
    * be picked up.
    */
+  @Transactional(Transactional.Kind.NONE)
   EventSource getEventSource();
 
   /**
@@ -895,6 +930,7 @@ public interface ServerSession {
    *
    * @param e The event
    */
+  @Transactional(Transactional.Kind.NONE)
   void postEvent(Event e);
 
   /** Shuts down this session */
@@ -906,6 +942,7 @@ public interface ServerSession {
    *
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.NONE)
   void detach() throws UnexpectedException;
 
   /**
@@ -967,6 +1004,7 @@ public interface ServerSession {
    * @param conf The id of the conference
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   ConferencePermission[] listConferencePermissions(long conf) throws UnexpectedException;
 
   /**
@@ -974,6 +1012,7 @@ public interface ServerSession {
    *
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   ConferencePermission[] listConferencePermissionsInCurrentConference() throws UnexpectedException;
 
   /**
@@ -983,6 +1022,7 @@ public interface ServerSession {
    * @throws UnexpectedException
    * @throws ObjectNotFoundException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   int getPermissionsInConference(long conferenceId)
       throws UnexpectedException, ObjectNotFoundException;
 
@@ -994,6 +1034,7 @@ public interface ServerSession {
    * @throws UnexpectedException
    * @throws ObjectNotFoundException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   int getUserPermissionsInConference(long userId, long conferenceId)
       throws UnexpectedException, ObjectNotFoundException;
 
@@ -1003,6 +1044,7 @@ public interface ServerSession {
    * @throws UnexpectedException
    * @throws ObjectNotFoundException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   int getPermissionsInCurrentConference() throws UnexpectedException, ObjectNotFoundException;
 
   /**
@@ -1014,6 +1056,7 @@ public interface ServerSession {
    * @throws AuthorizationException
    * @throws ObjectNotFoundException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   boolean hasPermissionInConference(long conferenceId, int mask)
       throws AuthorizationException, ObjectNotFoundException, UnexpectedException;
 
@@ -1025,6 +1068,7 @@ public interface ServerSession {
    * @throws AuthorizationException
    * @throws ObjectNotFoundException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   boolean hasPermissionInCurrentConference(int mask)
       throws AuthorizationException, ObjectNotFoundException, UnexpectedException;
 
@@ -1035,6 +1079,7 @@ public interface ServerSession {
    * @param mask The required permiessions
    * @throws AuthorizationException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   void checkRights(long mask) throws AuthorizationException;
 
   /**
@@ -1043,6 +1088,7 @@ public interface ServerSession {
    * @param userid The userid to check for
    * @return <tt>true</tt> if the user exists
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   boolean checkForUserid(String userid) throws UnexpectedException;
 
   /**
@@ -1127,6 +1173,7 @@ public interface ServerSession {
    * @return
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   MessageAttribute[] getMessageAttributes(long message) throws UnexpectedException;
 
   /**
@@ -1137,6 +1184,7 @@ public interface ServerSession {
    * @return
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   MessageAttribute[] getMatchingMessageAttributes(long message, short kind)
       throws UnexpectedException;
 
@@ -1145,6 +1193,7 @@ public interface ServerSession {
    *
    * @return
    */
+  @Transactional(Transactional.Kind.NONE)
   String getDebugString();
 
   /**
@@ -1194,6 +1243,7 @@ public interface ServerSession {
    * @throws DuplicateNameException
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   boolean userCanChangeNameOf(long id) throws DuplicateNameException, UnexpectedException;
 
   /**
@@ -1204,6 +1254,7 @@ public interface ServerSession {
    * @throws ObjectNotFoundException
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   boolean canManipulateObject(long object) throws ObjectNotFoundException, UnexpectedException;
 
   /**
@@ -1252,16 +1303,17 @@ public interface ServerSession {
       throws ObjectNotFoundException, AuthorizationException, UnexpectedException;
 
   /**
-   * Lists the messages in the given conference.
+   * Lists the messages in the given conference, newest first.
    *
    * @param conference Conference Id
-   * @param start First row (given as offset from top) to return
+   * @param after The last message of the previous page, or <code>null</code> for the first page
    * @param length Number of rows to return
    * @return An array of LocalMessageSearchResults
    * @throws UnexpectedException
    */
-  LocalMessageSearchResult[] listAllMessagesLocally(long conference, int start, int length)
-      throws UnexpectedException;
+  @Transactional(Transactional.Kind.READ_ONLY)
+  LocalMessageSearchResult[] listAllMessagesLocally(
+      long conference, MessageSearchResult after, int length) throws UnexpectedException;
 
   /**
    * Counts the number of messages in a conference
@@ -1270,20 +1322,23 @@ public interface ServerSession {
    * @return The number of messages
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   long countAllMessagesLocally(long conference)
       throws UnexpectedException, AuthorizationException, ObjectNotFoundException;
 
   /**
-   * Lists the messages in the given conference written by the given user.
+   * Lists the messages in the given conference written by the given user, newest first.
    *
    * @param conference Conference Id
-   * @param start First row (given as offset from top) to return
+   * @param after The last message of the previous page, or <code>null</code> for the first page
    * @param length Number of rows to return
    * @return An array of LocalMessageSearchResults
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   LocalMessageSearchResult[] listMessagesLocallyByAuthor(
-      long conference, long user, int start, int length) throws UnexpectedException;
+      long conference, long user, MessageSearchResult after, int length)
+      throws UnexpectedException;
 
   /**
    * Selects the messages in the given conference written by the given user.
@@ -1302,20 +1357,22 @@ public interface ServerSession {
    * @throws UnexpectedException
    * @throws ObjectNotFoundException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   long countMessagesLocallyByAuthor(long conference, long user)
       throws UnexpectedException, AuthorizationException, ObjectNotFoundException;
 
   /**
-   * List all messages written by a given user.
+   * List all messages written by a given user, newest first.
    *
    * @param user
-   * @param offset
+   * @param after The last message of the previous page, or <code>null</code> for the first page
    * @param length
    * @return An array of GlobalMessageSearchResults
    * @throws UnexpectedException
    */
-  GlobalMessageSearchResult[] listMessagesGloballyByAuthor(long user, int offset, int length)
-      throws UnexpectedException;
+  @Transactional(Transactional.Kind.READ_ONLY)
+  GlobalMessageSearchResult[] listMessagesGloballyByAuthor(
+      long user, MessageSearchResult after, int length) throws UnexpectedException;
 
   /**
    * List all messages written by a given user.
@@ -1333,18 +1390,20 @@ public interface ServerSession {
    * @param user The user
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   long countMessagesGloballyByAuthor(long user) throws UnexpectedException;
 
   /**
-   * Returns an array of results from doing a global search on the given searchterm.
+   * Returns an array of results from doing a global search on the given searchterm, newest first.
    *
    * @param searchterm
-   * @param offset
+   * @param after The last message of the previous page, or <code>null</code> for the first page
    * @param length
    * @throws UnexpectedException
    */
-  GlobalMessageSearchResult[] searchMessagesGlobally(String searchterm, int offset, int length)
-      throws UnexpectedException;
+  @Transactional(Transactional.Kind.READ_ONLY)
+  GlobalMessageSearchResult[] searchMessagesGlobally(
+      String searchterm, MessageSearchResult after, int length) throws UnexpectedException;
 
   /**
    * Selects result from doing a global search on the given searchterm.
@@ -1361,6 +1420,7 @@ public interface ServerSession {
    * @param searchterm The search term
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   long countSearchMessagesGlobally(String searchterm) throws UnexpectedException;
 
   /**
@@ -1370,6 +1430,7 @@ public interface ServerSession {
    * @throws ObjectNotFoundException
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   MessageHeader getLastMessageHeader()
       throws ObjectNotFoundException, NoCurrentMessageException, UnexpectedException;
 
@@ -1417,6 +1478,7 @@ public interface ServerSession {
    */
   void deleteConference(long conference) throws AuthorizationException, UnexpectedException;
 
+  @Transactional(Transactional.Kind.READ_ONLY)
   short getObjectKind(long conference) throws ObjectNotFoundException;
 
   /**
@@ -1482,6 +1544,7 @@ public interface ServerSession {
    * @param limit Maximum number of messages to return
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   MessageLogItem[] getChatMessagesFromLog(int limit) throws UnexpectedException;
 
   /**
@@ -1490,6 +1553,7 @@ public interface ServerSession {
    * @param limit Maximum number of messages to return
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   MessageLogItem[] getMulticastMessagesFromLog(int limit) throws UnexpectedException;
 
   /**
@@ -1498,19 +1562,22 @@ public interface ServerSession {
    * @param limit Maximum number of messages to return
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   MessageLogItem[] getBroadcastMessagesFromLog(int limit) throws UnexpectedException;
 
   /**
-   * Does a simple grep-like search in the given conference.
+   * Does a simple grep-like search in the given conference, newest first.
    *
    * @param conference
    * @param searchterm
-   * @param offset
+   * @param after The last message of the previous page, or <code>null</code> for the first page
    * @param length
    * @return
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   LocalMessageSearchResult[] grepMessagesLocally(
-      long conference, String searchterm, int offset, int length) throws UnexpectedException;
+      long conference, String searchterm, MessageSearchResult after, int length)
+      throws UnexpectedException;
 
   /**
    * Selects based on a grep-like search in the given conference.
@@ -1530,21 +1597,24 @@ public interface ServerSession {
    * @throws UnexpectedException
    * @throws ObjectNotFoundException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   long countGrepMessagesLocally(long conference, String searchterm)
       throws UnexpectedException, AuthorizationException, ObjectNotFoundException;
 
   /**
    * Returns an array of results from doing a search in the given conference with the given
-   * searchterm.
+   * searchterm, newest first.
    *
    * @param conference The id of the conference to search in
    * @param searchterm The searchterm in MySQL IN BOOLEAN MODE format.
-   * @param offset
+   * @param after The last message of the previous page, or <code>null</code> for the first page
    * @param length
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   LocalMessageSearchResult[] searchMessagesLocally(
-      long conference, String searchterm, int offset, int length) throws UnexpectedException;
+      long conference, String searchterm, MessageSearchResult after, int length)
+      throws UnexpectedException;
 
   /**
    * Selects the resuls from doing a search in the given conference with the given searchterm.
@@ -1565,6 +1635,7 @@ public interface ServerSession {
    * @throws UnexpectedException
    * @throws ObjectNotFoundException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   long countSearchMessagesLocally(long conference, String searchterm)
       throws UnexpectedException, AuthorizationException, ObjectNotFoundException;
 
@@ -1577,6 +1648,7 @@ public interface ServerSession {
    * @param length List limit
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   UserLogItem[] listUserLog(Timestamp start, Timestamp end, int offset, int length)
       throws UnexpectedException;
 
@@ -1590,6 +1662,7 @@ public interface ServerSession {
    * @param length List limit
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   UserLogItem[] listUserLog(long user, Timestamp start, Timestamp end, int offset, int length)
       throws UnexpectedException;
 
@@ -1601,6 +1674,7 @@ public interface ServerSession {
    * @throws ObjectNotFoundException
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   FileStatus statFile(long parent, String name) throws ObjectNotFoundException, UnexpectedException;
 
   /**
@@ -1611,6 +1685,7 @@ public interface ServerSession {
    * @throws ObjectNotFoundException
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   FileStatus[] listFiles(long parent, String pattern)
       throws ObjectNotFoundException, UnexpectedException;
 
@@ -1622,6 +1697,7 @@ public interface ServerSession {
    * @throws ObjectNotFoundException
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   String readFile(long parent, String name)
       throws ObjectNotFoundException, AuthorizationException, UnexpectedException;
 
@@ -1658,6 +1734,7 @@ public interface ServerSession {
    * @throws ObjectNotFoundException
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   String readSystemFile(String name)
       throws AuthorizationException, ObjectNotFoundException, UnexpectedException;
 
@@ -1684,9 +1761,11 @@ public interface ServerSession {
       throws AuthorizationException, ObjectNotFoundException, UnexpectedException;
 
   /** Returns the HeartbeatListener associated with this session. */
+  @Transactional(Transactional.Kind.NONE)
   HeartbeatListener getHeartbeatListener();
 
   /** Returns the date and time of the last heartbeat received */
+  @Transactional(Transactional.Kind.NONE)
   long getLastHeartbeat();
 
   /**
@@ -1725,6 +1804,7 @@ public interface ServerSession {
   void allowLogin() throws AuthorizationException;
 
   /** Returns information and statistics about the system. */
+  @Transactional(Transactional.Kind.READ_ONLY)
   SystemInformation getSystemInformation() throws UnexpectedException;
 
   /**
@@ -1767,6 +1847,7 @@ public interface ServerSession {
    *
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   Relationship[] listFilters() throws UnexpectedException;
 
   /**
@@ -1800,16 +1881,19 @@ public interface ServerSession {
   void disableSelfRegistration() throws AuthorizationException, UnexpectedException;
 
   /**
-   * Searches and returns the messages that are comments to messages written by the given user.
+   * Searches and returns the messages that are comments to messages written by the given user,
+   * newest first.
    *
    * @param user
-   * @param offset
+   * @param after The last message of the previous page, or <code>null</code> for the first page
    * @param length
    * @return
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   MessageSearchResult[] listCommentsGloballyToAuthor(
-      long user, Timestamp startDate, int offset, int length) throws UnexpectedException;
+      long user, Timestamp startDate, MessageSearchResult after, int length)
+      throws UnexpectedException;
 
   /**
    * Select the messages that are comments to messages written by the given user.
@@ -1827,6 +1911,7 @@ public interface ServerSession {
    * @retur
    * @throws UnexpectedException
    */
+  @Transactional(Transactional.Kind.READ_ONLY)
   long countCommentsGloballyToAuthor(long user, Timestamp startDate) throws UnexpectedException;
 
   /**
@@ -1849,6 +1934,7 @@ public interface ServerSession {
       throws ObjectNotFoundException, NoCurrentMessageException, UnexpectedException;
 
   /** Returns bookmarks for the current user */
+  @Transactional(Transactional.Kind.READ_ONLY)
   Bookmark[] listBookmarks() throws UnexpectedException;
 
   /**
@@ -1871,20 +1957,45 @@ public interface ServerSession {
       throws EmailRecipientNotRecognizedException, EmailSenderNotRecognizedException,
           AuthorizationException, UnexpectedException;
 
+  @Transactional(Transactional.Kind.NONE)
   SelectedMessages getSelectedMessages();
 
+  /**
+   * Returns the next selected message. More of the selection is fetched when every message fetched
+   * so far has been read.
+   *
+   * @return The message, or <code>MessageLocator.NO_MESSAGE</code> if there are no more
+   * @throws UnexpectedException
+   */
+  @Transactional(Transactional.Kind.READ_ONLY)
+  MessageLocator getNextSelectedMessage() throws UnexpectedException;
+
+  /**
+   * Lists the selected messages, whether they have been read or not.
+   *
+   * @param after The last message of the previous chunk, or <code>null</code> for the first chunk
+   * @param length The size of the chunk
+   * @throws UnexpectedException
+   */
+  @Transactional(Transactional.Kind.READ_ONLY)
+  MessageSearchResult[] listSelectedMessages(MessageSearchResult after, int length)
+      throws UnexpectedException;
+
   /**
    * Sets the current activity indicator. See constants.Activities for values.
    *
    * @param activity The new activity.
    * @param keepState Record the previous state.
    */
+  @Transactional(Transactional.Kind.NONE)
   void setActivity(short activity, boolean keepState);
 
   /** Restores the previous activity, which is initialized to Activities.AUTO on logon. */
+  @Transactional(Transactional.Kind.NONE)
   void restoreState();
 
   /** Clears both the current and the last state. Called to clear all activity markers. */
+  @Transactional(Transactional.Kind.NONE)
   void clearStates();
 
   /**
@@ -1892,6 +2003,7 @@ public interface ServerSession {
    *
    * @return The activity ID.
    */
+  @Transactional(Transactional.Kind.NONE)
   short getActivity();
 
   /**
@@ -1899,6 +2011,7 @@ public interface ServerSession {
    *
    * @return A String containing the text.
    */
+  @Transactional(Transactional.Kind.NONE)
   String getActivityString();
 
   /**
@@ -1906,6 +2019,7 @@ public interface ServerSession {
    *
    * @param text The text to be set.
    */
+  @Transactional(Transactional.Kind.NONE)
   void setActivityString(String text);
 
   /**
@@ -1914,6 +2028,7 @@ public interface ServerSession {
    *
    * @return An object ID.
    */
+  @Transactional(Transactional.Kind.NONE)
   long getLastObject();
 
   /**
@@ -1921,5 +2036,6 @@ public interface ServerSession {
    *
    * @param ID The ID of a named object.
    */
+  @Transactional(Transactional.Kind.NONE)
   void setLastObject(long ID);
 }
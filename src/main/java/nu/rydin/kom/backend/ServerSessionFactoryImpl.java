@@ -27,6 +27,7 @@ import java.util.TimerTask;
 import nu.rydin.kom.backend.data.FileManager;
 import nu.rydin.kom.backend.data.SettingsManager;
 import nu.rydin.kom.backend.data.UserManager;
+import nu.rydin.kom.backend.search.SearchIndex;
 import nu.rydin.kom.constants.SettingKeys;
 import nu.rydin.kom.constants.UserFlags;
 import nu.rydin.kom.constants.UserPermissions;
@@ -177,6 +178,14 @@ public class ServerSessionFactoryImpl implements ServerSessionFactory, Module {
       }
     }
 
+    // Open the search index, if we have one
+    //
+    try {
+      SearchIndex.start();
+    } catch (final IOException e) {
+      throw new ModuleException(e);
+    }
+
     m_sessionManager = new SessionManager();
     m_sessionManager.start();
   }
@@ -185,6 +194,20 @@ public class ServerSessionFactoryImpl implements ServerSessionFactory, Module {
   public void stop() {
     m_sessionManager.stop();
     m_contextCleaner.interrupt();
+
+    // Save whatever read markers haven't been saved yet
+    //
+    final MarkerWriter markerWriter = MarkerWriter.instance();
+    if (markerWriter != null) {
+      markerWriter.stop();
+    }
+
+    // Save whatever the search index has in memory
+    //
+    final SearchIndex searchIndex = SearchIndex.instance();
+    if (searchIndex != null) {
+      searchIndex.stop();
+    }
   }
 
   @Override
@@ -13,15 +13,22 @@ import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 import java.util.StringTokenizer;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 import nu.rydin.kom.backend.data.ConferenceManager;
 import nu.rydin.kom.backend.data.FileManager;
 import nu.rydin.kom.backend.data.MembershipManager;
@@ -30,6 +37,7 @@ import nu.rydin.kom.backend.data.MessageManager;
 import nu.rydin.kom.backend.data.NameManager;
 import nu.rydin.kom.backend.data.RelationshipManager;
 import nu.rydin.kom.backend.data.UserManager;
+import nu.rydin.kom.backend.search.SearchIndex;
 import nu.rydin.kom.constants.Activities;
 import nu.rydin.kom.constants.ChatRecipientStatus;
 import nu.rydin.kom.constants.CommandSuggestions;
@@ -85,6 +93,7 @@ import nu.rydin.kom.structs.MembershipInfo;
 import nu.rydin.kom.structs.MembershipListItem;
 import nu.rydin.kom.structs.Message;
 import nu.rydin.kom.structs.MessageAttribute;
+import nu.rydin.kom.structs.MessageBundle;
 import nu.rydin.kom.structs.MessageHeader;
 import nu.rydin.kom.structs.MessageLocator;
 import nu.rydin.kom.structs.MessageLogItem;
@@ -94,6 +103,7 @@ import nu.rydin.kom.structs.Name;
 import nu.rydin.kom.structs.NameAssociation;
 import nu.rydin.kom.structs.NamedObject;
 import nu.rydin.kom.structs.ReadLogItem;
+import nu.rydin.kom.structs.ReplyTree;
 import nu.rydin.kom.structs.Relationship;
 import nu.rydin.kom.structs.SessionState;
 import nu.rydin.kom.structs.SystemInformation;
@@ -112,7 +122,8 @@ import org.apache.logging.log4j.Logger;
  */
 public class ServerSessionImpl implements ServerSession, EventTarget, EventSource {
   private static final Logger LOG = LogManager.getLogger(ServerSessionImpl.class);
-  private static final int MAX_SELECTION = 1000;
+  /** Number of searches we keep the hits of */
+  private static final int MAX_SEARCH_CURSORS = 4;
   /** User variables shared across sessions for the same user */
   protected final UserContext m_userContext;
   /** Time of login */
@@ -123,6 +134,12 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
   private final SessionManager m_sessions;
   /** List of incoming events */
   private final LinkedList<Event> m_incomingEvents = new LinkedList<>();
+  /** Guards the incoming events */
+  private final ReentrantLock m_eventLock = new ReentrantLock();
+  /** Signalled when an event is posted */
+  private final Condition m_eventPosted = m_eventLock.newCondition();
+  /** Receives events as they're posted, if set */
+  private volatile EventSink m_eventSink;
   /**
    * List of deferred events, i.e. events that will be sent once the current transaction is
    * committed.
@@ -137,6 +154,18 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
   private final long m_userId;
 
   private final SelectedMessages m_selectedMessages = new SelectedMessages();
+
+  /**
+   * Hits of the most recent searches in the index, keyed by the search, so that paging through
+   * them doesn't run the search again
+   */
+  private final Map<String, SearchCursor> m_searchCursors =
+      new LinkedHashMap<String, SearchCursor>(MAX_SEARCH_CURSORS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, SearchCursor> eldest) {
+          return size() > MAX_SEARCH_CURSORS;
+        }
+      };
   /** Timestamp of last heartbeat */
   protected long m_lastHeartbeat = System.currentTimeMillis();
   /** Current conference id, or -1 if it could not be determined */
@@ -209,7 +238,8 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
 
       // Let's lock the user context while we're manipulating it!
       //
-      synchronized (m_userContext) {
+      m_userContext.getLock().lock();
+      try {
         // If we have saved unreads, load them and apply
         //
         try {
@@ -233,6 +263,8 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
         //
         m_da.commit();
         m_da = null;
+      } finally {
+        m_userContext.getLock().unlock();
       }
     } catch (final SQLException e) {
       throw new UnexpectedException(getLoggedInUserId(), e);
@@ -377,10 +409,8 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
           try {
             final SessionState answer =
                 new SessionState(CommandSuggestions.NEXT_REPLY, conf, countUnread(conf));
-            final MessageOccurrence occ;
-            try {
-              occ = getMostRelevantOccurrence(conf, nextReply);
-            } catch (final MessageNotFoundException e) {
+            final MessageOccurrence occ = getReplyOccurrence(nextReply);
+            if (occ == null) {
               // Probably deleted. Skip it!
               //
               popReply();
@@ -1158,6 +1188,10 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
       // Make sure all message markers are saved
       //
       leaveConference();
+      final MarkerWriter markerWriter = MarkerWriter.instance();
+      if (markerWriter != null) {
+        markerWriter.flushLater();
+      }
 
       // Save statistics
       //
@@ -1405,7 +1439,7 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
       // Hello, world!
       //
       broadcastEvent(new NewMessageEvent(me, destConfId, occ.getLocalnum(), occ.getGlobalId()));
-      broadcastEvent(new MessageDeletedEvent(me, getCurrentConferenceId()));
+      broadcastEvent(new MessageDeletedEvent(me, sourceConfId));
     } catch (final SQLException e) {
       throw new UnexpectedException(getLoggedInUserId(), e);
     }
@@ -1527,6 +1561,18 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
     // for every conference. Prove me wrong :-)
     //
     final ArrayList<Name> joins = new ArrayList<>(s.size());
+    final long[] ids = new long[s.size()];
+    int n = 0;
+    for (final long each : s) {
+      ids[n++] = each;
+    }
+    try {
+      // Load the conferences, and with them their names, in bulk
+      //
+      m_da.getConferenceManager().loadConferences(ids);
+    } catch (final SQLException e) {
+      throw new UnexpectedException(uid, e);
+    }
     final Iterator<Long> it = s.iterator();
     while (it.hasNext()) {
       try {
@@ -1647,18 +1693,13 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
 
       // Put the data in a sortable wrapper and place in a better container.
       //
+      // Get the parent count of every conference in one call.
+      //
+      final Map<Long, Long> parentCounts = cm.countParentsByConference();
       final List<SortableMembershipInfo> newOrder = new ArrayList<>(mi.length);
       for (final MembershipInfo membershipInfo : mi) {
-        // FIXME: If we experience a performance bottleneck (which I doubt), change
-        // this to start by populating a hash table with conference ID + parent
-        // count (one call, bulk transfer of n rows) instead of n separate calls.
-        // Then again, the autoprioritize command won't get run all that often and
-        // we'll be fine with an extra few seconds as long as the so called
-        // database doesn't buckle under the load.
-        //
-        newOrder.add(
-            new SortableMembershipInfo(
-                membershipInfo, cm.countParentsForConference(membershipInfo.getConference())));
+        final Long count = parentCounts.get(membershipInfo.getConference());
+        newOrder.add(new SortableMembershipInfo(membershipInfo, count != null ? count : 0));
       }
       java.util.Collections.sort(newOrder);
 
@@ -1905,6 +1946,14 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
       final MembershipInfo[] m = mm.listMembershipsByUser(userId);
       final MembershipList ml = new MembershipList(m);
       final int top = m.length;
+
+      // Get all the conferences into the cache in one go
+      //
+      final long[] ids = new long[top];
+      for (int idx = 0; idx < top; ++idx) {
+        ids[idx] = m[idx].getConference();
+      }
+      cm.loadConferences(ids);
       final List<MembershipListItem> list = new ArrayList<>(top);
       for (final MembershipInfo membershipInfo : m) {
         try {
@@ -1931,14 +1980,22 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
 
   @Override
   public MembershipListItem[] listNews() throws UnexpectedException {
-    final MembershipList memberships = m_userContext.getMemberships();
-    final MembershipInfo[] m = memberships.getMemberships();
-    final int top = m.length;
-    final List<MembershipListItem> list = new ArrayList<>(top);
-    for (final MembershipInfo membershipInfo : m) {
-      try {
-        final long conf = membershipInfo.getConference();
+    // Only look at conferences we know have unread messages
+    //
+    final long[] confs;
+    try {
+      final ConferenceManager cm = m_da.getConferenceManager();
+      confs = m_userContext.getMemberships().listConferencesWithUnreadMessages(cm);
 
+      // Make sure we have the names at hand
+      //
+      cm.loadConferences(confs);
+    } catch (final SQLException e) {
+      throw new UnexpectedException(getLoggedInUserId(), e);
+    }
+    final List<MembershipListItem> list = new ArrayList<>(confs.length);
+    for (final long conf : confs) {
+      try {
         // Don't include invisible conferences
         //
         if (!isVisible(conf)) {
@@ -2013,20 +2070,58 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
   }
 
   @Override
-  public synchronized void postEvent(final Event e) {
-    m_incomingEvents.addLast(e);
-    notify();
+  public void postEvent(final Event e) {
+    // Pass it straight on if someone is listening. The sink is only set once
+    // any queued events have been delivered, so they can't be overtaken.
+    //
+    final EventSink sink = m_eventSink;
+    if (sink != null) {
+      sink.deliver(e);
+      return;
+    }
+    m_eventLock.lock();
+    try {
+      if (m_eventSink != null) {
+        m_eventSink.deliver(e);
+        return;
+      }
+      m_incomingEvents.addLast(e);
+      m_eventPosted.signal();
+    } finally {
+      m_eventLock.unlock();
+    }
   }
 
   @Override
-  public synchronized Event pollEvent(final int timeoutMs) throws InterruptedException {
-    if (m_incomingEvents.isEmpty()) {
-      wait(timeoutMs);
+  public void setEventSink(final EventSink sink) {
+    m_eventLock.lock();
+    try {
+      while (!m_incomingEvents.isEmpty()) {
+        sink.deliver(m_incomingEvents.removeFirst());
+      }
+      m_eventSink = sink;
+    } finally {
+      m_eventLock.unlock();
     }
-    if (m_incomingEvents.isEmpty()) {
-      return null;
+  }
+
+  @Override
+  public Event pollEvent(final int timeoutMs) throws InterruptedException {
+    // Wait on a lock rather than the monitor, so that a virtual thread
+    // polling for events doesn't pin its carrier thread.
+    //
+    m_eventLock.lockInterruptibly();
+    try {
+      if (m_incomingEvents.isEmpty()) {
+        m_eventPosted.await(timeoutMs, TimeUnit.MILLISECONDS);
+      }
+      if (m_incomingEvents.isEmpty()) {
+        return null;
+      }
+      return m_incomingEvents.removeFirst();
+    } finally {
+      m_eventLock.unlock();
     }
-    return m_incomingEvents.removeFirst();
   }
 
   @Override
@@ -2944,12 +3039,13 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
   protected int performThreadOperation(final long thread, final int max, final MessageOperation op)
       throws UnexpectedException, ObjectNotFoundException, SelectionOverflowException {
     try {
-      final long[] ids = m_da.getMessageManager().selectByThread(thread, max);
-      final int top = ids.length;
-      for (final long id : ids) {
-        op.perform(id);
+      final ReplyTree tree = m_da.getMessageManager().getReplyTree(thread);
+      final long[] ids = tree.getIds();
+      if (ids.length > max) {
+        throw new SelectionOverflowException(Arrays.copyOf(ids, max));
       }
-      return top;
+      op.perform(ids, tree);
+      return ids.length;
     } catch (final SQLException e) {
       throw new UnexpectedException(getLoggedInUserId(), e);
     }
@@ -2958,7 +3054,19 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
   protected int performTreeOperation(final long root, final MessageOperation op)
       throws UnexpectedException, ObjectNotFoundException {
     try {
+      // Load the whole thread at once and pick out the branch we're interested in.
+      //
       final MessageManager mm = m_da.getMessageManager();
+      final long thread = mm.loadMessageHeader(root).getThread();
+      if (thread > 0) {
+        final ReplyTree tree = mm.getReplyTree(thread);
+        final long[] ids = tree.getSubtree(root);
+        op.perform(ids, tree);
+        return ids.length;
+      }
+
+      // Not part of a thread. Walk the replies one by one.
+      //
       final Stack<Long> stack = new Stack<>();
       stack.add(root);
       int n = 0;
@@ -3097,18 +3205,41 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
       return;
     }
     try {
-      long[] replies = m_da.getMessageManager().getReplyIds(messageId);
+      // Use the reply tree of the thread if the message is part of one. That
+      // way, we don't have to go to the database for the replies, or for
+      // their occurrences later on.
+      //
+      final MessageManager mm = m_da.getMessageManager();
+      final long thread;
+      try {
+        thread = mm.loadMessageHeader(messageId).getThread();
+      } catch (final MessageNotFoundException e) {
+        // Deleted under our feet? No replies, then.
+        //
+        return;
+      }
+      final ReplyTree tree = thread > 0 ? mm.getReplyTree(thread) : null;
+      long[] replies = tree != null ? tree.getReplies(messageId) : mm.getReplyIds(messageId);
 
       // If we're not interested in replies across conferences, we have
       // to filter the list.
       //
       if ((getLoggedInUser().getFlags1() & UserFlags.READ_CROSS_CONF_REPLIES) == 0) {
-        final MessageManager mm = m_da.getMessageManager();
+        final long conference = getCurrentConferenceId();
         int p = 0;
         for (int idx = 0; idx < replies.length; idx++) {
           final long reply = replies[idx];
+          if (tree != null) {
+            for (final MessageOccurrence occ : tree.getOccurrences(reply)) {
+              if (occ.getConference() == conference) {
+                replies[p++] = reply;
+                break;
+              }
+            }
+            continue;
+          }
           try {
-            mm.getOccurrenceInConference(getCurrentConferenceId(), reply);
+            mm.getOccurrenceInConference(conference, reply);
             replies[p++] = reply;
           } catch (final ObjectNotFoundException e) {
             // Skip...
@@ -3121,13 +3252,14 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
         }
       }
       if (replies.length > 0) {
-        m_replyStack = new ReplyStackFrame(replies, m_replyStack);
+        m_replyStack = new ReplyStackFrame(replies, tree != null ? thread : -1, m_replyStack);
       }
     } catch (final SQLException e) {
       throw new UnexpectedException(getLoggedInUserId(), e);
     }
   }
 
+
   protected Envelope innerReadMessage(final long globalId)
       throws ObjectNotFoundException, UnexpectedException, NoCurrentMessageException,
           AuthorizationException {
@@ -3148,23 +3280,26 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
       final long conf = getCurrentConferenceId();
       final MessageManager mm = m_da.getMessageManager();
       final ConferenceManager cm = m_da.getConferenceManager();
-      final Message message = mm.loadMessage(locator.getConference(), locator.getLocalnum());
-      final long replyToId = message.getReplyTo();
+      final MessageBundle bundle = mm.loadMessageBundle(locator.getGlobalId());
+      final Message message = bundle.getMessage();
+      final MembershipList memberships = m_userContext.getMemberships();
       Envelope.RelatedMessage replyTo = null;
-      if (replyToId > 0) {
+      final MessageHeader replyToMh = bundle.getReplyTo();
+      if (replyToMh != null) {
         // This is a reply. Fill in info.
         //
         final MessageOccurrence occ =
-            mm.getMostRelevantOccurrence(getLoggedInUserId(), conf, replyToId);
-        final MessageHeader replyToMh = mm.loadMessageHeader(replyToId);
-        replyTo =
-            new Envelope.RelatedMessage(
-                occ,
-                replyToMh.getAuthor(),
-                replyToMh.getAuthorName(),
-                occ.getConference(),
-                getCensoredName(occ.getConference()),
-                occ.getConference() == conf);
+            getMostRelevantOccurrence(bundle.getReplyToOccurrences(), conf, memberships);
+        if (occ != null) {
+          replyTo =
+              new Envelope.RelatedMessage(
+                  occ,
+                  replyToMh.getAuthor(),
+                  replyToMh.getAuthorName(),
+                  occ.getConference(),
+                  getCensoredName(occ.getConference()),
+                  occ.getConference() == conf);
+        }
       }
 
       // Create receiver list
@@ -3180,18 +3315,25 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
 
       // Create attributes list
       //
-      final MessageAttribute[] attr = mm.getMessageAttributes(message.getId());
+      final MessageAttribute[] attr = bundle.getAttributes();
 
       // Create list of replies
       //
-      final MessageHeader[] replyHeaders = mm.getReplies(message.getId());
+      final MessageHeader[] replyHeaders = bundle.getReplies();
+      final MessageOccurrence[][] replyOccurrences = bundle.getReplyOccurrences();
       top = replyHeaders.length;
       final ArrayList<Envelope.RelatedMessage> list = new ArrayList<>(top);
 
       for (int idx = 0; idx < top; ++idx) {
         final MessageHeader each = replyHeaders[idx];
         final MessageOccurrence replyOcc =
-            mm.getMostRelevantOccurrence(getLoggedInUserId(), conf, each.getId());
+            getMostRelevantOccurrence(replyOccurrences[idx], conf, memberships);
+
+        // Don't show replies that have been deleted everywhere
+        //
+        if (replyOcc == null) {
+          continue;
+        }
 
         // Don't show replies written by filtered users
         //
@@ -3230,19 +3372,21 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
       // Done assembling envelope. Now, mark the message as read in all
       // conferences where it appears and we are members.
       //
-      final MessageOccurrence[] occs =
-          mm.getVisibleOccurrences(getLoggedInUserId(), locator.getGlobalId());
-      top = occs.length;
-      for (int idx = 0; idx < top; ++idx) {
-        final MessageOccurrence each = occs[idx];
-        markMessageAsRead(each.getConference(), each.getLocalnum());
+      MessageOccurrence firstVisible = null;
+      for (final MessageOccurrence each : occ) {
+        if (memberships.getOrNull(each.getConference()) != null) {
+          markMessageAsRead(each.getConference(), each.getLocalnum());
+          if (firstVisible == null) {
+            firstVisible = each;
+          }
+        }
       }
 
       // Put it in the read log. Notice that we log only one occurrence, as
       // it would confuse users if implicitly read occurences were included.
       //
-      if (top > 0) {
-        appendToReadLog(occs[0]);
+      if (firstVisible != null) {
+        appendToReadLog(firstVisible);
       }
 
       // Make this the "current" message
@@ -3258,6 +3402,35 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
     }
   }
 
+  /**
+   * Picks the occurrence of a message that's most relevant to the user. That's the one in the
+   * current conference, if there is one. Otherwise, it's the first one in a conference the user is
+   * a member of, and failing that, the first one.
+   *
+   * @param occurrences The occurrences of the message, oldest first
+   * @param conference The current conference
+   * @param memberships The memberships of the user
+   * @return The most relevant occurrence, or <tt>null</tt> if there are no occurrences
+   */
+  protected static MessageOccurrence getMostRelevantOccurrence(
+      final MessageOccurrence[] occurrences,
+      final long conference,
+      final MembershipList memberships) {
+    MessageOccurrence member = null;
+    for (final MessageOccurrence each : occurrences) {
+      if (each.getConference() == conference) {
+        return each;
+      }
+      if (member == null && memberships.getOrNull(each.getConference()) != null) {
+        member = each;
+      }
+    }
+    if (member != null) {
+      return member;
+    }
+    return occurrences.length > 0 ? occurrences[0] : null;
+  }
+
   /** Retrieves all message attributes, if any, of the given type for the given message. */
   @Override
   public MessageAttribute[] getMatchingMessageAttributes(final long message, final short kind)
@@ -3353,9 +3526,10 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
       //
       reply = m_replyStack.peek();
       try {
-        final MessageOccurrence occ =
-            m_da.getMessageManager()
-                .getMostRelevantOccurrence(getLoggedInUserId(), m_currentConferenceId, reply);
+        final MessageOccurrence occ = getReplyOccurrence(reply);
+        if (occ == null) {
+          continue;
+        }
 
         // Check that we have permission to see this one
         //
@@ -3375,6 +3549,28 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
     return reply;
   }
 
+  /**
+   * Returns the most relevant occurrence of the reply at the top of the reply stack, or <code>null
+   * </code> if it has been deleted. Replies in a thread are looked up in its reply tree.
+   *
+   * @param reply The reply
+   */
+  private MessageOccurrence getReplyOccurrence(final long reply) throws SQLException {
+    final MessageManager mm = m_da.getMessageManager();
+    final long thread = m_replyStack.getThread();
+    if (thread > 0) {
+      return getMostRelevantOccurrence(
+          mm.getReplyTree(thread).getOccurrences(reply),
+          m_currentConferenceId,
+          m_userContext.getMemberships());
+    }
+    try {
+      return mm.getMostRelevantOccurrence(getLoggedInUserId(), m_currentConferenceId, reply);
+    } catch (final MessageNotFoundException e) {
+      return null;
+    }
+  }
+
   protected void setDataAccess(final DataAccess da) {
     m_da = da;
   }
@@ -3449,6 +3645,57 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
     }
   }
 
+  /**
+   * Delivers an event posted through the session manager. The handlers update the shared user
+   * context, so we hold the same locks as a call through the session proxy does. We don't wait for
+   * them, though, since that would hold up the dispatcher delivering the event.
+   *
+   * @param e The event
+   * @return <tt>true</tt> if the event was delivered, <tt>false</tt> if the session is busy and it
+   *     has to be delivered later
+   */
+  protected boolean deliverEvent(final Event e) {
+    return this.tryRunLocked(() -> e.dispatch(this));
+  }
+
+  /**
+   * Catches up after events have been left out because we fell too far behind. The unread counts
+   * are recalculated from the conferences when needed, and the client is told to reload the user
+   * profile and check for new messages.
+   *
+   * @return <tt>true</tt> if we resynced, <tt>false</tt> if the session is busy and it has to be
+   *     done later
+   */
+  protected boolean resync() {
+    return this.tryRunLocked(
+        () -> {
+          m_userContext.getMemberships().markAllStale();
+          postEvent(new ReloadUserProfileEvent(m_userId));
+          postEvent(new MessageDeletedEvent());
+        });
+  }
+
+  /** Runs something while holding the session locks, unless someone else holds them. */
+  private boolean tryRunLocked(final Runnable r) {
+    final ReentrantLock lock = m_userContext.getLock();
+    if (!lock.tryLock()) {
+      return false;
+    }
+    try {
+      if (!m_mutex.tryAcquire()) {
+        return false;
+      }
+      try {
+        r.run();
+      } finally {
+        releaseMutex();
+      }
+    } finally {
+      lock.unlock();
+    }
+    return true;
+  }
+
   // Implementation of EventTarget
   //
   @Override
@@ -3507,6 +3754,7 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
   @Override
   public void onEvent(final MessageDeletedEvent e) {
     final long conf = e.getConference();
+    m_userContext.getMemberships().messageDeleted(conf);
     try {
       m_userContext.getMemberships().get(conf);
       postEvent(e);
@@ -3517,7 +3765,11 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
   }
 
   @Override
-  public synchronized void onEvent(final NewMessageEvent e) {
+  public void onEvent(final NewMessageEvent e) {
+    // Keep the unread counts up to date, whether we pass the event on or not
+    //
+    m_userContext.getMemberships().messageAdded(e.getConference(), e.getLocalNum());
+
     // Is this a new text in our mailbox? Then we're definately interested in it
     // and should always pass it on!
     //
@@ -3575,12 +3827,13 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
   }
 
   protected UserInfo getUserInEventHandler(final long user) {
-    // Borrow a UserManager from the pool
+    // Borrow a UserManager from the pool. We may be holding up the session
+    // that posted the event, so use a connection held in reserve.
     //
     final DataAccessPool pool = DataAccessPool.instance();
     DataAccess da = null;
     try {
-      da = pool.getDataAccess();
+      da = pool.getReservedDataAccess();
 
       // Load user
       //
@@ -3603,9 +3856,10 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
 
   @Override
   public LocalMessageSearchResult[] listAllMessagesLocally(
-      final long conference, final int start, final int length) throws UnexpectedException {
+      final long conference, final MessageSearchResult after, final int length)
+      throws UnexpectedException {
     try {
-      return m_da.getMessageManager().listAllMessagesLocally(conference, start, length);
+      return m_da.getMessageManager().listAllMessagesLocally(conference, after, length);
     } catch (final SQLException e) {
       throw new UnexpectedException(getLoggedInUserId(), e);
     }
@@ -3613,10 +3867,21 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
 
   @Override
   public LocalMessageSearchResult[] listMessagesLocallyByAuthor(
-      final long conference, final long user, final int offset, final int length)
+      final long conference, final long user, final MessageSearchResult after, final int length)
+      throws UnexpectedException {
+    return listMessagesLocallyByAuthor(conference, user, after, false, length);
+  }
+
+  private LocalMessageSearchResult[] listMessagesLocallyByAuthor(
+      final long conference,
+      final long user,
+      final MessageSearchResult after,
+      final boolean oldestFirst,
+      final int length)
       throws UnexpectedException {
     try {
-      return m_da.getMessageManager().listMessagesLocallyByAuthor(conference, user, offset, length);
+      return m_da.getMessageManager()
+          .listMessagesLocallyByAuthor(conference, user, after, oldestFirst, length);
     } catch (final SQLException e) {
       throw new UnexpectedException(getLoggedInUserId(), e);
     }
@@ -3624,11 +3889,20 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
 
   @Override
   public GlobalMessageSearchResult[] listMessagesGloballyByAuthor(
-      final long user, final int offset, final int length) throws UnexpectedException {
+      final long user, final MessageSearchResult after, final int length)
+      throws UnexpectedException {
+    return listMessagesGloballyByAuthor(user, after, false, length);
+  }
+
+  private GlobalMessageSearchResult[] listMessagesGloballyByAuthor(
+      final long user, final MessageSearchResult after, final boolean oldestFirst, final int length)
+      throws UnexpectedException {
     try {
-      return removeDuplicateMessages(
-          redactMessages(
-              m_da.getMessageManager().listMessagesGloballyByAuthor(user, offset, length)));
+      final MessageManager mm = m_da.getMessageManager();
+      return listGlobally(
+          each -> mm.listMessagesGloballyByAuthor(user, each, oldestFirst, length),
+          after,
+          length);
     } catch (final SQLException e) {
       throw new UnexpectedException(getLoggedInUserId(), e);
     }
@@ -3743,6 +4017,9 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
           cm.getUserCache().getStatistics(),
           cm.getConferenceCache().getStatistics(),
           cm.getPermissionCache().getStatistics(),
+          TransactionalInvocationHandler.getStatistics(),
+          DataAccessPool.instance().getStatistics(),
+          m_sessions.getStatistics(),
           m_da.getUserManager().countUsers(),
           m_da.getConferenceManager().countConferences(),
           m_da.getMessageManager().countMessages());
@@ -3753,11 +4030,34 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
 
   @Override
   public GlobalMessageSearchResult[] searchMessagesGlobally(
-      final String searchterm, final int offset, final int length) throws UnexpectedException {
+      final String searchterm, final MessageSearchResult after, final int length)
+      throws UnexpectedException {
+    return searchMessagesGlobally(searchterm, after, false, length);
+  }
+
+  private GlobalMessageSearchResult[] searchMessagesGlobally(
+      final String searchterm,
+      final MessageSearchResult after,
+      final boolean oldestFirst,
+      final int length)
+      throws UnexpectedException {
     try {
-      return removeDuplicateMessages(
-          redactMessages(
-              m_da.getMessageManager().searchMessagesGlobally(searchterm, offset, length)));
+      final SearchIndex index = getSearchIndex();
+      if (index != null) {
+        final SearchCursor cursor =
+            findHits(
+                "global:" + oldestFirst + ':' + searchterm,
+                after,
+                () -> index.searchGlobally(searchterm),
+                oldestFirst,
+                true);
+        return listGlobally(each -> toGlobalSearchResults(cursor, each, length), after, length);
+      }
+      final MessageManager mm = m_da.getMessageManager();
+      return listGlobally(
+          each -> mm.searchMessagesGlobally(searchterm, each, oldestFirst, length),
+          after,
+          length);
     } catch (final SQLException e) {
       throw new UnexpectedException(getLoggedInUserId(), e);
     }
@@ -3765,11 +4065,37 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
 
   @Override
   public LocalMessageSearchResult[] searchMessagesLocally(
-      final long conference, final String searchterm, final int offset, final int length)
+      final long conference,
+      final String searchterm,
+      final MessageSearchResult after,
+      final int length)
+      throws UnexpectedException {
+    return searchMessagesLocally(conference, searchterm, after, false, length);
+  }
+
+  private LocalMessageSearchResult[] searchMessagesLocally(
+      final long conference,
+      final String searchterm,
+      final MessageSearchResult after,
+      final boolean oldestFirst,
+      final int length)
       throws UnexpectedException {
     try {
+      final SearchIndex index = getSearchIndex();
+      final SearchCursor cursor =
+          index != null
+              ? findHits(
+                  "local:" + conference + ':' + oldestFirst + ':' + searchterm,
+                  after,
+                  () -> index.searchLocally(searchterm, conference),
+                  oldestFirst,
+                  false)
+              : null;
       return removeDuplicateMessages(
-          m_da.getMessageManager().searchMessagesLocally(conference, searchterm, offset, length));
+          cursor != null
+              ? toLocalSearchResults(cursor, after, length)
+              : m_da.getMessageManager()
+                  .searchMessagesLocally(conference, searchterm, after, oldestFirst, length));
     } catch (final SQLException e) {
       throw new UnexpectedException(getLoggedInUserId(), e);
     }
@@ -3777,16 +4103,221 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
 
   @Override
   public LocalMessageSearchResult[] grepMessagesLocally(
-      final long conference, final String searchterm, final int offset, final int length)
+      final long conference,
+      final String searchterm,
+      final MessageSearchResult after,
+      final int length)
+      throws UnexpectedException {
+    return grepMessagesLocally(conference, searchterm, after, false, length);
+  }
+
+  private LocalMessageSearchResult[] grepMessagesLocally(
+      final long conference,
+      final String searchterm,
+      final MessageSearchResult after,
+      final boolean oldestFirst,
+      final int length)
       throws UnexpectedException {
     try {
+      final SearchIndex index = getSearchIndex();
+      final SearchCursor cursor =
+          index != null
+              ? findHits(
+                  "grep:" + conference + ':' + oldestFirst + ':' + searchterm,
+                  after,
+                  () -> index.grepLocally(searchterm, conference),
+                  oldestFirst,
+                  false)
+              : null;
       return removeDuplicateMessages(
-          m_da.getMessageManager().grepMessagesLocally(conference, searchterm, offset, length));
+          cursor != null
+              ? toLocalSearchResults(cursor, after, length)
+              : m_da.getMessageManager()
+                  .grepMessagesLocally(conference, searchterm, after, oldestFirst, length));
     } catch (final SQLException e) {
       throw new UnexpectedException(getLoggedInUserId(), e);
     }
   }
 
+  /** Returns the search index, or <code>null</code> if searches should go to the database */
+  private static SearchIndex getSearchIndex() {
+    final SearchIndex index = SearchIndex.instance();
+    return index != null && index.isReady() ? index : null;
+  }
+
+  /**
+   * Returns the hits of a search in the index. The first page runs the search, and the following
+   * ones continue with the hits it found.
+   *
+   * @param key Identifies the search
+   * @param after The last message on the previous page, or <code>null</code> to get the first
+   * @param search Runs the search. May return <code>null</code> if the index can't handle it.
+   * @param oldestFirst Whether to list the hits by age, oldest first, rather than by relevance
+   * @param global Whether the hits come from all conferences
+   * @return The hits, or <code>null</code> if the search has to go to the database
+   */
+  private SearchCursor findHits(
+      final String key,
+      final MessageSearchResult after,
+      final Supplier<SearchIndex.Hit[]> search,
+      final boolean oldestFirst,
+      final boolean global) {
+    SearchCursor cursor = after != null ? m_searchCursors.get(key) : null;
+    if (cursor != null) {
+      return cursor;
+    }
+    final SearchIndex.Hit[] hits = search.get();
+    if (hits == null) {
+      return null;
+    }
+
+    // The index lists the best matches first. Message ids are handed out in
+    // order, so the oldest message has the lowest id.
+    //
+    if (oldestFirst) {
+      Arrays.sort(
+          hits,
+          global
+              ? (a, b) ->
+                  a.getMessage() != b.getMessage()
+                      ? Long.compare(a.getMessage(), b.getMessage())
+                      : Long.compare(a.getConference(), b.getConference())
+              : (a, b) -> Integer.compare(a.getLocalnum(), b.getLocalnum()));
+    }
+    cursor = new SearchCursor(hits, global);
+    m_searchCursors.put(key, cursor);
+    return cursor;
+  }
+
+  /** Fetches a page of a global listing, starting after a message */
+  private interface GlobalListing {
+    /**
+     * @param after The last message on the previous page, or <code>null</code> to get the first
+     *     page
+     */
+    GlobalMessageSearchResult[] list(MessageSearchResult after) throws SQLException;
+  }
+
+  /**
+   * Returns a page of a global listing, without the messages the user isn't allowed to see. If
+   * every message on a page is removed, the page after it is fetched, so that an empty page always
+   * means that the listing has ended.
+   *
+   * @param listing The listing
+   * @param after The last message on the previous page, or <code>null</code> to get the first
+   * @param length The size of the page
+   * @throws SQLException
+   * @throws UnexpectedException
+   */
+  private GlobalMessageSearchResult[] listGlobally(
+      final GlobalListing listing, final MessageSearchResult after, final int length)
+      throws SQLException, UnexpectedException {
+    MessageSearchResult last = after;
+    for (; ; ) {
+      final GlobalMessageSearchResult[] page = listing.list(last);
+      final GlobalMessageSearchResult[] answer = removeDuplicateMessages(redactMessages(page));
+      if (answer.length > 0 || page.length < length) {
+        return answer;
+      }
+      last = page[page.length - 1];
+    }
+  }
+
+  /**
+   * Turns a page of hits from the search index into search results. Only the messages on the page
+   * are looked up, and their headers usually come from the cache.
+   *
+   * @param cursor The hits
+   * @param after The last message on the previous page, or <code>null</code> to get the first
+   * @param length The size of the page
+   * @throws SQLException
+   */
+  private LocalMessageSearchResult[] toLocalSearchResults(
+      final SearchCursor cursor, final MessageSearchResult after, final int length)
+      throws SQLException {
+    final MessageManager mm = m_da.getMessageManager();
+    final List<LocalMessageSearchResult> answer = new ArrayList<>();
+    final SearchIndex.Hit[] hits = cursor.m_hits;
+    int idx = cursor.positionAfter(after);
+    final int top = Math.min(hits.length, idx + length);
+    cursor.handedOut(top);
+    for (; idx < top; ++idx) {
+      final SearchIndex.Hit hit = hits[idx];
+      final MessageHeader mh;
+      try {
+        mh = mm.loadMessageHeader(hit.getMessage());
+      } catch (final MessageNotFoundException e) {
+        // Deleted since we searched for it
+        //
+        continue;
+      }
+      NameAssociation mailRecipient = null;
+      final MessageAttribute[] attributes =
+          mm.getMatchingMessageAttributes(hit.getMessage(), MessageAttributes.MAIL_RECIPIENT);
+      if (attributes.length > 0) {
+        final String payload = attributes[0].getValue();
+        mailRecipient =
+            new NameAssociation(
+                MessageAttribute.parseUserIdPayload(payload, MessageAttributes.MAIL_RECIPIENT),
+                MessageAttribute.parseUserNamePayload(payload, MessageAttributes.MAIL_RECIPIENT));
+      }
+      answer.add(
+          new LocalMessageSearchResult(
+              hit.getMessage(),
+              hit.getLocalnum(),
+              new NameAssociation(mh.getAuthor(), mh.getAuthorName()),
+              mh.getSubject(),
+              mh.getReplyTo(),
+              mh.getCreated(),
+              mailRecipient));
+    }
+    return answer.toArray(new LocalMessageSearchResult[answer.size()]);
+  }
+
+  /**
+   * Turns a page of hits from the search index into global search results.
+   *
+   * @param cursor The hits
+   * @param after The last message on the previous page, or <code>null</code> to get the first
+   * @param length The size of the page
+   * @throws SQLException
+   * @see #toLocalSearchResults(SearchCursor, MessageSearchResult, int)
+   */
+  private GlobalMessageSearchResult[] toGlobalSearchResults(
+      final SearchCursor cursor, final MessageSearchResult after, final int length)
+      throws SQLException {
+    final MessageManager mm = m_da.getMessageManager();
+    final NameManager nm = m_da.getNameManager();
+    final List<GlobalMessageSearchResult> answer = new ArrayList<>();
+    final SearchIndex.Hit[] hits = cursor.m_hits;
+    int idx = cursor.positionAfter(after);
+    final int top = Math.min(hits.length, idx + length);
+    cursor.handedOut(top);
+    for (; idx < top; ++idx) {
+      final SearchIndex.Hit hit = hits[idx];
+      final MessageHeader mh;
+      final Name conference;
+      try {
+        mh = mm.loadMessageHeader(hit.getMessage());
+        conference = nm.getNameById(hit.getConference());
+      } catch (final ObjectNotFoundException e) {
+        // Deleted since we searched for it
+        //
+        continue;
+      }
+      answer.add(
+          new GlobalMessageSearchResult(
+              hit.getMessage(),
+              hit.getLocalnum(),
+              new NameAssociation(hit.getConference(), conference),
+              new NameAssociation(mh.getAuthor(), mh.getAuthorName()),
+              mh.getSubject(),
+              mh.getReplyTo(),
+              mh.getCreated()));
+    }
+    return answer.toArray(new GlobalMessageSearchResult[answer.size()]);
+  }
+
   protected boolean isVisibleFor(final long conferenceId, final long userId)
       throws ObjectNotFoundException, UnexpectedException {
     try {
@@ -3883,7 +4414,7 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
 
   protected boolean allowsChatInEventHandler(final long sender) {
     try {
-      final DataAccess da = DataAccessPool.instance().getDataAccess();
+      final DataAccess da = DataAccessPool.instance().getReservedDataAccess();
       try {
         return m_userContext.allowsChat(da.getUserManager(), sender);
       } finally {
@@ -3901,7 +4432,7 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
 
   protected boolean allowsBroadcastInEventHandler(final long sender) {
     try {
-      final DataAccess da = DataAccessPool.instance().getDataAccess();
+      final DataAccess da = DataAccessPool.instance().getReservedDataAccess();
       try {
         return m_userContext.allowsBroadcast(da.getUserManager(), sender);
       } finally {
@@ -4010,6 +4541,19 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
   @Override
   public long countSearchMessagesGlobally(final String searchterm) throws UnexpectedException {
     try {
+      // Only count occurrences in conferences we're members of
+      //
+      final SearchIndex index = getSearchIndex();
+      if (index != null) {
+        final MembershipList memberships = m_userContext.getMemberships();
+        long n = 0;
+        for (final SearchIndex.Hit each : index.searchGlobally(searchterm)) {
+          if (memberships.getOrNull(each.getConference()) != null) {
+            ++n;
+          }
+        }
+        return n;
+      }
       final MessageManager mm = m_da.getMessageManager();
       return mm.countSearchMessagesGlobally(searchterm, getLoggedInUserId());
     } catch (final SQLException e) {
@@ -4022,6 +4566,12 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
       throws UnexpectedException, AuthorizationException, ObjectNotFoundException {
     try {
       assertConferencePermission(conference, ConferencePermissions.READ_PERMISSION);
+      final SearchIndex index = getSearchIndex();
+      final SearchIndex.Hit[] hits =
+          index != null ? index.grepLocally(searchterm, conference) : null;
+      if (hits != null) {
+        return hits.length;
+      }
       final MessageManager mm = m_da.getMessageManager();
       return mm.countGrepMessagesLocally(conference, searchterm);
     } catch (final SQLException e) {
@@ -4034,6 +4584,10 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
       throws UnexpectedException, AuthorizationException, ObjectNotFoundException {
     try {
       assertConferencePermission(conference, ConferencePermissions.READ_PERMISSION);
+      final SearchIndex index = getSearchIndex();
+      if (index != null) {
+        return index.searchLocally(searchterm, conference).length;
+      }
       final MessageManager mm = m_da.getMessageManager();
       return mm.countSearchMessagesLocally(conference, searchterm);
     } catch (final SQLException e) {
@@ -4055,13 +4609,27 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
 
   @Override
   public MessageSearchResult[] listCommentsGloballyToAuthor(
-      final long user, final Timestamp startDate, final int offset, final int length)
+      final long user,
+      final Timestamp startDate,
+      final MessageSearchResult after,
+      final int length)
+      throws UnexpectedException {
+    return listCommentsGloballyToAuthor(user, startDate, after, false, length);
+  }
+
+  private MessageSearchResult[] listCommentsGloballyToAuthor(
+      final long user,
+      final Timestamp startDate,
+      final MessageSearchResult after,
+      final boolean oldestFirst,
+      final int length)
       throws UnexpectedException {
     try {
-      return removeDuplicateMessages(
-          redactMessages(
-              m_da.getMessageManager()
-                  .listCommentsGloballyToAuthor(user, startDate, offset, length)));
+      final MessageManager mm = m_da.getMessageManager();
+      return listGlobally(
+          each -> mm.listCommentsGloballyToAuthor(user, startDate, each, oldestFirst, length),
+          after,
+          length);
     } catch (final SQLException e) {
       throw new UnexpectedException(getLoggedInUserId(), e);
     }
@@ -4248,56 +4816,71 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
     return m_selectedMessages;
   }
 
+  @Override
+  public MessageLocator getNextSelectedMessage() throws UnexpectedException {
+    return m_selectedMessages.getNextMessage();
+  }
+
+  @Override
+  public MessageSearchResult[] listSelectedMessages(
+      final MessageSearchResult after, final int length) throws UnexpectedException {
+    return m_selectedMessages.list(after, length);
+  }
+
   @Override
   public boolean selectGrepMessagesLocally(final long conference, final String searchterm)
       throws UnexpectedException {
-    m_selectedMessages.setMessages(
-        grepMessagesLocally(conference, searchterm, 0, ServerSessionImpl.MAX_SELECTION),
-        isSelectionReversed());
-    return m_selectedMessages.getMessages().length < ServerSessionImpl.MAX_SELECTION;
+    final boolean oldestFirst = isSelectionReversed();
+    m_selectedMessages.select(
+        (after, length) ->
+            grepMessagesLocally(conference, searchterm, after, oldestFirst, length));
+    return m_selectedMessages.isComplete();
   }
 
   @Override
   public boolean selectMessagesGlobally(final String searchterm) throws UnexpectedException {
-    m_selectedMessages.setMessages(
-        searchMessagesGlobally(searchterm, 0, ServerSessionImpl.MAX_SELECTION),
-        isSelectionReversed());
-    return m_selectedMessages.getMessages().length < ServerSessionImpl.MAX_SELECTION;
+    final boolean oldestFirst = isSelectionReversed();
+    m_selectedMessages.select(
+        (after, length) -> searchMessagesGlobally(searchterm, after, oldestFirst, length));
+    return m_selectedMessages.isComplete();
   }
 
   @Override
   public boolean selectMessagesGloballyByAuthor(final long user) throws UnexpectedException {
-    m_selectedMessages.setMessages(
-        listMessagesGloballyByAuthor(user, 0, ServerSessionImpl.MAX_SELECTION),
-        isSelectionReversed());
-    return m_selectedMessages.getMessages().length < ServerSessionImpl.MAX_SELECTION;
+    final boolean oldestFirst = isSelectionReversed();
+    m_selectedMessages.select(
+        (after, length) -> listMessagesGloballyByAuthor(user, after, oldestFirst, length));
+    return m_selectedMessages.isComplete();
   }
 
   @Override
   public boolean selectMessagesLocally(final long conference, final String searchterm)
       throws UnexpectedException {
-    m_selectedMessages.setMessages(
-        searchMessagesLocally(conference, searchterm, 0, ServerSessionImpl.MAX_SELECTION),
-        isSelectionReversed());
-    return m_selectedMessages.getMessages().length < ServerSessionImpl.MAX_SELECTION;
+    final boolean oldestFirst = isSelectionReversed();
+    m_selectedMessages.select(
+        (after, length) ->
+            searchMessagesLocally(conference, searchterm, after, oldestFirst, length));
+    return m_selectedMessages.isComplete();
   }
 
   @Override
   public boolean selectMessagesLocallyByAuthor(final long conference, final long user)
       throws UnexpectedException {
-    m_selectedMessages.setMessages(
-        listMessagesLocallyByAuthor(conference, user, 0, ServerSessionImpl.MAX_SELECTION),
-        isSelectionReversed());
-    return m_selectedMessages.getMessages().length < ServerSessionImpl.MAX_SELECTION;
+    final boolean oldestFirst = isSelectionReversed();
+    m_selectedMessages.select(
+        (after, length) ->
+            listMessagesLocallyByAuthor(conference, user, after, oldestFirst, length));
+    return m_selectedMessages.isComplete();
   }
 
   @Override
   public boolean selectCommentsGloballyToAuthor(final long user, final Timestamp startDate)
       throws UnexpectedException {
-    m_selectedMessages.setMessages(
-        listCommentsGloballyToAuthor(user, startDate, 0, ServerSessionImpl.MAX_SELECTION),
-        isSelectionReversed());
-    return m_selectedMessages.getMessages().length < ServerSessionImpl.MAX_SELECTION;
+    final boolean oldestFirst = isSelectionReversed();
+    m_selectedMessages.select(
+        (after, length) ->
+            listCommentsGloballyToAuthor(user, startDate, after, oldestFirst, length));
+    return m_selectedMessages.isComplete();
   }
 
   private boolean isSelectionReversed() {
@@ -4306,6 +4889,15 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
 
   private interface MessageOperation {
     void perform(long messageId) throws ObjectNotFoundException, UnexpectedException;
+
+    /**
+     * Performs the operation on a number of messages at once
+     *
+     * @param messageIds The messages
+     * @param tree A tree holding the occurrences of the messages
+     */
+    void perform(long[] messageIds, ReplyTree tree)
+        throws ObjectNotFoundException, UnexpectedException;
   }
 
   private abstract static class DeferredEvent {
@@ -4343,6 +4935,69 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
     }
   }
 
+  /**
+   * The hits of a search in the index, and how far we've paged through them. Hits are listed by
+   * relevance, so a page continues after the score and message of the last hit on the previous
+   * one.
+   */
+  private static final class SearchCursor {
+    private final SearchIndex.Hit[] m_hits;
+
+    private final boolean m_global;
+
+    /** Position of the first hit that hasn't been handed out */
+    private int m_next;
+
+    /** The last hit handed out, or <code>null</code> */
+    private SearchIndex.Hit m_last;
+
+    private SearchCursor(final SearchIndex.Hit[] hits, final boolean global) {
+      m_hits = hits;
+      m_global = global;
+    }
+
+    /**
+     * Returns the position of the first hit after a message. A message that occurs in several
+     * conferences has one hit for each of them, and they're all skipped.
+     *
+     * @param after The message, or <code>null</code> to start from the beginning
+     */
+    private int positionAfter(final MessageSearchResult after) {
+      if (after == null) {
+        return 0;
+      }
+
+      // Usually, we're asked for the page after the last one
+      //
+      int pos = m_hits.length;
+      if (m_last != null && this.matches(m_last, after)) {
+        pos = m_next;
+      } else {
+        for (int idx = 0; idx < m_hits.length; ++idx) {
+          if (this.matches(m_hits[idx], after)) {
+            pos = idx + 1;
+            break;
+          }
+        }
+      }
+      while (pos < m_hits.length && this.matches(m_hits[pos], after)) {
+        ++pos;
+      }
+      return pos;
+    }
+
+    private void handedOut(final int next) {
+      m_next = next;
+      m_last = next > 0 ? m_hits[next - 1] : null;
+    }
+
+    private boolean matches(final SearchIndex.Hit hit, final MessageSearchResult result) {
+      return m_global
+          ? hit.getMessage() == result.getGlobalId()
+          : hit.getLocalnum() == result.getLocalId();
+    }
+  }
+
   private static class SortableMembershipInfo implements Comparable<SortableMembershipInfo> {
     private final MembershipInfo m_mi;
     private final long m_parentCount;
@@ -4399,6 +5054,21 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
     public void perform(final long messageId) throws UnexpectedException {
       innerMarkAsUnreadAtLogout(messageId);
     }
+
+    @Override
+    public void perform(final long[] messageIds, final ReplyTree tree) {
+      final ServerSessionImpl that = ServerSessionImpl.this;
+      final MembershipList memberships = that.m_userContext.getMemberships();
+      final long conference = that.getCurrentConferenceId();
+      for (final long each : messageIds) {
+        final MessageOccurrence occ =
+            getMostRelevantOccurrence(tree.getOccurrences(each), conference, memberships);
+        if (occ != null) {
+          that.m_pendingUnreads =
+              new ReadLogItem(that.m_pendingUnreads, occ.getConference(), occ.getLocalnum());
+        }
+      }
+    }
   }
 
   private class MarkAsReadOperation implements MessageOperation {
@@ -4416,5 +5086,30 @@ public class ServerSessionImpl implements ServerSession, EventTarget, EventSourc
         throw new UnexpectedException(that.getLoggedInUserId(), e);
       }
     }
+
+    @Override
+    public void perform(final long[] messageIds, final ReplyTree tree) {
+      // Collect the visible occurrences per conference and mark them all in one go
+      //
+      final MembershipList memberships = ServerSessionImpl.this.m_userContext.getMemberships();
+      final Map<Long, List<Integer>> byConference = new HashMap<>();
+      for (final long each : messageIds) {
+        for (final MessageOccurrence mo : tree.getOccurrences(each)) {
+          if (memberships.getOrNull(mo.getConference()) != null) {
+            byConference
+                .computeIfAbsent(mo.getConference(), k -> new ArrayList<>())
+                .add(mo.getLocalnum());
+          }
+        }
+      }
+      for (final Map.Entry<Long, List<Integer>> each : byConference.entrySet()) {
+        final List<Integer> list = each.getValue();
+        final int[] localnums = new int[list.size()];
+        for (int idx = 0; idx < localnums.length; ++idx) {
+          localnums[idx] = list.get(idx);
+        }
+        memberships.markAsRead(each.getKey(), localnums);
+      }
+    }
   }
 }
@@ -7,6 +7,7 @@
 package nu.rydin.kom.backend;
 
 import java.util.Map;
+import java.util.Properties;
 import nu.rydin.kom.SystemSettings;
 
 /** @author Pontus Rydin */
@@ -25,6 +26,15 @@ public class ServerSettings {
     return s_settings.getString("server.jdbc.connect");
   }
 
+  /** Returns the JDBC URL of the read replica, or <code>null</code> if there is none. */
+  public static String getJDBCReplicaConnectString() {
+    return s_settings.getString("server.jdbc.replica.connect");
+  }
+
+  public static long getReplicaReadYourWritesWindow() {
+    return s_settings.getLong("server.jdbc.replica.window", 5000);
+  }
+
   public static int getSessionShutdownRetries() {
     return s_settings.getInt("server.session.shutdown.retries");
   }
@@ -37,6 +47,100 @@ public class ServerSettings {
     return s_settings.getInt("server.initial.data.access");
   }
 
+  public static int getMaxDataAccess() {
+    return s_settings.getInt("server.max.data.access", 50);
+  }
+
+  public static long getDataAccessTimeout() {
+    return s_settings.getLong("server.data.access.timeout", 30000);
+  }
+
+  public static int getDataAccessReserve() {
+    return s_settings.getInt("server.data.access.reserve", 5);
+  }
+
+  public static long getDataAccessValidationInterval() {
+    return s_settings.getLong("server.data.access.validation.interval", 60000);
+  }
+
+  public static long getDataAccessLeakThreshold() {
+    return s_settings.getLong("server.data.access.leak.threshold", 300000);
+  }
+
+  public static boolean getDataAccessLeakTrace() {
+    return s_settings.getBoolean("server.data.access.leak.trace", false);
+  }
+
+  public static boolean getLazyStatementPreparation() {
+    return s_settings.getBoolean("server.jdbc.lazy.statements", true);
+  }
+
+  /**
+   * Returns driver properties controlling statement caching. These are MySQL Connector/J
+   * properties, and are only set when statement caching has been asked for.
+   */
+  public static Properties getJDBCProperties() {
+    final Properties answer = new Properties();
+    final int cacheSize = s_settings.getInt("server.jdbc.statement.cache.size", 0);
+    if (cacheSize > 0) {
+      answer.setProperty("cachePrepStmts", "true");
+      answer.setProperty("prepStmtCacheSize", Integer.toString(cacheSize));
+      answer.setProperty(
+          "prepStmtCacheSqlLimit",
+          s_settings.getString("server.jdbc.statement.cache.sql.limit", "2048"));
+    }
+    if (s_settings.getBoolean("server.jdbc.server.statements", false)) {
+      answer.setProperty("useServerPrepStmts", "true");
+    }
+    return answer;
+  }
+
+  public static boolean getMarkerWriteBehind() {
+    return s_settings.getBoolean("server.markers.write.behind", true);
+  }
+
+  public static long getMarkerFlushInterval() {
+    return s_settings.getLong("server.markers.flush.interval", 5000);
+  }
+
+  public static int getMaxPendingMarkers() {
+    return s_settings.getInt("server.markers.max.pending", 1000);
+  }
+
+  /** Returns the directory of the search index, or <code>null</code> if searches go to MySQL */
+  public static String getSearchIndexDirectory() {
+    return s_settings.getString("server.search.index.directory");
+  }
+
+  public static boolean getSearchIndexRebuild() {
+    return s_settings.getBoolean("server.search.index.rebuild", false);
+  }
+
+  public static int getSearchIndexBufferSize() {
+    return s_settings.getInt("server.search.index.buffer.size", 1000);
+  }
+
+  public static long getSearchIndexFlushInterval() {
+    return s_settings.getLong("server.search.index.flush.interval", 60000);
+  }
+
+  public static int getSearchIndexMergeFactor() {
+    return s_settings.getInt("server.search.index.merge.factor", 8);
+  }
+
+  public static int getEventDispatchers() {
+    return s_settings.getInt(
+        "server.event.dispatchers", Runtime.getRuntime().availableProcessors());
+  }
+
+  public static int getEventMailboxSize() {
+    return s_settings.getInt("server.event.mailbox.size", 256);
+  }
+
+  public static int getEventMailboxLimit() {
+    return s_settings.getInt("server.event.mailbox.limit", 1024);
+  }
+
   public static long getTicketLifetime() {
     return s_settings.getLong("server.ticket.lifetime");
   }
@@ -44,4 +148,16 @@ public class ServerSettings {
   public static long getIdleNotificationThreashold() {
     return s_settings.getLong("server.idle.notification.threashold");
   }
+
+  public static int getCacheSize(String cache, int defaultSize) {
+    return s_settings != null
+        ? s_settings.getInt("server.cache." + cache + ".size", defaultSize)
+        : defaultSize;
+  }
+
+  public static String getCachePolicy(String cache, String defaultPolicy) {
+    return s_settings != null
+        ? s_settings.getString("server.cache." + cache + ".policy", defaultPolicy)
+        : defaultPolicy;
+  }
 }
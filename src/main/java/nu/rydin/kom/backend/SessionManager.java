@@ -6,38 +6,82 @@
  */
 package nu.rydin.kom.backend;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import nu.rydin.kom.events.Event;
-import nu.rydin.kom.events.EventTarget;
 import nu.rydin.kom.events.SessionShutdownEvent;
+import nu.rydin.kom.structs.BroadcastStatistics;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
  * Holds the currently active sessions.
  *
+ * <p>Events are delivered to each session through a mailbox, which is drained by a pool of
+ * dispatcher threads. Posting an event never waits for the recipient, so events are delivered
+ * after the poster has moved on. A session is handed one event at a time, in the order they were
+ * posted, while holding the same locks as a call to the session. If someone else holds them, the
+ * dispatcher doesn't wait but moves on to other mailboxes and tries again a little later, so a
+ * session that is busy or slow to handle its events doesn't hold up anyone else.
+ *
+ * <p>When a mailbox is full, a new event is combined with a similar event that's already waiting,
+ * if possible. Events that only tell the session that something has changed are otherwise replaced
+ * by a single request to resynchronize its state. Other events, such as chat messages, are queued
+ * even if the mailbox is full, but only up to a hard limit. A session that has fallen that far
+ * behind isn't keeping up anyway, so anything past the limit is dropped.
+ *
  * @author Pontus Rydin
  */
 public class SessionManager {
   private static final Logger LOG = LogManager.getLogger(SessionManager.class);
   /** Currently active sessions keyed by session id */
-  private final Map<Integer, ServerSession> m_sessionsById =
-      Collections.synchronizedMap(new HashMap<>());
+  private final Map<Integer, ServerSession> m_sessionsById = new ConcurrentHashMap<>();
+
+  /**
+   * Currently active sessions as an ordered list. Sessions come and go far less often than the list
+   * is read, so it's copied on every change and can be read without locking.
+   */
+  private final List<ServerSession> m_orderedList = new CopyOnWriteArrayList<>();
+
+  /**
+   * Currently active sessions keyed by user id. Only users with at least one session are present.
+   */
+  private final Map<Long, List<ServerSession>> m_sessionsByUser = new ConcurrentHashMap<>();
+
+  /** Mailboxes of the currently active sessions, keyed by session id */
+  private final Map<Integer, Mailbox> m_mailboxes = new ConcurrentHashMap<>();
+
+  private final LongAdder m_numDelivered = new LongAdder();
+
+  private final LongAdder m_numCoalesced = new LongAdder();
+
+  private final LongAdder m_numResyncs = new LongAdder();
+
+  private final LongAdder m_numOverflowed = new LongAdder();
 
-  /** Currently active sessions as an ordered list. */
-  private final List<ServerSession> m_orderedList =
-      Collections.synchronizedList(new LinkedList<>());
+  private final LongAdder m_numDropped = new LongAdder();
 
-  /** Queue of events to be broadcasted */
-  private final LinkedList<Event> m_broadcastQueue = new LinkedList<>();
+  private final LongAdder m_totalLatency = new LongAdder();
 
-  private Broadcaster m_broadcaster;
+  private final AtomicLong m_maxLatency = new AtomicLong();
+
+  private ScheduledExecutorService m_dispatchers;
+  private int m_mailboxSize;
+  private int m_mailboxLimit;
   private boolean m_allowLogin;
 
   public SessionManager() {
@@ -45,16 +89,25 @@ public class SessionManager {
   }
 
   public void start() {
-    m_broadcaster = new Broadcaster();
-    m_broadcaster.start();
+    m_mailboxSize = ServerSettings.getEventMailboxSize();
+    m_mailboxLimit = Math.max(m_mailboxSize, ServerSettings.getEventMailboxLimit());
+    final AtomicInteger count = new AtomicInteger();
+    m_dispatchers =
+        Executors.newScheduledThreadPool(
+            ServerSettings.getEventDispatchers(),
+            r -> {
+              final Thread t = new Thread(r, "Event dispatcher " + count.incrementAndGet());
+              t.setDaemon(true);
+              return t;
+            });
   }
 
   public void stop() {
-    m_broadcaster.interrupt();
+    m_dispatchers.shutdownNow();
   }
 
   public void join() throws InterruptedException {
-    m_broadcaster.join();
+    m_dispatchers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
   }
 
   public boolean canLogin() {
@@ -109,9 +162,18 @@ public class SessionManager {
    *
    * @param session The session
    */
-  public synchronized void registerSession(final ServerSession session) {
+  public void registerSession(final ServerSession session) {
     m_sessionsById.put(session.getSessionId(), session);
     m_orderedList.add(session);
+    m_sessionsByUser.compute(
+        session.getLoggedInUserId(),
+        (user, sessions) -> {
+          final List<ServerSession> list =
+              sessions != null ? sessions : new CopyOnWriteArrayList<>();
+          list.add(session);
+          return list;
+        });
+    m_mailboxes.put(session.getSessionId(), new Mailbox(session));
   }
 
   /**
@@ -119,9 +181,22 @@ public class SessionManager {
    *
    * @param session The session
    */
-  public synchronized void unRegisterSession(final ServerSession session) {
+  public void unRegisterSession(final ServerSession session) {
     m_sessionsById.remove(session.getSessionId());
     m_orderedList.remove(session);
+
+    // Drop the user from the index along with the last session
+    //
+    m_sessionsByUser.computeIfPresent(
+        session.getLoggedInUserId(),
+        (user, sessions) -> {
+          sessions.remove(session);
+          return sessions.isEmpty() ? null : sessions;
+        });
+    final Mailbox mailbox = m_mailboxes.remove(session.getSessionId());
+    if (mailbox != null) {
+      mailbox.close();
+    }
   }
 
   /**
@@ -129,23 +204,23 @@ public class SessionManager {
    *
    * @param sessionId The session id
    */
-  public synchronized ServerSession getSessionById(final int sessionId) {
+  public ServerSession getSessionById(final int sessionId) {
     return m_sessionsById.get(sessionId);
   }
 
   /** Lists the sessions in the order they were created. */
-  public synchronized List<ServerSession> listSessions() {
-    return new LinkedList<>(m_orderedList);
+  public List<ServerSession> listSessions() {
+    return new ArrayList<>(m_orderedList);
   }
 
+  /**
+   * Lists the sessions of a user in the order they were created.
+   *
+   * @param u The user ID.
+   */
   public List<ServerSession> getSessionsByUser(final long u) {
-    final ArrayList<ServerSession> list = new ArrayList<>();
-    for (final ServerSession each : m_orderedList) {
-      if (each.getLoggedInUserId() == u) {
-        list.add(each);
-      }
-    }
-    return list;
+    final List<ServerSession> sessions = m_sessionsByUser.get(u);
+    return sessions != null ? new ArrayList<>(sessions) : Collections.emptyList();
   }
 
   /**
@@ -153,18 +228,31 @@ public class SessionManager {
    *
    * @param u The user ID.
    */
-  public synchronized boolean userHasSession(final long u) {
-    return getSessionsByUser(u).size() > 0;
+  public boolean userHasSession(final long u) {
+    return m_sessionsByUser.containsKey(u);
   }
 
   /**
-   * Broadcasts an event to all currently active sessions
+   * Broadcasts an event to all currently active sessions. The event is only put in their mailboxes,
+   * so this never waits for the sessions.
    *
    * @param e The event
    */
-  public synchronized void broadcastEvent(final Event e) {
-    m_broadcastQueue.addLast(e);
-    notify();
+  public void broadcastEvent(final Event e) {
+    // Note: We're working on a snapshot here, which means that we might
+    // actually end up sending events to sessions that are on their way down
+    // and miss sessions that are appearing as we do this. The race-condition
+    // is reasonably benign, so we accept that trade-off.
+    //
+    for (final ServerSession each : listSessions()) {
+      // Don't send to originator unless the event explicitly ask
+      // for it.
+      //
+      if (!e.sendToSelf() && each.getLoggedInUserId() == e.getOriginatingUser()) {
+        continue;
+      }
+      post(each, e);
+    }
   }
 
   /**
@@ -174,114 +262,265 @@ public class SessionManager {
    * @param e The event
    */
   public void sendEvent(final long user, final Event e) {
-    final List<ServerSession> s;
-    synchronized (this) {
-      s = getSessionsByUser(user);
+    // Fail silently if we couldn't find any sessions for the user
+    //
+    for (final ServerSession serverSession : getSessionsByUser(user)) {
+      post(serverSession, e);
     }
+  }
 
-    // Fail silently if we couldn't find any sessions for the user
+  public BroadcastStatistics getStatistics() {
+    int queueDepth = 0;
+    int maxQueueDepth = 0;
+    for (final Mailbox each : m_mailboxes.values()) {
+      final int depth = each.size();
+      queueDepth += depth;
+      maxQueueDepth = Math.max(maxQueueDepth, depth);
+    }
+    return new BroadcastStatistics(
+        m_numDelivered.sum(),
+        m_numCoalesced.sum(),
+        m_numResyncs.sum(),
+        m_numOverflowed.sum(),
+        m_numDropped.sum(),
+        queueDepth,
+        maxQueueDepth,
+        m_totalLatency.sum(),
+        m_maxLatency.get());
+  }
+
+  private void post(final ServerSession session, final Event e) {
+    final Mailbox mailbox = m_mailboxes.get(session.getSessionId());
+
+    // No mailbox? The session is on its way down.
     //
-    for (final ServerSession serverSession : s) {
-      e.dispatch((EventTarget) serverSession);
+    if (mailbox != null) {
+      mailbox.offer(e);
+    }
+  }
+
+  /**
+   * An event waiting in a mailbox, with the time it was posted. A letter without an event asks the
+   * session to resynchronize.
+   */
+  private static class Letter {
+    private Event event;
+
+    private final long posted;
+
+    private Letter(final Event event) {
+      this.event = event;
+      posted = System.currentTimeMillis();
     }
   }
 
-  private class Broadcaster extends Thread {
-    private static final int INITIAL_RETRY_WAIT = 1000;
-    private static final int RETRY_WAIT_INC = 1000;
-    private static final int MAX_RETRY_WAIT = 5000;
+  /**
+   * The events waiting to be delivered to a session. At most one dispatcher works on a mailbox at
+   * any time, so the events are delivered one at a time and in order.
+   */
+  private class Mailbox implements Runnable {
+    /** Maximum number of events delivered before giving other mailboxes a chance */
+    private static final int BATCH_SIZE = 32;
+
+    /** Milliseconds to wait before trying again when the session is busy */
+    private static final long RETRY_DELAY = 10;
+
+    private final ServerSessionImpl m_session;
+
+    private final ArrayDeque<Letter> m_letters = new ArrayDeque<>();
+
+    private final ReentrantLock m_lock = new ReentrantLock();
+
+    /** Whether a dispatcher has been asked to deliver the events */
+    private boolean m_scheduled;
 
-    public Broadcaster() {
-      super("Broadcaster");
-      setDaemon(true);
+    private boolean m_closed;
+
+    /** Whether a request to resynchronize is waiting */
+    private boolean m_resync;
+
+    /** Whether events have been dropped since the mailbox was last below its limit */
+    private boolean m_dropping;
+
+    private Mailbox(final ServerSession session) {
+      m_session = (ServerSessionImpl) session;
+    }
+
+    private void offer(final Event e) {
+      m_lock.lock();
+      try {
+        if (m_closed) {
+          return;
+        }
+        if (m_letters.size() < m_mailboxSize || !this.overflow(e)) {
+          if (m_letters.size() < m_mailboxLimit) {
+            m_letters.addLast(new Letter(e));
+            m_dropping = false;
+          } else {
+            this.drop(e);
+          }
+        }
+        if (m_scheduled) {
+          return;
+        }
+        m_scheduled = true;
+      } finally {
+        m_lock.unlock();
+      }
+      this.schedule();
+    }
+
+    /**
+     * Handles an event that doesn't fit. The lock must be held.
+     *
+     * @return <tt>true</tt> if the event was taken care of, <tt>false</tt> if it has to be queued
+     *     anyway
+     */
+    private boolean overflow(final Event e) {
+      // Look for a newer event to combine it with first, since that's
+      // the most likely to be similar.
+      //
+      for (final Iterator<Letter> itor = m_letters.descendingIterator(); itor.hasNext(); ) {
+        final Letter each = itor.next();
+        final Event combined = each.event != null ? each.event.coalesce(e) : null;
+        if (combined != null) {
+          each.event = combined;
+          m_numCoalesced.increment();
+          return true;
+        }
+      }
+
+      // Can the session make up for it by resynchronizing? A request to do
+      // that may already be waiting. It's handled after this event was
+      // posted, so it will see the change.
+      //
+      if (e.canResync()) {
+        if (!m_resync) {
+          m_resync = true;
+          m_letters.addLast(new Letter(null));
+          m_numResyncs.increment();
+          LOG.warn(
+              "Mailbox of session " + m_session.getSessionId() + " is full. Asking it to resync");
+        }
+        return true;
+      }
+      m_numOverflowed.increment();
+      return false;
+    }
+
+    /** Drops an event past the hard limit. The lock must be held. */
+    private void drop(final Event e) {
+      m_numDropped.increment();
+      if (!m_dropping) {
+        m_dropping = true;
+        LOG.warn(
+            "Mailbox of session "
+                + m_session.getSessionId()
+                + " is over its limit of "
+                + m_mailboxLimit
+                + " events. Dropping "
+                + e.getClass().getSimpleName()
+                + " and any more events until it catches up");
+      }
+    }
+
+    private void close() {
+      m_lock.lock();
+      try {
+        m_closed = true;
+        m_letters.clear();
+      } finally {
+        m_lock.unlock();
+      }
+    }
+
+    private int size() {
+      m_lock.lock();
+      try {
+        return m_letters.size();
+      } finally {
+        m_lock.unlock();
+      }
+    }
+
+    private void schedule() {
+      try {
+        m_dispatchers.execute(this);
+      } catch (final RejectedExecutionException e) {
+        // Shutting down. Nothing will be delivered anymore.
+        //
+      }
+    }
+
+    private void retryLater() {
+      try {
+        m_dispatchers.schedule(this, RETRY_DELAY, TimeUnit.MILLISECONDS);
+      } catch (final RejectedExecutionException e) {
+        // Shutting down. Nothing will be delivered anymore.
+        //
+      }
     }
 
     @Override
     public void run() {
-      try {
-        for (; ; ) {
-          final SessionManager sm = SessionManager.this;
-          final List<ServerSession> sessions;
-          final Event e;
-          synchronized (sm) {
-            while (sm.m_broadcastQueue.isEmpty()) {
-              sm.wait();
-            }
-            e = sm.m_broadcastQueue.removeFirst();
-            sessions = sm.listSessions();
+      for (int idx = 0; idx < BATCH_SIZE; ++idx) {
+        final Letter letter;
+        m_lock.lock();
+        try {
+          letter = m_letters.pollFirst();
+          if (letter == null) {
+            m_scheduled = false;
+            return;
+          }
+          if (letter.event == null) {
+            m_resync = false;
           }
+        } finally {
+          m_lock.unlock();
+        }
 
-          // Note: We're working on a snapshot here, which means that
-          // we might actually end up sending events to sessions that
-          // are on their way down and miss sessions that are appearing
-          // as we do this. The alternative would have been to lock the
-          // queue while we're doing this. Since the possible race-condition
-          // is reasonably benign and the cost of locking the queue might
-          // potentially be high (event handlers do not execute in
-          // deterministic time), we accept that trade-off.
-          //
-          int retryWait = INITIAL_RETRY_WAIT;
-
-          // Create snapshot to iterate over
-          //
-          for (final Iterator<ServerSession> itor = sessions.iterator(); itor.hasNext(); ) {
-            for (; ; ) {
-              // We absolutely don't want this thread to die, so we need
-              // to handle exceptions carefully.
-              //
-              try {
-                final ServerSession each = itor.next();
-
-                // Don't send to originator unless the event explicitly ask
-                // for it.
-                //
-                if (!e.sendToSelf() && each.getLoggedInUserId() == e.getOriginatingUser()) {
-                  break;
-                }
-                final ServerSessionImpl sess = (ServerSessionImpl) each;
-                sess.acquireMutex();
-                try {
-                  e.dispatch((EventTarget) each);
-                } finally {
-                  sess.releaseMutex();
-                }
-
-                // If we get here, we didn't run into any problems
-                // and we don't have to retry.
-                //
-                break;
-              } catch (final InterruptedException ex) {
-                // Shutting down, we're outta here!
-                //
-                throw ex;
-              } catch (final Throwable t) {
-                // Log this!
-                //
-                LOG.error("Exception in Broadcaster", t);
-
-                // Unhandled exception. Wait and retry. We increase the wait
-                // for every failure and eventually give up.
-                //
-                if (retryWait > MAX_RETRY_WAIT) {
-                  // We've exceeded the max retry time. Skip this session!
-                  //
-                  LOG.warn("Giving up!");
-                  retryWait = INITIAL_RETRY_WAIT;
-                  break;
-                }
-
-                // Try again, but first, wait a little
-                //
-                LOG.warn("Retrying... ");
-                Thread.sleep(retryWait);
-                retryWait += RETRY_WAIT_INC;
-              }
+        // We absolutely don't want a dispatcher to die, so we need
+        // to handle exceptions carefully.
+        //
+        boolean delivered = true;
+        try {
+          delivered =
+              letter.event != null ? m_session.deliverEvent(letter.event) : m_session.resync();
+        } catch (final Throwable t) {
+          LOG.error("Exception while delivering event", t);
+        }
+
+        // The session is busy. Put the event back where it was and
+        // see to the other mailboxes in the meantime.
+        //
+        if (!delivered) {
+          m_lock.lock();
+          try {
+            if (m_closed) {
+              return;
+            }
+
+            // Another request to resync may have been queued since
+            //
+            if (letter.event != null || !m_resync) {
+              m_resync |= letter.event == null;
+              m_letters.addFirst(letter);
             }
+          } finally {
+            m_lock.unlock();
           }
+          this.retryLater();
+          return;
         }
-      } catch (final InterruptedException e) {
-        // Graceful shutdown
+        final long latency = System.currentTimeMillis() - letter.posted;
+        m_numDelivered.increment();
+        m_totalLatency.add(latency);
+        m_maxLatency.accumulateAndGet(latency, Math::max);
       }
+
+      // There's more, but let the other mailboxes have their turn first
+      //
+      this.schedule();
     }
   }
 }
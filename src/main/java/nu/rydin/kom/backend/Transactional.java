@@ -0,0 +1,37 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.backend;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Tells the <code>TransactionalInvocationHandler</code> how much of a transaction a <code>
+ * ServerSession</code> method needs. Methods without this annotation are treated as read-write.
+ *
+ * @author Pontus Rydin
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Transactional {
+  Kind value() default Kind.READ_WRITE;
+
+  enum Kind {
+    /** Only touches session state in memory. Never needs a database connection. */
+    NONE,
+
+    /** Reads from the database, but never changes it. No commit is needed. */
+    READ_ONLY,
+
+    /** May change the database. */
+    READ_WRITE
+  }
+}
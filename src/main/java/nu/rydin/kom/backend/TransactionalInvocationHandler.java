@@ -9,18 +9,53 @@ package nu.rydin.kom.backend;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import nu.rydin.kom.backend.search.SearchIndex;
 import nu.rydin.kom.exceptions.InternalException;
+import nu.rydin.kom.structs.TransactionStatistics;
 
 /** @author Pontus Rydin */
 public class TransactionalInvocationHandler implements InvocationHandler {
+  /**
+   * Database round-trips saved by a call that doesn't need a connection: committing and rolling
+   * back when it's returned.
+   */
+  private static final int NON_TRANSACTIONAL_SAVINGS = 2;
+
+  /** Database round-trips saved by a call that doesn't need a commit */
+  private static final int READ_ONLY_SAVINGS = 1;
+
+  private static final LongAdder[] s_invocations = {
+    new LongAdder(), new LongAdder(), new LongAdder()
+  };
+
+  private static final LongAdder s_savedRoundTrips = new LongAdder();
+
+  private static final LongAdder s_replicaInvocations = new LongAdder();
+
   private final ServerSessionImpl m_session;
 
   private final CacheManager m_cacheManager = CacheManager.instance();
 
+  private final long m_readYourWritesWindow = ServerSettings.getReplicaReadYourWritesWindow();
+
+  /** When this session last ran something that may have written to the database */
+  private volatile long m_lastWrite;
+
   public TransactionalInvocationHandler(final ServerSessionImpl session) {
     m_session = session;
   }
 
+  public static TransactionStatistics getStatistics() {
+    return new TransactionStatistics(
+        s_invocations[Transactional.Kind.NONE.ordinal()].sum(),
+        s_invocations[Transactional.Kind.READ_ONLY.ordinal()].sum(),
+        s_invocations[Transactional.Kind.READ_WRITE.ordinal()].sum(),
+        s_replicaInvocations.sum(),
+        s_savedRoundTrips.sum());
+  }
+
   @Override
   public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
     // Don't even try if the session is invalid
@@ -28,40 +63,121 @@ public class TransactionalInvocationHandler implements InvocationHandler {
     if (!m_session.isValid()) {
       throw new InternalException("Invalid session!");
     }
-    final DataAccess da = DataAccessPool.instance().getDataAccess();
+    final Transactional annotation = method.getAnnotation(Transactional.class);
+    final Transactional.Kind kind =
+        annotation != null ? annotation.value() : Transactional.Kind.READ_WRITE;
+    s_invocations[kind.ordinal()].increment();
+    if (kind == Transactional.Kind.NONE) {
+      s_savedRoundTrips.add(NON_TRANSACTIONAL_SAVINGS);
+      return invokeNonTransactional(method, args);
+    }
+
+    // Send reads to the replica, if we have one. Unless we wrote something very recently, that is.
+    // The replica may not have caught up with that yet, and we want to see our own writes.
+    //
+    final DataAccessPool replica = DataAccessPool.replica();
+    final DataAccessPool pool =
+        kind == Transactional.Kind.READ_ONLY
+                && replica != null
+                && System.currentTimeMillis() - m_lastWrite > m_readYourWritesWindow
+            ? replica
+            : DataAccessPool.instance();
+    final DataAccess da = pool.getDataAccess();
     boolean committed = false;
+    final ReentrantLock lock = m_session.m_userContext.getLock();
+    lock.lock();
     try {
-      synchronized (m_session.m_userContext) {
+      try {
         // Make sure we're the only ones fiddling with this session
         //
         m_session.acquireMutex();
         m_session.setDataAccess(da);
 
+        // Anything we read from now on may be outdated by someone else's commit, so make
+        // sure the caches can tell.
+        //
+        m_cacheManager.begin();
+
         // Invoke the method
         //
         final Object result = method.invoke(m_session, args);
         m_session.setDataAccess(null);
 
         // TODO: Synch the two commits
+        // Nothing to commit in the database if we only read from it. The
+        // connection is rolled back when it's returned to the pool anyway.
         //
-        da.commit();
-        m_cacheManager.commit();
+        if (kind == Transactional.Kind.READ_WRITE) {
+          da.commit();
+          m_lastWrite = System.currentTimeMillis();
+        } else {
+          s_savedRoundTrips.add(READ_ONLY_SAVINGS);
+        }
+
+        // Whatever we read from the replica may already be out of date, so don't let it
+        // into the shared caches.
+        //
+        if (pool == replica) {
+          s_replicaInvocations.increment();
+          m_cacheManager.rollback();
+        } else {
+          m_cacheManager.commit();
+        }
+        final SearchIndex index = SearchIndex.instance();
+        if (index != null) {
+          index.commit();
+        }
         m_session.flushEvents();
         committed = true;
         return result;
+      } catch (final InvocationTargetException e) {
+        // Unwrap InvocationTargetExceptions
+        //
+        throw e.getTargetException();
+      } finally {
+        if (!committed) {
+          da.rollback();
+          m_cacheManager.rollback();
+          final SearchIndex index = SearchIndex.instance();
+          if (index != null) {
+            index.rollback();
+          }
+          m_session.discardEvents();
+        }
+        pool.returnDataAccess(da);
+        m_session.releaseMutex();
       }
-    } catch (final InvocationTargetException e) {
-      // Unwrap InvocationTargetExceptions
-      //
-      throw e.getTargetException();
     } finally {
-      if (!committed) {
-        da.rollback();
-        m_cacheManager.rollback();
-        m_session.discardEvents();
+      lock.unlock();
+    }
+  }
+
+  private Object invokeNonTransactional(final Method method, final Object[] args)
+      throws Throwable {
+    boolean completed = false;
+    final ReentrantLock lock = m_session.m_userContext.getLock();
+    lock.lock();
+    try {
+      try {
+        // Make sure we're the only ones fiddling with this session
+        //
+        m_session.acquireMutex();
+        final Object result = method.invoke(m_session, args);
+        m_session.flushEvents();
+        completed = true;
+        return result;
+      } catch (final InvocationTargetException e) {
+        // Unwrap InvocationTargetExceptions
+        //
+        throw e.getTargetException();
+      } finally {
+        if (!completed) {
+          m_session.discardEvents();
+        }
+        m_session.releaseMutex();
       }
-      DataAccessPool.instance().returnDataAccess(da);
-      m_session.releaseMutex();
+    } finally {
+      lock.unlock();
     }
   }
 }
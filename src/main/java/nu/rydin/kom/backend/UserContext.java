@@ -9,6 +9,7 @@ package nu.rydin.kom.backend;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 import nu.rydin.kom.backend.data.MembershipManager;
 import nu.rydin.kom.backend.data.RelationshipManager;
 import nu.rydin.kom.backend.data.UserManager;
@@ -17,11 +18,14 @@ import nu.rydin.kom.constants.RelationshipKinds;
 import nu.rydin.kom.constants.UserFlags;
 import nu.rydin.kom.exceptions.ObjectNotFoundException;
 import nu.rydin.kom.exceptions.UnexpectedException;
+import nu.rydin.kom.structs.MembershipInfo;
 import nu.rydin.kom.structs.Relationship;
 import nu.rydin.kom.structs.UserInfo;
 
 /**
- * User context shared across sessions.
+ * User context shared across sessions. Sessions of the same user hold the lock of the context while
+ * they work with it. It's a <code>ReentrantLock</code> rather than a monitor, so that a virtual
+ * thread waiting for it or doing I/O while holding it doesn't pin its carrier thread.
  *
  * @author Pontus Rydin
  */
@@ -29,6 +33,7 @@ public class UserContext {
   private final long user;
   private MembershipList memberships;
   private Map<Long, Long> filterCache;
+  private final ReentrantLock lock = new ReentrantLock();
 
   public UserContext(final long user, final MembershipManager mm, final RelationshipManager rm)
       throws UnexpectedException {
@@ -41,6 +46,10 @@ public class UserContext {
     return user;
   }
 
+  public ReentrantLock getLock() {
+    return lock;
+  }
+
   public Map<Long, Long> getFilterCache() {
     return filterCache;
   }
@@ -49,15 +58,19 @@ public class UserContext {
     return memberships;
   }
 
-  public synchronized void loadMemberships(final MembershipManager mm) throws UnexpectedException {
+  public void loadMemberships(final MembershipManager mm) throws UnexpectedException {
+    lock.lock();
     try {
-      memberships = new MembershipList(mm.listMembershipsByUser(user));
+      memberships = readMemberships(mm);
     } catch (final SQLException e) {
       throw new UnexpectedException(user, e);
+    } finally {
+      lock.unlock();
     }
   }
 
-  public synchronized void loadFilters(final RelationshipManager rm) throws UnexpectedException {
+  public void loadFilters(final RelationshipManager rm) throws UnexpectedException {
+    lock.lock();
     try {
       filterCache = new HashMap<>();
       final Relationship[] rels = rm.listByRefererAndKind(user, RelationshipKinds.FILTER);
@@ -66,14 +79,19 @@ public class UserContext {
       }
     } catch (final SQLException e) {
       throw new UnexpectedException(user, e);
+    } finally {
+      lock.unlock();
     }
   }
 
-  public synchronized void saveMemberships(final MembershipManager mm) throws UnexpectedException {
+  public void saveMemberships(final MembershipManager mm) throws UnexpectedException {
+    lock.lock();
     try {
       memberships.save(user, mm);
     } catch (final SQLException e) {
       throw new UnexpectedException(user, e);
+    } finally {
+      lock.unlock();
     }
   }
 
@@ -113,6 +131,17 @@ public class UserContext {
     if (memberships != null) {
       memberships.save(user, mm);
     }
-    memberships = new MembershipList(mm.listMembershipsByUser(user));
+    memberships = readMemberships(mm);
+  }
+
+  private MembershipList readMemberships(final MembershipManager mm) throws SQLException {
+    // Markers that are still waiting to be written are newer than the ones in the database
+    //
+    final MembershipInfo[] mis = mm.listMembershipsByUser(user);
+    final MarkerWriter writer = MarkerWriter.instance();
+    if (writer != null) {
+      writer.applyPending(user, mis);
+    }
+    return new MembershipList(mis);
   }
 }
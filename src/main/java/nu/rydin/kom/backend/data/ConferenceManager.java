@@ -13,6 +13,8 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import nu.rydin.kom.backend.CacheManager;
 import nu.rydin.kom.backend.KOMCache;
 import nu.rydin.kom.exceptions.DuplicateNameException;
@@ -20,7 +22,6 @@ import nu.rydin.kom.exceptions.ObjectNotFoundException;
 import nu.rydin.kom.exceptions.UnexpectedException;
 import nu.rydin.kom.structs.ConferenceInfo;
 import nu.rydin.kom.structs.ConferenceListItem;
-import nu.rydin.kom.structs.MessageRange;
 import nu.rydin.kom.structs.Name;
 
 /**
@@ -29,12 +30,18 @@ import nu.rydin.kom.structs.Name;
  * @author Jepson
  */
 public class ConferenceManager {
+  /** Number of conferences loaded per round-trip by <code>loadConferences</code> */
+  public static final int LOAD_BATCH_SIZE = 32;
+
+  private static final String CONFERENCE_COLUMNS =
+      "n.fullname, n.keywords, c.administrator, c.permissions, c.nonmember_permissions, n.visibility, c.replyConf, c.created, c.lasttext, n.emailalias, c.firstmsg, c.lastmsg";
+
   private final NameManager m_nameManager;
 
   private final PreparedStatement m_addConfStmt;
   private final PreparedStatement m_changeReplyToConfStmt;
   private final PreparedStatement m_loadConfStmt;
-  private final PreparedStatement m_loadRangeStmt;
+  private final PreparedStatement m_loadConfsStmt;
   private final PreparedStatement m_isMailboxStmt;
   private final PreparedStatement m_listByDateStmt;
   private final PreparedStatement m_listByNameStmt;
@@ -42,6 +49,7 @@ public class ConferenceManager {
   private final PreparedStatement m_changePermissionsStmt;
   private final PreparedStatement m_getParentCountForConfStmt;
   private final PreparedStatement m_getMaxParentCountStmt;
+  private final PreparedStatement m_countParentsStmt;
 
   public ConferenceManager(final Connection conn, final NameManager nameManager)
       throws SQLException {
@@ -53,12 +61,22 @@ public class ConferenceManager {
         conn.prepareStatement("UPDATE conferences SET replyConf = ? WHERE id = ?");
     m_loadConfStmt =
         conn.prepareStatement(
-            "SELECT n.fullname, n.keywords, c.administrator, c.permissions, c.nonmember_permissions, n.visibility, c.replyConf, c.created, c.lasttext, n.emailalias "
-                + "FROM names n, conferences c "
+            "SELECT "
+                + CONFERENCE_COLUMNS
+                + " FROM names n, conferences c "
                 + "WHERE c.id = ? AND n.id = c.id");
-    m_loadRangeStmt =
+    final StringBuilder in = new StringBuilder("?");
+    for (int idx = 1; idx < LOAD_BATCH_SIZE; ++idx) {
+      in.append(", ?");
+    }
+    m_loadConfsStmt =
         conn.prepareStatement(
-            "SELECT MIN(localnum), MAX(localnum) FROM messageoccurrences WHERE conference = ? AND kind != 3");
+            "SELECT c.id, n.kind, "
+                + CONFERENCE_COLUMNS
+                + " FROM names n, conferences c "
+                + "WHERE c.id IN ("
+                + in
+                + ") AND n.id = c.id");
     m_isMailboxStmt = conn.prepareStatement("SELECT COUNT(*) FROM users WHERE id = ?");
     m_listByDateStmt =
         conn.prepareStatement(
@@ -89,6 +107,9 @@ public class ConferenceManager {
     m_getMaxParentCountStmt =
         conn.prepareStatement(
             "select count(*) as count from conferences where replyConf is not null group by replyConf order by count desc limit 1");
+    m_countParentsStmt =
+        conn.prepareStatement(
+            "select replyConf, count(*) from conferences where replyConf is not null group by replyConf");
   }
 
   public void close() {
@@ -102,8 +123,8 @@ public class ConferenceManager {
       if (m_loadConfStmt != null) {
         m_loadConfStmt.close();
       }
-      if (m_loadRangeStmt != null) {
-        m_loadRangeStmt.close();
+      if (m_loadConfsStmt != null) {
+        m_loadConfsStmt.close();
       }
       if (m_isMailboxStmt != null) {
         m_isMailboxStmt.close();
@@ -123,6 +144,9 @@ public class ConferenceManager {
       if (m_getMaxParentCountStmt != null) {
         m_getMaxParentCountStmt.close();
       }
+      if (m_countParentsStmt != null) {
+        m_countParentsStmt.close();
+      }
     } catch (final SQLException e) {
       // Not much we can do here...
       //
@@ -248,40 +272,88 @@ public class ConferenceManager {
       if (!rs.next()) {
         throw new ObjectNotFoundException("Conference id=" + id);
       }
-
-      // Load the message range
-      //
-      final MessageRange r = getMessageRange(id);
-      final ConferenceInfo answer =
-          new ConferenceInfo(
-              id, // Id
-              new Name(rs.getString(1), rs.getShort(6), NameManager.CONFERENCE_KIND), // Name
-              rs.getString(2), // Keywords
-              rs.getString(10), // Email alias
-              rs.getLong(3), // Admin
-              rs.getInt(4), // Permissions
-              rs.getInt(5), // Nonmember permissions
-              rs.getShort(6), // Visibility
-              rs.getObject(7) != null ? rs.getLong(7) : -1, // Reply conference
-              rs.getTimestamp(8),
-              rs.getTimestamp(9),
-              r.getMin(), // First text
-              r.getMax() // Last text
-              );
+      final ConferenceInfo answer = extractConference(id, rs, 1);
       cache.deferredPut(key, answer);
       return answer;
     }
   }
 
-  public MessageRange getMessageRange(final long id) throws ObjectNotFoundException, SQLException {
-    m_loadRangeStmt.clearParameters();
-    m_loadRangeStmt.setLong(1, id);
-    try (final ResultSet rs = m_loadRangeStmt.executeQuery()) {
-      if (!rs.next()) {
-        throw new ObjectNotFoundException("Conference id=" + id);
+  /**
+   * Loads a number of conferences, taking as many as possible from the cache and fetching the
+   * rest from the database in batches of <code>LOAD_BATCH_SIZE</code>. The names of the fetched
+   * conferences end up in the name cache as well.
+   *
+   * @param ids The conferences
+   * @return The conferences, in the same order as the ids. Conferences that couldn't be found are
+   *     <code>null</code>.
+   * @throws SQLException
+   */
+  public ConferenceInfo[] loadConferences(final long[] ids) throws SQLException {
+    final KOMCache cache = CacheManager.instance().getConferenceCache();
+    final ConferenceInfo[] answer = new ConferenceInfo[ids.length];
+    final long[] missing = new long[ids.length];
+    int n = 0;
+    for (int idx = 0; idx < ids.length; ++idx) {
+      answer[idx] = (ConferenceInfo) cache.get(ids[idx]);
+      if (answer[idx] == null) {
+        missing[n++] = ids[idx];
       }
-      return new MessageRange(rs.getInt(1), rs.getInt(2));
     }
+    if (n == 0) {
+      return answer;
+    }
+
+    // Fetch what wasn't cached. Unused slots are padded with the last id.
+    //
+    final KOMCache nameCache = CacheManager.instance().getNameCache();
+    final Map<Long, ConferenceInfo> loaded = new HashMap<>();
+    for (int start = 0; start < n; start += LOAD_BATCH_SIZE) {
+      final int end = Math.min(n, start + LOAD_BATCH_SIZE);
+      m_loadConfsStmt.clearParameters();
+      for (int idx = 0; idx < LOAD_BATCH_SIZE; ++idx) {
+        m_loadConfsStmt.setLong(idx + 1, missing[Math.min(start + idx, end - 1)]);
+      }
+      try (final ResultSet rs = m_loadConfsStmt.executeQuery()) {
+        while (rs.next()) {
+          final long id = rs.getLong(1);
+          final ConferenceInfo ci = extractConference(id, rs, 3);
+          loaded.put(id, ci);
+          cache.deferredPut(id, ci);
+          nameCache.deferredPut(
+              id, new Name(ci.getName().getName(), ci.getVisibility(), rs.getShort(2)));
+        }
+      }
+    }
+    for (int idx = 0; idx < ids.length; ++idx) {
+      if (answer[idx] == null) {
+        answer[idx] = loaded.get(ids[idx]);
+      }
+    }
+    return answer;
+  }
+
+  /**
+   * Builds a <tt>ConferenceInfo</tt> from a row where the columns in <tt>CONFERENCE_COLUMNS</tt>
+   * start at the given column.
+   */
+  private static ConferenceInfo extractConference(final long id, final ResultSet rs, final int base)
+      throws SQLException {
+    return new ConferenceInfo(
+        id, // Id
+        new Name(
+            rs.getString(base), rs.getShort(base + 5), NameManager.CONFERENCE_KIND), // Name
+        rs.getString(base + 1), // Keywords
+        rs.getString(base + 9), // Email alias
+        rs.getLong(base + 2), // Admin
+        rs.getInt(base + 3), // Permissions
+        rs.getInt(base + 4), // Nonmember permissions
+        rs.getShort(base + 5), // Visibility
+        rs.getObject(base + 6) != null ? rs.getLong(base + 6) : -1, // Reply conference
+        rs.getTimestamp(base + 7),
+        rs.getTimestamp(base + 8),
+        rs.getInt(base + 10), // First text
+        rs.getInt(base + 11) // Last text
+        );
   }
 
   /**
@@ -362,6 +434,22 @@ public class ConferenceManager {
     }
   }
 
+  /**
+   * Returns the number of conferences using each conference as their reply conference. Conferences
+   * no one replies to are left out.
+   *
+   * @throws SQLException
+   */
+  public Map<Long, Long> countParentsByConference() throws SQLException {
+    final Map<Long, Long> answer = new HashMap<>();
+    try (final ResultSet rs = m_countParentsStmt.executeQuery()) {
+      while (rs.next()) {
+        answer.put(rs.getLong(1), rs.getLong(2));
+      }
+    }
+    return answer;
+  }
+
   public long getMaxParentCount() throws SQLException {
     try (final ResultSet rs = m_getMaxParentCountStmt.executeQuery()) {
       rs.next();
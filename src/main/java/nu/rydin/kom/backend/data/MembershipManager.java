@@ -57,15 +57,15 @@ public class MembershipManager {
   public MembershipManager(final Connection conn) throws SQLException {
     m_listMbrForUserStmt =
         conn.prepareStatement(
-            "SELECT user, conference, active, priority, flags, markers, permissions, negation_mask "
+            "SELECT user, conference, active, priority, flags, markers, permissions, negation_mask, markerdata "
                 + "FROM memberships WHERE user = ? AND active = 1 ORDER BY priority");
     m_listMbrForConfStmt =
         conn.prepareStatement(
-            "SELECT user, conference, active, priority, flags, markers, permissions, negation_mask "
+            "SELECT user, conference, active, priority, flags, markers, permissions, negation_mask, markerdata "
                 + "FROM memberships WHERE conference = ? AND active = 1");
     m_loadMembershipStmt =
         conn.prepareStatement(
-            "SELECT user, conference, active, priority, flags, markers, permissions, negation_mask "
+            "SELECT user, conference, active, priority, flags, markers, permissions, negation_mask, markerdata "
                 + "FROM memberships WHERE user = ? AND conference = ?");
     m_addMembershipStmt =
         conn.prepareStatement(
@@ -78,7 +78,7 @@ public class MembershipManager {
         conn.prepareStatement("SELECT MAX(priority) FROM memberships WHERE user = ?");
     m_updateMarkersStmt =
         conn.prepareStatement(
-            "UPDATE memberships SET markers = ? WHERE user = ? AND conference = ?");
+            "UPDATE memberships SET markerdata = ?, markers = NULL WHERE user = ? AND conference = ?");
     m_updatePermissionsStmt =
         conn.prepareStatement(
             "UPDATE memberships SET permissions = ?, negation_mask = ? WHERE user = ? AND conference = ?");
@@ -109,7 +109,7 @@ public class MembershipManager {
             "UPDATE memberships SET priority = priority + 1 WHERE user = ? AND priority >= ? AND priority < ?");
     m_getReadMarkersForMessageStmt =
         conn.prepareStatement(
-            "select memberships.user, memberships.conference, localnum, markers, fullname "
+            "select memberships.user, memberships.conference, localnum, markers, fullname, markerdata "
                 + "from memberships join messageoccurrences on memberships.conference=messageoccurrences.conference "
                 + "join names on names.id=memberships.user where message = ?");
   }
@@ -416,7 +416,10 @@ public class MembershipManager {
   public void updateMarkers(final long user, final long conference, final MessageRangeList markers)
       throws ObjectNotFoundException, SQLException {
     m_updateMarkersStmt.clearParameters();
-    m_updateMarkersStmt.setString(1, MembershipInfo.encodeMessageRanges(markers));
+    // Markers are always saved in binary form. That also takes care of converting
+    // the ones that are still stored as text.
+    //
+    m_updateMarkersStmt.setBytes(1, MembershipInfo.encodeMessageRangesBinary(markers));
     m_updateMarkersStmt.setLong(2, user);
     m_updateMarkersStmt.setLong(3, conference);
     if (m_updateMarkersStmt.executeUpdate() == 0) {
@@ -424,6 +427,27 @@ public class MembershipManager {
 	}
   }
 
+  /**
+   * Updates the markers of several memberships in a single batch. Memberships that no longer exist
+   * are silently skipped.
+   *
+   * @param users The users
+   * @param conferences The conferences, one per user
+   * @param markers The markers in binary form, one per user
+   * @throws SQLException
+   */
+  public void updateMarkers(final long[] users, final long[] conferences, final byte[][] markers)
+      throws SQLException {
+    m_updateMarkersStmt.clearParameters();
+    for (int idx = 0; idx < users.length; ++idx) {
+      m_updateMarkersStmt.setBytes(1, markers[idx]);
+      m_updateMarkersStmt.setLong(2, users[idx]);
+      m_updateMarkersStmt.setLong(3, conferences[idx]);
+      m_updateMarkersStmt.addBatch();
+    }
+    m_updateMarkersStmt.executeBatch();
+  }
+
   public NameAssociation[] listReaders(final long message) throws SQLException {
     m_getReadMarkersForMessageStmt.clearParameters();
     m_getReadMarkersForMessageStmt.setLong(1, message);
@@ -432,8 +456,13 @@ public class MembershipManager {
       final Set<NameAssociation> s = new HashSet<>();
       rs = m_getReadMarkersForMessageStmt.executeQuery();
       while (rs.next()) {
-        if (null != rs.getString(4)) {
-          if (MembershipInfo.decodeMessageRanges(rs.getString(4)).includes(rs.getInt(3))) {
+        final byte[] markerData = rs.getBytes(6);
+        final String markers = markerData == null ? rs.getString(4) : null;
+        if (null != markerData || null != markers) {
+          final int localnum = rs.getInt(3);
+          if (markerData != null
+              ? MessageRangeList.includes(markerData, localnum)
+              : MessageRangeList.includes(markers, localnum)) {
             // I should be taken out and shot for this, but until we move object kinds to their
             // own constants file, this is a stopgap measure.
             //
@@ -671,12 +700,29 @@ public class MembershipManager {
         rs.getBoolean(3), // active
         rs.getLong(4), // priority
         rs.getLong(5), // flags
-        rs.getString(6), // markers
+        extractMarkers(rs, 9, 6), // markerdata, markers
         rs.getInt(7), // permissions
         rs.getInt(8) // negation_mask
         );
   }
 
+  /**
+   * Reads the markers of a membership. They're in binary form unless they were saved before we
+   * started storing them that way, in which case they're still in text form.
+   *
+   * @param rs The result set
+   * @param dataColumn The column holding binary markers
+   * @param textColumn The column holding text markers
+   * @return The markers, or <tt>null</tt> if there are none
+   */
+  private static MessageRangeList extractMarkers(
+      final ResultSet rs, final int dataColumn, final int textColumn) throws SQLException {
+    final byte[] data = rs.getBytes(dataColumn);
+    return data != null
+        ? MessageRangeList.fromByteArray(data)
+        : MembershipInfo.decodeMessageRanges(rs.getString(textColumn));
+  }
+
   /**
    * Reprioritizes the conference for the user.
    *
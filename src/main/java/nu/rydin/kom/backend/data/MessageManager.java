@@ -13,25 +13,33 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
 import nu.rydin.kom.backend.CacheManager;
+import nu.rydin.kom.backend.KOMCache;
 import nu.rydin.kom.backend.SQLUtils;
+import nu.rydin.kom.backend.search.SearchIndex;
 import nu.rydin.kom.constants.MessageAttributes;
 import nu.rydin.kom.constants.Visibilities;
 import nu.rydin.kom.exceptions.MessageNotFoundException;
 import nu.rydin.kom.exceptions.SelectionOverflowException;
 import nu.rydin.kom.exceptions.UnexpectedException;
 import nu.rydin.kom.structs.Bookmark;
+import nu.rydin.kom.structs.ConferenceInfo;
 import nu.rydin.kom.structs.GlobalMessageSearchResult;
 import nu.rydin.kom.structs.LocalMessageSearchResult;
 import nu.rydin.kom.structs.Message;
 import nu.rydin.kom.structs.MessageAttribute;
+import nu.rydin.kom.structs.MessageBundle;
 import nu.rydin.kom.structs.MessageHeader;
 import nu.rydin.kom.structs.MessageOccurrence;
+import nu.rydin.kom.structs.MessageSearchResult;
 import nu.rydin.kom.structs.Name;
 import nu.rydin.kom.structs.NameAssociation;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
+import nu.rydin.kom.structs.ReplyTree;
 
 /**
  * @author Pontus Rydin
@@ -42,12 +50,38 @@ public class MessageManager {
   public static final short ACTION_CREATED = 0;
   public static final short ACTION_COPIED = 1;
   public static final short ACTION_MOVED = 2;
-  private static final Logger LOG = LogManager.getLogger(MessageManager.class);
+
+  // Kinds of rows returned by the bundle queries
+  //
+  private static final int BUNDLE_MESSAGE = 0;
+  private static final int BUNDLE_OCCURRENCE = 1;
+  private static final int BUNDLE_ATTRIBUTE = 2;
+  private static final int BUNDLE_REPLY = 3;
+  private static final int BUNDLE_REPLY_OCCURRENCE = 4;
+  private static final int BUNDLE_REPLY_TO = 5;
+  private static final int BUNDLE_REPLY_TO_OCCURRENCE = 6;
+  private static final int BUNDLE_PARTS = 7;
+
+  /** Continues a local listing with the messages before a local number */
+  private static final String NEWEST_FIRST_LOCALLY =
+      "AND mo.localnum < ? ORDER BY mo.localnum DESC LIMIT ?";
+
+  /** Continues a local listing with the messages after a local number */
+  private static final String OLDEST_FIRST_LOCALLY =
+      "AND mo.localnum > ? ORDER BY mo.localnum LIMIT ?";
+
+  /** Later than any message, so that global listings can start with the newest message */
+  private static final Timestamp END_OF_TIME = Timestamp.valueOf("9999-12-31 23:59:59");
+
+  /** Earlier than any message, so that global listings can start with the oldest message */
+  private static final Timestamp BEGINNING_OF_TIME = Timestamp.valueOf("1000-01-01 00:00:00");
+
   private final PreparedStatement m_loadMessageStmt;
   private final PreparedStatement m_loadMessageInConfStmt;
   private final PreparedStatement m_loadMessageHeaderStmt;
+  private final PreparedStatement m_loadBundleStmt;
   private final PreparedStatement m_loadMessageOccurrenceStmt;
-  private final PreparedStatement m_getNextNumStmt;
+  private final PreparedStatement m_allocateLocalNumStmt;
   private final PreparedStatement m_addMessageStmt;
   private final PreparedStatement m_addMessageSearchStmt;
   private final PreparedStatement m_addMessageOccurrenceStmt;
@@ -74,13 +108,22 @@ public class MessageManager {
   private final PreparedStatement m_getLocalBySubjectStmt;
   private final PreparedStatement m_findLastOccurrenceInConferenceWithAttrStmt;
   private final PreparedStatement m_getLatestMagicMessageStmt;
-  private final PreparedStatement m_updateConferenceLasttext;
+  private final PreparedStatement m_loadConferenceRangeStmt;
+  private final PreparedStatement m_updateConferenceRangeStmt;
+  private final PreparedStatement m_extendConferenceRangeStmt;
+  private final PreparedStatement m_getFirstLocalAfterStmt;
+  private final PreparedStatement m_getLastLocalBeforeStmt;
   private final PreparedStatement m_listAllMessagesLocally;
   private final PreparedStatement m_listMessagesLocallyByAuthor;
+  private final PreparedStatement m_listMessagesLocallyByAuthorOldestFirst;
   private final PreparedStatement m_listMessagesGloballyByAuthor;
+  private final PreparedStatement m_listMessagesGloballyByAuthorOldestFirst;
   private final PreparedStatement m_searchMessagesGlobally;
+  private final PreparedStatement m_searchMessagesGloballyOldestFirst;
   private final PreparedStatement m_searchMessagesLocally;
+  private final PreparedStatement m_searchMessagesLocallyOldestFirst;
   private final PreparedStatement m_grepMessagesLocally;
+  private final PreparedStatement m_grepMessagesLocallyOldestFirst;
   private final PreparedStatement m_countMessagesLocallyByAuthor;
   private final PreparedStatement m_countMessagesGloballyByAuthor;
   private final PreparedStatement m_countSearchMessagesGlobally;
@@ -89,8 +132,12 @@ public class MessageManager {
   private final PreparedStatement m_countStmt;
   private final PreparedStatement m_setThreadIdStmt;
   private final PreparedStatement m_selectByThreadStmt;
+  private final PreparedStatement m_loadReplyTreeStmt;
+  private final PreparedStatement m_loadMessagesForIndexingStmt;
+  private final PreparedStatement m_getHighestMessageIdStmt;
   private final PreparedStatement m_countAllMessagesLocally;
   private final PreparedStatement m_listCommentsGloballyToAuthor;
+  private final PreparedStatement m_listCommentsGloballyToAuthorOldestFirst;
   private final PreparedStatement m_countCommentsGloballyToAuthor;
   private final PreparedStatement m_addBookmarkStmt;
   private final PreparedStatement m_deleteBookmarkStmt;
@@ -107,6 +154,7 @@ public class MessageManager {
             "SELECT m.id, m.created, m.author, m.author_name, m.reply_to, m.thread, m.subject, m.body "
                 + "FROM messages m, messageoccurrences mo "
                 + "WHERE m.id = mo.message AND mo.conference = ? AND mo.localnum = ?");
+    m_loadBundleStmt = conn.prepareStatement(bundleQuery());
     m_loadMessageHeaderStmt =
         conn.prepareStatement(
             "SELECT created, author, author_name, reply_to, thread, subject FROM messages WHERE id = ?");
@@ -114,9 +162,11 @@ public class MessageManager {
         conn.prepareStatement(
             "SELECT message, action_ts, kind, user, user_name FROM messages "
                 + "WHERE conference = ? AND localNum = ?");
-    m_getNextNumStmt =
+    m_allocateLocalNumStmt =
         conn.prepareStatement(
-            "SELECT MAX(localnum) FROM messageoccurrences WHERE conference = ? FOR UPDATE");
+            "UPDATE conferences SET lastlocalnum = LAST_INSERT_ID(lastlocalnum + 1), lasttext = ? "
+                + "WHERE id = ?",
+            Statement.RETURN_GENERATED_KEYS);
     m_addMessageStmt =
         conn.prepareStatement(
             "INSERT INTO messages(created, author, author_name, reply_to, subject, body) "
@@ -128,8 +178,19 @@ public class MessageManager {
         conn.prepareStatement(
             "INSERT INTO messageoccurrences(message, action_ts, kind, user, user_name, conference, localnum) "
                 + "VALUES(?, ?, ?, ?, ?, ?, ?)");
-    m_updateConferenceLasttext =
-        conn.prepareStatement("UPDATE conferences SET lasttext=? WHERE id=?");
+    m_loadConferenceRangeStmt =
+        conn.prepareStatement("SELECT firstmsg, lastmsg FROM conferences WHERE id = ? FOR UPDATE");
+    m_updateConferenceRangeStmt =
+        conn.prepareStatement("UPDATE conferences SET firstmsg = ?, lastmsg = ? WHERE id = ?");
+    m_extendConferenceRangeStmt =
+        conn.prepareStatement(
+            "UPDATE conferences SET lastmsg = ?, firstmsg = IF(firstmsg = 0, ?, firstmsg) WHERE id = ?");
+    m_getFirstLocalAfterStmt =
+        conn.prepareStatement(
+            "SELECT MIN(localnum) FROM messageoccurrences WHERE conference = ? AND localnum > ? AND kind <> 3");
+    m_getLastLocalBeforeStmt =
+        conn.prepareStatement(
+            "SELECT MAX(localnum) FROM messageoccurrences WHERE conference = ? AND localnum < ? AND kind <> 3");
     m_listOccurrencesStmt =
         conn.prepareStatement(
             "SELECT message, action_ts, kind, user, user_name, conference, localnum FROM messageoccurrences "
@@ -229,88 +290,101 @@ public class MessageManager {
                 + "order by m.created desc "
                 + "limit 1 offset 0");
 
-    m_searchMessagesLocally =
-        conn.prepareStatement(
-            "SELECT ms.id, mo.localnum, mo.user, m.author_name, ms.subject, m.reply_to, m.created, ma.value "
-                + "FROM messagesearch ms "
-                + "JOIN messageoccurrences mo ON ms.id = mo.message "
-                + "JOIN messages m ON ms.id = m.id "
-                + "LEFT OUTER JOIN messageattributes ma "
-                + "ON m.id = ma.message "
-                + "AND ma.kind = "
-                + String.valueOf(MessageAttributes.MAIL_RECIPIENT)
-                + " "
-                + "WHERE mo.conference = ? and mo.kind <> 3 "
-                + "AND MATCH(ms.subject, ms.body) AGAINST (? IN BOOLEAN MODE) "
-                + "ORDER BY localnum DESC "
-                + "LIMIT ? OFFSET ?");
+    final String searchMessagesLocally =
+        "SELECT ms.id, mo.localnum, mo.user, m.author_name, ms.subject, m.reply_to, m.created, ma.value "
+            + "FROM messagesearch ms "
+            + "JOIN messageoccurrences mo ON ms.id = mo.message "
+            + "JOIN messages m ON ms.id = m.id "
+            + "LEFT OUTER JOIN messageattributes ma "
+            + "ON m.id = ma.message "
+            + "AND ma.kind = "
+            + String.valueOf(MessageAttributes.MAIL_RECIPIENT)
+            + " "
+            + "WHERE mo.conference = ? and mo.kind <> 3 "
+            + "AND MATCH(ms.subject, ms.body) AGAINST (? IN BOOLEAN MODE) ";
+    m_searchMessagesLocally = conn.prepareStatement(searchMessagesLocally + NEWEST_FIRST_LOCALLY);
+    m_searchMessagesLocallyOldestFirst =
+        conn.prepareStatement(searchMessagesLocally + OLDEST_FIRST_LOCALLY);
 
     // Selecting from messagesearch is a couple of 1000 times faster. InnoDB...
     //
     m_countStmt = conn.prepareStatement("SELECT COUNT(*) FROM messagesearch");
 
-    m_grepMessagesLocally =
-        conn.prepareStatement(
-            "SELECT ms.id, mo.localnum, mo.user, m.author_name, ms.subject, m.reply_to, m.created, ma.value "
-                + "FROM messagesearch ms "
-                + "JOIN messageoccurrences mo ON ms.id = mo.message "
-                + "JOIN messages m ON ms.id = m.id "
-                + "LEFT OUTER JOIN messageattributes ma "
-                + "ON m.id = ma.message "
-                + "AND ma.kind = "
-                + String.valueOf(MessageAttributes.MAIL_RECIPIENT)
-                + " "
-                + "WHERE mo.conference = ? and mo.kind <> 3 "
-                + "AND (ms.subject LIKE ? OR ms.body LIKE ?) "
-                + "ORDER BY localnum DESC "
-                + "LIMIT ? OFFSET ?");
-
-    m_listAllMessagesLocally =
-        conn.prepareStatement(
-            "SELECT m.id, mo.localnum, mo.user, m.author_name, m.subject, m.reply_to, m.created, ma.value "
-                + "FROM messages m "
-                + "JOIN messageoccurrences mo ON m.id = mo.message "
-                + "LEFT OUTER JOIN messageattributes ma "
-                + "ON m.id = ma.message "
-                + "AND ma.kind = "
-                + String.valueOf(MessageAttributes.MAIL_RECIPIENT)
-                + " "
-                + "WHERE mo.conference = ? AND mo.kind <> 3 "
-                + "ORDER BY localnum DESC "
-                + "LIMIT ? OFFSET ?");
-
+    final String grepMessagesLocally =
+        "SELECT ms.id, mo.localnum, mo.user, m.author_name, ms.subject, m.reply_to, m.created, ma.value "
+            + "FROM messagesearch ms "
+            + "JOIN messageoccurrences mo ON ms.id = mo.message "
+            + "JOIN messages m ON ms.id = m.id "
+            + "LEFT OUTER JOIN messageattributes ma "
+            + "ON m.id = ma.message "
+            + "AND ma.kind = "
+            + String.valueOf(MessageAttributes.MAIL_RECIPIENT)
+            + " "
+            + "WHERE mo.conference = ? and mo.kind <> 3 "
+            + "AND (ms.subject LIKE ? OR ms.body LIKE ?) ";
+    m_grepMessagesLocally = conn.prepareStatement(grepMessagesLocally + NEWEST_FIRST_LOCALLY);
+    m_grepMessagesLocallyOldestFirst =
+        conn.prepareStatement(grepMessagesLocally + OLDEST_FIRST_LOCALLY);
+
+    final String listAllMessagesLocally =
+        "SELECT m.id, mo.localnum, mo.user, m.author_name, m.subject, m.reply_to, m.created, ma.value "
+            + "FROM messages m "
+            + "JOIN messageoccurrences mo ON m.id = mo.message "
+            + "LEFT OUTER JOIN messageattributes ma "
+            + "ON m.id = ma.message "
+            + "AND ma.kind = "
+            + String.valueOf(MessageAttributes.MAIL_RECIPIENT)
+            + " "
+            + "WHERE mo.conference = ? AND mo.kind <> 3 ";
+    m_listAllMessagesLocally = conn.prepareStatement(listAllMessagesLocally + NEWEST_FIRST_LOCALLY);
+
+    final String listMessagesLocallyByAuthor =
+        "SELECT m.id, mo.localnum, mo.user, m.author_name, m.subject, m.reply_to, m.created, ma.value "
+            + "FROM messages m "
+            + "JOIN messageoccurrences mo ON m.id = mo.message "
+            + "LEFT OUTER JOIN messageattributes ma "
+            + "ON m.id = ma.message "
+            + "AND ma.kind = "
+            + String.valueOf(MessageAttributes.MAIL_RECIPIENT)
+            + " "
+            + "WHERE mo.conference = ? AND m.author = ? AND mo.kind <> 3 ";
     m_listMessagesLocallyByAuthor =
-        conn.prepareStatement(
-            "SELECT m.id, mo.localnum, mo.user, m.author_name, m.subject, m.reply_to, m.created, ma.value "
-                + "FROM messages m "
-                + "JOIN messageoccurrences mo ON m.id = mo.message "
-                + "LEFT OUTER JOIN messageattributes ma "
-                + "ON m.id = ma.message "
-                + "AND ma.kind = "
-                + String.valueOf(MessageAttributes.MAIL_RECIPIENT)
-                + " "
-                + "WHERE mo.conference = ? AND m.author = ? AND mo.kind <> 3 "
-                + "ORDER BY localnum DESC "
-                + "LIMIT ? OFFSET ?");
-
+        conn.prepareStatement(listMessagesLocallyByAuthor + NEWEST_FIRST_LOCALLY);
+    m_listMessagesLocallyByAuthorOldestFirst =
+        conn.prepareStatement(listMessagesLocallyByAuthor + OLDEST_FIRST_LOCALLY);
+
+    final String listMessagesGloballyByAuthor =
+        "SELECT m.id, mo.localnum, mo.conference, n.fullname, n.visibility, mo.user, m.author_name, m.subject, m.reply_to, m.created "
+            + "FROM messages m force index(msg_author_created), messageoccurrences mo, names n "
+            + "WHERE m.id = mo.message AND n.id = mo.conference AND m.author = ? and mo.kind <> 3 ";
     m_listMessagesGloballyByAuthor =
-        conn.prepareStatement(
-            "SELECT m.id, mo.localnum, mo.conference, n.fullname, n.visibility, mo.user, m.author_name, m.subject, m.reply_to, m.created "
-                + "FROM messages m force index(msg_author_created), messageoccurrences mo, names n "
-                + "WHERE m.id = mo.message AND n.id = mo.conference AND m.author = ? and mo.kind <> 3 "
-                + "ORDER BY m.created DESC "
-                + "LIMIT ? OFFSET ?");
-
+        conn.prepareStatement(listMessagesGloballyByAuthor + newestFirstGlobally("m"));
+    m_listMessagesGloballyByAuthorOldestFirst =
+        conn.prepareStatement(listMessagesGloballyByAuthor + oldestFirstGlobally("m"));
+
+    final String searchMessagesGlobally =
+        "SELECT m.id, mo.localnum, mo.conference, n.fullname, n.visibility, mo.user, me.author_name, m.subject, me.reply_to, me.created "
+            + "FROM messagesearch m, messages me, messageoccurrences mo, names n "
+            + "WHERE m.id = mo.message AND n.id = mo.conference AND m.id = me.id AND mo.kind <> 3 "
+            + "AND MATCH(m.subject, m.body) AGAINST (? IN BOOLEAN MODE) ";
     m_searchMessagesGlobally =
-        conn.prepareStatement(
-            "SELECT m.id, mo.localnum, mo.conference, n.fullname, n.visibility, mo.user, me.author_name, m.subject, me.reply_to, me.created "
-                + "FROM messagesearch m, messages me, messageoccurrences mo, names n "
-                + "WHERE m.id = mo.message AND n.id = mo.conference AND m.id = me.id AND mo.kind <> 3 "
-                + "AND MATCH(m.subject, m.body) AGAINST (? IN BOOLEAN MODE) "
-                + "ORDER BY mo.action_ts DESC "
-                + "LIMIT ? OFFSET ?");
+        conn.prepareStatement(searchMessagesGlobally + newestFirstGlobally("me"));
+    m_searchMessagesGloballyOldestFirst =
+        conn.prepareStatement(searchMessagesGlobally + oldestFirstGlobally("me"));
     m_setThreadIdStmt = conn.prepareStatement("UPDATE messages SET thread = ? WHERE id = ?");
     m_selectByThreadStmt = conn.prepareStatement("SELECT id FROM messages WHERE thread = ?");
+    m_loadReplyTreeStmt =
+        conn.prepareStatement(
+            "SELECT m.id, m.reply_to, o.action_ts, o.kind, o.user, o.user_name, o.conference, o.localnum "
+                + "FROM messages m LEFT JOIN messageoccurrences o ON o.message = m.id AND o.kind <> 3 "
+                + "WHERE m.thread = ? ORDER BY m.id, o.action_ts");
+    m_loadMessagesForIndexingStmt =
+        conn.prepareStatement(
+            "SELECT m.id, m.created, m.author, m.author_name, m.reply_to, m.thread, m.subject, m.body, "
+                + "o.action_ts, o.kind, o.user, o.user_name, o.conference, o.localnum "
+                + "FROM messages m LEFT JOIN messageoccurrences o ON o.message = m.id AND o.kind <> 3 "
+                + "WHERE m.id > ? AND m.id <= ? ORDER BY m.id, o.action_ts");
+    m_getHighestMessageIdStmt = conn.prepareStatement("SELECT MAX(id) FROM messages");
     m_countMessagesLocallyByAuthor =
         conn.prepareStatement(
             "SELECT COUNT(*) FROM messages m, messageoccurrences mo WHERE "
@@ -341,13 +415,15 @@ public class MessageManager {
 
     // No need to filter out deleted occurrences here, since we're acting on the messages table.
     //
+    final String listCommentsGloballyToAuthor =
+        "SELECT m.id, mo.localnum, mo.conference, n.fullname, n.visibility, mo.user, m.author_name, m.subject, m.reply_to, m.created "
+            + "FROM messages m, messages r, messageoccurrences mo, names n "
+            + "WHERE m.reply_to = r.id AND m.id = mo.message AND n.id = mo.conference "
+            + "AND r.author = ? AND r.created > ? ";
     m_listCommentsGloballyToAuthor =
-        conn.prepareStatement(
-            "SELECT m.id, mo.localnum, mo.conference, n.fullname, n.visibility, mo.user, m.author_name, m.subject, m.reply_to, m.created "
-                + "FROM messages m, messages r, messageoccurrences mo, names n "
-                + "WHERE m.reply_to = r.id AND m.id = mo.message AND n.id = mo.conference "
-                + "AND r.author = ? AND r.created > ? "
-                + "ORDER BY mo.action_ts DESC LIMIT ? OFFSET ?");
+        conn.prepareStatement(listCommentsGloballyToAuthor + newestFirstGlobally("m"));
+    m_listCommentsGloballyToAuthorOldestFirst =
+        conn.prepareStatement(listCommentsGloballyToAuthor + oldestFirstGlobally("m"));
     m_countCommentsGloballyToAuthor =
         conn.prepareStatement(
             "SELECT COUNT(*) FROM messages m, messages r, messageoccurrences mo, memberships me "
@@ -373,11 +449,14 @@ public class MessageManager {
     if (m_loadMessageInConfStmt != null) {
       m_loadMessageInConfStmt.close();
     }
+    if (m_loadBundleStmt != null) {
+      m_loadBundleStmt.close();
+    }
     if (m_loadMessageOccurrenceStmt != null) {
       m_loadMessageOccurrenceStmt.close();
     }
-    if (m_getNextNumStmt != null) {
-      m_getNextNumStmt.close();
+    if (m_allocateLocalNumStmt != null) {
+      m_allocateLocalNumStmt.close();
     }
     if (m_addMessageStmt != null) {
       m_addMessageStmt.close();
@@ -385,6 +464,21 @@ public class MessageManager {
     if (m_addMessageOccurrenceStmt != null) {
       m_addMessageOccurrenceStmt.close();
     }
+    if (m_loadConferenceRangeStmt != null) {
+      m_loadConferenceRangeStmt.close();
+    }
+    if (m_updateConferenceRangeStmt != null) {
+      m_updateConferenceRangeStmt.close();
+    }
+    if (m_extendConferenceRangeStmt != null) {
+      m_extendConferenceRangeStmt.close();
+    }
+    if (m_getFirstLocalAfterStmt != null) {
+      m_getFirstLocalAfterStmt.close();
+    }
+    if (m_getLastLocalBeforeStmt != null) {
+      m_getLastLocalBeforeStmt.close();
+    }
     if (m_listOccurrencesStmt != null) {
       m_listOccurrencesStmt.close();
     }
@@ -424,6 +518,24 @@ public class MessageManager {
     if (m_listAllMessagesLocally != null) {
       m_listAllMessagesLocally.close();
     }
+    if (m_listMessagesLocallyByAuthorOldestFirst != null) {
+      m_listMessagesLocallyByAuthorOldestFirst.close();
+    }
+    if (m_listMessagesGloballyByAuthorOldestFirst != null) {
+      m_listMessagesGloballyByAuthorOldestFirst.close();
+    }
+    if (m_searchMessagesGloballyOldestFirst != null) {
+      m_searchMessagesGloballyOldestFirst.close();
+    }
+    if (m_searchMessagesLocallyOldestFirst != null) {
+      m_searchMessagesLocallyOldestFirst.close();
+    }
+    if (m_grepMessagesLocallyOldestFirst != null) {
+      m_grepMessagesLocallyOldestFirst.close();
+    }
+    if (m_listCommentsGloballyToAuthorOldestFirst != null) {
+      m_listCommentsGloballyToAuthorOldestFirst.close();
+    }
     if (m_getLocalIdsInConfStmt != null) {
       m_getLocalIdsInConfStmt.close();
     }
@@ -448,6 +560,15 @@ public class MessageManager {
     if (m_selectByThreadStmt != null) {
       m_selectByThreadStmt.close();
     }
+    if (m_loadReplyTreeStmt != null) {
+      m_loadReplyTreeStmt.close();
+    }
+    if (m_loadMessagesForIndexingStmt != null) {
+      m_loadMessagesForIndexingStmt.close();
+    }
+    if (m_getHighestMessageIdStmt != null) {
+      m_getHighestMessageIdStmt.close();
+    }
     if (m_countMessagesLocallyByAuthor != null) {
       m_countMessagesLocallyByAuthor.close();
     }
@@ -515,22 +636,33 @@ public class MessageManager {
    * @throws SQLException
    */
   public Message loadMessage(final long id) throws MessageNotFoundException, SQLException {
+    // Check cache first!
+    //
+    final KOMCache cache = CacheManager.instance().getMessageCache();
+    final CacheKey key = CacheKey.message(id);
+    final Message cached = (Message) cache.get(key);
+    if (cached != null) {
+      return cached;
+    }
     m_loadMessageStmt.clearParameters();
     m_loadMessageStmt.setLong(1, id);
     try (final ResultSet rs = m_loadMessageStmt.executeQuery()) {
       if (!rs.next()) {
         throw new MessageNotFoundException("Message id=" + id);
       }
-      return new Message(
-          id,
-          rs.getTimestamp(1), // created
-          rs.getLong(2), // author
-          new Name(rs.getString(3), Visibilities.PUBLIC, NameManager.USER_KIND), // Author name
-          rs.getObject(4) != null ? rs.getLong(4) : -1, // reply to
-          rs.getObject(5) != null ? rs.getLong(5) : -1, // thread
-          rs.getString(6), // subject
-          rs.getString(7), // body
-          getOccurrences(id));
+      final Message answer =
+          new Message(
+              id,
+              rs.getTimestamp(1), // created
+              rs.getLong(2), // author
+              new Name(rs.getString(3), Visibilities.PUBLIC, NameManager.USER_KIND), // Author name
+              rs.getObject(4) != null ? rs.getLong(4) : -1, // reply to
+              rs.getObject(5) != null ? rs.getLong(5) : -1, // thread
+              rs.getString(6), // subject
+              rs.getString(7), // body
+              getOccurrences(id));
+      cache.deferredPut(key, answer);
+      return answer;
     }
   }
 
@@ -543,6 +675,14 @@ public class MessageManager {
    */
   public Message loadMessage(final long conf, final int localNum)
       throws MessageNotFoundException, SQLException {
+    // Do we know what message this is?
+    //
+    final KOMCache cache = CacheManager.instance().getMessageCache();
+    final CacheKey locator = CacheKey.locator(conf, localNum);
+    final Long cachedId = (Long) cache.get(locator);
+    if (cachedId != null) {
+      return loadMessage(cachedId);
+    }
     m_loadMessageInConfStmt.clearParameters();
     m_loadMessageInConfStmt.setLong(1, conf);
     m_loadMessageInConfStmt.setInt(2, localNum);
@@ -551,16 +691,20 @@ public class MessageManager {
         throw new MessageNotFoundException("Message conf=" + conf + " localnum=" + localNum);
       }
       final long id = rs.getLong(1);
-      return new Message(
-          id,
-          rs.getTimestamp(2), // created
-          rs.getLong(3), // author
-          new Name(rs.getString(4), Visibilities.PUBLIC, NameManager.USER_KIND), // author name
-          rs.getObject(5) != null ? rs.getLong(5) : -1, // reply to
-          rs.getObject(6) != null ? rs.getLong(6) : -1, // thread
-          rs.getString(7), // subject
-          rs.getString(8), // body
-          getOccurrences(id));
+      final Message answer =
+          new Message(
+              id,
+              rs.getTimestamp(2), // created
+              rs.getLong(3), // author
+              new Name(rs.getString(4), Visibilities.PUBLIC, NameManager.USER_KIND), // author name
+              rs.getObject(5) != null ? rs.getLong(5) : -1, // reply to
+              rs.getObject(6) != null ? rs.getLong(6) : -1, // thread
+              rs.getString(7), // subject
+              rs.getString(8), // body
+              getOccurrences(id));
+      cache.deferredPut(locator, id);
+      cache.deferredPut(CacheKey.message(id), answer);
+      return answer;
     }
   }
 
@@ -574,21 +718,199 @@ public class MessageManager {
    */
   public MessageHeader loadMessageHeader(final long id)
       throws MessageNotFoundException, SQLException {
+    // Check cache first! A full message will do just as well as a header.
+    //
+    final KOMCache cache = CacheManager.instance().getMessageCache();
+    final CacheKey key = CacheKey.header(id);
+    MessageHeader cached = (MessageHeader) cache.get(key);
+    if (cached == null) {
+      cached = (MessageHeader) cache.get(CacheKey.message(id));
+    }
+    if (cached != null) {
+      return cached;
+    }
     m_loadMessageHeaderStmt.clearParameters();
     m_loadMessageHeaderStmt.setLong(1, id);
     try (final ResultSet rs = m_loadMessageHeaderStmt.executeQuery()) {
       if (!rs.next()) {
         throw new MessageNotFoundException("Message id=" + id);
       }
-      return new MessageHeader(
-          id,
-          rs.getTimestamp(1), // created
-          rs.getLong(2), // author
-          new Name(rs.getString(3), Visibilities.PUBLIC, NameManager.USER_KIND), // author name
-          rs.getObject(4) != null ? rs.getLong(4) : -1, // reply to
-          rs.getObject(5) != null ? rs.getLong(5) : -1, // reply to
-          rs.getString(6));
+      final MessageHeader answer =
+          new MessageHeader(
+              id,
+              rs.getTimestamp(1), // created
+              rs.getLong(2), // author
+              new Name(rs.getString(3), Visibilities.PUBLIC, NameManager.USER_KIND), // author name
+              rs.getObject(4) != null ? rs.getLong(4) : -1, // reply to
+              rs.getObject(5) != null ? rs.getLong(5) : -1, // reply to
+              rs.getString(6));
+      cache.deferredPut(key, answer);
+      return answer;
+    }
+  }
+
+  /**
+   * Loads a message along with everything needed to display it. Bundles are cached, so this only
+   * takes a round-trip when the bundle isn't cached, and then only one.
+   *
+   * @param id The message id
+   * @throws MessageNotFoundException
+   * @throws SQLException
+   */
+  public MessageBundle loadMessageBundle(final long id)
+      throws MessageNotFoundException, SQLException {
+    // Check cache first!
+    //
+    final KOMCache cache = CacheManager.instance().getMessageCache();
+    final CacheKey key = CacheKey.bundle(id);
+    final MessageBundle cached = (MessageBundle) cache.get(key);
+    if (cached != null) {
+      return cached;
+    }
+    final MessageBundle answer = loadBundle(id);
+    if (answer == null) {
+      throw new MessageNotFoundException("Message id=" + id);
+    }
+
+    // Cache the bundle along with the message and its occurrences, so that
+    // loading them individually afterwards is cheap.
+    //
+    final Message message = answer.getMessage();
+    cache.deferredPut(key, answer);
+    cache.deferredPut(CacheKey.message(id), message);
+    cache.deferredPut(CacheKey.occurrences(id), message.getOccurrences());
+    return answer;
+  }
+
+  /**
+   * Builds a query returning all parts of a message bundle as one result set. Every part has the
+   * same columns: part, message id the row belongs to, id, timestamp, four numbers and three
+   * strings. What the numbers and strings mean depends on the part.
+   */
+  private static String bundleQuery() {
+    final String in = "(?)";
+    final String occurrence =
+        "o.message, o.action_ts, o.kind, o.user, o.conference, o.localnum, o.user_name, NULL, NULL ";
+    return "SELECT "
+        + BUNDLE_MESSAGE
+        + ", m.id, m.id, m.created, m.author, m.reply_to, m.thread, NULL, m.author_name, m.subject, m.body "
+        + "FROM messages m WHERE m.id IN "
+        + in
+        + " UNION ALL SELECT "
+        + BUNDLE_OCCURRENCE
+        + ", o.message, "
+        + occurrence
+        + "FROM messageoccurrences o WHERE o.message IN "
+        + in
+        + " AND o.kind <> 3"
+        + " UNION ALL SELECT "
+        + BUNDLE_ATTRIBUTE
+        + ", a.message, a.id, a.created, a.kind, NULL, NULL, NULL, NULL, a.value, NULL "
+        + "FROM messageattributes a WHERE a.message IN "
+        + in
+        + " UNION ALL SELECT "
+        + BUNDLE_REPLY
+        + ", r.reply_to, r.id, r.created, r.author, r.reply_to, r.thread, NULL, r.author_name, r.subject, NULL "
+        + "FROM messages r WHERE r.reply_to IN "
+        + in
+        + " UNION ALL SELECT "
+        + BUNDLE_REPLY_OCCURRENCE
+        + ", r.reply_to, "
+        + occurrence
+        + "FROM messages r, messageoccurrences o WHERE o.message = r.id AND r.reply_to IN "
+        + in
+        + " AND o.kind <> 3"
+        + " UNION ALL SELECT "
+        + BUNDLE_REPLY_TO
+        + ", m.id, p.id, p.created, p.author, p.reply_to, p.thread, NULL, p.author_name, p.subject, NULL "
+        + "FROM messages m, messages p WHERE p.id = m.reply_to AND m.id IN "
+        + in
+        + " UNION ALL SELECT "
+        + BUNDLE_REPLY_TO_OCCURRENCE
+        + ", m.id, "
+        + occurrence
+        + "FROM messages m, messageoccurrences o WHERE o.message = m.reply_to AND m.id IN "
+        + in
+        + " AND o.kind <> 3"
+        + " ORDER BY 1, 2, 4, 3";
+  }
+
+  /** Loads a message bundle from the database, or returns <code>null</code> if there's none. */
+  private MessageBundle loadBundle(final long id) throws SQLException {
+    // Fill in the id once per part
+    //
+    final PreparedStatement stmt = m_loadBundleStmt;
+    stmt.clearParameters();
+    for (int part = 1; part <= BUNDLE_PARTS; ++part) {
+      stmt.setLong(part, id);
+    }
+    final BundleBuilder builder = new BundleBuilder();
+    try (final ResultSet rs = stmt.executeQuery()) {
+      while (rs.next()) {
+        final long owner = rs.getLong(2);
+        switch (rs.getInt(1)) {
+          case BUNDLE_MESSAGE:
+            builder.message = extractBundleHeader(rs);
+            builder.body = rs.getString(11);
+            break;
+          case BUNDLE_OCCURRENCE:
+            builder.occurrences.add(extractBundleOccurrence(rs));
+            break;
+          case BUNDLE_ATTRIBUTE:
+            builder.attributes.add(
+                new MessageAttribute(
+                    rs.getLong(3), // id
+                    owner, // message
+                    rs.getShort(5), // kind
+                    rs.getTimestamp(4), // created
+                    rs.getString(10))); // value
+            break;
+          case BUNDLE_REPLY:
+            builder.replies.put(rs.getLong(3), extractBundleHeader(rs));
+            break;
+          case BUNDLE_REPLY_OCCURRENCE:
+            builder.replyOccurrences
+                .computeIfAbsent(rs.getLong(3), k -> new ArrayList<>())
+                .add(extractBundleOccurrence(rs));
+            break;
+          case BUNDLE_REPLY_TO:
+            builder.replyTo = extractBundleHeader(rs);
+            break;
+          case BUNDLE_REPLY_TO_OCCURRENCE:
+            builder.replyToOccurrences.add(extractBundleOccurrence(rs));
+            break;
+          default:
+            throw new SQLException("Unknown bundle part: " + rs.getInt(1));
+        }
+      }
     }
+
+    return builder.message != null ? builder.build() : null;
+  }
+
+  private static MessageHeader extractBundleHeader(final ResultSet rs) throws SQLException {
+    return new MessageHeader(
+        rs.getLong(3), // id
+        rs.getTimestamp(4), // created
+        rs.getLong(5), // author
+        new Name(rs.getString(9), Visibilities.PUBLIC, NameManager.USER_KIND), // author name
+        rs.getObject(6) != null ? rs.getLong(6) : -1, // reply to
+        rs.getObject(7) != null ? rs.getLong(7) : -1, // thread
+        rs.getString(10)); // subject
+  }
+
+  private static MessageOccurrence extractBundleOccurrence(final ResultSet rs)
+      throws SQLException {
+    return new MessageOccurrence(
+        rs.getLong(3), // message id
+        rs.getTimestamp(4), // Timestamp
+        rs.getShort(5), // Kind
+        new NameAssociation(
+            rs.getLong(6), // User
+            rs.getString(9), // User name
+            NameManager.USER_KIND),
+        rs.getLong(7), // Conference
+        rs.getInt(8)); // Localnum
   }
 
   public MessageOccurrence createMessageOccurrence(
@@ -598,72 +920,71 @@ public class MessageManager {
       final String userName,
       final long conference)
       throws MessageNotFoundException, SQLException {
-    ResultSet rs = null;
-    try {
-      // Get next message number
-      //
-      m_getNextNumStmt.clearParameters();
-      m_getNextNumStmt.setLong(1, conference);
-      rs = m_getNextNumStmt.executeQuery();
+    // Allocate the next message number from the conference counter. This also moves the
+    // "last text" timestamp. LAST_INSERT_ID(expr) hands the number back through the generated
+    // keys, so we don't have to read it back.
+    //
+    final Timestamp now = new Timestamp(System.currentTimeMillis());
+    m_allocateLocalNumStmt.clearParameters();
+    m_allocateLocalNumStmt.setTimestamp(1, now);
+    m_allocateLocalNumStmt.setLong(2, conference);
+    if (m_allocateLocalNumStmt.executeUpdate() == 0) {
+      throw new MessageNotFoundException("conference id=" + conference);
+    }
+    final int num;
+    try (final ResultSet rs = m_allocateLocalNumStmt.getGeneratedKeys()) {
       if (!rs.next()) {
         throw new MessageNotFoundException("conference id=" + conference);
       }
-      int num = rs.getInt(1) + 1;
-      final Timestamp now = new Timestamp(System.currentTimeMillis());
-
-      // Create message occurrence record
-      //
-      for (; ; ) {
-        m_addMessageOccurrenceStmt.clearParameters();
-        m_addMessageOccurrenceStmt.setLong(1, globalId);
-        m_addMessageOccurrenceStmt.setTimestamp(2, now);
-        m_addMessageOccurrenceStmt.setShort(3, kind);
-        m_addMessageOccurrenceStmt.setLong(4, user);
-        m_addMessageOccurrenceStmt.setString(5, userName);
-        m_addMessageOccurrenceStmt.setLong(6, conference);
-        m_addMessageOccurrenceStmt.setInt(7, num);
-        try {
-          m_addMessageOccurrenceStmt.executeUpdate();
-          break;
-        } catch (final SQLException e) {
-          // SELECT MAX(localnum) ... FOR UPDATE does not seem to
-          // put a lock on the entire table (IMHO, it should).
-          // Anyway... Check for index uniqueness violations.
-          //
-          if (e.getMessage().startsWith("Duplicate key")) {
-            // Message number clash! Bump number and try again!
-            //
-            LOG.info("Duplicate message number, trying again...");
-            ++num;
-            continue;
-          }
-          throw e;
-        }
-      }
-
-      // Update conference records "last text" field
-      //
-      m_updateConferenceLasttext.clearParameters();
-      m_updateConferenceLasttext.setTimestamp(1, now);
-      m_updateConferenceLasttext.setLong(2, conference);
-      m_updateConferenceLasttext.executeUpdate();
+      num = rs.getInt(1);
+    }
 
-      // This changes the number of messages in a conference.
-      //
-      CacheManager.instance().getConferenceCache().registerInvalidation(conference);
+    // The new number is always the highest one, so the range can only grow at the top, unless
+    // the conference was empty. The conference row is locked by now, so nobody else can move
+    // the range under us.
+    //
+    m_extendConferenceRangeStmt.clearParameters();
+    m_extendConferenceRangeStmt.setInt(1, num);
+    m_extendConferenceRangeStmt.setInt(2, num);
+    m_extendConferenceRangeStmt.setLong(3, conference);
+    m_extendConferenceRangeStmt.executeUpdate();
 
-      return new MessageOccurrence(
-          globalId,
-          now,
-          kind,
-          new NameAssociation(user, userName, NameManager.USER_KIND),
-          conference,
-          num);
-    } finally {
-      if (rs != null) {
-        rs.close();
-      }
-    }
+    // Create message occurrence record
+    //
+    m_addMessageOccurrenceStmt.clearParameters();
+    m_addMessageOccurrenceStmt.setLong(1, globalId);
+    m_addMessageOccurrenceStmt.setTimestamp(2, now);
+    m_addMessageOccurrenceStmt.setShort(3, kind);
+    m_addMessageOccurrenceStmt.setLong(4, user);
+    m_addMessageOccurrenceStmt.setString(5, userName);
+    m_addMessageOccurrenceStmt.setLong(6, conference);
+    m_addMessageOccurrenceStmt.setInt(7, num);
+    m_addMessageOccurrenceStmt.executeUpdate();
+
+    // This changes the number of messages in a conference and the occurrences
+    // of the message. The cached range is patched when we commit, so it has to
+    // hold up if someone else posts or removes a message before that.
+    //
+    CacheManager.instance()
+        .getConferenceCache()
+        .deferredUpdate(
+            conference,
+            cached -> {
+              final ConferenceInfo ci = (ConferenceInfo) cached;
+              return ci.withMessageRange(
+                  ci.getFirstMessage() != 0 ? Math.min(ci.getFirstMessage(), num) : num,
+                  Math.max(ci.getLastMessage(), num),
+                  now);
+            });
+    invalidateOccurrences(globalId);
+
+    return new MessageOccurrence(
+        globalId,
+        now,
+        kind,
+        new NameAssociation(user, userName, NameManager.USER_KIND),
+        conference,
+        num);
   }
 
   public MessageOccurrence addMessage(
@@ -726,14 +1047,24 @@ public class MessageManager {
       m_setThreadIdStmt.setLong(1, thread);
       m_setThreadIdStmt.setLong(2, id);
       m_setThreadIdStmt.executeUpdate();
+
+      // Add it to the reply tree
+      //
+      updateReplyTree(
+          thread, tree -> tree.withMessage(id, replyTo, new MessageOccurrence[] {result}));
     }
-    // Duplicate into search table
+    // Duplicate into search table, unless we have our own index
     //
-    m_addMessageSearchStmt.clearParameters();
-    m_addMessageSearchStmt.setLong(1, id);
-    m_addMessageSearchStmt.setString(2, subject);
-    m_addMessageSearchStmt.setString(3, body);
-    m_addMessageSearchStmt.executeUpdate();
+    final SearchIndex index = SearchIndex.instance();
+    if (index != null) {
+      index.messageAdded(id, subject, body, new MessageOccurrence[] {result});
+    } else {
+      m_addMessageSearchStmt.clearParameters();
+      m_addMessageSearchStmt.setLong(1, id);
+      m_addMessageSearchStmt.setString(2, subject);
+      m_addMessageSearchStmt.setString(3, body);
+      m_addMessageSearchStmt.executeUpdate();
+    }
 
     return result;
   }
@@ -744,6 +1075,14 @@ public class MessageManager {
    * @param messageId The global message id
    */
   public MessageOccurrence[] getOccurrences(final long messageId) throws SQLException {
+    // Check cache first!
+    //
+    final KOMCache cache = CacheManager.instance().getMessageCache();
+    final CacheKey key = CacheKey.occurrences(messageId);
+    final MessageOccurrence[] cached = (MessageOccurrence[]) cache.get(key);
+    if (cached != null) {
+      return cached;
+    }
     m_listOccurrencesStmt.clearParameters();
     m_listOccurrencesStmt.setLong(1, messageId);
     ResultSet rs = null;
@@ -766,6 +1105,7 @@ public class MessageManager {
       }
       final MessageOccurrence[] answer = new MessageOccurrence[list.size()];
       list.toArray(answer);
+      cache.deferredPut(key, answer);
       return answer;
     } finally {
       if (rs != null) {
@@ -814,6 +1154,12 @@ public class MessageManager {
    */
   public long getGlobalMessageId(final long conference, final int localnum)
       throws MessageNotFoundException, SQLException {
+    final KOMCache cache = CacheManager.instance().getMessageCache();
+    final CacheKey locator = CacheKey.locator(conference, localnum);
+    final Long cached = (Long) cache.get(locator);
+    if (cached != null) {
+      return cached;
+    }
     m_getGlobalIdStmt.clearParameters();
     m_getGlobalIdStmt.setLong(1, conference);
     m_getGlobalIdStmt.setInt(2, localnum);
@@ -822,7 +1168,9 @@ public class MessageManager {
         throw new MessageNotFoundException(
             "Message conference=" + conference + " localnum=" + localnum);
       }
-      return rs.getLong(1);
+      final long answer = rs.getLong(1);
+      cache.deferredPut(locator, answer);
+      return answer;
     }
   }
 
@@ -1111,6 +1459,7 @@ public class MessageManager {
     m_addMessageAttributeStmt.setTimestamp(3, now);
     m_addMessageAttributeStmt.setString(4, value);
     m_addMessageAttributeStmt.executeUpdate();
+    CacheManager.instance().getMessageCache().registerInvalidation(CacheKey.bundle(message));
   }
 
   public void dropMessageAttribute(final long attributeid, final long messageid)
@@ -1119,6 +1468,7 @@ public class MessageManager {
     m_dropMessageAttributeStmt.setLong(1, attributeid);
     m_dropMessageAttributeStmt.setLong(2, messageid);
     m_dropMessageAttributeStmt.executeUpdate();
+    CacheManager.instance().getMessageCache().registerInvalidation(CacheKey.bundle(messageid));
   }
 
   public int getMessageOccurrenceCount(final long globalId) throws SQLException {
@@ -1144,6 +1494,13 @@ public class MessageManager {
     m_dropMessageOccurrenceStmt.setInt(1, localNum);
     m_dropMessageOccurrenceStmt.setLong(2, conference);
     m_dropMessageOccurrenceStmt.execute();
+    occurrenceRemoved(conference, localNum);
+
+    // Update caches
+    //
+    final KOMCache cache = CacheManager.instance().getMessageCache();
+    cache.registerInvalidation(CacheKey.locator(conference, localNum));
+    invalidateOccurrences(globalNum);
 
     if (0 == getMessageOccurrenceCount(globalNum)) {
       // last occurrence deleted, so drop the message
@@ -1155,8 +1512,10 @@ public class MessageManager {
     // Invalidate cache for all occurrences
     //
     final MessageOccurrence[] occs = getOccurrences(globalNum);
+    final long thread = getCachedThreadId(globalNum);
+    final KOMCache messageCache = CacheManager.instance().getMessageCache();
     for (final MessageOccurrence occ : occs) {
-      CacheManager.instance().getConferenceCache().registerInvalidation(occ.getConference());
+      messageCache.registerInvalidation(CacheKey.locator(occ.getConference(), occ.getLocalnum()));
     }
 
     // Add "original deleted" attribute to replies
@@ -1176,15 +1535,230 @@ public class MessageManager {
       // message, which will fail naturally anyway. No worries, mate.
     }
 
+    // Once the message is gone, we can't tell which bundles it was part of
+    //
+    invalidateBundles(globalNum);
+
     // Delete the actual message.
     //
     m_dropMessageStmt.clearParameters();
     m_dropMessageStmt.setLong(1, globalNum);
     m_dropMessageStmt.execute();
 
+    // Deleting the message took any remaining occurrences with it, which may
+    // have changed the message ranges of their conferences.
+    //
+    for (final MessageOccurrence occ : occs) {
+      occurrenceRemoved(occ.getConference(), occ.getLocalnum());
+    }
+
     m_dropMessageSearchStmt.clearParameters();
     m_dropMessageSearchStmt.setLong(1, globalNum);
     m_dropMessageSearchStmt.execute();
+    final SearchIndex index = SearchIndex.instance();
+    if (index != null) {
+      index.messageDeleted(globalNum);
+    }
+
+    // Update caches
+    //
+    messageCache.registerInvalidation(CacheKey.header(globalNum));
+    invalidateOccurrences(globalNum);
+    if (thread > 0) {
+      updateReplyTree(thread, tree -> tree.withoutMessage(globalNum));
+    }
+  }
+
+  /**
+   * Registers a change to the reply tree of a thread. If the tree is cached, the change is applied
+   * to whatever version of it is cached when we commit, so that concurrent changes to the same
+   * thread are all kept. If it isn't, we just make sure nobody caches a tree they loaded before
+   * we commit, since it wouldn't have our change in it.
+   *
+   * @param thread The thread
+   * @param change Returns a changed copy of the tree
+   */
+  private void updateReplyTree(final long thread, final UnaryOperator<ReplyTree> change) {
+    final KOMCache treeCache = CacheManager.instance().getReplyTreeCache();
+    if (treeCache.get(thread) != null) {
+      treeCache.deferredUpdate(thread, tree -> change.apply((ReplyTree) tree));
+    } else {
+      treeCache.registerInvalidation(thread);
+    }
+  }
+
+  /**
+   * Adjusts the persisted and cached message range of a conference after an occurrence has been
+   * removed from it. Only removing the first or last message changes the range, and only then do we
+   * have to look at the occurrences to find the new end.
+   *
+   * @param conference The conference
+   * @param localNum The local number of the removed occurrence
+   * @throws SQLException
+   */
+  private void occurrenceRemoved(final long conference, final int localNum) throws SQLException {
+    final int oldFirst;
+    final int oldLast;
+    int first;
+    int last;
+    m_loadConferenceRangeStmt.clearParameters();
+    m_loadConferenceRangeStmt.setLong(1, conference);
+    try (final ResultSet rs = m_loadConferenceRangeStmt.executeQuery()) {
+      if (!rs.next()) {
+        return;
+      }
+      oldFirst = rs.getInt(1);
+      oldLast = rs.getInt(2);
+    }
+    first = oldFirst;
+    last = oldLast;
+    if (localNum == first) {
+      first =
+          localNum == last
+              ? 0
+              : getAdjacentLocalNum(m_getFirstLocalAfterStmt, conference, localNum);
+    } else if (localNum == last) {
+      last = getAdjacentLocalNum(m_getLastLocalBeforeStmt, conference, localNum);
+    } else {
+      return;
+    }
+
+    // Nothing left?
+    //
+    if (first == 0 || last == 0) {
+      first = 0;
+      last = 0;
+    }
+    m_updateConferenceRangeStmt.clearParameters();
+    m_updateConferenceRangeStmt.setInt(1, first);
+    m_updateConferenceRangeStmt.setInt(2, last);
+    m_updateConferenceRangeStmt.setLong(3, conference);
+    m_updateConferenceRangeStmt.executeUpdate();
+
+    // Patch the cached range when we commit. If someone else changed it in the meantime, we
+    // can't tell where it should end, so it's dropped and loaded again.
+    //
+    final int newFirst = first;
+    final int newLast = last;
+    CacheManager.instance()
+        .getConferenceCache()
+        .deferredUpdate(
+            conference,
+            cached -> {
+              final ConferenceInfo ci = (ConferenceInfo) cached;
+              return ci.getFirstMessage() == oldFirst && ci.getLastMessage() == oldLast
+                  ? ci.withMessageRange(newFirst, newLast, ci.getLasttext())
+                  : null;
+            });
+  }
+
+  private int getAdjacentLocalNum(
+      final PreparedStatement stmt, final long conference, final int localNum)
+      throws SQLException {
+    stmt.clearParameters();
+    stmt.setLong(1, conference);
+    stmt.setInt(2, localNum);
+    try (final ResultSet rs = stmt.executeQuery()) {
+      return rs.next() ? rs.getInt(1) : 0;
+    }
+  }
+
+  /**
+   * Invalidates cached data that depends on the occurrences of a message, i.e. the list of
+   * occurrences, the full message and the bundles it's part of. If the thread of the message is
+   * cached, its occurrences are updated in the reply tree. So are the occurrences in the search
+   * index.
+   *
+   * @param globalId The message id
+   * @throws SQLException
+   */
+  private void invalidateOccurrences(final long globalId) throws SQLException {
+    final KOMCache cache = CacheManager.instance().getMessageCache();
+    cache.registerInvalidation(CacheKey.occurrences(globalId));
+    cache.registerInvalidation(CacheKey.message(globalId));
+    invalidateBundles(globalId);
+    final KOMCache treeCache = CacheManager.instance().getReplyTreeCache();
+    final long thread = getCachedThreadId(globalId);
+    final boolean cached = thread > 0 && treeCache.get(thread) != null;
+    if (thread > 0 && !cached) {
+      treeCache.registerInvalidation(thread);
+    }
+    final SearchIndex index = SearchIndex.instance();
+    if (!cached && index == null) {
+      return;
+    }
+    final MessageOccurrence[] occurrences = getOccurrences(globalId);
+    if (cached) {
+      updateReplyTree(thread, tree -> tree.withOccurrences(globalId, occurrences));
+    }
+    if (index != null) {
+      index.occurrencesChanged(globalId, occurrences);
+    }
+  }
+
+  /**
+   * Invalidates the cached bundles a message is part of. Besides its own bundle, those are the
+   * bundle of the message it replies to, which lists it as a reply, and the bundles of its replies,
+   * which show what they reply to.
+   *
+   * @param globalId The message id
+   * @throws SQLException
+   */
+  private void invalidateBundles(final long globalId) throws SQLException {
+    final KOMCache cache = CacheManager.instance().getMessageCache();
+    cache.registerInvalidation(CacheKey.bundle(globalId));
+
+    // Don't go through loadMessageHeader here. The message may be halfway
+    // through being created, and we don't want to cache that.
+    //
+    m_loadMessageHeaderStmt.clearParameters();
+    m_loadMessageHeaderStmt.setLong(1, globalId);
+    try (final ResultSet rs = m_loadMessageHeaderStmt.executeQuery()) {
+      if (rs.next() && rs.getObject(4) != null) {
+        cache.registerInvalidation(CacheKey.bundle(rs.getLong(4)));
+      }
+    }
+    for (final long reply : getReplyIds(globalId)) {
+      cache.registerInvalidation(CacheKey.bundle(reply));
+    }
+  }
+
+  /**
+   * Returns the thread of a message, using the cached header if there is one.
+   *
+   * @param globalId The message id
+   * @return The thread, or 0 if the message doesn't exist or isn't part of a thread
+   * @throws SQLException
+   */
+  private long getCachedThreadId(final long globalId) throws SQLException {
+    final MessageHeader mh =
+        (MessageHeader) CacheManager.instance().getMessageCache().get(CacheKey.header(globalId));
+    if (mh != null) {
+      return mh.getThread();
+    }
+    m_getThreadIdForMessageStmt.clearParameters();
+    m_getThreadIdForMessageStmt.setLong(1, globalId);
+    try (final ResultSet rs = m_getThreadIdForMessageStmt.executeQuery()) {
+      return rs.next() ? rs.getLong(1) : 0;
+    }
+  }
+
+  /**
+   * Returns the reply tree of a thread. Trees are cached and kept up to date as messages are
+   * added, moved, copied and deleted, so walking a thread someone has recently looked at doesn't
+   * cost any queries.
+   *
+   * @param threadId The thread
+   * @throws SQLException
+   */
+  public ReplyTree getReplyTree(final long threadId) throws SQLException {
+    final KOMCache cache = CacheManager.instance().getReplyTreeCache();
+    ReplyTree tree = (ReplyTree) cache.get(threadId);
+    if (tree == null) {
+      tree = loadReplyTree(threadId);
+      cache.deferredPut(threadId, tree);
+    }
+    return tree;
   }
 
   public void deleteConference(final long conference) throws SQLException {
@@ -1250,15 +1824,21 @@ public class MessageManager {
   }
 
   public LocalMessageSearchResult[] searchMessagesLocally(
-      final long conference, final String searchterm, final int offset, final int length)
+      final long conference,
+      final String searchterm,
+      final MessageSearchResult after,
+      final boolean oldestFirst,
+      final int length)
       throws SQLException {
-    m_searchMessagesLocally.clearParameters();
-    m_searchMessagesLocally.setLong(1, conference);
-    m_searchMessagesLocally.setString(2, searchterm);
-    m_searchMessagesLocally.setLong(3, length);
-    m_searchMessagesLocally.setLong(4, offset);
-
-    return innerLocalSearch(m_searchMessagesLocally);
+    final PreparedStatement stmt =
+        oldestFirst ? m_searchMessagesLocallyOldestFirst : m_searchMessagesLocally;
+    stmt.clearParameters();
+    stmt.setLong(1, conference);
+    stmt.setString(2, searchterm);
+    setLocalContinuation(stmt, 3, after, oldestFirst);
+    stmt.setInt(4, length);
+
+    return innerLocalSearch(stmt);
   }
 
   public long countSearchMessagesLocally(final long conference, final String searchterm)
@@ -1318,38 +1898,72 @@ public class MessageManager {
   }
 
   public LocalMessageSearchResult[] grepMessagesLocally(
-      final long conference, final String searchterm, final int offset, final int length)
+      final long conference,
+      final String searchterm,
+      final MessageSearchResult after,
+      final boolean oldestFirst,
+      final int length)
       throws SQLException {
-    m_grepMessagesLocally.clearParameters();
-    m_grepMessagesLocally.setLong(1, conference);
-    m_grepMessagesLocally.setString(2, "%" + searchterm + "%");
-    m_grepMessagesLocally.setString(3, "%" + searchterm + "%");
-    m_grepMessagesLocally.setLong(4, length);
-    m_grepMessagesLocally.setLong(5, offset);
-
-    return innerLocalSearch(m_grepMessagesLocally);
+    final PreparedStatement stmt =
+        oldestFirst ? m_grepMessagesLocallyOldestFirst : m_grepMessagesLocally;
+    stmt.clearParameters();
+    stmt.setLong(1, conference);
+    stmt.setString(2, "%" + searchterm + "%");
+    stmt.setString(3, "%" + searchterm + "%");
+    setLocalContinuation(stmt, 4, after, oldestFirst);
+    stmt.setInt(5, length);
+
+    return innerLocalSearch(stmt);
   }
 
+  /**
+   * Lists the messages in a conference, newest first. Pages are found by their position in the
+   * conference rather than by skipping rows, so that listing a deep page is as cheap as listing the
+   * first one.
+   *
+   * @param conference The conference
+   * @param after The last message on the previous page, or <code>null</code> to get the first page
+   * @param length The maximum number of messages to return
+   */
   public LocalMessageSearchResult[] listAllMessagesLocally(
-      final long conference, final int offset, final int length) throws SQLException {
+      final long conference, final MessageSearchResult after, final int length)
+      throws SQLException {
     m_listAllMessagesLocally.clearParameters();
     m_listAllMessagesLocally.setLong(1, conference);
-    m_listAllMessagesLocally.setInt(2, length);
-    m_listAllMessagesLocally.setInt(3, offset);
+    setLocalContinuation(m_listAllMessagesLocally, 2, after, false);
+    m_listAllMessagesLocally.setInt(3, length);
 
     return innerLocalSearch(m_listAllMessagesLocally);
   }
 
   public LocalMessageSearchResult[] listMessagesLocallyByAuthor(
-      final long conference, final long user, final int offset, final int length)
+      final long conference,
+      final long user,
+      final MessageSearchResult after,
+      final boolean oldestFirst,
+      final int length)
       throws SQLException {
-    m_listMessagesLocallyByAuthor.clearParameters();
-    m_listMessagesLocallyByAuthor.setLong(1, conference);
-    m_listMessagesLocallyByAuthor.setLong(2, user);
-    m_listMessagesLocallyByAuthor.setInt(3, length);
-    m_listMessagesLocallyByAuthor.setInt(4, offset);
+    final PreparedStatement stmt =
+        oldestFirst ? m_listMessagesLocallyByAuthorOldestFirst : m_listMessagesLocallyByAuthor;
+    stmt.clearParameters();
+    stmt.setLong(1, conference);
+    stmt.setLong(2, user);
+    setLocalContinuation(stmt, 3, after, oldestFirst);
+    stmt.setInt(4, length);
+
+    return innerLocalSearch(stmt);
+  }
 
-    return innerLocalSearch(m_listMessagesLocallyByAuthor);
+  /** Sets the local number a local listing should continue after */
+  private static void setLocalContinuation(
+      final PreparedStatement stmt,
+      final int index,
+      final MessageSearchResult after,
+      final boolean oldestFirst)
+      throws SQLException {
+    stmt.setInt(
+        index,
+        after != null ? after.getLocalId() : oldestFirst ? Integer.MIN_VALUE : Integer.MAX_VALUE);
   }
 
   private LocalMessageSearchResult[] innerLocalSearch(final PreparedStatement localSearchStatement)
@@ -1387,24 +2001,91 @@ public class MessageManager {
     return lmsr;
   }
 
+  /**
+   * Lists the occurrences of the messages written by a user. Like the local listings, pages are
+   * found by the position of the last occurrence on the previous page, which for global listings
+   * is when the message was created, its id and the conference it occurs in.
+   *
+   * @param user The author
+   * @param after The last occurrence on the previous page, or <code>null</code> to get the first
+   *     page
+   * @param oldestFirst Whether to list the oldest or the newest message first
+   * @param length The maximum number of occurrences to return
+   */
   public GlobalMessageSearchResult[] listMessagesGloballyByAuthor(
-      final long user, final int offset, final int length) throws SQLException {
-    m_listMessagesGloballyByAuthor.clearParameters();
-    m_listMessagesGloballyByAuthor.setLong(1, user);
-    m_listMessagesGloballyByAuthor.setInt(2, length);
-    m_listMessagesGloballyByAuthor.setInt(3, offset);
-
-    return innerGlobalSearch(m_listMessagesGloballyByAuthor);
+      final long user, final MessageSearchResult after, final boolean oldestFirst, final int length)
+      throws SQLException {
+    final PreparedStatement stmt =
+        oldestFirst ? m_listMessagesGloballyByAuthorOldestFirst : m_listMessagesGloballyByAuthor;
+    stmt.clearParameters();
+    stmt.setLong(1, user);
+    setGlobalContinuation(stmt, 2, after, oldestFirst);
+    stmt.setInt(7, length);
+
+    return innerGlobalSearch(stmt);
   }
 
   public GlobalMessageSearchResult[] searchMessagesGlobally(
-      final String searchterm, final int offset, final int length) throws SQLException {
-    m_searchMessagesGlobally.clearParameters();
-    m_searchMessagesGlobally.setString(1, searchterm);
-    m_searchMessagesGlobally.setInt(2, length);
-    m_searchMessagesGlobally.setInt(3, offset);
+      final String searchterm,
+      final MessageSearchResult after,
+      final boolean oldestFirst,
+      final int length)
+      throws SQLException {
+    final PreparedStatement stmt =
+        oldestFirst ? m_searchMessagesGloballyOldestFirst : m_searchMessagesGlobally;
+    stmt.clearParameters();
+    stmt.setString(1, searchterm);
+    setGlobalContinuation(stmt, 2, after, oldestFirst);
+    stmt.setInt(7, length);
+
+    return innerGlobalSearch(stmt);
+  }
+
+  /**
+   * Continues a global listing with the occurrences before an occurrence. A message can occur in
+   * several conferences, so the conference is part of the position too. Otherwise, a page ending
+   * in the middle of the occurrences of a message would skip the rest of them.
+   */
+  private static String newestFirstGlobally(final String messages) {
+    return String.format(
+        "AND (%1$s.created < ? OR (%1$s.created = ? AND (%1$s.id < ? "
+            + "OR (%1$s.id = ? AND mo.conference < ?)))) "
+            + "ORDER BY %1$s.created DESC, %1$s.id DESC, mo.conference DESC LIMIT ?",
+        messages);
+  }
 
-    return innerGlobalSearch(m_searchMessagesGlobally);
+  /** Continues a global listing with the occurrences after an occurrence */
+  private static String oldestFirstGlobally(final String messages) {
+    return String.format(
+        "AND (%1$s.created > ? OR (%1$s.created = ? AND (%1$s.id > ? "
+            + "OR (%1$s.id = ? AND mo.conference > ?)))) "
+            + "ORDER BY %1$s.created, %1$s.id, mo.conference LIMIT ?",
+        messages);
+  }
+
+  /** Sets the position of the occurrence a global listing should continue after */
+  private static void setGlobalContinuation(
+      final PreparedStatement stmt,
+      final int index,
+      final MessageSearchResult after,
+      final boolean oldestFirst)
+      throws SQLException {
+    final Timestamp created =
+        after != null ? after.getTimestamp() : oldestFirst ? BEGINNING_OF_TIME : END_OF_TIME;
+    stmt.setTimestamp(index, created);
+    stmt.setTimestamp(index + 1, created);
+    final long id =
+        after != null ? after.getGlobalId() : oldestFirst ? Long.MIN_VALUE : Long.MAX_VALUE;
+    stmt.setLong(index + 2, id);
+    stmt.setLong(index + 3, id);
+
+    // A message we only know the id of continues with its first occurrence
+    //
+    stmt.setLong(
+        index + 4,
+        after instanceof GlobalMessageSearchResult
+            ? ((GlobalMessageSearchResult) after).getConference().getId()
+            : oldestFirst ? Long.MIN_VALUE : Long.MAX_VALUE);
   }
 
   private GlobalMessageSearchResult[] innerGlobalSearch(
@@ -1464,16 +2145,170 @@ public class MessageManager {
     }
   }
 
-  public GlobalMessageSearchResult[] listCommentsGloballyToAuthor(
-      final long user, final Timestamp startDate, final int offset, final int length)
+  /**
+   * Loads the reply structure of a whole thread, along with the occurrences of every message in
+   * it, in a single query.
+   *
+   * @param threadId The thread
+   * @throws SQLException
+   */
+  public ReplyTree loadReplyTree(final long threadId) throws SQLException {
+    m_loadReplyTreeStmt.clearParameters();
+    m_loadReplyTreeStmt.setLong(1, threadId);
+    final List<Long> ids = new ArrayList<>();
+    final List<Long> replyTo = new ArrayList<>();
+    final List<MessageOccurrence[]> occurrences = new ArrayList<>();
+    try (final ResultSet rs = m_loadReplyTreeStmt.executeQuery()) {
+      final List<MessageOccurrence> occs = new ArrayList<>();
+      long current = -1;
+      while (rs.next()) {
+        // New message? Wrap up the occurrences of the last one.
+        //
+        final long id = rs.getLong(1);
+        if (id != current) {
+          if (current != -1) {
+            occurrences.add(occs.toArray(new MessageOccurrence[occs.size()]));
+            occs.clear();
+          }
+          current = id;
+          ids.add(id);
+          replyTo.add(rs.getObject(2) != null ? rs.getLong(2) : -1);
+        }
+
+        // No occurrences at all gives us a row of NULLs
+        //
+        if (rs.getObject(7) != null) {
+          occs.add(
+              new MessageOccurrence(
+                  id, // Global id
+                  rs.getTimestamp(3), // Timestamp
+                  rs.getShort(4), // Kind
+                  new NameAssociation(
+                      rs.getLong(5), // User
+                      rs.getString(6), // User name
+                      NameManager.USER_KIND),
+                  rs.getLong(7), // Conference
+                  rs.getInt(8) // Localnum
+                  ));
+        }
+      }
+      if (current != -1) {
+        occurrences.add(occs.toArray(new MessageOccurrence[occs.size()]));
+      }
+    }
+    final int top = ids.size();
+    final long[] idArray = new long[top];
+    final long[] replyToArray = new long[top];
+    for (int idx = 0; idx < top; ++idx) {
+      idArray[idx] = ids.get(idx);
+      replyToArray[idx] = replyTo.get(idx);
+    }
+    return new ReplyTree(
+        threadId,
+        idArray,
+        replyToArray,
+        occurrences.toArray(new MessageOccurrence[top][]));
+  }
+
+  /**
+   * Loads the messages in a range of ids, along with their occurrences, for the search index to
+   * catch up with.
+   *
+   * @param after The id to start after
+   * @param upTo The last id to load
+   * @throws SQLException
+   */
+  public Message[] loadMessagesForIndexing(final long after, final long upTo)
       throws SQLException {
-    m_listCommentsGloballyToAuthor.clearParameters();
-    m_listCommentsGloballyToAuthor.setLong(1, user);
-    m_listCommentsGloballyToAuthor.setTimestamp(2, startDate);
-    m_listCommentsGloballyToAuthor.setInt(3, length);
-    m_listCommentsGloballyToAuthor.setInt(4, offset);
+    m_loadMessagesForIndexingStmt.clearParameters();
+    m_loadMessagesForIndexingStmt.setLong(1, after);
+    m_loadMessagesForIndexingStmt.setLong(2, upTo);
+    final List<Message> answer = new ArrayList<>();
+    try (final ResultSet rs = m_loadMessagesForIndexingStmt.executeQuery()) {
+      final List<MessageOccurrence> occs = new ArrayList<>();
+      Message current = null;
+      while (rs.next()) {
+        // New message? Wrap up the last one.
+        //
+        final long id = rs.getLong(1);
+        if (current == null || current.getId() != id) {
+          if (current != null) {
+            answer.add(withOccurrences(current, occs));
+            occs.clear();
+          }
+          current =
+              new Message(
+                  id,
+                  rs.getTimestamp(2), // created
+                  rs.getLong(3), // author
+                  new Name(rs.getString(4), Visibilities.PUBLIC, NameManager.USER_KIND),
+                  rs.getObject(5) != null ? rs.getLong(5) : -1, // reply to
+                  rs.getObject(6) != null ? rs.getLong(6) : -1, // thread
+                  rs.getString(7), // subject
+                  rs.getString(8), // body
+                  null);
+        }
+
+        // No occurrences at all gives us a row of NULLs
+        //
+        if (rs.getObject(13) != null) {
+          occs.add(
+              new MessageOccurrence(
+                  id, // Global id
+                  rs.getTimestamp(9), // Timestamp
+                  rs.getShort(10), // Kind
+                  new NameAssociation(
+                      rs.getLong(11), // User
+                      rs.getString(12), // User name
+                      NameManager.USER_KIND),
+                  rs.getLong(13), // Conference
+                  rs.getInt(14) // Localnum
+                  ));
+        }
+      }
+      if (current != null) {
+        answer.add(withOccurrences(current, occs));
+      }
+    }
+    return answer.toArray(new Message[answer.size()]);
+  }
 
-    return innerGlobalSearch(m_listCommentsGloballyToAuthor);
+  private static Message withOccurrences(final Message m, final List<MessageOccurrence> occs) {
+    return new Message(
+        m.getId(),
+        m.getCreated(),
+        m.getAuthor(),
+        m.getAuthorName(),
+        m.getReplyTo(),
+        m.getThread(),
+        m.getSubject(),
+        m.getBody(),
+        occs.toArray(new MessageOccurrence[occs.size()]));
+  }
+
+  /** Returns the highest message id in use, or 0 if there are no messages */
+  public long getHighestMessageId() throws SQLException {
+    try (final ResultSet rs = m_getHighestMessageIdStmt.executeQuery()) {
+      return rs.next() ? rs.getLong(1) : 0;
+    }
+  }
+
+  public GlobalMessageSearchResult[] listCommentsGloballyToAuthor(
+      final long user,
+      final Timestamp startDate,
+      final MessageSearchResult after,
+      final boolean oldestFirst,
+      final int length)
+      throws SQLException {
+    final PreparedStatement stmt =
+        oldestFirst ? m_listCommentsGloballyToAuthorOldestFirst : m_listCommentsGloballyToAuthor;
+    stmt.clearParameters();
+    stmt.setLong(1, user);
+    stmt.setTimestamp(2, startDate);
+    setGlobalContinuation(stmt, 3, after, oldestFirst);
+    stmt.setInt(8, length);
+
+    return innerGlobalSearch(stmt);
   }
 
   public long countCommentsGloballyToAuthor(
@@ -1535,4 +2370,102 @@ public class MessageManager {
       return rs.getLong(1);
     }
   }
+
+  /** Collects the parts of a message bundle as they're read */
+  private static final class BundleBuilder {
+    private MessageHeader message;
+    private String body;
+    private final List<MessageOccurrence> occurrences = new ArrayList<>();
+    private final List<MessageAttribute> attributes = new ArrayList<>();
+    private final Map<Long, MessageHeader> replies = new LinkedHashMap<>();
+    private final Map<Long, List<MessageOccurrence>> replyOccurrences = new HashMap<>();
+    private MessageHeader replyTo;
+    private final List<MessageOccurrence> replyToOccurrences = new ArrayList<>();
+
+    private MessageBundle build() {
+      final MessageHeader[] replyHeaders = new MessageHeader[replies.size()];
+      replies.values().toArray(replyHeaders);
+      final MessageOccurrence[][] replyOccs = new MessageOccurrence[replyHeaders.length][];
+      for (int idx = 0; idx < replyHeaders.length; ++idx) {
+        final List<MessageOccurrence> occs = replyOccurrences.get(replyHeaders[idx].getId());
+        replyOccs[idx] =
+            occs != null ? occs.toArray(new MessageOccurrence[occs.size()]) : new MessageOccurrence[0];
+      }
+      return new MessageBundle(
+          new Message(
+              message.getId(),
+              message.getCreated(),
+              message.getAuthor(),
+              message.getAuthorName(),
+              message.getReplyTo(),
+              message.getThread(),
+              message.getSubject(),
+              body,
+              occurrences.toArray(new MessageOccurrence[occurrences.size()])),
+          attributes.toArray(new MessageAttribute[attributes.size()]),
+          replyTo,
+          replyToOccurrences.toArray(new MessageOccurrence[replyToOccurrences.size()]),
+          replyHeaders,
+          replyOccs);
+    }
+  }
+
+  /**
+   * Key for objects in the message cache. Messages, headers and occurrence lists are all keyed on
+   * the global message id, while locators map a conference and local number to a global id.
+   */
+  private static final class CacheKey {
+    private static final byte MESSAGE = 0;
+    private static final byte HEADER = 1;
+    private static final byte OCCURRENCES = 2;
+    private static final byte LOCATOR = 3;
+    private static final byte BUNDLE = 4;
+
+    private final byte kind;
+    private final long id;
+    private final int localnum;
+
+    private CacheKey(final byte kind, final long id, final int localnum) {
+      this.kind = kind;
+      this.id = id;
+      this.localnum = localnum;
+    }
+
+    static CacheKey message(final long id) {
+      return new CacheKey(MESSAGE, id, 0);
+    }
+
+    static CacheKey header(final long id) {
+      return new CacheKey(HEADER, id, 0);
+    }
+
+    static CacheKey occurrences(final long id) {
+      return new CacheKey(OCCURRENCES, id, 0);
+    }
+
+    static CacheKey locator(final long conference, final int localnum) {
+      return new CacheKey(LOCATOR, conference, localnum);
+    }
+
+    static CacheKey bundle(final long id) {
+      return new CacheKey(BUNDLE, id, 0);
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (id ^ (id >>> 32)) * 31 + localnum * 7 + kind;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (o == this) {
+        return true;
+      }
+      if (!(o instanceof CacheKey)) {
+        return false;
+      }
+      final CacheKey k = (CacheKey) o;
+      return k.kind == kind && k.id == id && k.localnum == localnum;
+    }
+  }
 }
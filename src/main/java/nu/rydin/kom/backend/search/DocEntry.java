@@ -0,0 +1,68 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.backend.search;
+
+/**
+ * What a segment knows about a message: whether its text is indexed in the segment, whether it has
+ * been deleted, and where it occurs. Only the newest entry for a message counts, but the text of a
+ * message is only indexed in the segment it was first added to, so an entry without text just
+ * updates the occurrences or deletes the message.
+ *
+ * @author Pontus Rydin
+ */
+final class DocEntry {
+  /** Length of an entry that doesn't carry any text */
+  static final int NO_CONTENT = -1;
+
+  final long id;
+
+  /** Number of words in the message, or <code>NO_CONTENT</code> */
+  final int length;
+
+  final boolean deleted;
+
+  /** Conferences the message occurs in, in the same order as <code>localnums</code> */
+  final long[] conferences;
+
+  final int[] localnums;
+
+  DocEntry(
+      final long id,
+      final int length,
+      final boolean deleted,
+      final long[] conferences,
+      final int[] localnums) {
+    this.id = id;
+    this.length = length;
+    this.deleted = deleted;
+    this.conferences = conferences;
+    this.localnums = localnums;
+  }
+
+  boolean hasContent() {
+    return length != NO_CONTENT;
+  }
+
+  /**
+   * Returns this entry with the occurrences of a newer one. Deleted messages never come back, so a
+   * deleted entry stays deleted.
+   */
+  DocEntry update(final DocEntry newer) {
+    return new DocEntry(
+        id, length, deleted || newer.deleted, newer.conferences, newer.localnums);
+  }
+
+  /** Returns the local number of the message in a conference, or -1 if it doesn't occur there */
+  int getLocalnum(final long conference) {
+    for (int idx = 0; idx < conferences.length; ++idx) {
+      if (conferences[idx] == conference) {
+        return localnums[idx];
+      }
+    }
+    return -1;
+  }
+}
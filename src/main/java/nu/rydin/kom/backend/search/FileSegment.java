@@ -0,0 +1,285 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.backend.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Predicate;
+
+/**
+ * An immutable segment on disk. The file is mapped into memory and only the dictionaries are
+ * decoded up front, so opening even a large segment is cheap. The file is laid out like this:
+ *
+ * <ul>
+ *   <li>Entries: A fixed size record per message, in ascending order, so that they can be binary
+ *       searched.
+ *   <li>Occurrences: Conference and local number, referred to by the entries.
+ *   <li>Postings: Message ids as varint deltas, each followed by a frequency and, for words, the
+ *       positions as varint deltas.
+ *   <li>Dictionaries: Stems and words, in alphabetical order, with the offset of their postings
+ *       and the number of messages they occur in.
+ *   <li>Footer: Offsets of the sections, followed by a version and a magic number.
+ * </ul>
+ *
+ * @author Pontus Rydin
+ */
+final class FileSegment extends Segment {
+  static final int MAGIC = 0x4b4f4d53;
+
+  static final int VERSION = 1;
+
+  /** Id, length, deleted flag, first occurrence and number of occurrences */
+  static final int DOC_SIZE = 8 + 4 + 1 + 4 + 4;
+
+  /** Conference and local number */
+  static final int OCCURRENCE_SIZE = 8 + 4;
+
+  /** Offset of the occurrences, the two dictionaries, number of entries, version and magic */
+  static final int FOOTER_SIZE = 6 * 4;
+
+  private final File m_file;
+
+  private final ByteBuffer m_data;
+
+  private final int m_docCount;
+
+  private final int m_occurrenceOffset;
+
+  private final Dictionary m_stems;
+
+  private final Dictionary m_words;
+
+  private final int m_contentCount;
+
+  private final long m_totalLength;
+
+  private FileSegment(final File file, final ByteBuffer data) throws IOException {
+    m_file = file;
+    m_data = data;
+    final int footer = data.limit() - FOOTER_SIZE;
+    if (footer < 0
+        || data.getInt(footer + 20) != MAGIC
+        || data.getInt(footer + 16) != VERSION) {
+      throw new IOException("Not a search index segment: " + file);
+    }
+    m_occurrenceOffset = data.getInt(footer);
+    m_stems = new Dictionary(data, data.getInt(footer + 4));
+    m_words = new Dictionary(data, data.getInt(footer + 8));
+    m_docCount = data.getInt(footer + 12);
+    int contentCount = 0;
+    long totalLength = 0;
+    for (int idx = 0; idx < m_docCount; ++idx) {
+      final int length = data.getInt(idx * DOC_SIZE + 8);
+      if (length != DocEntry.NO_CONTENT) {
+        ++contentCount;
+        totalLength += length;
+      }
+    }
+    m_contentCount = contentCount;
+    m_totalLength = totalLength;
+  }
+
+  /**
+   * Opens a segment.
+   *
+   * @param file The segment file
+   * @throws IOException If the file couldn't be read or isn't a segment
+   */
+  static FileSegment open(final File file) throws IOException {
+    try (final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        final FileChannel channel = raf.getChannel()) {
+      // The mapping stays valid after the channel is closed
+      //
+      return new FileSegment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } catch (final IndexOutOfBoundsException e) {
+      throw new IOException("Corrupt search index segment: " + file, e);
+    }
+  }
+
+  File getFile() {
+    return m_file;
+  }
+
+  /** Returns the entry at a position */
+  DocEntry getDocAt(final int idx) {
+    final int offset = idx * DOC_SIZE;
+    final int length = m_data.getInt(offset + 8);
+    final boolean deleted = m_data.get(offset + 12) != 0;
+    int occurrence = m_occurrenceOffset + m_data.getInt(offset + 13) * OCCURRENCE_SIZE;
+    final int count = m_data.getInt(offset + 17);
+    final long[] conferences = new long[count];
+    final int[] localnums = new int[count];
+    for (int each = 0; each < count; ++each, occurrence += OCCURRENCE_SIZE) {
+      conferences[each] = m_data.getLong(occurrence);
+      localnums[each] = m_data.getInt(occurrence + 8);
+    }
+    return new DocEntry(m_data.getLong(offset), length, deleted, conferences, localnums);
+  }
+
+  int getStemCount() {
+    return m_stems.terms.length;
+  }
+
+  String getStem(final int idx) {
+    return m_stems.terms[idx];
+  }
+
+  Postings getStemPostingsAt(final int idx) {
+    return this.readPostings(m_stems.offsets[idx], m_stems.counts[idx], false);
+  }
+
+  int getWordCount() {
+    return m_words.terms.length;
+  }
+
+  String getWord(final int idx) {
+    return m_words.terms[idx];
+  }
+
+  Postings getWordPostingsAt(final int idx) {
+    return this.readPostings(m_words.offsets[idx], m_words.counts[idx], true);
+  }
+
+  @Override
+  DocEntry getDoc(final long id) {
+    int low = 0;
+    int high = m_docCount - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final long each = m_data.getLong(mid * DOC_SIZE);
+      if (each < id) {
+        low = mid + 1;
+      } else if (each > id) {
+        high = mid - 1;
+      } else {
+        return this.getDocAt(mid);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  int getDocCount() {
+    return m_docCount;
+  }
+
+  @Override
+  int getContentCount() {
+    return m_contentCount;
+  }
+
+  @Override
+  long getTotalLength() {
+    return m_totalLength;
+  }
+
+  @Override
+  long getMaxId() {
+    return m_docCount > 0 ? m_data.getLong((m_docCount - 1) * DOC_SIZE) : 0;
+  }
+
+  @Override
+  Postings getStemPostings(final String stem) {
+    final int idx = Arrays.binarySearch(m_stems.terms, stem);
+    return idx >= 0 ? this.getStemPostingsAt(idx) : null;
+  }
+
+  @Override
+  Postings getWordPostings(final String word) {
+    final int idx = Arrays.binarySearch(m_words.terms, word);
+    return idx >= 0 ? this.getWordPostingsAt(idx) : null;
+  }
+
+  @Override
+  void findWords(
+      final Predicate<String> condition, final String prefix, final Collection<String> answer) {
+    final String[] words = m_words.terms;
+    int idx = Arrays.binarySearch(words, prefix);
+    for (idx = idx >= 0 ? idx : -idx - 1; idx < words.length; ++idx) {
+      if (!words[idx].startsWith(prefix)) {
+        break;
+      }
+      if (condition.test(words[idx])) {
+        answer.add(words[idx]);
+      }
+    }
+  }
+
+  private Postings readPostings(final int offset, final int count, final boolean positional) {
+    final long[] docs = new long[count];
+    final int[] freqs = new int[count];
+    final int[][] positions = positional ? new int[count][] : null;
+    final int[] cursor = {offset};
+    long doc = 0;
+    for (int idx = 0; idx < count; ++idx) {
+      doc += readVarlong(m_data, cursor);
+      docs[idx] = doc;
+      final int freq = (int) readVarlong(m_data, cursor);
+      freqs[idx] = freq;
+      if (positional) {
+        final int[] p = new int[freq];
+        int position = 0;
+        for (int each = 0; each < freq; ++each) {
+          position += (int) readVarlong(m_data, cursor);
+          p[each] = position;
+        }
+        positions[idx] = p;
+      }
+    }
+    return new Postings(docs, freqs, positions);
+  }
+
+  /** Reads a varint at <code>cursor[0]</code> and moves the cursor past it */
+  private static long readVarlong(final ByteBuffer data, final int[] cursor) {
+    int pos = cursor[0];
+    long value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = data.get(pos++);
+      value |= (long) (b & 0x7f) << shift;
+      shift += 7;
+    } while (b < 0);
+    cursor[0] = pos;
+    return value;
+  }
+
+  /** Terms in alphabetical order, with the offsets and lengths of their postings */
+  private static final class Dictionary {
+    private final String[] terms;
+
+    private final int[] offsets;
+
+    private final int[] counts;
+
+    private Dictionary(final ByteBuffer data, int offset) {
+      final int size = data.getInt(offset);
+      offset += 4;
+      terms = new String[size];
+      offsets = new int[size];
+      counts = new int[size];
+      final byte[] buffer = new byte[Tokenizer.MAX_WORD_LENGTH * 4];
+      for (int idx = 0; idx < size; ++idx) {
+        final int length = data.getShort(offset);
+        for (int each = 0; each < length; ++each) {
+          buffer[each] = data.get(offset + 2 + each);
+        }
+        terms[idx] = new String(buffer, 0, length, StandardCharsets.UTF_8);
+        offset += 2 + length;
+        offsets[idx] = data.getInt(offset);
+        counts[idx] = data.getInt(offset + 4);
+        offset += 8;
+      }
+    }
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.backend.search;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * The segment new messages are added to until it's written to disk. It isn't thread safe, so the
+ * index has to make sure it isn't modified while it's being read.
+ *
+ * @author Pontus Rydin
+ */
+final class MemorySegment extends Segment {
+  private final TreeMap<Long, DocEntry> m_docs = new TreeMap<>();
+
+  private final Map<String, PostingsBuilder> m_stems = new HashMap<>();
+
+  private final Map<String, PostingsBuilder> m_words = new HashMap<>();
+
+  private int m_contentCount;
+
+  private long m_totalLength;
+
+  /**
+   * Adds the text of a message. If the message already has text in this segment, nothing happens.
+   * If only its occurrences are known, they are kept, since they're newer than the ones passed in.
+   *
+   * @param entry The message, with its occurrences
+   * @param words The words of the message
+   * @param positions The position of each word
+   */
+  void add(final DocEntry entry, final String[] words, final int[] positions) {
+    final DocEntry old = m_docs.get(entry.id);
+    if (old != null && old.hasContent()) {
+      return;
+    }
+    m_docs.put(
+        entry.id,
+        old != null
+            ? new DocEntry(entry.id, words.length, old.deleted, old.conferences, old.localnums)
+            : entry);
+    ++m_contentCount;
+    m_totalLength += words.length;
+
+    // Collect the positions of each word and count the stems
+    //
+    final Map<String, int[]> wordPositions = new HashMap<>();
+    final Map<String, int[]> stemCounts = new HashMap<>();
+    for (int idx = 0; idx < words.length; ++idx) {
+      int[] p = wordPositions.get(words[idx]);
+      if (p == null) {
+        p = new int[4];
+        wordPositions.put(words[idx], p);
+      } else if (p[0] + 1 == p.length) {
+        p = Arrays.copyOf(p, p.length * 2);
+        wordPositions.put(words[idx], p);
+      }
+      p[++p[0]] = positions[idx];
+    }
+    for (final Map.Entry<String, int[]> each : wordPositions.entrySet()) {
+      final int[] p = each.getValue();
+      builder(m_words, each.getKey()).add(entry.id, p[0], Arrays.copyOfRange(p, 1, p[0] + 1));
+      stemCounts.computeIfAbsent(Tokenizer.stem(each.getKey()), s -> new int[1])[0] += p[0];
+    }
+    for (final Map.Entry<String, int[]> each : stemCounts.entrySet()) {
+      builder(m_stems, each.getKey()).add(entry.id, each.getValue()[0], null);
+    }
+  }
+
+  /**
+   * Records new occurrences of a message, or that it has been deleted.
+   *
+   * @param entry An entry without text
+   */
+  void update(final DocEntry entry) {
+    final DocEntry old = m_docs.get(entry.id);
+    m_docs.put(entry.id, old != null ? old.update(entry) : entry);
+  }
+
+  boolean isEmpty() {
+    return m_docs.isEmpty();
+  }
+
+  /** Returns all entries, in ascending order */
+  Collection<DocEntry> getDocs() {
+    return m_docs.values();
+  }
+
+  /** Returns all stems with their postings, in alphabetical order */
+  Iterator<Map.Entry<String, Postings>> getStems() {
+    return sorted(m_stems);
+  }
+
+  /** Returns all words with their postings, in alphabetical order */
+  Iterator<Map.Entry<String, Postings>> getWords() {
+    return sorted(m_words);
+  }
+
+  @Override
+  DocEntry getDoc(final long id) {
+    return m_docs.get(id);
+  }
+
+  @Override
+  int getDocCount() {
+    return m_docs.size();
+  }
+
+  @Override
+  int getContentCount() {
+    return m_contentCount;
+  }
+
+  @Override
+  long getTotalLength() {
+    return m_totalLength;
+  }
+
+  @Override
+  long getMaxId() {
+    return m_docs.isEmpty() ? 0 : m_docs.lastKey();
+  }
+
+  @Override
+  Postings getStemPostings(final String stem) {
+    final PostingsBuilder pb = m_stems.get(stem);
+    return pb != null ? pb.toPostings() : null;
+  }
+
+  @Override
+  Postings getWordPostings(final String word) {
+    final PostingsBuilder pb = m_words.get(word);
+    return pb != null ? pb.toPostings() : null;
+  }
+
+  @Override
+  void findWords(
+      final Predicate<String> condition, final String prefix, final Collection<String> answer) {
+    for (final String each : m_words.keySet()) {
+      if (each.startsWith(prefix) && condition.test(each)) {
+        answer.add(each);
+      }
+    }
+  }
+
+  private static PostingsBuilder builder(
+      final Map<String, PostingsBuilder> map, final String term) {
+    return map.computeIfAbsent(term, t -> new PostingsBuilder());
+  }
+
+  private static Iterator<Map.Entry<String, Postings>> sorted(
+      final Map<String, PostingsBuilder> map) {
+    final Iterator<Map.Entry<String, PostingsBuilder>> terms =
+        new TreeMap<>(map).entrySet().iterator();
+    return new Iterator<Map.Entry<String, Postings>>() {
+      @Override
+      public boolean hasNext() {
+        return terms.hasNext();
+      }
+
+      @Override
+      public Map.Entry<String, Postings> next() {
+        final Map.Entry<String, PostingsBuilder> each = terms.next();
+        return new AbstractMap.SimpleImmutableEntry<>(each.getKey(), each.getValue().toPostings());
+      }
+    };
+  }
+
+  /**
+   * Postings under construction. Messages are normally added in ascending order, but not when the
+   * index is catching up with the database, so they're sorted when needed.
+   */
+  private static final class PostingsBuilder {
+    private long[] m_docs = new long[4];
+
+    private int[] m_freqs = new int[4];
+
+    private int[][] m_positions = new int[4][];
+
+    private int m_size;
+
+    private boolean m_sorted = true;
+
+    void add(final long doc, final int freq, final int[] positions) {
+      if (m_size == m_docs.length) {
+        m_docs = Arrays.copyOf(m_docs, m_size * 2);
+        m_freqs = Arrays.copyOf(m_freqs, m_size * 2);
+        m_positions = Arrays.copyOf(m_positions, m_size * 2);
+      }
+      if (m_size > 0 && doc < m_docs[m_size - 1]) {
+        m_sorted = false;
+      }
+      m_docs[m_size] = doc;
+      m_freqs[m_size] = freq;
+      m_positions[m_size] = positions;
+      ++m_size;
+    }
+
+    Postings toPostings() {
+      final boolean positional = m_positions[0] != null;
+      if (m_sorted) {
+        return new Postings(
+            Arrays.copyOf(m_docs, m_size),
+            Arrays.copyOf(m_freqs, m_size),
+            positional ? Arrays.copyOf(m_positions, m_size) : null);
+      }
+      final Integer[] order = new Integer[m_size];
+      for (int idx = 0; idx < m_size; ++idx) {
+        order[idx] = idx;
+      }
+      Arrays.sort(order, (a, b) -> Long.compare(m_docs[a], m_docs[b]));
+      final long[] docs = new long[m_size];
+      final int[] freqs = new int[m_size];
+      final int[][] positions = positional ? new int[m_size][] : null;
+      for (int idx = 0; idx < m_size; ++idx) {
+        docs[idx] = m_docs[order[idx]];
+        freqs[idx] = m_freqs[order[idx]];
+        if (positional) {
+          positions[idx] = m_positions[order[idx]];
+        }
+      }
+      return new Postings(docs, freqs, positions);
+    }
+  }
+}
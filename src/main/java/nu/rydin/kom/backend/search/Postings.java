@@ -0,0 +1,32 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.backend.search;
+
+/**
+ * The messages a term occurs in, in ascending order, along with how many times it occurs in each
+ * of them and, for words, where.
+ *
+ * @author Pontus Rydin
+ */
+final class Postings {
+  final long[] docs;
+
+  final int[] freqs;
+
+  /** Word positions within each message, or <code>null</code> for stems */
+  final int[][] positions;
+
+  Postings(final long[] docs, final int[] freqs, final int[][] positions) {
+    this.docs = docs;
+    this.freqs = freqs;
+    this.positions = positions;
+  }
+
+  int size() {
+    return docs.length;
+  }
+}
@@ -0,0 +1,336 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.backend.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * A parsed search. Searches use the same syntax as the boolean full-text searches in MySQL:
+ * <code>+word</code> must occur, <code>-word</code> must not occur, <code>word*</code> matches
+ * words starting with "word" and <code>"some words"</code> matches a phrase. Other words are
+ * optional, but make a message rank higher. Plain words are matched by their stems, so they find
+ * every inflection of the word.
+ *
+ * <p>Messages are ranked using BM25, which favors messages where the terms occur many times,
+ * terms that are rare in the index as a whole and short messages.
+ *
+ * @author Pontus Rydin
+ */
+final class Query {
+  private static final float K1 = 1.2f;
+
+  private static final float B = 0.75f;
+
+  private final List<Clause> m_clauses;
+
+  private Query(final List<Clause> clauses) {
+    m_clauses = clauses;
+  }
+
+  /**
+   * Parses a search.
+   *
+   * @param text The search
+   */
+  static Query parse(final String text) {
+    final List<Clause> clauses = new ArrayList<>();
+    final int top = text.length();
+    int pos = 0;
+    while (pos < top) {
+      char c = text.charAt(pos);
+      if (Character.isWhitespace(c)) {
+        ++pos;
+        continue;
+      }
+      boolean required = false;
+      boolean excluded = false;
+      while ("+-~<>".indexOf(c) != -1 && ++pos < top) {
+        required |= c == '+';
+        excluded |= c == '-';
+        c = text.charAt(pos);
+      }
+      final int end;
+      final boolean phrase = c == '"';
+      if (phrase) {
+        final int close = text.indexOf('"', pos + 1);
+        end = close != -1 ? close : top;
+        ++pos;
+      } else {
+        int idx = pos;
+        while (idx < top && !Character.isWhitespace(text.charAt(idx))) ++idx;
+        end = idx;
+      }
+      final String term = text.substring(pos, end);
+      pos = end + 1;
+      final List<String> words = Tokenizer.words(term);
+      if (words.isEmpty()) {
+        continue;
+      }
+      final Clause clause;
+      if (words.size() > 1 || phrase) {
+        clause = Clause.phrase(words);
+      } else if (term.endsWith("*")) {
+        clause = Clause.prefix(words.get(0));
+      } else {
+        clause = new Clause(Tokenizer.stem(words.get(0)), null);
+      }
+      clause.required = required && !excluded;
+      clause.excluded = excluded;
+      clauses.add(clause);
+    }
+    return new Query(clauses);
+  }
+
+  /**
+   * Creates a search for a fragment of text, like a case-insensitive substring search. The first
+   * word of the fragment may be the end of a longer word and the last one the beginning of one.
+   * If the fragment is a single word, it may be any part of a longer word.
+   *
+   * @param text The fragment
+   * @return The search, or <code>null</code> if there are no words in the fragment
+   */
+  static Query grep(final String text) {
+    final List<String> words = Tokenizer.words(text);
+    final int top = words.size();
+    if (top == 0) {
+      return null;
+    }
+    final Slot[] slots = new Slot[top];
+    if (top == 1) {
+      final String word = words.get(0);
+      slots[0] = new Slot("", each -> each.contains(word));
+    } else {
+      final String first = words.get(0);
+      final String last = words.get(top - 1);
+      slots[0] = new Slot("", each -> each.endsWith(first));
+      for (int idx = 1; idx < top - 1; ++idx) {
+        slots[idx] = Slot.exact(words.get(idx));
+      }
+      slots[top - 1] = new Slot(last, each -> true);
+    }
+    final Clause clause = new Clause(null, slots);
+    clause.required = true;
+    return new Query(Arrays.asList(clause));
+  }
+
+  boolean isEmpty() {
+    for (final Clause each : m_clauses) {
+      if (!each.excluded) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Finds the messages matching the search, with their scores. Deleted messages are not filtered
+   * out.
+   *
+   * @param segments The segments to search
+   */
+  Map<Long, Float> evaluate(final List<Segment> segments) {
+    final Map<Long, Float> answer = new HashMap<>();
+    if (this.isEmpty()) {
+      return answer;
+    }
+
+    // Find the matches of every clause in every segment. We need them all
+    // to know how common the terms are before we can score anything.
+    //
+    final int clauseCount = m_clauses.size();
+    final List<List<Map<Long, Integer>>> matches = new ArrayList<>();
+    final int[] counts = new int[clauseCount];
+    long documents = 0;
+    long totalLength = 0;
+    for (final Segment segment : segments) {
+      final List<Map<Long, Integer>> each = new ArrayList<>(clauseCount);
+      for (int idx = 0; idx < clauseCount; ++idx) {
+        final Map<Long, Integer> match = m_clauses.get(idx).match(segment);
+        each.add(match);
+        counts[idx] += match.size();
+      }
+      matches.add(each);
+      documents += segment.getContentCount();
+      totalLength += segment.getTotalLength();
+    }
+    final float averageLength = documents > 0 ? (float) totalLength / documents : 1;
+    final float[] idf = new float[clauseCount];
+    for (int idx = 0; idx < clauseCount; ++idx) {
+      idf[idx] = (float) Math.log(1 + (documents - counts[idx] + 0.5) / (counts[idx] + 0.5));
+    }
+
+    // Combine the clauses. If there are required ones, a message has to match
+    // all of them. Otherwise, it has to match any of the optional ones.
+    //
+    boolean anyRequired = false;
+    for (final Clause each : m_clauses) {
+      anyRequired |= each.required;
+    }
+    for (int segmentIdx = 0; segmentIdx < segments.size(); ++segmentIdx) {
+      final Segment segment = segments.get(segmentIdx);
+      final List<Map<Long, Integer>> each = matches.get(segmentIdx);
+      final Set<Long> candidates = new HashSet<>();
+      for (int idx = 0; idx < clauseCount; ++idx) {
+        final Clause clause = m_clauses.get(idx);
+        if (!clause.excluded && (clause.required || !anyRequired)) {
+          candidates.addAll(each.get(idx).keySet());
+        }
+      }
+      for (int idx = 0; idx < clauseCount; ++idx) {
+        final Clause clause = m_clauses.get(idx);
+        if (clause.required) {
+          candidates.retainAll(each.get(idx).keySet());
+        } else if (clause.excluded) {
+          candidates.removeAll(each.get(idx).keySet());
+        }
+      }
+      for (final Long doc : candidates) {
+        final DocEntry entry = segment.getDoc(doc);
+        final float norm = K1 * (1 - B + B * (entry != null ? entry.length : 0) / averageLength);
+        float score = 0;
+        for (int idx = 0; idx < clauseCount; ++idx) {
+          final Integer tf = each.get(idx).get(doc);
+          if (tf != null && !m_clauses.get(idx).excluded) {
+            score += idf[idx] * tf * (K1 + 1) / (tf + norm);
+          }
+        }
+        answer.put(doc, score);
+      }
+    }
+    return answer;
+  }
+
+  /**
+   * A part of a search. A clause is either a stem, or a sequence of slots that have to be matched
+   * by adjacent words.
+   */
+  private static final class Clause {
+    private final String m_stem;
+
+    private final Slot[] m_slots;
+
+    private boolean required;
+
+    private boolean excluded;
+
+    private Clause(final String stem, final Slot[] slots) {
+      m_stem = stem;
+      m_slots = slots;
+    }
+
+    private static Clause phrase(final List<String> words) {
+      final Slot[] slots = new Slot[words.size()];
+      for (int idx = 0; idx < slots.length; ++idx) {
+        slots[idx] = Slot.exact(words.get(idx));
+      }
+      return new Clause(null, slots);
+    }
+
+    private static Clause prefix(final String prefix) {
+      return new Clause(null, new Slot[] {new Slot(prefix, each -> true)});
+    }
+
+    /** Returns the number of times the clause matches each message in a segment */
+    private Map<Long, Integer> match(final Segment segment) {
+      final Map<Long, Integer> answer = new HashMap<>();
+      if (m_stem != null) {
+        final Postings p = segment.getStemPostings(m_stem);
+        if (p != null) {
+          for (int idx = 0; idx < p.docs.length; ++idx) {
+            answer.put(p.docs[idx], p.freqs[idx]);
+          }
+        }
+        return answer;
+      }
+
+      // Start with the messages matching the first slot and count the
+      // places where the following slots match the following words.
+      //
+      final Map<Long, int[]> first = m_slots[0].positions(segment);
+      final List<Map<Long, int[]>> rest = new ArrayList<>();
+      for (int idx = 1; idx < m_slots.length; ++idx) {
+        rest.add(m_slots[idx].positions(segment));
+      }
+      for (final Map.Entry<Long, int[]> each : first.entrySet()) {
+        int n = 0;
+        for (final int position : each.getValue()) {
+          boolean matches = true;
+          for (int idx = 0; matches && idx < rest.size(); ++idx) {
+            final int[] p = rest.get(idx).get(each.getKey());
+            matches = p != null && Arrays.binarySearch(p, position + idx + 1) >= 0;
+          }
+          if (matches) {
+            ++n;
+          }
+        }
+        if (n > 0) {
+          answer.put(each.getKey(), n);
+        }
+      }
+      return answer;
+    }
+  }
+
+  /** A position in a phrase, matched by one or more words */
+  private static final class Slot {
+    private final String m_prefix;
+
+    private final Predicate<String> m_condition;
+
+    private final String m_word;
+
+    private Slot(final String prefix, final Predicate<String> condition) {
+      this(prefix, condition, null);
+    }
+
+    private Slot(final String prefix, final Predicate<String> condition, final String word) {
+      m_prefix = prefix;
+      m_condition = condition;
+      m_word = word;
+    }
+
+    private static Slot exact(final String word) {
+      return new Slot(word, null, word);
+    }
+
+    /** Returns the positions of the matching words in each message, in ascending order */
+    private Map<Long, int[]> positions(final Segment segment) {
+      final Map<Long, int[]> answer = new HashMap<>();
+      final List<String> words = new ArrayList<>();
+      if (m_word != null) {
+        words.add(m_word);
+      } else {
+        segment.findWords(m_condition, m_prefix, words);
+      }
+      for (final String word : words) {
+        final Postings p = segment.getWordPostings(word);
+        if (p == null) {
+          continue;
+        }
+        for (int idx = 0; idx < p.docs.length; ++idx) {
+          final int[] old = answer.get(p.docs[idx]);
+          if (old == null) {
+            answer.put(p.docs[idx], p.positions[idx]);
+          } else {
+            final int[] merged = Arrays.copyOf(old, old.length + p.positions[idx].length);
+            System.arraycopy(p.positions[idx], 0, merged, old.length, p.positions[idx].length);
+            Arrays.sort(merged);
+            answer.put(p.docs[idx], merged);
+          }
+        }
+      }
+      return answer;
+    }
+  }
+}
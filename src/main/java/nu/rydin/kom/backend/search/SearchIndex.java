@@ -0,0 +1,963 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.backend.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import nu.rydin.kom.backend.DataAccess;
+import nu.rydin.kom.backend.DataAccessPool;
+import nu.rydin.kom.backend.ServerSettings;
+import nu.rydin.kom.backend.data.MessageManager;
+import nu.rydin.kom.exceptions.UnexpectedException;
+import nu.rydin.kom.structs.Message;
+import nu.rydin.kom.structs.MessageOccurrence;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An embedded full-text index of all messages, which answers searches and greps without going to
+ * the database. It is made up of immutable segment files and an in-memory segment that new
+ * messages are added to. Changes made by a transaction are queued and applied when it commits,
+ * at which point they are also written to a journal, so that nothing is lost if the server
+ * crashes before the in-memory segment has been written to disk. Segments are written and merged
+ * in the background.
+ *
+ * <p>The segments in use are listed in a manifest, which is replaced atomically whenever they
+ * change. Along with them, it records the journals that haven't been written to segments yet and
+ * how far the index has caught up with the messages table. On startup, the journals are replayed
+ * and any messages added while the server was down are indexed. If there is no index, it is built
+ * from the messages table while searches keep going to the database.
+ *
+ * @author Pontus Rydin
+ */
+public class SearchIndex {
+  private static final Logger LOG = LogManager.getLogger(SearchIndex.class);
+
+  private static final String MANIFEST = "segments";
+
+  private static final int FORMAT = 1;
+
+  private static final byte OP_ADD = 1;
+
+  private static final byte OP_UPDATE = 2;
+
+  private static final byte OP_DELETE = 3;
+
+  /** Number of message ids loaded per round-trip when catching up with the database */
+  private static final int CATCH_UP_BATCH_SIZE = 1000;
+
+  private static final long[] NO_CONFERENCES = new long[0];
+
+  private static final int[] NO_LOCALNUMS = new int[0];
+
+  /** The index, or <code>null</code> if searches go to the database */
+  private static volatile SearchIndex s_instance;
+
+  private final File m_directory;
+
+  private final int m_bufferSize;
+
+  private final int m_mergeFactor;
+
+  /** Changes made by the current transaction, waiting for it to commit */
+  private final ThreadLocal<List<Op>> m_pending = ThreadLocal.withInitial(ArrayList::new);
+
+  /**
+   * Guards the in-memory segments, the list of segments, the journal and the manifest. Flushes
+   * and merges are serialized by synchronizing on the index itself.
+   */
+  private final ReentrantReadWriteLock m_lock = new ReentrantReadWriteLock();
+
+  private final Timer m_timer = new Timer("SearchIndex", true);
+
+  /** Whether a flush has been scheduled, but not started yet */
+  private final AtomicBoolean m_flushScheduled = new AtomicBoolean();
+
+  private MemorySegment m_buffer = new MemorySegment();
+
+  /** The in-memory segment being written to disk, or <code>null</code> */
+  private MemorySegment m_flushing;
+
+  /** The segments on disk, oldest first. Replaced rather than modified. */
+  private List<FileSegment> m_segments = Collections.emptyList();
+
+  private DataOutputStream m_journal;
+
+  private int m_journalNumber;
+
+  /** The oldest journal that hasn't been written to a segment yet */
+  private int m_manifestJournal;
+
+  /** Used for naming segments and journals */
+  private int m_nextFile = 1;
+
+  /** Every message up to this id has been indexed */
+  private long m_caughtUp;
+
+  /**
+   * Messages deleted after <code>m_caughtUp</code>. Catching up may still come across them, since
+   * it may have loaded them before they were deleted, and merges drop the deleted entries that
+   * would otherwise tell us.
+   */
+  private final Set<Long> m_tombstones = new HashSet<>();
+
+  private volatile boolean m_ready;
+
+  private volatile boolean m_stopped;
+
+  SearchIndex(final File directory, final int bufferSize, final int mergeFactor) {
+    m_directory = directory;
+    m_bufferSize = bufferSize;
+    m_mergeFactor = Math.max(mergeFactor, 2);
+  }
+
+  /** Returns the index, or <code>null</code> if searches should go to the database. */
+  public static SearchIndex instance() {
+    return s_instance;
+  }
+
+  /**
+   * Opens the index, if one has been configured, and starts bringing it up to date in the
+   * background.
+   *
+   * @throws IOException If the index directory couldn't be created
+   */
+  public static synchronized void start() throws IOException {
+    final String directory = ServerSettings.getSearchIndexDirectory();
+    if (directory == null || directory.isEmpty() || s_instance != null) {
+      return;
+    }
+    final SearchIndex index =
+        new SearchIndex(
+            new File(directory),
+            ServerSettings.getSearchIndexBufferSize(),
+            ServerSettings.getSearchIndexMergeFactor());
+    index.open(ServerSettings.getSearchIndexRebuild());
+    final long flushInterval = ServerSettings.getSearchIndexFlushInterval();
+    index.m_timer.schedule(index.new CatchUp(), 0);
+    index.m_timer.schedule(index.new Flusher(), flushInterval, flushInterval);
+    s_instance = index;
+  }
+
+  /** Returns <code>true</code> once the index has caught up with the messages table */
+  public boolean isReady() {
+    return m_ready;
+  }
+
+  /**
+   * Queues a new message for indexing when the current transaction commits.
+   *
+   * @param id The message
+   * @param subject The subject
+   * @param body The text
+   * @param occurrences The occurrences of the message
+   */
+  public void messageAdded(
+      final long id,
+      final String subject,
+      final String body,
+      final MessageOccurrence[] occurrences) {
+    m_pending.get().add(Op.create(OP_ADD, id, subject, body, occurrences));
+  }
+
+  /**
+   * Queues a change to the occurrences of a message, to be applied when the current transaction
+   * commits.
+   *
+   * @param id The message
+   * @param occurrences The occurrences of the message
+   */
+  public void occurrencesChanged(final long id, final MessageOccurrence[] occurrences) {
+    m_pending.get().add(Op.create(OP_UPDATE, id, null, null, occurrences));
+  }
+
+  /**
+   * Queues the removal of a message, to be applied when the current transaction commits.
+   *
+   * @param id The message
+   */
+  public void messageDeleted(final long id) {
+    m_pending.get().add(Op.create(OP_DELETE, id, null, null, null));
+  }
+
+  /** Applies the changes queued by the current transaction. */
+  public void commit() {
+    final List<Op> ops = m_pending.get();
+    if (ops.isEmpty()) {
+      return;
+    }
+    m_pending.remove();
+    this.apply(ops, true);
+  }
+
+  /** Discards the changes queued by the current transaction. */
+  public void rollback() {
+    m_pending.remove();
+  }
+
+  /**
+   * Searches the messages in a conference.
+   *
+   * @param query The search, in MySQL boolean full-text syntax
+   * @param conference The conference
+   * @return The matching messages, best match first
+   */
+  public Hit[] searchLocally(final String query, final long conference) {
+    return this.find(Query.parse(query), conference, false);
+  }
+
+  /**
+   * Searches all messages. A message that occurs in several conferences is returned once for
+   * each of them.
+   *
+   * @param query The search, in MySQL boolean full-text syntax
+   * @return The matching messages, best match first
+   */
+  public Hit[] searchGlobally(final String query) {
+    return this.find(Query.parse(query), -1, true);
+  }
+
+  /**
+   * Finds the messages in a conference containing a fragment of text.
+   *
+   * @param fragment The fragment
+   * @param conference The conference
+   * @return The matching messages, the ones with the most matches first, or <code>null</code> if
+   *     the fragment doesn't contain any words and can't be searched for in the index
+   */
+  public Hit[] grepLocally(final String fragment, final long conference) {
+    final Query query = Query.grep(fragment);
+    return query != null ? this.find(query, conference, false) : null;
+  }
+
+  /** Writes what's in memory to disk and stops updating the index in the background. */
+  public void stop() {
+    m_stopped = true;
+    m_timer.cancel();
+    synchronized (this) {
+      try {
+        this.flush();
+      } catch (final IOException e) {
+        LOG.error("Could not save search index, it will be restored from the journal", e);
+      }
+      m_lock.writeLock().lock();
+      try {
+        if (m_journal != null) {
+          m_journal.close();
+          m_journal = null;
+        }
+      } catch (final IOException e) {
+        LOG.error("Could not close search index journal", e);
+      } finally {
+        m_lock.writeLock().unlock();
+      }
+    }
+  }
+
+  /** Schedules a flush as soon as possible without waiting for it. */
+  private void flushLater() {
+    if (!m_stopped && m_flushScheduled.compareAndSet(false, true)) {
+      m_timer.schedule(new Flusher(), 0);
+    }
+  }
+
+  private Hit[] find(final Query query, final long conference, final boolean global) {
+    m_lock.readLock().lock();
+    try {
+      // Newest first, so that the first entry we find for a message is the one that counts
+      //
+      final List<Segment> segments = new ArrayList<>(m_segments.size() + 2);
+      segments.add(m_buffer);
+      if (m_flushing != null) {
+        segments.add(m_flushing);
+      }
+      for (int idx = m_segments.size() - 1; idx >= 0; --idx) {
+        segments.add(m_segments.get(idx));
+      }
+      final List<Hit> hits = new ArrayList<>();
+      for (final Map.Entry<Long, Float> each : query.evaluate(segments).entrySet()) {
+        final long id = each.getKey();
+        DocEntry entry = null;
+        for (int idx = 0; entry == null && idx < segments.size(); ++idx) {
+          entry = segments.get(idx).getDoc(id);
+        }
+        if (entry == null || entry.deleted) {
+          continue;
+        }
+        if (global) {
+          for (int idx = 0; idx < entry.conferences.length; ++idx) {
+            hits.add(new Hit(id, entry.conferences[idx], entry.localnums[idx], each.getValue()));
+          }
+        } else {
+          final int localnum = entry.getLocalnum(conference);
+          if (localnum != -1) {
+            hits.add(new Hit(id, conference, localnum, each.getValue()));
+          }
+        }
+      }
+      final Hit[] answer = hits.toArray(new Hit[hits.size()]);
+      Arrays.sort(answer);
+      return answer;
+    } finally {
+      m_lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Applies changes to the in-memory segment.
+   *
+   * @param ops The changes
+   * @param journal Whether to write them to the journal
+   */
+  private void apply(final List<Op> ops, final boolean journal) {
+    final boolean full;
+    m_lock.writeLock().lock();
+    try {
+      for (final Op op : ops) {
+        switch (op.kind) {
+          case OP_ADD:
+            // Leave messages we already have or that have been deleted out of
+            // the journal too, since the deletion may be gone by the time it's
+            // replayed.
+            //
+            if (this.isKnown(op.id)) {
+              continue;
+            }
+            m_buffer.add(
+                new DocEntry(op.id, op.words.length, false, op.conferences, op.localnums),
+                op.words,
+                op.positions);
+            break;
+          case OP_UPDATE:
+            m_buffer.update(
+                new DocEntry(op.id, DocEntry.NO_CONTENT, false, op.conferences, op.localnums));
+            break;
+          default:
+            m_buffer.update(
+                new DocEntry(op.id, DocEntry.NO_CONTENT, true, NO_CONFERENCES, NO_LOCALNUMS));
+            if (op.id > m_caughtUp) {
+              m_tombstones.add(op.id);
+            }
+        }
+        if (journal && m_journal != null) {
+          try {
+            op.write(m_journal);
+          } catch (final IOException e) {
+            // Keep indexing in memory. We'll lose what isn't written to a segment
+            // if the server crashes, but that's better than not indexing at all.
+            //
+            LOG.error("Could not write to search index journal", e);
+            m_journal = null;
+          }
+        }
+      }
+      if (journal && m_journal != null) {
+        try {
+          m_journal.flush();
+        } catch (final IOException e) {
+          LOG.error("Could not write to search index journal", e);
+          m_journal = null;
+        }
+      }
+      full = m_buffer.getDocCount() >= m_bufferSize;
+    } finally {
+      m_lock.writeLock().unlock();
+    }
+    if (full) {
+      this.flushLater();
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if the text of a message has already been indexed, or if the message
+   * has been deleted. Either way, it must not be added again.
+   */
+  private boolean isKnown(final long id) {
+    if (m_tombstones.contains(id)) {
+      return true;
+    }
+    if (isKnown(m_buffer.getDoc(id)) || m_flushing != null && isKnown(m_flushing.getDoc(id))) {
+      return true;
+    }
+    for (final FileSegment each : m_segments) {
+      if (isKnown(each.getDoc(id))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isKnown(final DocEntry entry) {
+    return entry != null && (entry.hasContent() || entry.deleted);
+  }
+
+  /** Moves the point we've caught up to. Called with the lock held. */
+  private void setCaughtUp(final long caughtUp) {
+    m_caughtUp = caughtUp;
+    m_tombstones.removeIf(id -> id <= caughtUp);
+  }
+
+  /**
+   * Writes the in-memory segment to disk. If writing it fails, it stays in memory and is written
+   * by the next flush.
+   *
+   * @throws IOException
+   */
+  synchronized void flush() throws IOException {
+    final MemorySegment segment;
+    final int number;
+    m_lock.writeLock().lock();
+    try {
+      if (m_flushing == null) {
+        if (m_buffer.isEmpty()) {
+          return;
+        }
+
+        // Start a new journal for whatever comes in while we're writing
+        //
+        m_flushing = m_buffer;
+        m_buffer = new MemorySegment();
+        this.openJournal();
+      }
+      segment = m_flushing;
+      number = m_nextFile++;
+    } finally {
+      m_lock.writeLock().unlock();
+    }
+    final File file = new File(m_directory, segmentName(number));
+    this.writeAtomically(file, tmp -> SegmentWriter.write(tmp, segment));
+    final FileSegment written = FileSegment.open(file);
+    m_lock.writeLock().lock();
+    try {
+      final List<FileSegment> segments = new ArrayList<>(m_segments);
+      segments.add(written);
+      m_segments = Collections.unmodifiableList(segments);
+      m_flushing = null;
+      if (m_ready) {
+        this.setCaughtUp(Math.max(m_caughtUp, segment.getMaxId()));
+      }
+      m_manifestJournal = m_journalNumber;
+      this.writeManifest();
+    } finally {
+      m_lock.writeLock().unlock();
+    }
+    this.deleteObsoleteFiles();
+  }
+
+  /**
+   * Merges segments once there are too many of them. Starting with the newest, we pick segments
+   * until the next one is more than twice as big as the ones picked so far. That keeps the
+   * segment sizes roughly geometric, so that each message is rewritten a logarithmic number of
+   * times.
+   *
+   * @throws IOException
+   */
+  synchronized void merge() throws IOException {
+    final List<FileSegment> segments;
+    m_lock.readLock().lock();
+    try {
+      segments = m_segments;
+    } finally {
+      m_lock.readLock().unlock();
+    }
+    final int top = segments.size();
+    if (top < m_mergeFactor) {
+      return;
+    }
+    int start = top - 1;
+    long size = segments.get(start).getDocCount();
+    while (start > 0 && segments.get(start - 1).getDocCount() <= size * 2) {
+      size += segments.get(--start).getDocCount();
+    }
+    start = Math.min(start, top - 2);
+    final List<FileSegment> run = segments.subList(start, top);
+    final File file;
+    m_lock.writeLock().lock();
+    try {
+      file = new File(m_directory, segmentName(m_nextFile++));
+    } finally {
+      m_lock.writeLock().unlock();
+    }
+    final boolean includesOldest = start == 0;
+    this.writeAtomically(file, tmp -> SegmentWriter.merge(tmp, run, includesOldest));
+    final FileSegment merged = FileSegment.open(file);
+
+    // Only flushes add segments, and they can't run while we're merging
+    //
+    m_lock.writeLock().lock();
+    try {
+      final List<FileSegment> replaced = new ArrayList<>(segments.subList(0, start));
+      replaced.add(merged);
+      m_segments = Collections.unmodifiableList(replaced);
+      this.writeManifest();
+    } finally {
+      m_lock.writeLock().unlock();
+    }
+    this.deleteObsoleteFiles();
+  }
+
+  /**
+   * Opens the index, or clears it if it's missing, corrupt or should be rebuilt.
+   *
+   * @param rebuild Whether to rebuild the index from scratch
+   */
+  void open(final boolean rebuild) throws IOException {
+    if (!m_directory.isDirectory() && !m_directory.mkdirs()) {
+      throw new IOException("Could not create search index directory " + m_directory);
+    }
+    final File manifest = new File(m_directory, MANIFEST);
+    if (!rebuild && manifest.exists()) {
+      try {
+        this.load(manifest);
+        return;
+      } catch (final IOException | RuntimeException e) {
+        LOG.error("Search index in " + m_directory + " is corrupt, rebuilding it", e);
+        m_segments = Collections.emptyList();
+        m_buffer = new MemorySegment();
+      }
+    }
+    LOG.info("Building search index in " + m_directory);
+    for (final File each : this.listFiles("seg-", ".idx").values()) {
+      Files.delete(each.toPath());
+    }
+    for (final File each : this.listFiles("journal-", ".log").values()) {
+      Files.delete(each.toPath());
+    }
+    m_nextFile = 1;
+    m_caughtUp = 0;
+    this.openJournal();
+    m_manifestJournal = m_journalNumber;
+    this.writeManifest();
+    this.deleteObsoleteFiles();
+  }
+
+  /** Loads the segments listed in the manifest and replays the journals. */
+  private void load(final File manifest) throws IOException {
+    final List<FileSegment> segments = new ArrayList<>();
+    for (final String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+      final int space = line.indexOf(' ');
+      final String key = space != -1 ? line.substring(0, space) : line;
+      final String value = space != -1 ? line.substring(space + 1) : "";
+      switch (key) {
+        case "format":
+          if (Integer.parseInt(value) != FORMAT) {
+            throw new IOException("Unknown search index format: " + value);
+          }
+          break;
+        case "next":
+          m_nextFile = Integer.parseInt(value);
+          break;
+        case "journal":
+          m_manifestJournal = Integer.parseInt(value);
+          break;
+        case "caughtup":
+          m_caughtUp = Long.parseLong(value);
+          break;
+        case "segment":
+          segments.add(FileSegment.open(new File(m_directory, value)));
+          break;
+        default:
+          // Ignore blank lines and anything we don't know about
+      }
+    }
+    m_segments = Collections.unmodifiableList(segments);
+
+    // Replay the journals that haven't made it into a segment. A journal may
+    // end with a partial record if we crashed while writing it.
+    //
+    final TreeMap<Integer, File> journals = this.listFiles("journal-", ".log");
+    for (final Map.Entry<Integer, File> each : journals.tailMap(m_manifestJournal).entrySet()) {
+      final List<Op> ops = new ArrayList<>();
+      try (final DataInputStream in =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(each.getValue())))) {
+        for (; ; ) {
+          ops.add(Op.read(in));
+        }
+      } catch (final EOFException e) {
+        // End of journal
+      }
+      this.apply(ops, false);
+      m_nextFile = Math.max(m_nextFile, each.getKey() + 1);
+    }
+    this.openJournal();
+    LOG.info(
+        "Opened search index in "
+            + m_directory
+            + " with "
+            + segments.size()
+            + " segments and "
+            + m_buffer.getDocCount()
+            + " journaled changes");
+  }
+
+  /** Indexes the messages added to the database since the index last caught up with it. */
+  private void catchUp() throws UnexpectedException, SQLException, IOException {
+    long from;
+    m_lock.readLock().lock();
+    try {
+      from = m_caughtUp;
+    } finally {
+      m_lock.readLock().unlock();
+    }
+    final DataAccessPool pool = DataAccessPool.instance();
+    final DataAccess da = pool.getReservedDataAccess();
+    try {
+      final MessageManager mm = da.getMessageManager();
+      final long top = mm.getHighestMessageId();
+      while (from < top && !m_stopped) {
+        final long to = Math.min(from + CATCH_UP_BATCH_SIZE, top);
+        final List<Op> ops = new ArrayList<>();
+        for (final Message each : mm.loadMessagesForIndexing(from, to)) {
+          ops.add(
+              Op.create(
+                  OP_ADD, each.getId(), each.getSubject(), each.getBody(), each.getOccurrences()));
+        }
+        this.apply(ops, true);
+        final boolean full;
+        m_lock.writeLock().lock();
+        try {
+          this.setCaughtUp(to);
+          full = m_buffer.getDocCount() >= m_bufferSize;
+        } finally {
+          m_lock.writeLock().unlock();
+        }
+        from = to;
+
+        // We're running on the timer thread, so a scheduled flush wouldn't
+        // run until we're done. Flush right away instead.
+        //
+        if (full) {
+          this.flush();
+          this.merge();
+        }
+      }
+    } finally {
+      pool.returnDataAccess(da);
+    }
+    if (!m_stopped) {
+      m_ready = true;
+      LOG.info("Search index in " + m_directory + " is up to date");
+    }
+  }
+
+  /** Closes the current journal, if any, and starts a new one. Called with the lock held. */
+  private void openJournal() throws IOException {
+    if (m_journal != null) {
+      m_journal.close();
+      m_journal = null;
+    }
+    m_journalNumber = m_nextFile++;
+    final File file = new File(m_directory, "journal-" + m_journalNumber + ".log");
+    m_journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+  }
+
+  /** Replaces the manifest. Called with the lock held. */
+  private void writeManifest() throws IOException {
+    this.writeAtomically(
+        new File(m_directory, MANIFEST),
+        tmp -> {
+          try (final PrintWriter out =
+              new PrintWriter(Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8))) {
+            out.println("format " + FORMAT);
+            out.println("next " + m_nextFile);
+            out.println("journal " + m_manifestJournal);
+            out.println("caughtup " + m_caughtUp);
+            for (final FileSegment each : m_segments) {
+              out.println("segment " + each.getFile().getName());
+            }
+          }
+        });
+  }
+
+  /** Writes a file under a temporary name and renames it once it's complete. */
+  private void writeAtomically(final File file, final FileContents writer) throws IOException {
+    final File tmp = new File(file.getPath() + ".tmp");
+    writer.write(tmp);
+    Files.move(
+        tmp.toPath(),
+        file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /** Deletes segments and journals that are no longer referred to by the manifest. */
+  private void deleteObsoleteFiles() {
+    final List<String> keep = new ArrayList<>();
+    final int journal;
+    m_lock.readLock().lock();
+    try {
+      for (final FileSegment each : m_segments) {
+        keep.add(each.getFile().getName());
+      }
+      journal = Math.min(m_manifestJournal, m_journalNumber);
+    } finally {
+      m_lock.readLock().unlock();
+    }
+    for (final File each : this.listFiles("seg-", ".idx").values()) {
+      if (!keep.contains(each.getName()) && !each.delete()) {
+        LOG.warn("Could not delete " + each);
+      }
+    }
+    for (final File each : this.listFiles("journal-", ".log").headMap(journal).values()) {
+      if (!each.delete()) {
+        LOG.warn("Could not delete " + each);
+      }
+    }
+  }
+
+  /** Returns the files with a name like <code>prefix + number + suffix</code>, by number */
+  private TreeMap<Integer, File> listFiles(final String prefix, final String suffix) {
+    final TreeMap<Integer, File> answer = new TreeMap<>();
+    final File[] files = m_directory.listFiles();
+    if (files == null) {
+      return answer;
+    }
+    for (final File each : files) {
+      final String name = each.getName();
+      if (name.startsWith(prefix) && name.endsWith(suffix)) {
+        try {
+          answer.put(
+              Integer.parseInt(name.substring(prefix.length(), name.length() - suffix.length())),
+              each);
+        } catch (final NumberFormatException e) {
+          // Not one of ours
+        }
+      }
+    }
+    return answer;
+  }
+
+  private static String segmentName(final int number) {
+    return "seg-" + number + ".idx";
+  }
+
+  /** A message matching a search, along with where it occurs. */
+  public static final class Hit implements Comparable<Hit> {
+    private final long m_message;
+
+    private final long m_conference;
+
+    private final int m_localnum;
+
+    private final float m_score;
+
+    private Hit(final long message, final long conference, final int localnum, final float score) {
+      m_message = message;
+      m_conference = conference;
+      m_localnum = localnum;
+      m_score = score;
+    }
+
+    public long getMessage() {
+      return m_message;
+    }
+
+    public long getConference() {
+      return m_conference;
+    }
+
+    public int getLocalnum() {
+      return m_localnum;
+    }
+
+    public float getScore() {
+      return m_score;
+    }
+
+    /** Best match first. Equally good matches are ordered newest first. */
+    @Override
+    public int compareTo(final Hit that) {
+      if (m_score != that.m_score) {
+        return m_score > that.m_score ? -1 : 1;
+      }
+      if (m_message != that.m_message) {
+        return m_message > that.m_message ? -1 : 1;
+      }
+      return Long.compare(m_conference, that.m_conference);
+    }
+  }
+
+  private interface FileContents {
+    void write(File file) throws IOException;
+  }
+
+  /** A change to the index, as queued by a transaction and written to the journal */
+  private static final class Op {
+    private final byte kind;
+
+    private final long id;
+
+    private final String subject;
+
+    private final String body;
+
+    private final long[] conferences;
+
+    private final int[] localnums;
+
+    /** The words of the subject and text, tokenized up front to keep the lock short */
+    private final String[] words;
+
+    private final int[] positions;
+
+    private Op(
+        final byte kind,
+        final long id,
+        final String subject,
+        final String body,
+        final long[] conferences,
+        final int[] localnums) {
+      this.kind = kind;
+      this.id = id;
+      this.subject = subject;
+      this.body = body;
+      this.conferences = conferences;
+      this.localnums = localnums;
+      if (kind != OP_ADD) {
+        this.words = null;
+        this.positions = null;
+        return;
+      }
+
+      // Leave a gap between the subject and the text, so that phrases don't
+      // match across them.
+      //
+      final List<String> subjectWords = Tokenizer.words(subject);
+      final List<String> bodyWords = Tokenizer.words(body);
+      final int count = subjectWords.size() + bodyWords.size();
+      this.words = new String[count];
+      this.positions = new int[count];
+      for (int idx = 0; idx < count; ++idx) {
+        final boolean inSubject = idx < subjectWords.size();
+        this.words[idx] =
+            inSubject ? subjectWords.get(idx) : bodyWords.get(idx - subjectWords.size());
+        this.positions[idx] = inSubject ? idx : idx + 1;
+      }
+    }
+
+    private static Op create(
+        final byte kind,
+        final long id,
+        final String subject,
+        final String body,
+        final MessageOccurrence[] occurrences) {
+      final int top = occurrences != null ? occurrences.length : 0;
+      final long[] conferences = new long[top];
+      final int[] localnums = new int[top];
+      for (int idx = 0; idx < top; ++idx) {
+        conferences[idx] = occurrences[idx].getConference();
+        localnums[idx] = occurrences[idx].getLocalnum();
+      }
+      return new Op(kind, id, subject, body, conferences, localnums);
+    }
+
+    private void write(final DataOutputStream out) throws IOException {
+      out.writeByte(kind);
+      out.writeLong(id);
+      out.writeInt(conferences.length);
+      for (int idx = 0; idx < conferences.length; ++idx) {
+        out.writeLong(conferences[idx]);
+        out.writeInt(localnums[idx]);
+      }
+      if (kind == OP_ADD) {
+        writeString(out, subject);
+        writeString(out, body);
+      }
+    }
+
+    private static Op read(final DataInputStream in) throws IOException {
+      final byte kind = in.readByte();
+      final long id = in.readLong();
+      final int top = in.readInt();
+      final long[] conferences = new long[top];
+      final int[] localnums = new int[top];
+      for (int idx = 0; idx < top; ++idx) {
+        conferences[idx] = in.readLong();
+        localnums[idx] = in.readInt();
+      }
+      final String subject = kind == OP_ADD ? readString(in) : null;
+      final String body = kind == OP_ADD ? readString(in) : null;
+      return new Op(kind, id, subject, body, conferences, localnums);
+    }
+
+    private static void writeString(final DataOutputStream out, final String s)
+        throws IOException {
+      if (s == null) {
+        out.writeInt(-1);
+        return;
+      }
+      final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+      final int length = in.readInt();
+      if (length == -1) {
+        return null;
+      }
+      final byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+
+  private class CatchUp extends TimerTask {
+    @Override
+    public void run() {
+      try {
+        catchUp();
+      } catch (final Throwable e) {
+        // Try again later. Searches go to the database until we're done.
+        //
+        LOG.error("Error while bringing the search index up to date", e);
+        if (!m_stopped) {
+          m_timer.schedule(new CatchUp(), ServerSettings.getSearchIndexFlushInterval());
+        }
+      }
+    }
+  }
+
+  private class Flusher extends TimerTask {
+    @Override
+    public void run() {
+      m_flushScheduled.set(false);
+      try {
+        flush();
+        merge();
+      } catch (final Throwable e) {
+        // Don't let the timer die on us. Nothing is lost, since it's all in the journal.
+        //
+        LOG.error("Error while saving search index", e);
+      }
+    }
+  }
+}
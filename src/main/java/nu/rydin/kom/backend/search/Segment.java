@@ -0,0 +1,49 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.backend.search;
+
+import java.util.Collection;
+import java.util.function.Predicate;
+
+/**
+ * A part of the index. Every message is indexed under the stems of its words, which is what
+ * ordinary searches look at, and under the words themselves along with their positions, which is
+ * what phrase, prefix and grep searches look at.
+ *
+ * @author Pontus Rydin
+ */
+abstract class Segment {
+  /** Returns the entry for a message, or <code>null</code> if the segment doesn't have one */
+  abstract DocEntry getDoc(long id);
+
+  /** Returns the number of entries, with or without text */
+  abstract int getDocCount();
+
+  /** Returns the number of messages with text in the segment */
+  abstract int getContentCount();
+
+  /** Returns the total number of words in the messages with text in the segment */
+  abstract long getTotalLength();
+
+  /** Returns the highest message id in the segment, or 0 if it's empty */
+  abstract long getMaxId();
+
+  /** Returns the postings of a stem, or <code>null</code> if it isn't in the segment */
+  abstract Postings getStemPostings(String stem);
+
+  /** Returns the postings of a word, or <code>null</code> if it isn't in the segment */
+  abstract Postings getWordPostings(String word);
+
+  /**
+   * Adds the words in the segment that match a condition to a collection.
+   *
+   * @param condition The condition
+   * @param prefix A prefix all matching words share, which may be empty
+   * @param answer The collection
+   */
+  abstract void findWords(Predicate<String> condition, String prefix, Collection<String> answer);
+}
@@ -0,0 +1,417 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.backend.search;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Writes segment files, either from the in-memory segment or by merging existing segments.
+ *
+ * @author Pontus Rydin
+ * @see FileSegment
+ */
+final class SegmentWriter {
+  private static final long[] NO_CONFERENCES = new long[0];
+
+  private static final int[] NO_LOCALNUMS = new int[0];
+
+  private SegmentWriter() {}
+
+  /**
+   * Writes the in-memory segment to a file.
+   *
+   * @param file The file
+   * @param segment The segment
+   * @throws IOException
+   */
+  static void write(final File file, final MemorySegment segment) throws IOException {
+    write(file, segment.getDocs().iterator(), segment.getStems(), segment.getWords());
+  }
+
+  /**
+   * Merges a run of segments into one. The text of deleted messages is dropped. So are the
+   * entries of deleted messages, but only if the oldest segment takes part, since otherwise they
+   * may still have text in an older one.
+   *
+   * @param file The file to write the merged segment to
+   * @param segments The segments, oldest first
+   * @param includesOldest Whether the oldest segment of the index takes part
+   * @throws IOException
+   */
+  static void merge(final File file, final List<FileSegment> segments, final boolean includesOldest)
+      throws IOException {
+    // The entries are written before the postings, so by the time we get to the
+    // postings, we know which messages have been deleted.
+    //
+    final Set<Long> deleted = new HashSet<>();
+    write(
+        file,
+        new DocMerger(segments, includesOldest, deleted),
+        new TermMerger(segments, false, deleted),
+        new TermMerger(segments, true, deleted));
+  }
+
+  private static void write(
+      final File file,
+      final Iterator<DocEntry> docs,
+      final Iterator<Map.Entry<String, Postings>> stems,
+      final Iterator<Map.Entry<String, Postings>> words)
+      throws IOException {
+    try (final FileOutputStream fos = new FileOutputStream(file)) {
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 65536));
+
+      // Entries, with their occurrences buffered until we're done with them
+      //
+      final ByteArrayOutputStream occurrenceBuffer = new ByteArrayOutputStream();
+      final DataOutputStream occurrences = new DataOutputStream(occurrenceBuffer);
+      int docCount = 0;
+      int occurrenceCount = 0;
+      while (docs.hasNext()) {
+        final DocEntry each = docs.next();
+        out.writeLong(each.id);
+        out.writeInt(each.length);
+        out.writeByte(each.deleted ? 1 : 0);
+        out.writeInt(occurrenceCount);
+        out.writeInt(each.conferences.length);
+        for (int idx = 0; idx < each.conferences.length; ++idx) {
+          occurrences.writeLong(each.conferences[idx]);
+          occurrences.writeInt(each.localnums[idx]);
+        }
+        occurrenceCount += each.conferences.length;
+        ++docCount;
+      }
+      final int occurrenceOffset = out.size();
+      occurrenceBuffer.writeTo(out);
+
+      // Postings, followed by the dictionaries pointing to them
+      //
+      final Dictionary stemDictionary = writePostings(out, stems, false);
+      final Dictionary wordDictionary = writePostings(out, words, true);
+      final int stemOffset = out.size();
+      stemDictionary.write(out);
+      final int wordOffset = out.size();
+      wordDictionary.write(out);
+      if (out.size() == Integer.MAX_VALUE) {
+        throw new IOException("Search index segment too large: " + file);
+      }
+      out.writeInt(occurrenceOffset);
+      out.writeInt(stemOffset);
+      out.writeInt(wordOffset);
+      out.writeInt(docCount);
+      out.writeInt(FileSegment.VERSION);
+      out.writeInt(FileSegment.MAGIC);
+      out.flush();
+      fos.getFD().sync();
+    }
+  }
+
+  private static Dictionary writePostings(
+      final DataOutputStream out,
+      final Iterator<Map.Entry<String, Postings>> terms,
+      final boolean positional)
+      throws IOException {
+    final Dictionary dictionary = new Dictionary();
+    while (terms.hasNext()) {
+      final Map.Entry<String, Postings> each = terms.next();
+      final Postings p = each.getValue();
+      dictionary.add(each.getKey(), out.size(), p.size());
+      long previous = 0;
+      for (int idx = 0; idx < p.docs.length; ++idx) {
+        writeVarlong(out, p.docs[idx] - previous);
+        writeVarlong(out, p.freqs[idx]);
+        previous = p.docs[idx];
+        if (positional) {
+          int previousPosition = 0;
+          for (final int position : p.positions[idx]) {
+            writeVarlong(out, position - previousPosition);
+            previousPosition = position;
+          }
+        }
+      }
+    }
+    return dictionary;
+  }
+
+  private static void writeVarlong(final DataOutputStream out, long value) throws IOException {
+    while ((value & ~0x7fL) != 0) {
+      out.writeByte((int) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  private static final class Dictionary {
+    private final List<byte[]> m_terms = new ArrayList<>();
+
+    private int[] m_offsets = new int[1024];
+
+    private int[] m_counts = new int[1024];
+
+    private void add(final String term, final int offset, final int count) {
+      final int idx = m_terms.size();
+      if (idx == m_offsets.length) {
+        m_offsets = Arrays.copyOf(m_offsets, idx * 2);
+        m_counts = Arrays.copyOf(m_counts, idx * 2);
+      }
+      m_terms.add(term.getBytes(StandardCharsets.UTF_8));
+      m_offsets[idx] = offset;
+      m_counts[idx] = count;
+    }
+
+    private void write(final DataOutputStream out) throws IOException {
+      out.writeInt(m_terms.size());
+      for (int idx = 0; idx < m_terms.size(); ++idx) {
+        final byte[] term = m_terms.get(idx);
+        out.writeShort(term.length);
+        out.write(term);
+        out.writeInt(m_offsets[idx]);
+        out.writeInt(m_counts[idx]);
+      }
+    }
+  }
+
+  /**
+   * Merges the entries of a run of segments. When a message has entries in several segments, the
+   * text comes from the one that has it and the occurrences from the newest one.
+   */
+  private static final class DocMerger implements Iterator<DocEntry> {
+    private final List<FileSegment> m_segments;
+
+    private final boolean m_dropDeleted;
+
+    private final Set<Long> m_deleted;
+
+    private final int[] m_cursors;
+
+    private DocEntry m_next;
+
+    private DocMerger(
+        final List<FileSegment> segments, final boolean dropDeleted, final Set<Long> deleted) {
+      m_segments = segments;
+      m_dropDeleted = dropDeleted;
+      m_deleted = deleted;
+      m_cursors = new int[segments.size()];
+      m_next = this.advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return m_next != null;
+    }
+
+    @Override
+    public DocEntry next() {
+      if (m_next == null) {
+        throw new NoSuchElementException();
+      }
+      final DocEntry answer = m_next;
+      m_next = this.advance();
+      return answer;
+    }
+
+    private DocEntry advance() {
+      for (; ; ) {
+        // Find the lowest id among the segments
+        //
+        long id = Long.MAX_VALUE;
+        for (int idx = 0; idx < m_cursors.length; ++idx) {
+          final FileSegment segment = m_segments.get(idx);
+          if (m_cursors[idx] < segment.getDocCount()) {
+            id = Math.min(id, segment.getDocAt(m_cursors[idx]).id);
+          }
+        }
+        if (id == Long.MAX_VALUE) {
+          return null;
+        }
+
+        // Fold the entries for it, oldest first
+        //
+        DocEntry entry = null;
+        for (int idx = 0; idx < m_cursors.length; ++idx) {
+          final FileSegment segment = m_segments.get(idx);
+          if (m_cursors[idx] >= segment.getDocCount()) {
+            continue;
+          }
+          final DocEntry each = segment.getDocAt(m_cursors[idx]);
+          if (each.id != id) {
+            continue;
+          }
+          ++m_cursors[idx];
+          if (entry == null) {
+            entry = each;
+          } else if (each.hasContent() && !entry.hasContent()) {
+            entry =
+                new DocEntry(
+                    id,
+                    each.length,
+                    entry.deleted || each.deleted,
+                    each.conferences,
+                    each.localnums);
+          } else {
+            entry = entry.update(each);
+          }
+        }
+        if (!entry.deleted) {
+          return entry;
+        }
+        if (entry.hasContent()) {
+          m_deleted.add(id);
+        }
+        if (!m_dropDeleted) {
+          return new DocEntry(id, DocEntry.NO_CONTENT, true, NO_CONFERENCES, NO_LOCALNUMS);
+        }
+      }
+    }
+  }
+
+  /** Merges the stems or words of a run of segments, dropping deleted messages from them */
+  private static final class TermMerger implements Iterator<Map.Entry<String, Postings>> {
+    private final List<FileSegment> m_segments;
+
+    private final boolean m_words;
+
+    private final Set<Long> m_deleted;
+
+    private final int[] m_cursors;
+
+    private Map.Entry<String, Postings> m_next;
+
+    private boolean m_started;
+
+    private TermMerger(
+        final List<FileSegment> segments, final boolean words, final Set<Long> deleted) {
+      m_segments = segments;
+      m_words = words;
+      m_deleted = deleted;
+      m_cursors = new int[segments.size()];
+    }
+
+    @Override
+    public boolean hasNext() {
+      // Don't look at anything until the entries have been merged
+      //
+      if (!m_started) {
+        m_next = this.advance();
+        m_started = true;
+      }
+      return m_next != null;
+    }
+
+    @Override
+    public Map.Entry<String, Postings> next() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final Map.Entry<String, Postings> answer = m_next;
+      m_next = this.advance();
+      return answer;
+    }
+
+    private int count(final FileSegment segment) {
+      return m_words ? segment.getWordCount() : segment.getStemCount();
+    }
+
+    private String term(final FileSegment segment, final int idx) {
+      return m_words ? segment.getWord(idx) : segment.getStem(idx);
+    }
+
+    private Map.Entry<String, Postings> advance() {
+      for (; ; ) {
+        String term = null;
+        for (int idx = 0; idx < m_cursors.length; ++idx) {
+          final FileSegment segment = m_segments.get(idx);
+          if (m_cursors[idx] < this.count(segment)) {
+            final String each = this.term(segment, m_cursors[idx]);
+            if (term == null || each.compareTo(term) < 0) {
+              term = each;
+            }
+          }
+        }
+        if (term == null) {
+          return null;
+        }
+
+        // Collect the postings of the term, leaving out deleted messages. Each
+        // message has its text in a single segment, so they never overlap.
+        //
+        final List<Postings> parts = new ArrayList<>();
+        int size = 0;
+        for (int idx = 0; idx < m_cursors.length; ++idx) {
+          final FileSegment segment = m_segments.get(idx);
+          if (m_cursors[idx] < this.count(segment)
+              && this.term(segment, m_cursors[idx]).equals(term)) {
+            final Postings p =
+                m_words
+                    ? segment.getWordPostingsAt(m_cursors[idx])
+                    : segment.getStemPostingsAt(m_cursors[idx]);
+            ++m_cursors[idx];
+            parts.add(p);
+            size += p.size();
+          }
+        }
+        final Postings merged = this.merge(parts, size);
+        if (merged.size() > 0) {
+          return new AbstractMap.SimpleImmutableEntry<>(term, merged);
+        }
+      }
+    }
+
+    private Postings merge(final List<Postings> parts, final int size) {
+      final long[] docs = new long[size];
+      final int[] freqs = new int[size];
+      final int[][] positions = m_words ? new int[size][] : null;
+      final int[] cursors = new int[parts.size()];
+      int n = 0;
+      for (; ; ) {
+        int lowest = -1;
+        for (int idx = 0; idx < cursors.length; ++idx) {
+          final Postings p = parts.get(idx);
+          if (cursors[idx] < p.size()
+              && (lowest == -1
+                  || p.docs[cursors[idx]] < parts.get(lowest).docs[cursors[lowest]])) {
+            lowest = idx;
+          }
+        }
+        if (lowest == -1) {
+          break;
+        }
+        final Postings p = parts.get(lowest);
+        final int idx = cursors[lowest]++;
+        if (m_deleted.contains(p.docs[idx])) {
+          continue;
+        }
+        docs[n] = p.docs[idx];
+        freqs[n] = p.freqs[idx];
+        if (positions != null) {
+          positions[n] = p.positions[idx];
+        }
+        ++n;
+      }
+      return n == size
+          ? new Postings(docs, freqs, positions)
+          : new Postings(
+              Arrays.copyOf(docs, n),
+              Arrays.copyOf(freqs, n),
+              positions != null ? Arrays.copyOf(positions, n) : null);
+    }
+  }
+}
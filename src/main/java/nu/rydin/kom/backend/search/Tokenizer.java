@@ -0,0 +1,184 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.backend.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits text into words and reduces words to their stems. Words are runs of letters and digits,
+ * in lower case. Accented letters are folded to their plain counterparts, except for &aring;,
+ * &auml; and &ouml;, which are letters in their own right in Swedish. Stems are produced by the
+ * Snowball stemmer for Swedish, so that "inl&auml;gg", "inl&auml;ggen" and "inl&auml;ggens" all
+ * end up as the same term.
+ *
+ * @author Pontus Rydin
+ */
+public class Tokenizer {
+  /** Longer words are cut off at this length */
+  public static final int MAX_WORD_LENGTH = 64;
+
+  private static final String VOWELS = "aeiouy\u00e4\u00e5\u00f6";
+
+  /** Letters after which a trailing "s" is removed */
+  private static final String S_ENDINGS = "bcdfghjklmnoprtvy";
+
+  /** Suffixes removed by the first step of the stemmer, longest first */
+  private static final String[] STEP1_SUFFIXES = {
+    "heterna", "hetens", "anden", "andes", "andet", "arens", "arnas", "ernas", "heten", "heter",
+    "ornas", "ande", "aren", "arna", "arne", "aste", "ades", "erna", "erns", "orna", "ade", "are",
+    "ast", "ens", "ern", "het", "ad", "ar", "as", "at", "en", "er", "es", "or", "a", "e"
+  };
+
+  private static final String[] STEP2_SUFFIXES = {"dd", "gd", "nn", "dt", "gt", "kt", "tt"};
+
+  /**
+   * Returns the words of a text, in order.
+   *
+   * @param text The text, which may be <code>null</code>
+   */
+  public static List<String> words(final String text) {
+    final List<String> answer = new ArrayList<>();
+    if (text == null) {
+      return answer;
+    }
+    final StringBuilder word = new StringBuilder();
+    final int top = text.length();
+    for (int idx = 0; idx <= top; ++idx) {
+      final char c = idx < top ? fold(Character.toLowerCase(text.charAt(idx))) : ' ';
+      if (Character.isLetterOrDigit(c)) {
+        if (word.length() < MAX_WORD_LENGTH) {
+          word.append(c);
+        }
+      } else if (word.length() > 0) {
+        answer.add(word.toString());
+        word.setLength(0);
+      }
+    }
+    return answer;
+  }
+
+  /**
+   * Returns the stem of a word.
+   *
+   * @param word A word, as returned by <code>words</code>
+   */
+  public static String stem(final String word) {
+    final int r1 = r1(word);
+    if (r1 >= word.length()) {
+      return word;
+    }
+    final StringBuilder sb = new StringBuilder(word);
+
+    // Step 1: Inflections
+    //
+    boolean found = false;
+    for (final String suffix : STEP1_SUFFIXES) {
+      if (endsInRegion(sb, suffix, r1)) {
+        sb.setLength(sb.length() - suffix.length());
+        found = true;
+        break;
+      }
+    }
+    if (!found
+        && endsInRegion(sb, "s", r1)
+        && sb.length() > 1
+        && S_ENDINGS.indexOf(sb.charAt(sb.length() - 2)) != -1) {
+      sb.setLength(sb.length() - 1);
+    }
+
+    // Step 2: Double consonants
+    //
+    for (final String suffix : STEP2_SUFFIXES) {
+      if (endsInRegion(sb, suffix, r1)) {
+        sb.setLength(sb.length() - 1);
+        break;
+      }
+    }
+
+    // Step 3: Derivations
+    //
+    if (endsInRegion(sb, "fullt", r1) || endsInRegion(sb, "l\u00f6st", r1)) {
+      sb.setLength(sb.length() - 1);
+    } else if (endsInRegion(sb, "lig", r1) || endsInRegion(sb, "els", r1)) {
+      sb.setLength(sb.length() - 3);
+    } else if (endsInRegion(sb, "ig", r1)) {
+      sb.setLength(sb.length() - 2);
+    }
+    return sb.toString();
+  }
+
+  /** Folds accented letters to their plain counterparts, leaving &aring;, &auml; and &ouml; be */
+  static char fold(final char c) {
+    if (c < '\u00c0') {
+      return c;
+    }
+    switch (c) {
+      case '\u00e0':
+      case '\u00e1':
+      case '\u00e2':
+      case '\u00e3':
+        return 'a';
+      case '\u00e6':
+        return '\u00e4';
+      case '\u00e7':
+        return 'c';
+      case '\u00e8':
+      case '\u00e9':
+      case '\u00ea':
+      case '\u00eb':
+        return 'e';
+      case '\u00ec':
+      case '\u00ed':
+      case '\u00ee':
+      case '\u00ef':
+        return 'i';
+      case '\u00f1':
+        return 'n';
+      case '\u00f2':
+      case '\u00f3':
+      case '\u00f4':
+      case '\u00f5':
+        return 'o';
+      case '\u00f8':
+        return '\u00f6';
+      case '\u00f9':
+      case '\u00fa':
+      case '\u00fb':
+        return 'u';
+      case '\u00fc':
+      case '\u00fd':
+      case '\u00ff':
+        return 'y';
+      default:
+        return c;
+    }
+  }
+
+  /**
+   * Returns the start of the region suffixes are removed from: after the first non-vowel following
+   * a vowel, but no earlier than the fourth letter.
+   */
+  private static int r1(final String word) {
+    final int top = word.length();
+    for (int idx = 1; idx < top; ++idx) {
+      if (!isVowel(word.charAt(idx)) && isVowel(word.charAt(idx - 1))) {
+        return Math.max(idx + 1, 3);
+      }
+    }
+    return top;
+  }
+
+  private static boolean isVowel(final char c) {
+    return VOWELS.indexOf(c) != -1;
+  }
+
+  private static boolean endsInRegion(final StringBuilder sb, final String suffix, final int r1) {
+    final int start = sb.length() - suffix.length();
+    return start >= r1 && sb.indexOf(suffix, start) == start;
+  }
+}
@@ -45,4 +45,24 @@ public class Event {
   public boolean sendToSelf() {
     return false;
   }
+
+  /**
+   * Combines this event with a newer one, if the newer one makes this one redundant. This is used
+   * when a session falls too far behind on its events. By default, events can't be combined.
+   *
+   * @param newer The newer event
+   * @return The combined event, or <tt>null</tt> if the events can't be combined
+   */
+  public Event coalesce(Event newer) {
+    return null;
+  }
+
+  /**
+   * Returns <tt>true</tt> if a session that misses this event can make up for it by recalculating
+   * its unread counts and reloading the user profile. Such events may be left out when a session
+   * falls too far behind. By default, events are always delivered.
+   */
+  public boolean canResync() {
+    return false;
+  }
 }
@@ -26,4 +26,15 @@ public class MessageDeletedEvent extends Event {
   public long getConference() {
     return m_confId;
   }
+
+  public Event coalesce(Event newer) {
+    return newer instanceof MessageDeletedEvent
+            && ((MessageDeletedEvent) newer).m_confId == m_confId
+        ? newer
+        : null;
+  }
+
+  public boolean canResync() {
+    return true;
+  }
 }
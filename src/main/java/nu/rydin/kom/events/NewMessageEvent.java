@@ -40,4 +40,12 @@ public class NewMessageEvent extends Event {
   public void dispatch(EventTarget target) {
     target.onEvent(this);
   }
+
+  /** The newest message in a conference tells the recipient as much as all of them */
+  public Event coalesce(Event newer) {
+    return newer instanceof NewMessageEvent
+            && ((NewMessageEvent) newer).m_conferenceId == m_conferenceId
+        ? newer
+        : null;
+  }
 }
@@ -15,4 +15,15 @@ public class ReloadUserProfileEvent extends SingleUserEvent {
   public void dispatch(EventTarget target) {
     target.onEvent(this);
   }
+
+  public Event coalesce(Event newer) {
+    return newer instanceof ReloadUserProfileEvent
+            && ((ReloadUserProfileEvent) newer).getTargetUser() == getTargetUser()
+        ? newer
+        : null;
+  }
+
+  public boolean canResync() {
+    return true;
+  }
 }
@@ -36,4 +36,12 @@ public class UserAttendanceEvent extends Event {
   public int getType() {
     return m_type;
   }
+
+  /** Only the latest attendance change of a user is of interest */
+  public Event coalesce(Event newer) {
+    return newer instanceof UserAttendanceEvent
+            && newer.getOriginatingUser() == getOriginatingUser()
+        ? newer
+        : null;
+  }
 }
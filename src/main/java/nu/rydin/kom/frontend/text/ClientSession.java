@@ -23,6 +23,9 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import nu.rydin.kom.backend.NameUtils;
 import nu.rydin.kom.backend.ServerSession;
 import nu.rydin.kom.backend.ServerSessionFactory;
@@ -98,6 +101,7 @@ import nu.rydin.kom.structs.UserInfo;
 import nu.rydin.kom.utils.FileUtils;
 import nu.rydin.kom.utils.HeaderPrinter;
 import nu.rydin.kom.utils.PrintUtils;
+import nu.rydin.kom.utils.SessionThreads;
 import nu.rydin.kom.utils.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -136,6 +140,22 @@ public class ClientSession
   private boolean m_loggedIn;
   private HeartbeatSender m_heartbeatSender;
 
+  private Thread m_heartbeatThread;
+
+  /**
+   * Creates a session without an input stream. Input has to be passed to the line editor as it
+   * arrives, using {@link LineEditor#receive}.
+   */
+  public ClientSession(
+      final OutputStream out,
+      final boolean useTicket,
+      final boolean selfRegister,
+      final String clientName,
+      final Map<String, String> parameters)
+      throws UnexpectedException, InternalException {
+    this(null, out, useTicket, selfRegister, clientName, parameters);
+  }
+
   public ClientSession(
       final InputStream in,
       final OutputStream out,
@@ -181,7 +201,10 @@ public class ClientSession
     try {
       m_out = new KOMWriter(out, ClientSession.DEFAULT_CHARSET);
       m_in =
-          new LineEditor(in, m_out, this, this, null, m_formatter, ClientSession.DEFAULT_CHARSET);
+          in != null
+              ? new LineEditor(
+                  in, m_out, this, this, null, m_formatter, ClientSession.DEFAULT_CHARSET)
+              : new LineEditor(m_out, this, this, null, m_formatter, ClientSession.DEFAULT_CHARSET);
       m_out.addNewlineListener(m_in);
     } catch (final UnsupportedEncodingException e) {
       // There're NO WAY we don't support US-ASCII!
@@ -397,8 +420,9 @@ public class ClientSession
       // Start heartbeat sender
       //
       m_heartbeatSender = new HeartbeatSender();
-      m_heartbeatSender.setName("Heartbeat sender (" + m_thisUserCache.getUserid() + ')');
-      m_heartbeatSender.start();
+      m_heartbeatThread =
+          SessionThreads.start(
+              "Heartbeat sender (" + m_thisUserCache.getUserid() + ')', m_heartbeatSender);
       m_in.setKeystrokeListener(m_heartbeatSender);
 
       // Ensure that more prompts will be shown (if the user choose goAhead during login).
@@ -700,8 +724,8 @@ public class ClientSession
   }
 
   public synchronized void shutdown() {
-    if (m_heartbeatSender != null) {
-      m_heartbeatSender.interrupt();
+    if (m_heartbeatThread != null) {
+      m_heartbeatThread.interrupt();
     }
     m_in.shutdown();
     if (m_session != null) {
@@ -1357,7 +1381,11 @@ public class ClientSession
     m_loggedIn = false;
   }
 
-  private class HeartbeatSender extends Thread implements KeystrokeListener {
+  private class HeartbeatSender implements Runnable, KeystrokeListener {
+    private final ReentrantLock m_lock = new ReentrantLock();
+
+    private final Condition m_wakeup = m_lock.newCondition();
+
     private boolean m_idle = false;
 
     @Override
@@ -1365,8 +1393,11 @@ public class ClientSession
       // Are we idle? Send heartbeat immediately!
       //
       if (m_idle) {
-        synchronized (this) {
-          notify();
+        m_lock.lock();
+        try {
+          m_wakeup.signal();
+        } finally {
+          m_lock.unlock();
         }
         m_idle = false;
       }
@@ -1379,8 +1410,11 @@ public class ClientSession
         // Sleep for 30 seconds
         //
         try {
-          synchronized (this) {
-            wait(30000);
+          m_lock.lockInterruptibly();
+          try {
+            m_wakeup.await(30000, TimeUnit.MILLISECONDS);
+          } finally {
+            m_lock.unlock();
           }
         } catch (final InterruptedException e) {
           break;
@@ -17,10 +17,6 @@ public class ClientSettings {
     s_settings = new SystemSettings(parameters);
   }
 
-  public static int getEventPollInterval() {
-    return s_settings.getInt("event.poll.interval");
-  }
-
   public static String getCharsets() {
     return s_settings.getString("supported.character.sets");
   }
@@ -11,10 +11,16 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.Stack;
-import nu.rydin.kom.backend.EventSource;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import nu.rydin.kom.backend.ServerSession;
 import nu.rydin.kom.constants.UserFlags;
 import nu.rydin.kom.events.Event;
@@ -33,6 +39,7 @@ import nu.rydin.kom.exceptions.StopCharException;
 import nu.rydin.kom.frontend.text.constants.Keystrokes;
 import nu.rydin.kom.i18n.MessageFormatter;
 import nu.rydin.kom.utils.PrintUtils;
+import nu.rydin.kom.utils.SessionThreads;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -131,6 +138,10 @@ public class LineEditor implements NewlineListener {
    */
   private final LinkedList<Event> m_eventQueue = new LinkedList<>();
 
+  private final ReentrantLock m_eventLock = new ReentrantLock();
+
+  private final Condition m_eventAvailable = m_eventLock.newCondition();
+
   private final TerminalSettingsProvider m_tsProvider;
   /** Command history */
   private final ArrayList<String> m_history = new ArrayList<>();
@@ -140,11 +151,12 @@ public class LineEditor implements NewlineListener {
   private int m_lineCount = 0;
   private boolean m_bypass = false;
   private long m_lastKeystrokeTime = System.currentTimeMillis();
-  /** Thread polling for system events, such as new messages and chat messages. */
-  private EventPoller m_eventPoller;
   /** Thread polling for keystrokes. */
   private KeystrokePoller m_keystrokePoller;
 
+  /** Decodes input passed to {@link #receive}. Only used when there's no input stream. */
+  private volatile CharsetDecoder m_decoder;
+
   private KeystrokeListener m_keystrokeListener;
 
   public LineEditor(
@@ -156,8 +168,42 @@ public class LineEditor implements NewlineListener {
       final MessageFormatter formatter,
       final String charset)
       throws UnsupportedEncodingException {
-    m_in = new ReaderProxy(new InputStreamReader(in, charset));
-    m_inStream = in;
+    this(
+        new ReaderProxy(new InputStreamReader(in, charset)),
+        in,
+        out,
+        target,
+        tsProvider,
+        session,
+        formatter);
+  }
+
+  /**
+   * Creates a line editor without an input stream. Instead, input is passed to {@link #receive}
+   * as it arrives, so no thread has to wait for it.
+   */
+  public LineEditor(
+      final KOMWriter out,
+      final EventTarget target,
+      final TerminalSettingsProvider tsProvider,
+      final ServerSession session,
+      final MessageFormatter formatter,
+      final String charset)
+      throws UnsupportedEncodingException {
+    this(null, null, out, target, tsProvider, session, formatter);
+    m_decoder = LineEditor.createDecoder(charset);
+  }
+
+  private LineEditor(
+      final ReaderProxy in,
+      final InputStream inStream,
+      final KOMWriter out,
+      final EventTarget target,
+      final TerminalSettingsProvider tsProvider,
+      final ServerSession session,
+      final MessageFormatter formatter) {
+    m_in = in;
+    m_inStream = inStream;
     m_out = out;
     m_target = target;
     m_tsProvider = tsProvider;
@@ -178,12 +224,45 @@ public class LineEditor implements NewlineListener {
     }
   }
 
-  /** Starts the keystroke poller. No input can be read until this method is called. */
+  /**
+   * Starts the keystroke poller. No input can be read until this method is called. Input that is
+   * passed to {@link #receive} doesn't need a poller.
+   */
   public void start() {
+    if (m_in == null) {
+      return;
+    }
     m_keystrokePoller = new KeystrokePoller();
     m_keystrokePoller.start();
   }
 
+  /**
+   * Turns input into keystroke events. Only used by line editors without an input stream.
+   *
+   * @param input Bytes received from the client. Bytes that don't make up a whole character yet
+   *     are left in the buffer.
+   */
+  public void receive(final ByteBuffer input) {
+    final CharsetDecoder decoder = m_decoder;
+    final CharBuffer chars =
+        CharBuffer.allocate((int) (input.remaining() * decoder.maxCharsPerByte()) + 1);
+    decoder.decode(input, chars, false);
+    chars.flip();
+    while (chars.hasRemaining()) {
+      handleEvent(new KeystrokeEvent(chars.get()));
+    }
+  }
+
+  /** Tells a line editor without an input stream that the client has gone away. */
+  public void endOfInput() {
+    handleEvent(new SessionShutdownEvent());
+  }
+
+  /** Tells a line editor without an input stream that reading from the client failed. */
+  public void inputFailed(final IOException e) {
+    handleEvent(new IOExceptionEvent(e));
+  }
+
   public void pushTokenizer(final KeystrokeTokenizer tokenizer) {
     m_tokenizerStack.push(tokenizer);
   }
@@ -197,14 +276,14 @@ public class LineEditor implements NewlineListener {
       throw new IllegalStateException("Already have a session!");
     }
     m_session = session;
-    m_keystrokePoller.setSession(session);
-    m_eventPoller = new EventPoller();
-    m_eventPoller.setSession(session);
+    if (m_keystrokePoller != null) {
+      m_keystrokePoller.setSession(session);
+    }
 
-    // Set priority somewhere between the normal and the maximum
+    // System events, such as new messages and chat messages, go straight
+    // into our queue as they're posted.
     //
-    m_eventPoller.setPriority((Thread.NORM_PRIORITY + Thread.MAX_PRIORITY) / 2);
-    m_eventPoller.start();
+    session.getEventSource().setEventSink(this::handleEvent);
   }
 
   public boolean getPageBreak() {
@@ -252,7 +331,23 @@ public class LineEditor implements NewlineListener {
   }
 
   public void setCharset(final String charset) throws UnsupportedEncodingException {
-    m_in.setReader(new InputStreamReader(m_inStream, charset));
+    if (m_in != null) {
+      m_in.setReader(new InputStreamReader(m_inStream, charset));
+    } else {
+      m_decoder = LineEditor.createDecoder(charset);
+    }
+  }
+
+  private static CharsetDecoder createDecoder(final String charset)
+      throws UnsupportedEncodingException {
+    try {
+      return Charset.forName(charset)
+          .newDecoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    } catch (final IllegalArgumentException e) {
+      throw new UnsupportedEncodingException(charset);
+    }
   }
 
   public String readPassword()
@@ -868,26 +963,34 @@ public class LineEditor implements NewlineListener {
   }
 
   public void shutdown() {
-    if (m_eventPoller != null) {
-      m_eventPoller.interrupt();
-    }
     if (m_keystrokePoller != null) {
       m_keystrokePoller.interrupt();
     }
-    m_eventPoller = null;
     m_keystrokePoller = null;
   }
 
-  protected synchronized void handleEvent(final Event e) {
-    m_eventQueue.addLast(e);
-    notify();
+  protected void handleEvent(final Event e) {
+    m_eventLock.lock();
+    try {
+      m_eventQueue.addLast(e);
+      m_eventAvailable.signal();
+    } finally {
+      m_eventLock.unlock();
+    }
   }
 
-  protected synchronized Event getNextEvent() throws InterruptedException {
-    while (m_eventQueue.isEmpty()) {
-      wait();
+  protected Event getNextEvent() throws InterruptedException {
+    // Waiting on a lock rather than a monitor doesn't pin a virtual thread
+    //
+    m_eventLock.lockInterruptibly();
+    try {
+      while (m_eventQueue.isEmpty()) {
+        m_eventAvailable.await();
+      }
+      return m_eventQueue.removeFirst();
+    } finally {
+      m_eventLock.unlock();
     }
-    return m_eventQueue.removeFirst();
   }
 
   public long getLastKeystrokeTime() {
@@ -1010,45 +1113,31 @@ public class LineEditor implements NewlineListener {
     }
   }
 
-  private abstract static class LineEditorHelper extends Thread {
-    String m_threadName;
+  private abstract static class LineEditorHelper implements Runnable {
+    final String m_threadName;
+
+    final Thread m_thread;
 
     public LineEditorHelper(final String threadName) {
       m_threadName = threadName;
+      m_thread = SessionThreads.newThread(threadName, this);
       setThreadName("not logged in");
     }
 
     public void setThreadName(final String userName) {
-      setName(m_threadName + " (" + userName + ")");
+      m_thread.setName(m_threadName + " (" + userName + ")");
     }
 
     public void setSession(final ServerSession session) {
       setThreadName(session.getLoggedInUser().getUserid());
     }
-  }
 
-  private class EventPoller extends LineEditorHelper {
-    private final int POLL_INTERVAL = ClientSettings.getEventPollInterval();
-
-    public EventPoller() {
-      super("EventPoller");
+    public void start() {
+      m_thread.start();
     }
 
-    @Override
-    public void run() {
-      try {
-        final EventSource es = m_session.getEventSource();
-        for (; ; ) {
-          final Event e = es.pollEvent(POLL_INTERVAL);
-          if (e != null) {
-            handleEvent(e);
-          }
-        }
-      } catch (final InterruptedException e) {
-        // Exiting gracefully...
-        //
-        LOG.debug("Exiting event poller");
-      }
+    public void interrupt() {
+      m_thread.interrupt();
     }
   }
 
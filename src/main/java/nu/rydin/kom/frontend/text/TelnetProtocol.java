@@ -0,0 +1,461 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.frontend.text;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.List;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The telnet protocol, i.e. option negotiation and the window size and environment
+ * subnegotiations, separated from the data typed by the user. The state is kept between calls, so
+ * input can be passed in whatever chunks it arrives in, even if a command is split between them.
+ *
+ * @author Pontus Rydin
+ */
+public class TelnetProtocol {
+  private static final Logger LOG = LogManager.getLogger(TelnetProtocol.class);
+  private static final short STATE_NORMAL = 0;
+  private static final short STATE_IAC = 1;
+  private static final short STATE_WILL = 2;
+  private static final short STATE_DO = 3;
+  private static final short STATE_WONT = 4;
+  private static final short STATE_DONT = 5;
+  private static final short STATE_SB = 6;
+  private static final short STATE_DATA = 7;
+  private static final short STATE_AFTER_COMMAND = 8;
+  private static final short STATE_CR = 9;
+
+  private static final byte CHAR_SE = -16;
+  private static final byte CHAR_SB = -6;
+  private static final byte CHAR_WILL = -5;
+  private static final byte CHAR_WONT = -4;
+  private static final byte CHAR_DO = -3;
+  private static final byte CHAR_DONT = -2;
+  private static final byte CHAR_IAC = -1;
+
+  // ENVIRON subcommands
+  //
+  private static final byte CHAR_IS = 0;
+  private static final byte CHAR_SEND = 1;
+  private static final byte CHAR_INFO = 2;
+  private static final byte CHAR_VAR = 0;
+  private static final byte CHAR_VALUE = 1;
+  private static final byte CHAR_ESC = 2;
+  private static final byte CHAR_USERVAR = 3;
+
+  // ENVIRON state machine
+  //
+  private static final int ENV_STATE_NEW = 0;
+  private static final int ENV_STATE_ESC = 1;
+  private static final int ENV_STATE_VAR = 2;
+  private static final int ENV_STATE_VALUE = 3;
+
+  private static final int OPT_BINARY = 0;
+  private static final int OPT_ECHO = 1;
+  private static final int OPT_SUPPRESS_GA = 3;
+
+  @SuppressWarnings("unused")
+  private static final int OPT_NAOCRD = 10;
+
+  private static final int OPT_FLOWCONTROL = 33;
+  private static final int OPT_NAWS = 31;
+  private static final int OPT_LINEMODE = 34;
+  private static final int OPT_ENVIRON = 39;
+
+  // Other characters
+  //
+  private static final int LF = 10;
+  private static final int CR = 13;
+  private final OutputStream m_output;
+  private final List<TerminalSizeListener> m_sizeListeners = new LinkedList<>();
+  private final List<EnvironmentListener> m_environmentListeners = new LinkedList<>();
+  private short m_state = TelnetProtocol.STATE_NORMAL;
+  private int[] m_dataBuffer;
+  private int m_dataState;
+  private int m_dataIdx;
+  private boolean m_replied;
+
+  /**
+   * Creates a protocol handler.
+   *
+   * @param output Where replies to the client are written
+   */
+  public TelnetProtocol(final OutputStream output) {
+    m_output = output;
+  }
+
+  protected static int complement2(final int n) {
+    return n < 0 ? 256 + n : n;
+  }
+
+  /**
+   * Sends our side of the initial option negotiation.
+   *
+   * @throws IOException If the negotiation couldn't be sent
+   */
+  public void negotiate() throws IOException {
+    // We're willing to receive environment variables
+    //
+    sendOption(TelnetProtocol.CHAR_DO, TelnetProtocol.OPT_ENVIRON);
+
+    // Please don't use linemode
+    //
+    sendOption(TelnetProtocol.CHAR_WONT, TelnetProtocol.OPT_LINEMODE);
+
+    // We do use binary mode
+    //
+    sendOption(TelnetProtocol.CHAR_DO, TelnetProtocol.OPT_BINARY);
+
+    // We will echo
+    //
+    sendOption(TelnetProtocol.CHAR_WILL, TelnetProtocol.OPT_ECHO);
+
+    // We will suppress go ahead
+    //
+    sendOption(TelnetProtocol.CHAR_WILL, TelnetProtocol.OPT_SUPPRESS_GA);
+
+    // Please use NAWS if you support it!
+    //
+    sendOption(TelnetProtocol.CHAR_DO, TelnetProtocol.OPT_NAWS);
+
+    // Now would be a good time to send your environment variables
+    //
+    m_output.write(TelnetProtocol.CHAR_IAC);
+    m_output.write(TelnetProtocol.CHAR_SB);
+    m_output.write(TelnetProtocol.OPT_ENVIRON);
+    m_output.write(TelnetProtocol.CHAR_SEND);
+    m_output.write(TelnetProtocol.CHAR_IAC);
+    m_output.write(TelnetProtocol.CHAR_SE);
+
+    m_output.flush();
+    m_replied = false;
+  }
+
+  public void addSizeListener(final TerminalSizeListener listener) {
+    synchronized (m_sizeListeners) {
+      m_sizeListeners.add(listener);
+    }
+  }
+
+  public void addEnvironmentListener(final EnvironmentListener listener) {
+    synchronized (m_environmentListeners) {
+      m_environmentListeners.add(listener);
+    }
+  }
+
+  /**
+   * Decodes input from the client. Data is copied to the data buffer, while telnet commands are
+   * handled and answered. Decoding stops when the input is consumed or the data buffer is full.
+   * The input and the data buffer may share the same array, since data is never written ahead of
+   * the input being read.
+   *
+   * @param input Bytes received from the client
+   * @param data Where the data is put
+   * @throws IOException If a reply couldn't be sent
+   */
+  public void decode(final ByteBuffer input, final ByteBuffer data) throws IOException {
+    while (input.hasRemaining() && data.hasRemaining()) {
+      final byte b = input.get();
+      if (stateMachine(b)) {
+        data.put(b);
+      }
+    }
+    if (m_replied) {
+      m_replied = false;
+      m_output.flush();
+    }
+  }
+
+  protected void sendCommand(final int command) throws IOException {
+    m_output.write(TelnetProtocol.CHAR_IAC);
+    m_output.write(command);
+    m_replied = true;
+  }
+
+  protected void sendOption(final int verb, final int option) throws IOException {
+    sendCommand(verb);
+    m_output.write(option);
+  }
+
+  protected boolean stateMachine(final int b) throws IOException {
+    // System.out.println("Char: "+ b);
+    switch (m_state) {
+      case TelnetProtocol.STATE_CR:
+        if (b == TelnetProtocol.LF) {
+          return false; // Strip latter part of CRLF
+        }
+        m_state = TelnetProtocol.STATE_NORMAL;
+        // FALL THRU
+      case TelnetProtocol.STATE_NORMAL:
+        switch (b) {
+          case 0:
+            return false;
+          case TelnetProtocol.CHAR_IAC:
+            m_state = TelnetProtocol.STATE_IAC;
+            return false;
+          case TelnetProtocol.CR:
+            m_state = TelnetProtocol.STATE_CR;
+            return true;
+          default:
+            return true;
+        }
+      case TelnetProtocol.STATE_IAC:
+        switch (b) {
+          case TelnetProtocol.CHAR_IAC:
+            // Escaped 255
+            //
+            m_state = TelnetProtocol.STATE_NORMAL;
+            return true;
+          case TelnetProtocol.CHAR_WILL:
+            m_state = TelnetProtocol.STATE_WILL;
+            break;
+          case TelnetProtocol.CHAR_WONT:
+            m_state = TelnetProtocol.STATE_WONT;
+            break;
+          case TelnetProtocol.CHAR_DO:
+            m_state = TelnetProtocol.STATE_DO;
+            break;
+          case TelnetProtocol.CHAR_DONT:
+            m_state = TelnetProtocol.STATE_DONT;
+            break;
+          case TelnetProtocol.CHAR_SB:
+            m_state = TelnetProtocol.STATE_SB;
+            break;
+          default:
+            handleCommand(b);
+            m_state = TelnetProtocol.STATE_NORMAL;
+            break;
+        }
+        break;
+      case TelnetProtocol.STATE_WILL:
+        handleWill(b);
+        m_state = TelnetProtocol.STATE_NORMAL;
+        break;
+      case TelnetProtocol.STATE_WONT:
+        handleWont(b);
+        m_state = TelnetProtocol.STATE_NORMAL;
+        break;
+      case TelnetProtocol.STATE_DO:
+        handleDo(b);
+        m_state = TelnetProtocol.STATE_NORMAL;
+        break;
+      case TelnetProtocol.STATE_DONT:
+        handleDont(b);
+        m_state = TelnetProtocol.STATE_NORMAL;
+        break;
+      case TelnetProtocol.STATE_SB:
+        LOG.debug("SB: " + b);
+        switch (b) {
+          case TelnetProtocol.OPT_NAWS:
+            m_dataBuffer = new int[4];
+            m_dataIdx = 0;
+            m_state = TelnetProtocol.STATE_DATA;
+            break;
+          case TelnetProtocol.OPT_ENVIRON:
+            m_dataBuffer = new int[8192];
+            m_dataIdx = 0;
+            m_state = TelnetProtocol.STATE_DATA;
+            break;
+        }
+        m_dataState = b;
+        break;
+      case TelnetProtocol.STATE_DATA:
+        {
+          switch (b) {
+            case TelnetProtocol.CHAR_IAC:
+              m_state = TelnetProtocol.STATE_AFTER_COMMAND;
+              break;
+            default:
+              if (m_dataIdx < m_dataBuffer.length) {
+                m_dataBuffer[m_dataIdx++] = b;
+              } else {
+                m_state = TelnetProtocol.STATE_NORMAL; // Buffer overflow, go back to normal
+              }
+          }
+          break;
+        }
+      case TelnetProtocol.STATE_AFTER_COMMAND:
+        if (b != TelnetProtocol.CHAR_SE) {
+          // Huh? Not end of subnegotiation?
+          //
+          m_state = TelnetProtocol.STATE_NORMAL;
+          break;
+        }
+        // End of command
+        //
+        switch (m_dataState) {
+          case TelnetProtocol.OPT_NAWS:
+            handleNaws();
+            m_state = TelnetProtocol.STATE_NORMAL;
+            break;
+          case TelnetProtocol.OPT_ENVIRON:
+            handleEnviron();
+            m_state = TelnetProtocol.STATE_NORMAL;
+          default:
+            m_state = TelnetProtocol.STATE_NORMAL;
+        }
+        break;
+    }
+    return false;
+  }
+
+  protected void handleCommand(final int ch) {
+    LOG.debug("Command: " + ch);
+  }
+
+  protected void handleWill(final int ch) throws IOException {
+    LOG.debug("Will: " + ch);
+    switch (ch) {
+      case TelnetProtocol.OPT_LINEMODE:
+        sendOption(TelnetProtocol.CHAR_DONT, TelnetProtocol.OPT_LINEMODE);
+        sendOption(TelnetProtocol.CHAR_WONT, TelnetProtocol.OPT_LINEMODE);
+        break;
+      case TelnetProtocol.OPT_FLOWCONTROL:
+        sendOption(TelnetProtocol.CHAR_DONT, TelnetProtocol.OPT_FLOWCONTROL);
+        sendOption(TelnetProtocol.CHAR_WONT, TelnetProtocol.OPT_FLOWCONTROL);
+        break;
+    }
+  }
+
+  protected void handleWont(final int ch) {
+    LOG.debug("Won't: " + ch);
+  }
+
+  protected void handleDo(final int ch) throws IOException {
+    LOG.debug("Do: " + ch);
+    switch (ch) {
+      case TelnetProtocol.OPT_ECHO:
+        // Yes, we will echo
+        //
+        sendOption(TelnetProtocol.CHAR_WILL, TelnetProtocol.OPT_ECHO);
+        break;
+      case TelnetProtocol.OPT_SUPPRESS_GA:
+        // Yes, we will supress GA
+        //
+        sendOption(TelnetProtocol.CHAR_WILL, TelnetProtocol.OPT_SUPPRESS_GA);
+        break;
+    }
+  }
+
+  protected void handleDont(final int ch) throws IOException {
+    LOG.debug("Don't: " + ch);
+    switch (ch) {
+      case TelnetProtocol.OPT_ECHO:
+        // I'm sorry, but we will echo
+        //
+        sendOption(TelnetProtocol.CHAR_WILL, TelnetProtocol.OPT_ECHO);
+        break;
+      case TelnetProtocol.OPT_SUPPRESS_GA:
+        // I'm sorry, but we will supress GA.
+        //
+        sendOption(TelnetProtocol.CHAR_WILL, TelnetProtocol.OPT_SUPPRESS_GA);
+        break;
+    }
+  }
+
+  protected void handleNaws() {
+    final int width =
+        (TelnetProtocol.complement2(m_dataBuffer[0]) << 8)
+            + TelnetProtocol.complement2(m_dataBuffer[1]);
+    final int height =
+        (TelnetProtocol.complement2(m_dataBuffer[2]) << 8)
+            + TelnetProtocol.complement2(m_dataBuffer[3]);
+    LOG.debug("NAWS: " + width + "*" + height);
+    synchronized (m_sizeListeners) {
+      for (final TerminalSizeListener terminalSizeListener : m_sizeListeners) {
+        terminalSizeListener.terminalSizeChanged(width, height);
+      }
+    }
+  }
+
+  protected void handleEnviron() {
+    // First byte is "IS" or "INFO". We treat them both the same. Ignore anything else
+    //
+    final int subCommand = m_dataBuffer[0];
+    if (subCommand != TelnetProtocol.CHAR_IS && subCommand != TelnetProtocol.CHAR_INFO) {
+      return;
+    }
+
+    // Now parse variable data
+    //
+    int state = TelnetProtocol.ENV_STATE_NEW;
+    final int top = m_dataIdx;
+    StringBuffer buffer = null;
+    String name = "";
+    String value;
+    for (int idx = 1; idx < top; ++idx) {
+      final char ch = (char) m_dataBuffer[idx];
+      switch (state) {
+        case TelnetProtocol.ENV_STATE_NEW:
+          switch (ch) {
+            case TelnetProtocol.CHAR_USERVAR:
+            case TelnetProtocol.CHAR_VAR:
+              // Start of variable
+              //
+              state = TelnetProtocol.ENV_STATE_VAR;
+              buffer = new StringBuffer();
+              break;
+            default:
+              // Unknown character. Go back to start state
+              //
+              state = TelnetProtocol.ENV_STATE_NEW;
+          }
+          break;
+        case TelnetProtocol.ENV_STATE_VALUE:
+        case TelnetProtocol.ENV_STATE_VAR:
+          switch (ch) {
+            case TelnetProtocol.CHAR_ESC:
+              state = TelnetProtocol.ENV_STATE_ESC;
+              break;
+            case TelnetProtocol.CHAR_VALUE:
+              name = buffer.toString();
+              buffer = new StringBuffer();
+              state = TelnetProtocol.ENV_STATE_VALUE;
+              break;
+            case TelnetProtocol.CHAR_USERVAR:
+            case TelnetProtocol.CHAR_VAR:
+              if (state == TelnetProtocol.ENV_STATE_VALUE) {
+                value = buffer.toString();
+                state = TelnetProtocol.ENV_STATE_VAR;
+              } else {
+                name = buffer.toString();
+                value = "";
+              }
+              buffer = new StringBuffer();
+              handleEnvironmentVariable(name, value);
+              break;
+            default:
+              buffer.append(ch);
+              break;
+          }
+          break;
+        case TelnetProtocol.ENV_STATE_ESC:
+          buffer.append(ch);
+          break;
+      }
+    }
+    // Handle dangling variable
+    //
+    if (name.length() > 0) {
+      handleEnvironmentVariable(name, buffer.toString());
+    }
+  }
+
+  protected void handleEnvironmentVariable(final String name, final String value) {
+    LOG.debug("ENVIRON: var=" + name + " value=" + value);
+    synchronized (m_environmentListeners) {
+      for (final EnvironmentListener environmentListener : m_environmentListeners) {
+        environmentListener.environmentChanged(name, value);
+      }
+    }
+  }
+}
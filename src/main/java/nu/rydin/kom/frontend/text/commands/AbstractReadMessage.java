@@ -48,5 +48,6 @@ public abstract class AbstractReadMessage extends AbstractCommand {
     }
   }
 
-  protected abstract MessageLocator getMessageToRead(Context context, Object[] parameterArray);
+  protected abstract MessageLocator getMessageToRead(Context context, Object[] parameterArray)
+      throws KOMException;
 }
@@ -29,10 +29,13 @@ public abstract class AbstractSelect extends AbstractCommand {
     KOMWriter w = context.getOut();
     MessageFormatter fmt = context.getMessageFormatter();
     ServerSession ss = context.getSession();
-    w.println(fmt.format("search.count", ss.getSelectedMessages().getMessages().length));
-    if (!complete) {
-      w.println();
-      w.println(context.getMessageFormatter().format("select.overflow"));
+    int n = ss.getSelectedMessages().getUnread();
+    if (complete) {
+      w.println(fmt.format("search.count", n));
+    } else {
+      // Only the first chunk has been fetched, so we don't know how many there are
+      //
+      w.println(fmt.format("select.more", n));
     }
   }
 }
@@ -23,14 +23,15 @@ public class GrepLocalMessage extends SearchLocalCommand {
         permissions);
   }
 
-  MessageSearchResult[] innerSearch(Context context, Object[] parameterArray, int offset)
+  MessageSearchResult[] innerSearch(
+      Context context, Object[] parameterArray, MessageSearchResult after)
       throws UnexpectedException {
     String searchterm = ((String) parameterArray[0]).trim();
     LocalMessageSearchResult[] lmsr =
         context
             .getSession()
             .grepMessagesLocally(
-                context.getSession().getCurrentConferenceId(), searchterm, offset, CHUNK_SIZE);
+                context.getSession().getCurrentConferenceId(), searchterm, after, CHUNK_SIZE);
     return lmsr;
   }
 
@@ -28,17 +28,18 @@ public class ListComments extends SearchGlobalCommand {
     super.execute(context, parameters);
   }
 
-  MessageSearchResult[] innerSearch(Context context, Object[] parameterArray, int offset)
+  MessageSearchResult[] innerSearch(
+      Context context, Object[] parameterArray, MessageSearchResult after)
       throws UnexpectedException {
     return context
         .getSession()
         .listCommentsGloballyToAuthor(
-            context.getSession().getLoggedInUserId(), this.startDate, offset, CHUNK_SIZE);
+            context.getSession().getLoggedInUserId(), this.startDate, after, CHUNK_SIZE);
   }
 
   long count(Context context, Object[] parameterArray) throws KOMException {
-    return context
-        .getSession()
-        .countCommentsGloballyToAuthor(context.getSession().getLoggedInUserId(), this.startDate);
+    // Counting means running the whole search, so don't
+    //
+    return UNKNOWN_COUNT;
   }
 }
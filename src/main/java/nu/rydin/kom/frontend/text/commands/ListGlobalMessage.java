@@ -20,14 +20,16 @@ public class ListGlobalMessage extends SearchGlobalCommand {
     super(fullName, new CommandLineParameter[] {new UserParameter(true)}, permissions);
   }
 
-  MessageSearchResult[] innerSearch(Context context, Object[] parameterArray, int offset)
+  MessageSearchResult[] innerSearch(
+      Context context, Object[] parameterArray, MessageSearchResult after)
       throws UnexpectedException {
     NameAssociation user = (NameAssociation) parameterArray[0];
-    return context.getSession().listMessagesGloballyByAuthor(user.getId(), offset, CHUNK_SIZE);
+    return context.getSession().listMessagesGloballyByAuthor(user.getId(), after, CHUNK_SIZE);
   }
 
   long count(Context context, Object[] parameterArray) throws KOMException {
-    NameAssociation user = (NameAssociation) parameterArray[0];
-    return context.getSession().countMessagesGloballyByAuthor(user.getId());
+    // Counting means going through every message by the user
+    //
+    return UNKNOWN_COUNT;
   }
 }
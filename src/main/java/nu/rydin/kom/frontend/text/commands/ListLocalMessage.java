@@ -11,6 +11,7 @@ import nu.rydin.kom.exceptions.UnexpectedException;
 import nu.rydin.kom.frontend.text.Context;
 import nu.rydin.kom.frontend.text.parser.CommandLineParameter;
 import nu.rydin.kom.frontend.text.parser.UserParameter;
+import nu.rydin.kom.structs.ConferenceInfo;
 import nu.rydin.kom.structs.LocalMessageSearchResult;
 import nu.rydin.kom.structs.MessageSearchResult;
 import nu.rydin.kom.structs.NameAssociation;
@@ -21,7 +22,8 @@ public class ListLocalMessage extends SearchLocalCommand {
     super(fullName, new CommandLineParameter[] {new UserParameter(false)}, permissions);
   }
 
-  MessageSearchResult[] innerSearch(Context context, Object[] parameterArray, int offset)
+  MessageSearchResult[] innerSearch(
+      Context context, Object[] parameterArray, MessageSearchResult after)
       throws UnexpectedException {
     LocalMessageSearchResult[] lmsr;
     NameAssociation user;
@@ -31,7 +33,7 @@ public class ListLocalMessage extends SearchLocalCommand {
           context
               .getSession()
               .listAllMessagesLocally(
-                  context.getSession().getCurrentConferenceId(), offset, CHUNK_SIZE);
+                  context.getSession().getCurrentConferenceId(), after, CHUNK_SIZE);
     } else {
       user = (NameAssociation) parameterArray[0];
       // Author given, list all messages by that author in current conference
@@ -39,7 +41,7 @@ public class ListLocalMessage extends SearchLocalCommand {
           context
               .getSession()
               .listMessagesLocallyByAuthor(
-                  context.getSession().getCurrentConferenceId(), user.getId(), offset, CHUNK_SIZE);
+                  context.getSession().getCurrentConferenceId(), user.getId(), after, CHUNK_SIZE);
     }
 
     return lmsr;
@@ -47,17 +49,16 @@ public class ListLocalMessage extends SearchLocalCommand {
 
   long count(Context context, Object[] parameterArray) throws KOMException {
     if (parameterArray[0] == null) {
-      // No parameter given, default to listing ALL messages in current conference.
-      return context
-          .getSession()
-          .countAllMessagesLocally(context.getSession().getCurrentConferenceId());
+      // No parameter given, estimate the number of messages from the range
+      // of local numbers instead of counting them.
+      ConferenceInfo conference = context.getSession().getCurrentConference();
+      return conference.getLastMessage() > 0
+          ? conference.getLastMessage() - conference.getFirstMessage() + 1
+          : 0;
     } else {
-      NameAssociation user = (NameAssociation) parameterArray[0];
-      // Author given, list all messages by that author in current conference
-      return context
-          .getSession()
-          .countMessagesLocallyByAuthor(
-              context.getSession().getCurrentConferenceId(), user.getId());
+      // Counting the messages by an author means going through the whole
+      // conference, so don't.
+      return UNKNOWN_COUNT;
     }
   }
 }
@@ -28,12 +28,20 @@ public class ListSelectedMessages extends AbstractCommand {
     KOMWriter out = context.getOut();
 
     if (selectedMessages.hasUnreadMessages()) {
-      MessageSearchResult[] messages = selectedMessages.getMessages();
       MessageSearchResultPrinter printer = selectedMessages.getMessageSearchResultPrinter(context);
 
       printer.printSearchResultHeader(context);
-      for (int idx = 0; idx < messages.length; ++idx) {
-        printer.printSearchResultRow(context, out, messages[idx]);
+      MessageSearchResult last = null;
+      for (; ; ) {
+        MessageSearchResult[] messages =
+            context.getSession().listSelectedMessages(last, SearchCommand.CHUNK_SIZE);
+        if (messages.length == 0) {
+          break;
+        }
+        for (int idx = 0; idx < messages.length; ++idx) {
+          printer.printSearchResultRow(context, out, messages[idx]);
+        }
+        last = messages[messages.length - 1];
       }
     } else {
       out.println(context.getMessageFormatter().format("search.noselected"));
@@ -7,6 +7,9 @@
 package nu.rydin.kom.frontend.text.commands;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import nu.rydin.kom.exceptions.KOMException;
 import nu.rydin.kom.frontend.text.AbstractCommand;
 import nu.rydin.kom.frontend.text.Context;
@@ -14,6 +17,7 @@ import nu.rydin.kom.frontend.text.KOMWriter;
 import nu.rydin.kom.i18n.MessageFormatter;
 import nu.rydin.kom.utils.HeaderPrinter;
 import nu.rydin.kom.utils.PrintUtils;
+import nu.rydin.kom.utils.SessionThreads;
 
 /** @author Pontus Rydin */
 public class ListSystemThreads extends AbstractCommand {
@@ -38,12 +42,14 @@ public class ListSystemThreads extends AbstractCommand {
     hp.addHeader(formatter.format("listsystemthreads.name"), lastColWidth, false);
     hp.printOn(out);
 
-    // Print information for each thread
+    // Print information for each thread. Virtual session threads aren't
+    // enumerated, so we have to ask for them separately.
     //
-    Thread[] threads = new Thread[10000];
-    int top = Thread.enumerate(threads);
-    for (int idx = 0; idx < top; idx++) {
-      Thread t = threads[idx];
+    Thread[] platformThreads = new Thread[10000];
+    int top = Thread.enumerate(platformThreads);
+    List<Thread> threads = new ArrayList<>(Arrays.asList(platformThreads).subList(0, top));
+    threads.addAll(SessionThreads.getVirtualThreads());
+    for (Thread t : threads) {
 
       // Print state
       //
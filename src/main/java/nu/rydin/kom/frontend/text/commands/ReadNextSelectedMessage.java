@@ -6,6 +6,7 @@
  */
 package nu.rydin.kom.frontend.text.commands;
 
+import nu.rydin.kom.exceptions.UnexpectedException;
 import nu.rydin.kom.frontend.text.AbstractCommand;
 import nu.rydin.kom.frontend.text.Context;
 import nu.rydin.kom.structs.MessageLocator;
@@ -17,7 +18,8 @@ public class ReadNextSelectedMessage extends AbstractReadMessage {
   }
 
   @Override
-  protected MessageLocator getMessageToRead(Context context, Object[] parameterArray) {
-    return context.getSession().getSelectedMessages().getNextMessage();
+  protected MessageLocator getMessageToRead(Context context, Object[] parameterArray)
+      throws UnexpectedException {
+    return context.getSession().getNextSelectedMessage();
   }
 }
@@ -20,6 +20,9 @@ import nu.rydin.kom.structs.MessageSearchResult;
 public abstract class SearchCommand extends AbstractCommand {
   protected static final int CHUNK_SIZE = 100;
 
+  /** Returned by {@link #count(Context, Object[])} when the number of hits isn't cheap to get */
+  protected static final long UNKNOWN_COUNT = -1;
+
   protected MessageSearchResultPrinter m_resultPrinter = null;
 
   public SearchCommand(String fullName, CommandLineParameter[] signature, long permissions) {
@@ -39,14 +42,17 @@ public abstract class SearchCommand extends AbstractCommand {
     if (n == 0) {
       printNoSearchResultsMessage(context);
       return;
-    } else {
+    } else if (n != UNKNOWN_COUNT) {
       printCount(context, n);
     }
 
     boolean hasPrintedHeader = false;
 
-    for (int offset = 0; ; offset += CHUNK_SIZE) {
-      MessageSearchResult[] msr = innerSearch(context, parameterArray, offset);
+    // Each chunk starts where the previous one ended, so fetching a chunk
+    // far down the list is as cheap as fetching the first one.
+    //
+    for (MessageSearchResult last = null; ; ) {
+      MessageSearchResult[] msr = innerSearch(context, parameterArray, last);
 
       int top = msr.length;
       if (top == 0) {
@@ -56,7 +62,7 @@ public abstract class SearchCommand extends AbstractCommand {
         break;
       }
 
-      if ((offset == 0) && !hasPrintedHeader) {
+      if (!hasPrintedHeader) {
         printSearchResultHeader(context);
         hasPrintedHeader = true;
       }
@@ -66,6 +72,7 @@ public abstract class SearchCommand extends AbstractCommand {
       }
 
       processMessageResult(context, msr);
+      last = msr[top - 1];
     }
   }
 
@@ -82,9 +89,18 @@ public abstract class SearchCommand extends AbstractCommand {
     context.getOut().println(formatter.format("search.noresults"));
   }
 
-  abstract MessageSearchResult[] innerSearch(Context context, Object[] parameterArray, int offset)
+  /**
+   * Returns a chunk of the result.
+   *
+   * @param context The context
+   * @param parameterArray The parameters
+   * @param after The last message of the previous chunk, or <code>null</code> for the first chunk
+   */
+  abstract MessageSearchResult[] innerSearch(
+      Context context, Object[] parameterArray, MessageSearchResult after)
       throws UnexpectedException;
 
+  /** Returns the approximate number of messages found, or {@link #UNKNOWN_COUNT} */
   abstract long count(Context context, Object[] parameterArray) throws KOMException;
 
   protected void printCount(Context context, long count) {
@@ -22,10 +22,11 @@ public class SearchGlobalMessage extends SearchGlobalCommand {
         permissions);
   }
 
-  MessageSearchResult[] innerSearch(Context context, Object[] parameterArray, int offset)
+  MessageSearchResult[] innerSearch(
+      Context context, Object[] parameterArray, MessageSearchResult after)
       throws UnexpectedException {
     String searchterm = ((String) parameterArray[0]).trim();
-    return context.getSession().searchMessagesGlobally(searchterm, offset, CHUNK_SIZE);
+    return context.getSession().searchMessagesGlobally(searchterm, after, CHUNK_SIZE);
   }
 
   long count(Context context, Object[] parameterArray) throws KOMException {
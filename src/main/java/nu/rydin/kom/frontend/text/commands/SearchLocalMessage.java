@@ -23,14 +23,15 @@ public class SearchLocalMessage extends SearchLocalCommand {
         permissions);
   }
 
-  protected MessageSearchResult[] innerSearch(Context context, Object[] parameterArray, int offset)
+  protected MessageSearchResult[] innerSearch(
+      Context context, Object[] parameterArray, MessageSearchResult after)
       throws UnexpectedException {
     String searchterm = ((String) parameterArray[0]).trim();
     LocalMessageSearchResult[] lmsr =
         context
             .getSession()
             .searchMessagesLocally(
-                context.getSession().getCurrentConferenceId(), searchterm, offset, CHUNK_SIZE);
+                context.getSession().getCurrentConferenceId(), searchterm, after, CHUNK_SIZE);
     return lmsr;
   }
 
@@ -14,9 +14,13 @@ import nu.rydin.kom.frontend.text.AbstractCommand;
 import nu.rydin.kom.frontend.text.Context;
 import nu.rydin.kom.i18n.MessageFormatter;
 import nu.rydin.kom.structs.CacheInformation;
+import nu.rydin.kom.structs.BroadcastStatistics;
+import nu.rydin.kom.structs.ConnectionPoolInformation;
 import nu.rydin.kom.structs.SystemInformation;
+import nu.rydin.kom.structs.TransactionStatistics;
 import nu.rydin.kom.utils.HeaderPrinter;
 import nu.rydin.kom.utils.PrintUtils;
+import nu.rydin.kom.utils.SessionThreads;
 
 /** @author Pontus Rydin */
 public class ShowSystemInfo extends AbstractCommand {
@@ -89,6 +93,68 @@ public class ShowSystemInfo extends AbstractCommand {
     this.printCacheInfo(out, formatter, formatter.format("system.info.users"), info.getUserCache());
     this.printCacheInfo(
         out, formatter, formatter.format("system.info.permissions"), info.getPermissionCache());
+    out.println();
+
+    // Print transaction stats
+    //
+    final TransactionStatistics ts = info.getTransactions();
+    hp = new HeaderPrinter();
+    hp.addHeader(formatter.format("system.info.calls"), WIDTH, false);
+    hp.addHeader(formatter.format("system.info.count"), 10, true);
+    hp.printOn(out);
+    PrintUtils.printLeftJustified(out, formatter.format("system.info.calls.none"), WIDTH);
+    PrintUtils.printRightJustified(out, Long.toString(ts.getNumNonTransactional()), 10);
+    out.println();
+    PrintUtils.printLeftJustified(out, formatter.format("system.info.calls.readonly"), WIDTH);
+    PrintUtils.printRightJustified(out, Long.toString(ts.getNumReadOnly()), 10);
+    out.println();
+    PrintUtils.printLeftJustified(out, formatter.format("system.info.calls.readwrite"), WIDTH);
+    PrintUtils.printRightJustified(out, Long.toString(ts.getNumReadWrite()), 10);
+    out.println();
+    PrintUtils.printLeftJustified(out, formatter.format("system.info.calls.replica"), WIDTH);
+    PrintUtils.printRightJustified(out, Long.toString(ts.getNumReplica()), 10);
+    out.println();
+    PrintUtils.printLeftJustified(out, formatter.format("system.info.calls.saved"), WIDTH);
+    PrintUtils.printRightJustified(out, Long.toString(ts.getSavedRoundTrips()), 10);
+    out.println();
+    out.println();
+
+    // Print connection pool stats
+    //
+    final ConnectionPoolInformation cp = info.getConnectionPool();
+    hp = new HeaderPrinter();
+    hp.addHeader(formatter.format("system.info.pool"), WIDTH, false);
+    hp.addHeader(formatter.format("system.info.count"), 10, true);
+    hp.printOn(out);
+    this.printCount(out, formatter.format("system.info.pool.max"), cp.getMaxSize());
+    this.printCount(out, formatter.format("system.info.pool.active"), cp.getNumActive());
+    this.printCount(out, formatter.format("system.info.pool.idle"), cp.getNumIdle());
+    this.printCount(out, formatter.format("system.info.pool.created"), cp.getNumCreated());
+    this.printCount(out, formatter.format("system.info.pool.checkouts"), cp.getNumCheckouts());
+    this.printCount(out, formatter.format("system.info.pool.wait"), cp.getAverageWaitTime());
+    this.printCount(out, formatter.format("system.info.pool.timeouts"), cp.getNumTimeouts());
+    this.printCount(out, formatter.format("system.info.pool.leaks"), cp.getNumLeaks());
+    this.printCount(out, formatter.format("system.info.pool.statements"), cp.getNumStatements());
+    this.printCount(
+        out, formatter.format("system.info.pool.prepared"), cp.getNumPreparedStatements());
+    out.println();
+
+    // Print event delivery stats
+    //
+    final BroadcastStatistics bs = info.getBroadcasts();
+    hp = new HeaderPrinter();
+    hp.addHeader(formatter.format("system.info.events"), WIDTH, false);
+    hp.addHeader(formatter.format("system.info.count"), 10, true);
+    hp.printOn(out);
+    this.printCount(out, formatter.format("system.info.events.delivered"), bs.getNumDelivered());
+    this.printCount(out, formatter.format("system.info.events.coalesced"), bs.getNumCoalesced());
+    this.printCount(out, formatter.format("system.info.events.resyncs"), bs.getNumResyncs());
+    this.printCount(out, formatter.format("system.info.events.overflowed"), bs.getNumOverflowed());
+    this.printCount(out, formatter.format("system.info.events.dropped"), bs.getNumDropped());
+    this.printCount(out, formatter.format("system.info.events.queued"), bs.getQueueDepth());
+    this.printCount(out, formatter.format("system.info.events.maxqueue"), bs.getMaxQueueDepth());
+    this.printCount(out, formatter.format("system.info.events.latency"), bs.getAverageLatency());
+    this.printCount(out, formatter.format("system.info.events.maxlatency"), bs.getMaxLatency());
 
     // Print uptime
     //
@@ -131,7 +197,8 @@ public class ShowSystemInfo extends AbstractCommand {
         out,
         formatter.format("system.info.threads"),
         WIDTH,
-        Integer.toString(Thread.enumerate(new Thread[100000])));
+        Integer.toString(
+            Thread.enumerate(new Thread[100000]) + SessionThreads.getVirtualThreads().size()));
 
     // Java VM
     //
@@ -151,6 +218,12 @@ public class ShowSystemInfo extends AbstractCommand {
     out.println();
   }
 
+  private void printCount(PrintWriter out, String label, long count) {
+    PrintUtils.printLeftJustified(out, label, WIDTH);
+    PrintUtils.printRightJustified(out, Long.toString(count), 10);
+    out.println();
+  }
+
   private void printCacheInfo(
       PrintWriter out, MessageFormatter formatter, String label, CacheInformation ci) {
     PrintUtils.printLeftJustified(out, label, WIDTH);
@@ -14,6 +14,7 @@ import nu.rydin.kom.backend.ServerSessionFactory;
 import nu.rydin.kom.backend.ServerSessionFactoryImpl;
 import nu.rydin.kom.frontend.text.ClientSession;
 import nu.rydin.kom.frontend.text.TelnetInputStream;
+import nu.rydin.kom.utils.SessionThreads;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -122,13 +123,10 @@ public class TelnetServer implements Module, Runnable {
           eis.addEnvironmentListener(client);
 
           // Create a thread to handle the session and kick it off!
-          // Also create a SessionReaper that will be woken up when the
-          // session dies to perform post-mortem cleanup.
+          // The SessionReaper performs post-mortem cleanup on the same
+          // thread once the session dies.
           //
-          final Thread clientThread = new Thread(client, "Session (not logged in)");
-          final Thread reaper = new SessionReaper(incoming, clientThread, client);
-          reaper.start();
-          clientThread.start();
+          SessionThreads.start("Session (not logged in)", new SessionReaper(incoming, client));
         } catch (final Exception e) {
           // Couldn't create session. Kill connection!
           //
@@ -144,37 +142,31 @@ public class TelnetServer implements Module, Runnable {
   }
 
   /**
-   * Cleans up after dead telnet session threads.
+   * Runs a telnet session and cleans up after it when it dies.
    *
    * @author Pontus Rydin
    */
-  private static class SessionReaper extends Thread {
+  private static class SessionReaper implements Runnable {
     private Socket m_socket;
 
-    private Thread m_clientThread;
-
     private ClientSession m_session;
 
-    public SessionReaper(
-        final Socket socket, final Thread clientThread, final ClientSession session) {
-      super("SessionReaper");
+    public SessionReaper(final Socket socket, final ClientSession session) {
       m_socket = socket;
-      m_clientThread = clientThread;
       m_session = session;
     }
 
     @Override
     public void run() {
-      // Wait for the client to die
+      // Run the session until it dies
       //
       try {
-        m_clientThread.join();
-        m_session.shutdown();
+        try {
+          m_session.run();
+        } finally {
+          m_session.shutdown();
+        }
         TelnetServer.LOG.info("Disconnected from " + m_socket.getInetAddress().getHostAddress());
-      } catch (final InterruptedException e) {
-        // Interrupted while waiting? We're going down, so
-        // just fall thru and kill the connection.
-        //
       } finally {
         try {
           m_socket.close();
@@ -187,7 +179,6 @@ public class TelnetServer implements Module, Runnable {
         // Release references
         //
         m_socket = null;
-        m_clientThread = null;
         m_session = null;
       }
     }
@@ -7,6 +7,7 @@ import java.util.Map;
 import nu.rydin.kom.exceptions.InternalException;
 import nu.rydin.kom.exceptions.UnexpectedException;
 import nu.rydin.kom.frontend.text.ClientSession;
+import nu.rydin.kom.utils.SessionThreads;
 import org.apache.sshd.server.Environment;
 import org.apache.sshd.server.channel.ChannelSession;
 import org.apache.sshd.server.command.Command;
@@ -84,15 +85,15 @@ public class KOMShell implements Command {
             session.setTerminalWidth(width);
             return null;
           });
-      new Thread(
-              () -> {
-                try {
-                  session.run();
-                } finally {
-                  server.revokeTicket(channel.getSession());
-                }
-              })
-          .start();
+      SessionThreads.start(
+          "Session (not logged in)",
+          () -> {
+            try {
+              session.run();
+            } finally {
+              server.revokeTicket(channel.getSession());
+            }
+          });
     } catch (final UnexpectedException | InternalException e) {
       throw new IOException("Error initializing KOM session", e);
     }
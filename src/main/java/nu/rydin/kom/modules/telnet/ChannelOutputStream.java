@@ -0,0 +1,211 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.modules.telnet;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Output to a non-blocking socket channel. Output is buffered until it's flushed and then written
+ * right away, as far as the channel accepts it. Whatever is left is written by the event loop when
+ * the channel becomes writable. A writer has to wait while too much output is queued, so that a
+ * client that stops reading can't make us buffer any amount of output. The event loop itself never
+ * waits.
+ *
+ * @author Pontus Rydin
+ */
+final class ChannelOutputStream extends OutputStream {
+  private static final int BUFFER_SIZE = 8192;
+
+  private static final int MAX_QUEUED = 256 * 1024;
+
+  private final SocketChannel m_channel;
+
+  private final EventLoop m_loop;
+
+  private final ReentrantLock m_lock = new ReentrantLock();
+
+  private final Condition m_drained = m_lock.newCondition();
+
+  private final LinkedList<ByteBuffer> m_queue = new LinkedList<>();
+
+  private ByteBuffer m_buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+  private int m_queued;
+
+  private SelectionKey m_key;
+
+  private boolean m_closed;
+
+  ChannelOutputStream(final SocketChannel channel, final EventLoop loop) {
+    m_channel = channel;
+    m_loop = loop;
+  }
+
+  /**
+   * Sets the key of the channel once it's registered. Until then, whatever couldn't be written
+   * right away stays queued.
+   *
+   * @param key The key
+   */
+  void setKey(final SelectionKey key) {
+    m_lock.lock();
+    try {
+      m_key = key;
+      if (!m_queue.isEmpty()) {
+        this.wantWrite(true);
+      }
+    } finally {
+      m_lock.unlock();
+    }
+  }
+
+  @Override
+  public void write(final int b) throws IOException {
+    m_lock.lock();
+    try {
+      this.ensureOpen();
+      if (!m_buffer.hasRemaining()) {
+        this.send();
+      }
+      m_buffer.put((byte) b);
+    } finally {
+      m_lock.unlock();
+    }
+  }
+
+  @Override
+  public void write(final byte[] b, int off, int len) throws IOException {
+    m_lock.lock();
+    try {
+      this.ensureOpen();
+      while (len > 0) {
+        if (!m_buffer.hasRemaining()) {
+          this.send();
+        }
+        final int n = Math.min(len, m_buffer.remaining());
+        m_buffer.put(b, off, n);
+        off += n;
+        len -= n;
+      }
+    } finally {
+      m_lock.unlock();
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    m_lock.lock();
+    try {
+      this.ensureOpen();
+      this.send();
+    } finally {
+      m_lock.unlock();
+    }
+  }
+
+  @Override
+  public void close() {
+    m_lock.lock();
+    try {
+      m_closed = true;
+      m_queue.clear();
+      m_queued = 0;
+      m_drained.signalAll();
+    } finally {
+      m_lock.unlock();
+    }
+  }
+
+  /** Writes queued output. Called by the event loop when the channel is writable. */
+  void writeQueued() throws IOException {
+    m_lock.lock();
+    try {
+      while (!m_queue.isEmpty()) {
+        final ByteBuffer head = m_queue.getFirst();
+        m_queued -= m_channel.write(head);
+        if (head.hasRemaining()) {
+          break;
+        }
+        m_queue.removeFirst();
+      }
+      if (m_queue.isEmpty()) {
+        this.wantWrite(false);
+      }
+      if (m_queued <= MAX_QUEUED) {
+        m_drained.signalAll();
+      }
+    } finally {
+      m_lock.unlock();
+    }
+  }
+
+  /** Writes or queues the buffer. The lock must be held. */
+  private void send() throws IOException {
+    m_buffer.flip();
+    if (!m_buffer.hasRemaining()) {
+      m_buffer.clear();
+      return;
+    }
+
+    // Try writing it ourselves first. There's no point if something is
+    // queued already, since it has to go first.
+    //
+    if (m_queue.isEmpty()) {
+      m_channel.write(m_buffer);
+      if (!m_buffer.hasRemaining()) {
+        m_buffer.clear();
+        return;
+      }
+    }
+    m_queued += m_buffer.remaining();
+    m_queue.addLast(m_buffer);
+    m_buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    this.wantWrite(true);
+
+    // Too much waiting to be written? Hold the writer back, unless it's the
+    // event loop, which would then never get around to writing it.
+    //
+    if (m_loop.inLoop()) {
+      return;
+    }
+    try {
+      while (m_queued > MAX_QUEUED && !m_closed) {
+        m_drained.await();
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    this.ensureOpen();
+  }
+
+  /** Asks the event loop to tell us when the channel is writable, or to stop. */
+  private void wantWrite(final boolean flag) {
+    if (m_key == null || !m_key.isValid()) {
+      return;
+    }
+    final int ops = m_key.interestOps();
+    m_key.interestOps(flag ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE);
+    if (flag && !m_loop.inLoop()) {
+      m_key.selector().wakeup();
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (m_closed) {
+      throw new IOException("Connection closed");
+    }
+  }
+}
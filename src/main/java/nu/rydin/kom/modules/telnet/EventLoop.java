@@ -0,0 +1,154 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.modules.telnet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A thread waiting for any of its channels to become ready and handing them to their handlers.
+ * Handlers run on the loop thread and must never block.
+ *
+ * @author Pontus Rydin
+ */
+final class EventLoop implements Runnable {
+  private static final Logger LOG = LogManager.getLogger(EventLoop.class);
+
+  private static final int READ_BUFFER_SIZE = 4096;
+
+  private final Selector m_selector;
+
+  private final Thread m_thread;
+
+  private final Queue<Runnable> m_tasks = new ConcurrentLinkedQueue<>();
+
+  /** Shared by all channels, since input is decoded as soon as it's read */
+  private final ByteBuffer m_readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+  private volatile boolean m_stopped;
+
+  EventLoop(final String name) throws IOException {
+    m_selector = Selector.open();
+    m_thread = new Thread(this, name);
+  }
+
+  void start() {
+    m_thread.start();
+  }
+
+  void stop() {
+    m_stopped = true;
+    m_selector.wakeup();
+  }
+
+  void join() throws InterruptedException {
+    m_thread.join();
+  }
+
+  boolean inLoop() {
+    return Thread.currentThread() == m_thread;
+  }
+
+  /**
+   * Runs a task on the loop thread.
+   *
+   * @param task The task
+   */
+  void execute(final Runnable task) {
+    m_tasks.add(task);
+    m_selector.wakeup();
+  }
+
+  /**
+   * Registers a channel. Must be called on the loop thread.
+   *
+   * @param channel The channel, which must be non-blocking
+   * @param ops The operations to wait for
+   * @param handler The handler to call when the channel is ready
+   */
+  SelectionKey register(final SelectableChannel channel, final int ops, final Handler handler)
+      throws ClosedChannelException {
+    return channel.register(m_selector, ops, handler);
+  }
+
+  /** Returns an empty buffer for reading. Must be called on the loop thread. */
+  ByteBuffer getReadBuffer() {
+    m_readBuffer.clear();
+    return m_readBuffer;
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (!m_stopped) {
+        m_selector.select();
+        Runnable task;
+        while ((task = m_tasks.poll()) != null) {
+          task.run();
+        }
+        for (final Iterator<SelectionKey> itor = m_selector.selectedKeys().iterator();
+            itor.hasNext(); ) {
+          final SelectionKey key = itor.next();
+          itor.remove();
+          final Handler handler = (Handler) key.attachment();
+          try {
+            if (key.isValid()) {
+              handler.ready(key);
+            }
+          } catch (final IOException e) {
+            handler.failed(e);
+          } catch (final RuntimeException e) {
+            LOG.error("Unhandled exception in event loop", e);
+            handler.failed(new IOException(e));
+          }
+        }
+      }
+    } catch (final IOException | ClosedSelectorException e) {
+      LOG.fatal("Event loop failed", e);
+    } finally {
+      // Close everything that's left, so that no sessions are left waiting for
+      // input that will never arrive.
+      //
+      for (final SelectionKey key : m_selector.keys()) {
+        ((Handler) key.attachment()).failed(null);
+      }
+      try {
+        m_selector.close();
+      } catch (final IOException e) {
+        LOG.error("Exception while closing selector", e);
+      }
+    }
+  }
+
+  /** Handles the events of a channel */
+  interface Handler {
+    /**
+     * Called when the channel is ready for any of the operations it's registered for.
+     *
+     * @param key The key of the channel
+     */
+    void ready(SelectionKey key) throws IOException;
+
+    /**
+     * Called when the channel failed or the loop is going down. The handler should close the
+     * channel.
+     *
+     * @param e The exception, or <code>null</code> if the loop is going down
+     */
+    void failed(IOException e);
+  }
+}
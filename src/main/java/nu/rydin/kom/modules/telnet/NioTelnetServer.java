@@ -0,0 +1,171 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.modules.telnet;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import nu.rydin.kom.backend.ServerSessionFactory;
+import nu.rydin.kom.backend.ServerSessionFactoryImpl;
+import nu.rydin.kom.modules.Module;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A telnet server built on non-blocking I/O. A few event loops serve all connections, reading
+ * input as it arrives and handing it to the sessions, so an idle connection doesn't need a thread
+ * waiting for its input. Takes the same parameters as the blocking telnet server, plus the number
+ * of event loops in <code>loops</code>, which defaults to the number of processors.
+ *
+ * @author Pontus Rydin
+ */
+public class NioTelnetServer implements Module {
+  private static final Logger LOG = LogManager.getLogger(NioTelnetServer.class);
+
+  private ServerSocketChannel m_channel;
+
+  private EventLoop[] m_loops;
+
+  private int m_nextLoop;
+
+  private boolean m_useTicket;
+
+  private boolean m_selfRegister;
+
+  private Map<String, String> m_parameters;
+
+  @Override
+  public void start(final Map<String, String> parameters) throws IOException {
+    m_parameters = parameters;
+    final int port = Integer.parseInt(parameters.get("port"));
+    m_useTicket = "ticket".equals(parameters.get("authentication"));
+    m_selfRegister = "true".equals(parameters.get("selfRegister"));
+    final String loops = parameters.get("loops");
+    final int loopCount =
+        loops != null ? Integer.parseInt(loops) : Runtime.getRuntime().availableProcessors();
+
+    try {
+      m_channel = ServerSocketChannel.open();
+      m_channel.setOption(StandardSocketOptions.SO_RCVBUF, 65536);
+      m_channel.bind(new InetSocketAddress(port));
+      m_channel.configureBlocking(false);
+    } catch (final IOException e) {
+      // We can't even listen on the socket. Most likely, someone
+      // else is already listening to that port. In any case, we're
+      // out of here!
+      //
+      LOG.fatal(e);
+      return;
+    }
+
+    // Start the event loops. The first one accepts connections too.
+    //
+    m_loops = new EventLoop[loopCount];
+    for (int idx = 0; idx < loopCount; ++idx) {
+      m_loops[idx] = new EventLoop("Telnet event loop " + idx);
+      m_loops[idx].start();
+    }
+    m_loops[0].execute(this::listen);
+    LOG.info(
+        "OpenKOM NIO telnet server is accepting connections at port "
+            + port
+            + " using "
+            + loopCount
+            + " event loops");
+  }
+
+  @Override
+  public void stop() {
+    if (m_loops == null) {
+      return;
+    }
+    try {
+      m_channel.close();
+    } catch (final IOException e) {
+      LOG.error("Exception while shutting down", e);
+    }
+    for (final EventLoop loop : m_loops) {
+      loop.stop();
+    }
+  }
+
+  @Override
+  public void join() throws InterruptedException {
+    if (m_loops != null) {
+      for (final EventLoop loop : m_loops) {
+        loop.join();
+      }
+    }
+  }
+
+  private void listen() {
+    try {
+      m_loops[0].register(m_channel, SelectionKey.OP_ACCEPT, new Acceptor());
+    } catch (final IOException e) {
+      LOG.fatal("Could not listen for connections", e);
+    }
+  }
+
+  /** Accepts incoming connections and spreads them over the event loops */
+  private class Acceptor implements EventLoop.Handler {
+    private final ServerSessionFactory m_ssf = ServerSessionFactoryImpl.getInstance();
+
+    @Override
+    public void ready(final SelectionKey key) throws IOException {
+      SocketChannel incoming;
+      while ((incoming = m_channel.accept()) != null) {
+        try {
+          this.accept(incoming);
+        } catch (final IOException e) {
+          // Couldn't set up connection. Kill it!
+          //
+          LOG.error("Error setting up connection", e);
+          incoming.close();
+        }
+      }
+    }
+
+    @Override
+    public void failed(final IOException e) {
+      if (e != null) {
+        // Error accepting. Not good, but keep trying.
+        //
+        LOG.error("Error accepting connection", e);
+        return;
+      }
+      try {
+        m_channel.close();
+      } catch (final IOException e1) {
+        LOG.error("Exception while shutting down", e1);
+      }
+    }
+
+    private void accept(final SocketChannel incoming) throws IOException {
+      final String clientName =
+          ((InetSocketAddress) incoming.getRemoteAddress()).getAddress().getHostAddress();
+
+      // Check if connection is blacklisted
+      //
+      if (m_ssf.isBlacklisted(clientName)) {
+        LOG.info("Rejecting blacklisted client: " + clientName);
+        incoming.close();
+        return;
+      }
+      LOG.info("Incoming connection from " + clientName);
+      incoming.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+      incoming.configureBlocking(false);
+      final EventLoop loop = m_loops[m_nextLoop];
+      m_nextLoop = (m_nextLoop + 1) % m_loops.length;
+      new TelnetConnection(incoming, loop, clientName)
+          .start(m_useTicket, m_selfRegister, m_parameters);
+    }
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.modules.telnet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import nu.rydin.kom.frontend.text.ClientSession;
+import nu.rydin.kom.frontend.text.LineEditor;
+import nu.rydin.kom.frontend.text.TelnetProtocol;
+import nu.rydin.kom.utils.SessionThreads;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A telnet connection served by an event loop. Input is decoded on the loop thread as soon as it
+ * arrives and handed to the line editor as keystroke events, so no thread has to wait for it.
+ *
+ * @author Pontus Rydin
+ */
+final class TelnetConnection implements EventLoop.Handler {
+  private static final Logger LOG = LogManager.getLogger(TelnetConnection.class);
+
+  /** Large enough to hold the bytes of a partially received character */
+  private static final int DATA_BUFFER_SIZE = 256;
+
+  private final SocketChannel m_channel;
+
+  private final EventLoop m_loop;
+
+  private final String m_clientName;
+
+  private final ChannelOutputStream m_out;
+
+  private final TelnetProtocol m_protocol;
+
+  private final ByteBuffer m_data = ByteBuffer.allocate(DATA_BUFFER_SIZE);
+
+  private LineEditor m_in;
+
+  private SelectionKey m_key;
+
+  TelnetConnection(final SocketChannel channel, final EventLoop loop, final String clientName) {
+    m_channel = channel;
+    m_loop = loop;
+    m_clientName = clientName;
+    m_out = new ChannelOutputStream(channel, loop);
+    m_protocol = new TelnetProtocol(m_out);
+  }
+
+  /**
+   * Creates the session and runs it on a session thread.
+   *
+   * @param useTicket Whether to log in using tickets
+   * @param selfRegister Whether users are allowed to register themselves
+   * @param parameters The module parameters
+   */
+  void start(
+      final boolean useTicket, final boolean selfRegister, final Map<String, String> parameters) {
+    SessionThreads.start(
+        "Session (not logged in)", () -> this.run(useTicket, selfRegister, parameters));
+  }
+
+  private void run(
+      final boolean useTicket, final boolean selfRegister, final Map<String, String> parameters) {
+    ClientSession client = null;
+    try {
+      m_protocol.negotiate();
+      client = new ClientSession(m_out, useTicket, selfRegister, m_clientName, parameters);
+      m_protocol.addSizeListener(client);
+      m_protocol.addEnvironmentListener(client);
+
+      // Start reading once the session is there to receive the input
+      //
+      final LineEditor in = client.getIn();
+      m_loop.execute(() -> this.register(in));
+      try {
+        client.run();
+      } finally {
+        client.shutdown();
+      }
+      LOG.info("Disconnected from " + m_clientName);
+    } catch (final Exception e) {
+      // Couldn't create session. Kill connection!
+      //
+      if (client == null) {
+        LOG.error("Could not create session for " + m_clientName, e);
+      } else {
+        LOG.error("Session for " + m_clientName + " failed", e);
+      }
+    } finally {
+      m_loop.execute(this::close);
+    }
+  }
+
+  @Override
+  public void ready(final SelectionKey key) throws IOException {
+    if (key.isWritable()) {
+      m_out.writeQueued();
+    }
+    if (key.isValid() && key.isReadable()) {
+      this.read();
+    }
+  }
+
+  @Override
+  public void failed(final IOException e) {
+    if (e != null) {
+      LOG.info("Connection to " + m_clientName + " failed", e);
+    }
+    if (m_in != null) {
+      if (e != null) {
+        m_in.inputFailed(e);
+      } else {
+        m_in.endOfInput();
+      }
+    }
+    this.close();
+  }
+
+  private void register(final LineEditor in) {
+    m_in = in;
+    try {
+      m_key = m_loop.register(m_channel, SelectionKey.OP_READ, this);
+      m_out.setKey(m_key);
+    } catch (final IOException e) {
+      this.failed(e);
+    }
+  }
+
+  private void read() throws IOException {
+    final ByteBuffer input = m_loop.getReadBuffer();
+    if (m_channel.read(input) == -1) {
+      // EOF. Tell the session, but leave the channel open until it has
+      // wound down, since it may still have output to write.
+      //
+      m_key.interestOps(m_key.interestOps() & ~SelectionKey.OP_READ);
+      m_in.endOfInput();
+      return;
+    }
+    input.flip();
+    while (input.hasRemaining()) {
+      m_protocol.decode(input, m_data);
+      m_data.flip();
+      m_in.receive(m_data);
+      m_data.compact();
+    }
+  }
+
+  private void close() {
+    if (m_key != null) {
+      m_key.cancel();
+    }
+    m_out.close();
+    try {
+      m_channel.close();
+    } catch (final IOException e) {
+      // IO error here? Tough luck...
+      //
+      LOG.error("Exception while closing connection", e);
+    }
+  }
+}
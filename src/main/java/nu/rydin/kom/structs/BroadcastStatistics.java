@@ -0,0 +1,101 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.structs;
+
+import java.io.Serializable;
+
+/**
+ * Statistics of the delivery of events to sessions through their mailboxes.
+ *
+ * @author Pontus Rydin
+ */
+public class BroadcastStatistics implements Serializable {
+  static final long serialVersionUID = 2005;
+
+  private final long numDelivered;
+
+  private final long numCoalesced;
+
+  private final long numResyncs;
+
+  private final long numOverflowed;
+
+  private final long numDropped;
+
+  private final int queueDepth;
+
+  private final int maxQueueDepth;
+
+  private final long totalLatency;
+
+  private final long maxLatency;
+
+  public BroadcastStatistics(
+      long numDelivered,
+      long numCoalesced,
+      long numResyncs,
+      long numOverflowed,
+      long numDropped,
+      int queueDepth,
+      int maxQueueDepth,
+      long totalLatency,
+      long maxLatency) {
+    this.numDelivered = numDelivered;
+    this.numCoalesced = numCoalesced;
+    this.numResyncs = numResyncs;
+    this.numOverflowed = numOverflowed;
+    this.numDropped = numDropped;
+    this.queueDepth = queueDepth;
+    this.maxQueueDepth = maxQueueDepth;
+    this.totalLatency = totalLatency;
+    this.maxLatency = maxLatency;
+  }
+
+  public long getNumDelivered() {
+    return numDelivered;
+  }
+
+  /** Returns the number of events that were combined with an event already in a full mailbox. */
+  public long getNumCoalesced() {
+    return numCoalesced;
+  }
+
+  /** Returns the number of times a session was asked to resync because its mailbox was full. */
+  public long getNumResyncs() {
+    return numResyncs;
+  }
+
+  /** Returns the number of events that had to be queued although their mailbox was full. */
+  public long getNumOverflowed() {
+    return numOverflowed;
+  }
+
+  /** Returns the number of events that were dropped because their mailbox was over its limit. */
+  public long getNumDropped() {
+    return numDropped;
+  }
+
+  /** Returns the number of events currently waiting in all mailboxes. */
+  public int getQueueDepth() {
+    return queueDepth;
+  }
+
+  /** Returns the number of events waiting in the fullest mailbox. */
+  public int getMaxQueueDepth() {
+    return maxQueueDepth;
+  }
+
+  /** Returns the average time from posting to delivery, in milliseconds. */
+  public long getAverageLatency() {
+    return numDelivered > 0 ? totalLatency / numDelivered : 0;
+  }
+
+  /** Returns the longest time from posting to delivery, in milliseconds. */
+  public long getMaxLatency() {
+    return maxLatency;
+  }
+}
@@ -83,4 +83,29 @@ public class ConferenceInfo extends NamedObject {
   public Timestamp getLasttext() {
     return m_lasttext;
   }
+
+  /**
+   * Returns a copy of this conference with a different message range.
+   *
+   * @param firstMessage The first message number
+   * @param lastMessage The last message number
+   * @param lasttext The time of the last text
+   */
+  public ConferenceInfo withMessageRange(
+      final int firstMessage, final int lastMessage, final Timestamp lasttext) {
+    return new ConferenceInfo(
+        getId(),
+        getName(),
+        getKeywords(),
+        getEmailAlias(),
+        m_administrator,
+        m_permissions,
+        m_nonmemberPermissions,
+        m_visibility,
+        m_replyConf,
+        m_created,
+        lasttext,
+        firstMessage,
+        lastMessage);
+  }
 }
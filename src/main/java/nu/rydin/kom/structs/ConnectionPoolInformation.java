@@ -0,0 +1,101 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.structs;
+
+import java.io.Serializable;
+
+/** @author Pontus Rydin */
+public class ConnectionPoolInformation implements Serializable {
+  static final long serialVersionUID = 2005;
+
+  private final int maxSize;
+
+  private final int numActive;
+
+  private final int numIdle;
+
+  private final long numCreated;
+
+  private final long numCheckouts;
+
+  private final long totalWaitTime;
+
+  private final long numTimeouts;
+
+  private final long numLeaks;
+
+  private final long numStatements;
+
+  private final long numPreparedStatements;
+
+  public ConnectionPoolInformation(
+      int maxSize,
+      int numActive,
+      int numIdle,
+      long numCreated,
+      long numCheckouts,
+      long totalWaitTime,
+      long numTimeouts,
+      long numLeaks,
+      long numStatements,
+      long numPreparedStatements) {
+    this.maxSize = maxSize;
+    this.numActive = numActive;
+    this.numIdle = numIdle;
+    this.numCreated = numCreated;
+    this.numCheckouts = numCheckouts;
+    this.totalWaitTime = totalWaitTime;
+    this.numTimeouts = numTimeouts;
+    this.numLeaks = numLeaks;
+    this.numStatements = numStatements;
+    this.numPreparedStatements = numPreparedStatements;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public int getNumActive() {
+    return numActive;
+  }
+
+  public int getNumIdle() {
+    return numIdle;
+  }
+
+  public long getNumCreated() {
+    return numCreated;
+  }
+
+  public long getNumCheckouts() {
+    return numCheckouts;
+  }
+
+  public long getTotalWaitTime() {
+    return totalWaitTime;
+  }
+
+  public long getAverageWaitTime() {
+    return numCheckouts != 0 ? totalWaitTime / numCheckouts : 0;
+  }
+
+  public long getNumTimeouts() {
+    return numTimeouts;
+  }
+
+  public long getNumLeaks() {
+    return numLeaks;
+  }
+
+  public long getNumStatements() {
+    return numStatements;
+  }
+
+  public long getNumPreparedStatements() {
+    return numPreparedStatements;
+  }
+}
@@ -7,7 +7,6 @@
 package nu.rydin.kom.structs;
 
 import java.io.Serializable;
-import java.util.StringTokenizer;
 
 /** @author Pontus Rydin */
 public class MembershipInfo implements Serializable {
@@ -109,43 +108,24 @@ public class MembershipInfo implements Serializable {
   }
 
   public static MessageRangeList decodeMessageRanges(String messageRanges) {
-    if (messageRanges == null) return null;
-    MessageRangeList list = null;
-    StringTokenizer st = new StringTokenizer(messageRanges, ",");
-    while (st.hasMoreElements()) {
-      String s = st.nextToken();
-      int p = s.indexOf('-');
-      if (p == -1) throw new RuntimeException("Syntax error in range: " + s);
-      MessageRangeList each =
-          new MessageRangeList(
-              new MessageRange(
-                  Integer.parseInt(s.substring(0, p)), Integer.parseInt(s.substring(p + 1))));
-      if (list != null) each.succeed(list);
-      list = each;
-    }
-
-    // The list is circular, so returning "next" here gives us the fist
-    //
-    return (MessageRangeList) list.next();
+    if (messageRanges == null || messageRanges.isEmpty()) return null;
+    return MessageRangeList.decode(messageRanges);
   }
 
   public static String encodeMessageRanges(MessageRangeList ranges) {
-    if (ranges == null) return null;
-    StringBuffer sb = new StringBuffer();
-    MessageRangeList each = ranges;
-    for (; ; ) {
-      MessageRange r = each.getRange();
-      sb.append(r.getMin());
-      sb.append('-');
-      sb.append(r.getMax());
-
-      // Getting back to the start here means that we
-      // have traversed the entire circular list.
-      //
-      each = (MessageRangeList) each.next();
-      if (each != ranges) sb.append(',');
-      else break;
-    }
-    return sb.toString();
+    // An empty list is stored the same way as no list at all
+    //
+    if (ranges == null || ranges.isEmpty()) return null;
+    return ranges.encode();
+  }
+
+  /**
+   * Returns the binary form of a list of ranges, or <code>null</code> if the list is empty.
+   *
+   * @see MessageRangeList#toByteArray()
+   */
+  public static byte[] encodeMessageRangesBinary(MessageRangeList ranges) {
+    if (ranges == null || ranges.isEmpty()) return null;
+    return ranges.toByteArray();
   }
 }
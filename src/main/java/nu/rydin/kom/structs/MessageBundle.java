@@ -0,0 +1,74 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.structs;
+
+import java.io.Serializable;
+
+/**
+ * Everything needed to display a message: the message itself with its occurrences, its
+ * attributes, the message it replies to and the replies to it. The related messages come with
+ * their occurrences, so that the most relevant one can be picked without going back to the
+ * database.
+ *
+ * @author Pontus Rydin
+ */
+public class MessageBundle implements Serializable {
+  static final long serialVersionUID = 2005;
+
+  private final Message m_message;
+
+  private final MessageAttribute[] m_attributes;
+
+  private final MessageHeader m_replyTo;
+
+  private final MessageOccurrence[] m_replyToOccurrences;
+
+  private final MessageHeader[] m_replies;
+
+  private final MessageOccurrence[][] m_replyOccurrences;
+
+  public MessageBundle(
+      Message message,
+      MessageAttribute[] attributes,
+      MessageHeader replyTo,
+      MessageOccurrence[] replyToOccurrences,
+      MessageHeader[] replies,
+      MessageOccurrence[][] replyOccurrences) {
+    m_message = message;
+    m_attributes = attributes;
+    m_replyTo = replyTo;
+    m_replyToOccurrences = replyToOccurrences;
+    m_replies = replies;
+    m_replyOccurrences = replyOccurrences;
+  }
+
+  public Message getMessage() {
+    return m_message;
+  }
+
+  public MessageAttribute[] getAttributes() {
+    return m_attributes;
+  }
+
+  /** Returns the header of the message this is a reply to, or <code>null</code> */
+  public MessageHeader getReplyTo() {
+    return m_replyTo;
+  }
+
+  public MessageOccurrence[] getReplyToOccurrences() {
+    return m_replyToOccurrences;
+  }
+
+  public MessageHeader[] getReplies() {
+    return m_replies;
+  }
+
+  /** Returns the occurrences of each reply, in the same order as the replies */
+  public MessageOccurrence[][] getReplyOccurrences() {
+    return m_replyOccurrences;
+  }
+}
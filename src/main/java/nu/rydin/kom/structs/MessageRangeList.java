@@ -6,172 +6,379 @@
  */
 package nu.rydin.kom.structs;
 
-import com.frameworx.util.ListAtom;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
-/** @author Pontus Rydin */
-public class MessageRangeList extends ListAtom implements Serializable {
-  static final long serialVersionUID = 2005;
+/**
+ * A set of message numbers, stored as a sorted list of disjoint, non-adjacent ranges. The ranges
+ * are kept in a single <code>int</code> array of alternating lower and upper bounds, so lookups are
+ * binary searches and updates are done in place. Unlike <code>MessageRange</code>, this class is
+ * mutable. Methods that modify the list return the list itself.
+ *
+ * @author Pontus Rydin
+ */
+public class MessageRangeList implements Serializable {
+  static final long serialVersionUID = 2006;
+
+  private static final int INITIAL_CAPACITY = 4;
+
+  /** Version of the binary form produced by <code>toByteArray</code> */
+  private static final byte FORMAT_VERSION = 1;
+
+  /** Lower and upper bounds, two per range. Only the first <code>2 * m_size</code> are used. */
+  private transient int[] m_bounds;
 
-  private MessageRange m_range;
+  /** Number of ranges */
+  private transient int m_size;
+
+  public MessageRangeList() {
+    m_bounds = new int[INITIAL_CAPACITY * 2];
+  }
+
+  public MessageRangeList(int min, int max) {
+    this();
+    m_bounds[0] = min;
+    m_bounds[1] = max;
+    m_size = 1;
+  }
 
   public MessageRangeList(MessageRange range) {
-    super();
-    m_range = range;
+    this(range.getMin(), range.getMax());
   }
 
-  public MessageRangeList(MessageRange range1, MessageRange range2) {
-    super();
-    m_range = range1;
-    new MessageRangeList(range2).succeed(this);
+  /** Returns the number of ranges in the list */
+  public int size() {
+    return m_size;
   }
 
-  public MessageRange getRange() {
-    return m_range;
+  public boolean isEmpty() {
+    return m_size == 0;
   }
 
-  public MessageRangeList add(int message) {
-    // Prerequisite: "ranges" is sorted, no overlaps
-    //
-    boolean first = true;
-    MessageRangeList each = this;
-    do {
-      MessageRange r = each.getRange();
+  /** Returns the lower bound of the range at the given position */
+  public int getMin(int idx) {
+    return m_bounds[idx * 2];
+  }
 
-      // Already in a range? No need to do anything.
-      //
-      if (r.includes(message)) return this;
+  /** Returns the upper bound of the range at the given position */
+  public int getMax(int idx) {
+    return m_bounds[idx * 2 + 1];
+  }
 
-      int min = r.getMin();
-      int max = r.getMax();
+  public MessageRange getRange(int idx) {
+    return new MessageRange(getMin(idx), getMax(idx));
+  }
 
-      // Immediately before or after a range? Extend the range!
-      //
-      if (message == min - 1) {
-        each.m_range = new MessageRange(message, r.getMax());
-        return this;
-      }
-      if (message == max + 1) {
-        // Do we become adjecent to our successor? Merge!
-        //
-        MessageRangeList nl = (MessageRangeList) each.next();
-        MessageRange nr = nl.getRange();
-        if (nl != this && nr.getMin() - 1 == message) {
-          // Merge ranges!
-          //
-          each.m_range = new MessageRange(min, nr.getMax());
-          nl.yank();
-        } else each.m_range = new MessageRange(r.getMin(), message);
-        return this;
-      }
-
-      // Between this and the previous range? Vojne (as we say in Sweden)!
-      // We have to insert a new range (containing just this message)
-      //
-      if (message < min) {
-        // We're lower than the current range and we have not yet been
-        // included in a range. That means we have to create our own
-        // independently ruled banana-republic of a range.
-        //
-        MessageRangeList here =
-            (MessageRangeList)
-                new MessageRangeList(new MessageRange(message, message)).precede(each);
-        return first ? here : this;
-      }
-      first = false;
-      each = (MessageRangeList) each.next();
-    } while (each != this);
-
-    // Getting here can only mean one thing: We we not extending or overlapping
-    // any ranges and we did not fit between two ranges. So what happened then?
-    // *drumroll* We should form our own message range after the last one!
-    //
-    // Since we've traversed the whole list, "each" now points at the first
-    // element. Since the list is circular, prepending an element to the first
-    // one is the same as appending it to the last one.
-    //
-    new MessageRangeList(new MessageRange(message, message)).precede(each);
-    return this;
+  public MessageRangeList add(int message) {
+    return this.add(message, message);
   }
 
-  public int getFirstUnread(int min, int max) {
-    // The first message is below the first chunk of unread messages?
-    // Then that's the first unread!
+  public MessageRangeList add(int min, int max) {
+    // Ranges overlapping or adjacent to the new one are merged with it
     //
-    if (min < m_range.getMin()) return min;
-    return m_range.getMax() < max ? m_range.getMax() + 1 : -1;
+    int first = this.ceiling(min - 1);
+    int last = this.higher(max + 1);
+    if (first < last) {
+      min = Math.min(min, getMin(first));
+      max = Math.max(max, getMax(last - 1));
+    }
+    this.splice(first, last, 1);
+    this.set(first, min, max);
+    return this;
   }
 
   public MessageRangeList subtract(int num) {
-    MessageRangeList r = this.getRangeAtom(num);
+    return this.subtract(num, num);
+  }
 
-    // No range including the number? No need to
-    // subtract it then!
-    //
-    if (r == null) return this;
+  public MessageRangeList subtract(int min, int max) {
+    int first = this.ceiling(min);
+    int last = this.higher(max);
 
-    // Subtract
+    // No range overlapping? No need to subtract anything then!
     //
-    MessageRangeList l = r.getRange().subtract(num);
-    if (l != null) {
-      // Splice into list
-      //
-      ListAtom l1 = l.next();
-      l.yank();
-      l.succeed(r);
-      if (l1 != l) {
-        l1.yank();
-        l1.succeed(l);
-      }
-    } else l = (MessageRangeList) r.next();
-
-    // Yank old range
-    //
-    r.yank();
+    if (first >= last) return this;
 
-    // Did we just yank the root? Then "l" becomes
-    // the new root!
+    // The overlapping ranges are replaced by whatever sticks out
+    // below and above the subtracted range.
     //
-    return r == this ? l : this;
+    int low = getMin(first);
+    int high = getMax(last - 1);
+    this.splice(first, last, (low < min ? 1 : 0) + (high > max ? 1 : 0));
+    if (low < min) this.set(first++, low, min - 1);
+    if (high > max) this.set(first, max + 1, high);
+    return this;
   }
 
   public boolean includes(int num) {
-    return this.getRangeAtom(num) != null;
+    int idx = this.ceiling(num);
+    return idx < m_size && getMin(idx) <= num;
+  }
+
+  public int getFirstUnread(int min, int max) {
+    // If the first message is read, the first unread is the one
+    // right after the range it's in.
+    //
+    int idx = this.ceiling(min);
+    int candidate = idx < m_size && getMin(idx) <= min ? getMax(idx) + 1 : min;
+    return candidate <= max ? candidate : -1;
+  }
+
+  /**
+   * Returns the number of message numbers in the list that fall within the given range
+   *
+   * @param min The lower bound
+   * @param max The upper bound
+   */
+  public int countIncluded(int min, int max) {
+    int n = 0;
+    int top = this.higher(max);
+    for (int idx = this.ceiling(min); idx < top; ++idx)
+      n += Math.min(max, getMax(idx)) - Math.max(min, getMin(idx)) + 1;
+    return n;
   }
 
+  /** Drops everything outside the given range from the list. */
   public MessageRangeList intersect(MessageRange r) {
-    MessageRangeList answer = null;
-    MessageRangeList each = this;
-    do {
-      MessageRange mr = each.getRange().intersect(r);
-      if (mr != null) {
-        MessageRangeList mrl = new MessageRangeList(mr);
-        if (answer == null) answer = mrl;
-        else mrl.precede(answer);
-      }
-      each = (MessageRangeList) each.next();
-    } while (each != this);
-    return answer != null ? answer : new MessageRangeList(new MessageRange(0, 0));
+    int min = r.getMin();
+    int max = r.getMax();
+    this.splice(this.higher(max), m_size, 0);
+    this.splice(0, this.ceiling(min), 0);
+    if (m_size > 0) {
+      m_bounds[0] = Math.max(min, m_bounds[0]);
+      m_bounds[m_size * 2 - 1] = Math.min(max, m_bounds[m_size * 2 - 1]);
+    }
+    return this;
   }
 
   public boolean containedIn(MessageRange r) {
-    return r.getMin() <= this.getRange().getMin() && r.getMax() >= this.getRange().getMax();
+    return m_size == 0 || (r.getMin() <= getMin(0) && r.getMax() >= getMax(m_size - 1));
   }
 
-  private MessageRangeList getRangeAtom(int num) {
-    MessageRangeList each = this;
-    do {
-      MessageRange r = each.getRange();
+  /**
+   * Returns the list in its textual form, i.e. comma separated ranges like <code>1-10,12-12</code>
+   */
+  public String encode() {
+    StringBuilder sb = new StringBuilder(m_size * 12);
+    for (int idx = 0; idx < m_size; ++idx) {
+      if (idx > 0) sb.append(',');
+      sb.append(getMin(idx)).append('-').append(getMax(idx));
+    }
+    return sb.toString();
+  }
 
-      // Any point in looking any further?
+  /**
+   * Parses the textual form of a list.
+   *
+   * @param messageRanges The encoded list
+   * @see #encode()
+   */
+  public static MessageRangeList decode(String messageRanges) {
+    MessageRangeList list = new MessageRangeList();
+    int top = messageRanges.length();
+    int pos = 0;
+    while (pos < top) {
+      int dash = messageRanges.indexOf('-', pos);
+      int end = messageRanges.indexOf(',', pos);
+      if (end == -1) end = top;
+      if (dash == -1 || dash > end)
+        throw new RuntimeException("Syntax error in range: " + messageRanges.substring(pos, end));
+      int min = Integer.parseInt(messageRanges, pos, dash, 10);
+      int max = Integer.parseInt(messageRanges, dash + 1, end, 10);
+
+      // They're normally stored in order, so we can just append them
       //
-      if (r.getMin() > num) return null;
-      if (r.includes(num)) return each;
-      each = (MessageRangeList) each.next();
-    } while (each != this);
+      if (list.m_size == 0 || min > list.getMax(list.m_size - 1) + 1) {
+        list.splice(list.m_size, list.m_size, 1);
+        list.set(list.m_size - 1, min, max);
+      } else list.add(min, max);
+      pos = end + 1;
+    }
+    return list;
+  }
+
+  /**
+   * Checks whether an encoded list includes a message number without decoding the whole list.
+   *
+   * @param messageRanges The encoded list
+   * @param num The message number
+   * @see #encode()
+   */
+  public static boolean includes(String messageRanges, int num) {
+    int top = messageRanges.length();
+    int pos = 0;
+    while (pos < top) {
+      int dash = messageRanges.indexOf('-', pos);
+      int end = messageRanges.indexOf(',', pos);
+      if (end == -1) end = top;
+      if (dash == -1 || dash > end)
+        throw new RuntimeException("Syntax error in range: " + messageRanges.substring(pos, end));
+      if (num >= Integer.parseInt(messageRanges, pos, dash, 10)
+          && num <= Integer.parseInt(messageRanges, dash + 1, end, 10)) return true;
+      pos = end + 1;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the list in its binary form. It starts with a version byte, followed by the number of
+   * ranges. Each range is then stored as its distance from the end of the previous one and its
+   * length, both as varints. Since most ranges are short and close together, most of them take up
+   * two bytes.
+   */
+  public byte[] toByteArray() {
+    byte[] buffer = new byte[1 + 5 + m_size * 10];
+    buffer[0] = FORMAT_VERSION;
+    int pos = writeVarint(buffer, 1, m_size);
+    int previous = 0;
+    for (int idx = 0; idx < m_size; ++idx) {
+      int min = getMin(idx);
+      int max = getMax(idx);
+      pos = writeVarint(buffer, pos, min - previous);
+      pos = writeVarint(buffer, pos, max - min);
+      previous = max;
+    }
+    byte[] answer = new byte[pos];
+    System.arraycopy(buffer, 0, answer, 0, pos);
+    return answer;
+  }
+
+  /**
+   * Decodes the binary form of a list straight into a new list.
+   *
+   * @param data The encoded list
+   * @see #toByteArray()
+   */
+  public static MessageRangeList fromByteArray(byte[] data) {
+    checkVersion(data);
+    int[] cursor = {1};
+    int size = readVarint(data, cursor);
+    MessageRangeList list = new MessageRangeList();
+    list.m_bounds = new int[Math.max(size, INITIAL_CAPACITY) * 2];
+    list.m_size = size;
+    int previous = 0;
+    for (int idx = 0; idx < size * 2; idx += 2) {
+      int min = previous + readVarint(data, cursor);
+      previous = min + readVarint(data, cursor);
+      list.m_bounds[idx] = min;
+      list.m_bounds[idx + 1] = previous;
+    }
+    return list;
+  }
+
+  /**
+   * Checks whether a list in its binary form includes a message number without decoding the whole
+   * list.
+   *
+   * @param data The encoded list
+   * @param num The message number
+   * @see #toByteArray()
+   */
+  public static boolean includes(byte[] data, int num) {
+    checkVersion(data);
+    int[] cursor = {1};
+    int size = readVarint(data, cursor);
+    int previous = 0;
+    for (int idx = 0; idx < size; ++idx) {
+      int min = previous + readVarint(data, cursor);
+      if (min > num) return false;
+      previous = min + readVarint(data, cursor);
+      if (previous >= num) return true;
+    }
+    return false;
+  }
+
+  public String toString() {
+    return this.encode();
+  }
 
-    // Nothing found
+  /** Returns the index of the first range ending at or after the given number */
+  private int ceiling(int num) {
+    int low = 0;
+    int high = m_size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (getMax(mid) < num) low = mid + 1;
+      else high = mid;
+    }
+    return low;
+  }
+
+  /** Returns the index of the first range starting after the given number */
+  private int higher(int num) {
+    int low = 0;
+    int high = m_size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (getMin(mid) <= num) low = mid + 1;
+      else high = mid;
+    }
+    return low;
+  }
+
+  private void set(int idx, int min, int max) {
+    m_bounds[idx * 2] = min;
+    m_bounds[idx * 2 + 1] = max;
+  }
+
+  /**
+   * Replaces the ranges from <code>from</code> (inclusive) to <code>to</code> (exclusive) with
+   * <code>count</code> slots for the caller to fill in.
+   */
+  private void splice(int from, int to, int count) {
+    int newSize = m_size - (to - from) + count;
+    if (newSize * 2 > m_bounds.length) {
+      int[] bounds = new int[Math.max(newSize, m_size + (m_size >> 1)) * 2];
+      System.arraycopy(m_bounds, 0, bounds, 0, from * 2);
+      System.arraycopy(m_bounds, to * 2, bounds, (from + count) * 2, (m_size - to) * 2);
+      m_bounds = bounds;
+    } else if (to != from + count)
+      System.arraycopy(m_bounds, to * 2, m_bounds, (from + count) * 2, (m_size - to) * 2);
+    m_size = newSize;
+  }
+
+  private static void checkVersion(byte[] data) {
+    if (data.length == 0 || data[0] != FORMAT_VERSION)
+      throw new RuntimeException(
+          "Unknown message range format: " + (data.length == 0 ? "<empty>" : data[0]));
+  }
+
+  private static int writeVarint(byte[] buffer, int pos, int value) {
+    while ((value & ~0x7f) != 0) {
+      buffer[pos++] = (byte) ((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    buffer[pos++] = (byte) value;
+    return pos;
+  }
+
+  /** Reads a varint at <code>cursor[0]</code> and moves the cursor past it */
+  private static int readVarint(byte[] data, int[] cursor) {
+    int pos = cursor[0];
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = data[pos++];
+      value |= (b & 0x7f) << shift;
+      shift += 7;
+    } while (b < 0);
+    cursor[0] = pos;
+    return value;
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    // Only write the bounds actually in use
     //
-    return null;
+    out.writeInt(m_size);
+    for (int idx = 0; idx < m_size * 2; ++idx) out.writeInt(m_bounds[idx]);
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException {
+    m_size = in.readInt();
+    m_bounds = new int[Math.max(m_size, INITIAL_CAPACITY) * 2];
+    for (int idx = 0; idx < m_size * 2; ++idx) m_bounds[idx] = in.readInt();
   }
 }
@@ -0,0 +1,222 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.structs;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The reply structure of a thread, along with the occurrences of every message in it. Messages
+ * are kept in arrays sorted by id, and the replies to a message are linked together by index, so a
+ * tree takes up little more than the occurrences themselves.
+ *
+ * @author Pontus Rydin
+ */
+public class ReplyTree implements Serializable {
+  static final long serialVersionUID = 2005;
+
+  private static final MessageOccurrence[] NO_OCCURRENCES = new MessageOccurrence[0];
+
+  private final long m_thread;
+
+  /** Message ids, in ascending order */
+  private final long[] m_ids;
+
+  /** Id of the message each message replies to, or -1 */
+  private final long[] m_replyTo;
+
+  private final MessageOccurrence[][] m_occurrences;
+
+  /** Index of the first reply to each message, or -1 */
+  private final int[] m_firstReply;
+
+  /** Index of the next reply to the same message, or -1 */
+  private final int[] m_nextSibling;
+
+  /**
+   * Creates a tree.
+   *
+   * @param thread The thread
+   * @param ids The message ids, in ascending order
+   * @param replyTo The message each message replies to, or -1
+   * @param occurrences The occurrences of each message
+   */
+  public ReplyTree(long thread, long[] ids, long[] replyTo, MessageOccurrence[][] occurrences) {
+    m_thread = thread;
+    m_ids = ids;
+    m_replyTo = replyTo;
+    m_occurrences = occurrences;
+    int top = ids.length;
+    m_firstReply = new int[top];
+    m_nextSibling = new int[top];
+    Arrays.fill(m_firstReply, -1);
+
+    // Link replies to their parents. Going backwards means we end up with
+    // the replies to each message in ascending order. Replies are always
+    // newer than what they reply to, which also keeps us safe from cycles.
+    //
+    for (int idx = top - 1; idx >= 0; --idx) {
+      int parent = replyTo[idx] < ids[idx] ? this.indexOf(replyTo[idx]) : -1;
+      if (parent == -1) {
+        m_nextSibling[idx] = -1;
+        continue;
+      }
+      m_nextSibling[idx] = m_firstReply[parent];
+      m_firstReply[parent] = idx;
+    }
+  }
+
+  public long getThread() {
+    return m_thread;
+  }
+
+  /** Returns the number of messages in the thread */
+  public int size() {
+    return m_ids.length;
+  }
+
+  public boolean contains(long id) {
+    return this.indexOf(id) != -1;
+  }
+
+  /** Returns the ids of all messages in the thread, in ascending order */
+  public long[] getIds() {
+    return m_ids.clone();
+  }
+
+  /** Returns the id of the message the given message replies to, or -1 */
+  public long getReplyTo(long id) {
+    int idx = this.indexOf(id);
+    return idx != -1 ? m_replyTo[idx] : -1;
+  }
+
+  /** Returns the occurrences of a message, oldest first */
+  public MessageOccurrence[] getOccurrences(long id) {
+    int idx = this.indexOf(id);
+    return idx != -1 ? m_occurrences[idx] : NO_OCCURRENCES;
+  }
+
+  /** Returns the ids of the direct replies to a message, in ascending order */
+  public long[] getReplies(long id) {
+    int idx = this.indexOf(id);
+    if (idx == -1) return new long[0];
+    int n = 0;
+    for (int each = m_firstReply[idx]; each != -1; each = m_nextSibling[each]) ++n;
+    long[] answer = new long[n];
+    n = 0;
+    for (int each = m_firstReply[idx]; each != -1; each = m_nextSibling[each])
+      answer[n++] = m_ids[each];
+    return answer;
+  }
+
+  /**
+   * Returns the ids of a message and everything below it, parents before their replies.
+   *
+   * @param root The message to start at
+   */
+  public long[] getSubtree(long root) {
+    int idx = this.indexOf(root);
+    if (idx == -1) return new long[0];
+    long[] answer = new long[m_ids.length];
+    int[] stack = new int[m_ids.length];
+    int sp = 0;
+    int n = 0;
+    stack[sp++] = idx;
+    while (sp > 0) {
+      int each = stack[--sp];
+      answer[n++] = m_ids[each];
+
+      // Push replies in reverse, so that the lowest is visited first
+      //
+      int mark = sp;
+      for (int reply = m_firstReply[each]; reply != -1; reply = m_nextSibling[reply])
+        stack[sp++] = reply;
+      for (int lo = mark, hi = sp - 1; lo < hi; ++lo, --hi) {
+        int tmp = stack[lo];
+        stack[lo] = stack[hi];
+        stack[hi] = tmp;
+      }
+    }
+    return n == answer.length ? answer : Arrays.copyOf(answer, n);
+  }
+
+  /**
+   * Returns a copy of the tree with a message added to it. If the message is already in the tree,
+   * its reply and occurrences are replaced.
+   *
+   * @param id The message
+   * @param replyTo The message it replies to, or -1
+   * @param occurrences The occurrences of the message
+   */
+  public ReplyTree withMessage(long id, long replyTo, MessageOccurrence[] occurrences) {
+    int idx = Arrays.binarySearch(m_ids, id);
+    if (idx >= 0) {
+      long[] replies = m_replyTo.clone();
+      MessageOccurrence[][] occs = m_occurrences.clone();
+      replies[idx] = replyTo;
+      occs[idx] = occurrences;
+      return new ReplyTree(m_thread, m_ids, replies, occs);
+    }
+    idx = -idx - 1;
+    int top = m_ids.length;
+    long[] ids = new long[top + 1];
+    long[] replies = new long[top + 1];
+    MessageOccurrence[][] occs = new MessageOccurrence[top + 1][];
+    System.arraycopy(m_ids, 0, ids, 0, idx);
+    System.arraycopy(m_replyTo, 0, replies, 0, idx);
+    System.arraycopy(m_occurrences, 0, occs, 0, idx);
+    ids[idx] = id;
+    replies[idx] = replyTo;
+    occs[idx] = occurrences;
+    System.arraycopy(m_ids, idx, ids, idx + 1, top - idx);
+    System.arraycopy(m_replyTo, idx, replies, idx + 1, top - idx);
+    System.arraycopy(m_occurrences, idx, occs, idx + 1, top - idx);
+    return new ReplyTree(m_thread, ids, replies, occs);
+  }
+
+  /**
+   * Returns a copy of the tree where a message has new occurrences, or the tree itself if the
+   * message isn't in it.
+   *
+   * @param id The message
+   * @param occurrences The occurrences of the message
+   */
+  public ReplyTree withOccurrences(long id, MessageOccurrence[] occurrences) {
+    int idx = this.indexOf(id);
+    if (idx == -1) return this;
+    MessageOccurrence[][] occs = m_occurrences.clone();
+    occs[idx] = occurrences;
+    return new ReplyTree(m_thread, m_ids, m_replyTo, occs);
+  }
+
+  /**
+   * Returns a copy of the tree without a message, or the tree itself if the message isn't in it.
+   * Replies to the message stay in the tree, but are no longer reachable from its root.
+   *
+   * @param id The message
+   */
+  public ReplyTree withoutMessage(long id) {
+    int idx = this.indexOf(id);
+    if (idx == -1) return this;
+    int top = m_ids.length - 1;
+    long[] ids = new long[top];
+    long[] replies = new long[top];
+    MessageOccurrence[][] occs = new MessageOccurrence[top][];
+    System.arraycopy(m_ids, 0, ids, 0, idx);
+    System.arraycopy(m_replyTo, 0, replies, 0, idx);
+    System.arraycopy(m_occurrences, 0, occs, 0, idx);
+    System.arraycopy(m_ids, idx + 1, ids, idx, top - idx);
+    System.arraycopy(m_replyTo, idx + 1, replies, idx, top - idx);
+    System.arraycopy(m_occurrences, idx + 1, occs, idx, top - idx);
+    return new ReplyTree(m_thread, ids, replies, occs);
+  }
+
+  private int indexOf(long id) {
+    int idx = Arrays.binarySearch(m_ids, id);
+    return idx >= 0 ? idx : -1;
+  }
+}
@@ -22,6 +22,12 @@ public class SystemInformation implements Serializable {
 
   private final CacheInformation permissionCache;
 
+  private final TransactionStatistics transactions;
+
+  private final ConnectionPoolInformation connectionPool;
+
+  private final BroadcastStatistics broadcasts;
+
   private final long numConferences;
 
   private final long numUsers;
@@ -34,6 +40,9 @@ public class SystemInformation implements Serializable {
           final CacheInformation userCache,
           final CacheInformation conferenceCache,
           final CacheInformation permissionCache,
+          final TransactionStatistics transactions,
+          final ConnectionPoolInformation connectionPool,
+          final BroadcastStatistics broadcasts,
           final long numUser,
           final long numConferences,
           final long numMessages) {
@@ -42,6 +51,9 @@ public class SystemInformation implements Serializable {
     this.userCache = userCache;
     this.conferenceCache = conferenceCache;
     this.permissionCache = permissionCache;
+    this.transactions = transactions;
+    this.connectionPool = connectionPool;
+    this.broadcasts = broadcasts;
       numUsers = numUser;
     this.numConferences = numConferences;
     this.numMessages = numMessages;
@@ -67,6 +79,18 @@ public class SystemInformation implements Serializable {
     return userCache;
   }
 
+  public TransactionStatistics getTransactions() {
+    return transactions;
+  }
+
+  public ConnectionPoolInformation getConnectionPool() {
+    return connectionPool;
+  }
+
+  public BroadcastStatistics getBroadcasts() {
+    return broadcasts;
+  }
+
   public long getNumConferences() {
     return numConferences;
   }
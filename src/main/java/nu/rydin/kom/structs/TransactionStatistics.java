@@ -0,0 +1,63 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.structs;
+
+import java.io.Serializable;
+
+/**
+ * Number of calls to the server session, broken down by how much of a transaction they needed,
+ * along with the database round-trips saved by not giving them more than that.
+ *
+ * @author Pontus Rydin
+ */
+public class TransactionStatistics implements Serializable {
+  static final long serialVersionUID = 2005;
+
+  private final long numNonTransactional;
+
+  private final long numReadOnly;
+
+  private final long numReadWrite;
+
+  private final long numReplica;
+
+  private final long savedRoundTrips;
+
+  public TransactionStatistics(
+      long numNonTransactional,
+      long numReadOnly,
+      long numReadWrite,
+      long numReplica,
+      long savedRoundTrips) {
+    this.numNonTransactional = numNonTransactional;
+    this.numReadOnly = numReadOnly;
+    this.numReadWrite = numReadWrite;
+    this.numReplica = numReplica;
+    this.savedRoundTrips = savedRoundTrips;
+  }
+
+  public long getNumNonTransactional() {
+    return numNonTransactional;
+  }
+
+  public long getNumReadOnly() {
+    return numReadOnly;
+  }
+
+  public long getNumReadWrite() {
+    return numReadWrite;
+  }
+
+  /** Returns the number of read-only calls that were sent to the read replica. */
+  public long getNumReplica() {
+    return numReplica;
+  }
+
+  public long getSavedRoundTrips() {
+    return savedRoundTrips;
+  }
+}
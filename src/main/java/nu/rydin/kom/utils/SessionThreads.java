@@ -0,0 +1,113 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.utils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Creates the threads serving a session, i.e. the session itself and its helpers. They spend
+ * almost all their time waiting for input or events, so when the runtime supports virtual threads
+ * they are used, and thousands of sessions don't need thousands of OS threads. On older runtimes,
+ * ordinary platform threads are used.
+ *
+ * <p>Virtual threads don't show up in <code>Thread.enumerate</code>, so the live ones are tracked
+ * here instead.
+ *
+ * @author Pontus Rydin
+ */
+public class SessionThreads {
+  private static final Logger LOG = LogManager.getLogger(SessionThreads.class);
+
+  private static final Set<Thread> s_virtualThreads = ConcurrentHashMap.newKeySet();
+
+  private static final Method s_ofVirtual;
+
+  private static final Method s_unstarted;
+
+  static {
+    Method ofVirtual = null;
+    Method unstarted = null;
+    try {
+      // Thread.ofVirtual() exists from Java 19, but only works without
+      // preview features enabled from Java 21. Try it once to find out.
+      //
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      unstarted =
+          Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+      unstarted.invoke(ofVirtual.invoke(null), (Runnable) () -> {});
+    } catch (final ClassNotFoundException
+        | NoSuchMethodException
+        | IllegalAccessException
+        | InvocationTargetException e) {
+      ofVirtual = null;
+      unstarted = null;
+    }
+    s_ofVirtual = ofVirtual;
+    s_unstarted = unstarted;
+    LOG.info("Sessions run on " + (s_ofVirtual != null ? "virtual threads" : "platform threads"));
+  }
+
+  /** Returns <code>true</code> if sessions run on virtual threads */
+  public static boolean isVirtual() {
+    return s_ofVirtual != null;
+  }
+
+  /**
+   * Creates a session thread without starting it.
+   *
+   * @param name The name of the thread
+   * @param task What the thread should do
+   */
+  public static Thread newThread(final String name, final Runnable task) {
+    if (s_ofVirtual == null) {
+      return new Thread(task, name);
+    }
+    final Thread[] self = new Thread[1];
+    final Runnable tracked =
+        () -> {
+          s_virtualThreads.add(self[0]);
+          try {
+            task.run();
+          } finally {
+            s_virtualThreads.remove(self[0]);
+          }
+        };
+    try {
+      self[0] = (Thread) s_unstarted.invoke(s_ofVirtual.invoke(null), tracked);
+    } catch (final IllegalAccessException | InvocationTargetException e) {
+      // We tried this when the class was loaded, so it really shouldn't happen
+      //
+      throw new IllegalStateException("Could not create virtual thread", e);
+    }
+    self[0].setName(name);
+    return self[0];
+  }
+
+  /**
+   * Creates and starts a session thread.
+   *
+   * @param name The name of the thread
+   * @param task What the thread should do
+   */
+  public static Thread start(final String name, final Runnable task) {
+    final Thread answer = newThread(name, task);
+    answer.start();
+    return answer;
+  }
+
+  /** Returns the live virtual session threads */
+  public static List<Thread> getVirtualThreads() {
+    return new ArrayList<>(s_virtualThreads);
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/** @author Pontus Rydin */
+public class KOMCacheTest {
+  private final KOMCache m_cache = new KOMCache(100);
+
+  @Test
+  public void concurrentLoadsAreKept() throws InterruptedException {
+    m_cache.begin();
+    this.inOtherTransaction(() -> m_cache.deferredPut("key", "theirs"));
+    m_cache.deferredPut("key", "ours");
+    m_cache.commit();
+    assertEquals("ours", this.read("key"));
+  }
+
+  @Test
+  public void staleLoadsDontReplaceUpdates() throws InterruptedException {
+    this.inOtherTransaction(() -> m_cache.deferredPut("key", "a"));
+    m_cache.begin();
+    this.inOtherTransaction(() -> m_cache.deferredUpdate("key", value -> value + "b"));
+    m_cache.deferredPut("key", "a");
+    m_cache.commit();
+    assertEquals("ab", this.read("key"));
+  }
+
+  @Test
+  public void staleLoadsAreDroppedAfterInvalidation() throws InterruptedException {
+    m_cache.begin();
+    this.inOtherTransaction(() -> m_cache.registerInvalidation("key"));
+    m_cache.deferredPut("key", "old");
+    m_cache.commit();
+    assertNull(this.read("key"));
+  }
+
+  @Test
+  public void updatesCanDropTheValue() throws InterruptedException {
+    this.inOtherTransaction(() -> m_cache.deferredPut("key", "a"));
+    this.inOtherTransaction(() -> m_cache.deferredUpdate("key", value -> null));
+    assertNull(this.read("key"));
+  }
+
+  @Test
+  public void manyLoadsDontMakeOthersStale() throws InterruptedException {
+    m_cache.begin();
+    this.inOtherTransaction(
+        () -> {
+          for (int idx = 0; idx < 10000; ++idx) {
+            m_cache.deferredPut(idx, idx);
+          }
+        });
+    m_cache.deferredPut("key", "ours");
+    m_cache.commit();
+    assertEquals("ours", this.read("key"));
+  }
+
+  private Object read(final Object key) throws InterruptedException {
+    final Object[] answer = new Object[1];
+    this.inOtherTransaction(() -> answer[0] = m_cache.get(key));
+    return answer[0];
+  }
+
+  /** Runs something in a transaction of its own and commits it */
+  private void inOtherTransaction(final Runnable work) throws InterruptedException {
+    final Thread thread =
+        new Thread(
+            () -> {
+              work.run();
+              m_cache.commit();
+            });
+    thread.start();
+    thread.join();
+  }
+}
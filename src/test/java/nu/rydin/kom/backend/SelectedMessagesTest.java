@@ -0,0 +1,84 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import nu.rydin.kom.exceptions.UnexpectedException;
+import nu.rydin.kom.structs.LocalMessageSearchResult;
+import nu.rydin.kom.structs.MessageLocator;
+import nu.rydin.kom.structs.MessageSearchResult;
+import org.junit.Test;
+
+/** @author Pontus Rydin */
+public class SelectedMessagesTest {
+  /** Lists the texts 1 to <code>count</code> and remembers what it was asked for */
+  private static final class Counter implements SelectedMessages.Source {
+    private final int m_count;
+
+    private final List<Long> m_requests = new ArrayList<>();
+
+    private Counter(final int count) {
+      m_count = count;
+    }
+
+    @Override
+    public MessageSearchResult[] list(final MessageSearchResult after, final int length) {
+      final long first = after != null ? after.getGlobalId() + 1 : 1;
+      m_requests.add(first);
+      final List<MessageSearchResult> answer = new ArrayList<>();
+      for (long id = first; id <= m_count && answer.size() < length; ++id) {
+        answer.add(new LocalMessageSearchResult(id, (int) id, null, "", -1, null, null));
+      }
+      return answer.toArray(new MessageSearchResult[answer.size()]);
+    }
+  }
+
+  @Test
+  public void textsAreFetchedAChunkAtATime() throws UnexpectedException {
+    final Counter source = new Counter(250);
+    final SelectedMessages selected = new SelectedMessages();
+    selected.select(source);
+    assertEquals(1, source.m_requests.size());
+    assertFalse(selected.isComplete());
+    for (long id = 1; id <= 250; ++id) {
+      assertTrue(selected.hasUnreadMessages());
+      assertEquals(id, selected.getNextMessage().getGlobalId());
+    }
+    assertFalse(selected.hasUnreadMessages());
+    assertTrue(selected.isComplete());
+    assertEquals(MessageLocator.NO_MESSAGE, selected.getNextMessage());
+
+    // Each chunk continues after the last text of the previous one
+    //
+    assertEquals(List.of(1L, 101L, 201L, 251L), source.m_requests);
+  }
+
+  @Test
+  public void recentTextsCanBeReadAgain() throws UnexpectedException {
+    final SelectedMessages selected = new SelectedMessages();
+    selected.select(new Counter(1000));
+    for (int idx = 0; idx < 500; ++idx) {
+      selected.getNextMessage();
+    }
+    assertEquals(499, selected.getPreviousMessage().getGlobalId());
+    assertEquals(500, selected.getNextMessage().getGlobalId());
+
+    // Only the last few texts read are kept
+    //
+    int back = 0;
+    while (selected.getPreviousMessage() != MessageLocator.NO_MESSAGE) {
+      ++back;
+    }
+    assertTrue(back > 0 && back < 100);
+    assertEquals(501 - back, selected.getNextMessage().getGlobalId());
+  }
+}
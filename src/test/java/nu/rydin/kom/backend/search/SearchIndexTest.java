@@ -0,0 +1,222 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.backend.search;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import nu.rydin.kom.structs.MessageOccurrence;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** @author Pontus Rydin */
+public class SearchIndexTest {
+  private File m_directory;
+
+  private final List<SearchIndex> m_indexes = new ArrayList<>();
+
+  @Before
+  public void setUp() throws IOException {
+    m_directory = Files.createTempDirectory("searchindex").toFile();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    for (final SearchIndex each : m_indexes) {
+      each.stop();
+    }
+    try (final Stream<Path> files = Files.walk(m_directory.toPath())) {
+      files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  @Test
+  public void journalIsReplayedOnOpen() throws IOException {
+    final SearchIndex index = this.open();
+    this.add(index, 1, 1, "Apor", "Det finns apor i skogen");
+    this.add(index, 2, 1, "Apor igen", "Fler apor");
+    this.add(index, 3, 2, "Katter", "Inga apor alls");
+    index.occurrencesChanged(3, new MessageOccurrence[] {occurrence(3, 1, 3)});
+    index.messageDeleted(2);
+    index.commit();
+
+    // Nothing has been written to a segment, so it all has to come from the journal
+    //
+    assertEquals(0, this.countSegments());
+    final SearchIndex reopened = this.open();
+    assertArrayEquals(new long[] {1, 3}, sorted(reopened.searchLocally("apor", 1)));
+    assertEquals(0, reopened.searchLocally("apor", 2).length);
+  }
+
+  @Test
+  public void rollbackDiscardsChanges() throws IOException {
+    final SearchIndex index = this.open();
+    index.messageAdded(1, "Apor", "Apor i skogen", new MessageOccurrence[] {occurrence(1, 1, 1)});
+    index.rollback();
+    index.commit();
+    assertEquals(0, index.searchLocally("apor", 1).length);
+    assertEquals(0, this.open().searchLocally("apor", 1).length);
+  }
+
+  @Test
+  public void deletedMessagesAreNotAddedAgain() throws IOException {
+    final SearchIndex index = this.open();
+    this.add(index, 1, 1, "Apor", "Apor i skogen");
+    index.messageDeleted(1);
+    index.commit();
+
+    // Catching up may come across messages it loaded before they were deleted
+    //
+    this.add(index, 1, 1, "Apor", "Apor i skogen");
+    assertEquals(0, index.searchLocally("apor", 1).length);
+
+    // The message may not even have been indexed before it was deleted
+    //
+    index.messageDeleted(2);
+    index.commit();
+    this.add(index, 2, 1, "Apor", "Apor i staden");
+    assertEquals(0, index.searchLocally("apor", 1).length);
+
+    // Nor once the deletions are in segments
+    //
+    index.flush();
+    this.add(index, 1, 1, "Apor", "Apor i skogen");
+    this.add(index, 2, 1, "Apor", "Apor i staden");
+    assertEquals(0, index.searchLocally("apor", 1).length);
+
+    // Nor after a merge that drops the deleted entries
+    //
+    this.add(index, 3, 1, "Bananer", "Inget om apor");
+    index.flush();
+    index.merge();
+    assertEquals(1, this.countSegments());
+    this.add(index, 1, 1, "Apor", "Apor i skogen");
+    this.add(index, 2, 1, "Apor", "Apor i staden");
+    assertArrayEquals(new long[] {3}, sorted(index.searchLocally("apor", 1)));
+
+    // Nor after replaying the journal
+    //
+    assertArrayEquals(new long[] {3}, sorted(this.open().searchLocally("apor", 1)));
+  }
+
+  @Test
+  public void mergeKeepsTheNewestEntries() throws IOException {
+    final SearchIndex index = this.open();
+    for (int idx = 1; idx <= 4; ++idx) {
+      this.add(index, idx, 1, "Inlägg " + idx, "Om apor och bananer");
+      index.flush();
+    }
+    index.occurrencesChanged(2, new MessageOccurrence[] {occurrence(2, 2, 1)});
+    index.messageDeleted(3);
+    index.commit();
+    index.flush();
+    assertEquals(5, this.countSegments());
+    index.merge();
+    index.merge();
+    assertTrue(this.countSegments() < 5);
+    while (this.countSegments() > 1) {
+      index.merge();
+    }
+    assertArrayEquals(new long[] {1, 4}, sorted(index.searchLocally("bananer", 1)));
+    assertArrayEquals(new long[] {2}, sorted(index.searchLocally("bananer", 2)));
+    assertArrayEquals(new long[] {1, 2, 4}, sorted(index.searchGlobally("+apor +bananer")));
+
+    // The merged segment is what's in the manifest now
+    //
+    final SearchIndex reopened = this.open();
+    assertArrayEquals(new long[] {1, 2, 4}, sorted(reopened.searchGlobally("apor")));
+    assertEquals(0, reopened.searchGlobally("inlägg3").length);
+  }
+
+  @Test
+  public void stemsMatchInflections() throws IOException {
+    final SearchIndex index = this.open();
+    this.add(index, 1, 1, "Hundar", "Mina hundar är snälla");
+    this.add(index, 2, 1, "Hunden", "Hunden skäller");
+    this.add(index, 3, 1, "Katter", "Katten jamar");
+    assertArrayEquals(new long[] {1, 2}, sorted(index.searchLocally("hund", 1)));
+    assertArrayEquals(new long[] {2}, sorted(index.searchLocally("\"hunden skäller\"", 1)));
+    assertArrayEquals(new long[] {3}, sorted(index.searchLocally("katt*", 1)));
+    assertArrayEquals(new long[] {1}, sorted(index.searchLocally("+hund -skäller", 1)));
+  }
+
+  @Test
+  public void rankingFollowsBm25() throws IOException {
+    final SearchIndex index = this.open();
+    this.add(index, 1, 1, "Lång", "apa en två tre fyra fem sex sju åtta nio tio elva tolv");
+    this.add(index, 2, 1, "Många", "apa apa apa");
+    this.add(index, 3, 1, "Kort", "apa tre");
+    this.add(index, 4, 1, "Ovanlig", "giraff tre");
+    this.add(index, 5, 1, "Ingen", "tre fyra fem");
+
+    // More occurrences beat fewer, and a short message beats a long one
+    //
+    assertArrayEquals(new long[] {2, 3, 1}, ids(index.searchLocally("apa", 1)));
+
+    // A rare word counts for more than a common one
+    //
+    final SearchIndex.Hit[] hits = index.searchLocally("giraff apa", 1);
+    assertEquals(4, hits[0].getMessage());
+    assertEquals(4, hits.length);
+    for (int idx = 1; idx < hits.length; ++idx) {
+      assertTrue(hits[idx - 1].getScore() >= hits[idx].getScore());
+    }
+  }
+
+  private SearchIndex open() throws IOException {
+    final SearchIndex index = new SearchIndex(m_directory, 1000, 2);
+    index.open(false);
+    m_indexes.add(index);
+    return index;
+  }
+
+  private void add(
+      final SearchIndex index,
+      final long id,
+      final long conference,
+      final String subject,
+      final String body) {
+    index.messageAdded(
+        id, subject, body, new MessageOccurrence[] {occurrence(id, conference, (int) id)});
+    index.commit();
+  }
+
+  private int countSegments() {
+    final String[] names = m_directory.list((dir, name) -> name.endsWith(".idx"));
+    return names != null ? names.length : 0;
+  }
+
+  private static MessageOccurrence occurrence(
+      final long id, final long conference, final int localnum) {
+    return new MessageOccurrence(id, null, (short) 0, null, conference, localnum);
+  }
+
+  private static long[] ids(final SearchIndex.Hit[] hits) {
+    final long[] answer = new long[hits.length];
+    for (int idx = 0; idx < hits.length; ++idx) {
+      answer[idx] = hits[idx].getMessage();
+    }
+    return answer;
+  }
+
+  private static long[] sorted(final SearchIndex.Hit[] hits) {
+    final long[] answer = ids(hits);
+    Arrays.sort(answer);
+    return answer;
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.backend.search;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+/** @author Pontus Rydin */
+public class TokenizerTest {
+  @Test
+  public void wordsAreLowerCaseRunsOfLettersAndDigits() {
+    assertEquals(
+        Arrays.asList("hej", "alla", "42", "kom", "ar", "bra"),
+        Tokenizer.words("Hej alla! 42 KOM-ar, bra?"));
+    assertEquals(0, Tokenizer.words(null).size());
+    assertEquals(0, Tokenizer.words(" ... ").size());
+  }
+
+  @Test
+  public void accentsAreFoldedExceptSwedishLetters() {
+    assertEquals(
+        Arrays.asList("cafe", "ångbåt", "äpple", "ö", "öl"),
+        Tokenizer.words("Café Ångbåt Äpple Ø øl"));
+  }
+
+  @Test
+  public void longWordsAreCutOff() {
+    final char[] word = new char[Tokenizer.MAX_WORD_LENGTH + 10];
+    Arrays.fill(word, 'x');
+    assertEquals(
+        Tokenizer.MAX_WORD_LENGTH, Tokenizer.words(new String(word)).get(0).length());
+  }
+
+  @Test
+  public void inflectionsShareTheirStem() {
+    assertEquals("inlägg", Tokenizer.stem("inlägg"));
+    assertEquals("inlägg", Tokenizer.stem("inläggen"));
+    assertEquals("inlägg", Tokenizer.stem("inläggens"));
+    assertEquals("hund", Tokenizer.stem("hund"));
+    assertEquals("hund", Tokenizer.stem("hundar"));
+    assertEquals("hund", Tokenizer.stem("hunden"));
+    assertEquals("hund", Tokenizer.stem("hundarna"));
+  }
+
+  @Test
+  public void shortWordsAreLeftAlone() {
+    assertEquals("och", Tokenizer.stem("och"));
+    assertEquals("en", Tokenizer.stem("en"));
+    assertEquals("42", Tokenizer.stem("42"));
+  }
+
+  @Test
+  public void derivationsAreRemoved() {
+    assertEquals("van", Tokenizer.stem("vanlig"));
+    assertEquals("van", Tokenizer.stem("vanliga"));
+    assertEquals("hoppfull", Tokenizer.stem("hoppfullt"));
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ * Distributed under the GPL license.
+ * See http://www.gnu.org for details
+ */
+package nu.rydin.kom.structs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** @author Pontus Rydin */
+public class MessageRangeListTest {
+  @Test
+  public void emptyListRoundTrip() {
+    final byte[] data = new MessageRangeList().toByteArray();
+    assertArrayEquals(new byte[] {1, 0}, data);
+    final MessageRangeList list = MessageRangeList.fromByteArray(data);
+    assertTrue(list.isEmpty());
+    assertEquals("", list.encode());
+    assertFalse(MessageRangeList.includes(data, 0));
+    assertFalse(MessageRangeList.includes(data, 1));
+  }
+
+  @Test
+  public void addMergesAdjacentRanges() {
+    final MessageRangeList list = new MessageRangeList();
+    list.add(1, 3).add(4, 6);
+    assertEquals("1-6", list.encode());
+    list.add(8, 10);
+    assertEquals("1-6,8-10", list.encode());
+    list.add(7);
+    assertEquals("1-10", list.encode());
+    list.add(0);
+    assertEquals("0-10", list.encode());
+  }
+
+  @Test
+  public void addMergesOverlappingRanges() {
+    final MessageRangeList list = new MessageRangeList(5, 10);
+    list.add(1, 6);
+    assertEquals("1-10", list.encode());
+    list.add(20, 30).add(40, 50).add(60, 70);
+    assertEquals("1-10,20-30,40-50,60-70", list.encode());
+    list.add(25, 45);
+    assertEquals("1-10,20-50,60-70", list.encode());
+    list.add(3, 8);
+    assertEquals("1-10,20-50,60-70", list.encode());
+    list.add(0, 100);
+    assertEquals("0-100", list.encode());
+    assertEquals(1, list.size());
+  }
+
+  @Test
+  public void subtractInsideRangeSplitsIt() {
+    final MessageRangeList list = new MessageRangeList(1, 10);
+    list.subtract(4, 6);
+    assertEquals("1-3,7-10", list.encode());
+    list.subtract(5);
+    assertEquals("1-3,7-10", list.encode());
+    list.subtract(1);
+    assertEquals("2-3,7-10", list.encode());
+    list.subtract(10);
+    assertEquals("2-3,7-9", list.encode());
+    list.subtract(8);
+    assertEquals("2-3,7-7,9-9", list.encode());
+  }
+
+  @Test
+  public void subtractAcrossRanges() {
+    final MessageRangeList list = MessageRangeList.decode("1-10,20-30,40-50");
+    list.subtract(5, 45);
+    assertEquals("1-4,46-50", list.encode());
+    list.subtract(0, 100);
+    assertTrue(list.isEmpty());
+  }
+
+  @Test
+  public void intersect() {
+    final MessageRangeList list = MessageRangeList.decode("1-5,10-20,30-40");
+    list.intersect(new MessageRange(3, 35));
+    assertEquals("3-5,10-20,30-35", list.encode());
+    list.intersect(new MessageRange(12, 14));
+    assertEquals("12-14", list.encode());
+    list.intersect(new MessageRange(20, 30));
+    assertTrue(list.isEmpty());
+  }
+
+  @Test
+  public void countAndFirstUnread() {
+    final MessageRangeList list = MessageRangeList.decode("1-5,10-20");
+    assertEquals(6, list.countIncluded(3, 12));
+    assertEquals(6, list.getFirstUnread(1, 100));
+    assertEquals(21, list.getFirstUnread(10, 100));
+    assertEquals(7, list.getFirstUnread(7, 100));
+    assertEquals(-1, list.getFirstUnread(10, 20));
+  }
+
+  @Test
+  public void largeGapsRoundTrip() {
+    final MessageRangeList list = new MessageRangeList();
+    list.add(1).add(200, 300).add(70000, 70001).add(20000000, 20000127);
+    list.add(Integer.MAX_VALUE - 1, Integer.MAX_VALUE);
+    final byte[] data = list.toByteArray();
+
+    // Gaps and lengths past 127 need more than one byte
+    //
+    assertTrue(data.length > 2 + list.size() * 2);
+    final MessageRangeList copy = MessageRangeList.fromByteArray(data);
+    assertEquals(list.encode(), copy.encode());
+    final int[] probes = {
+      0, 1, 2, 199, 200, 300, 301, 69999, 70000, 70001, 70002, 20000127, 20000128,
+      Integer.MAX_VALUE - 2, Integer.MAX_VALUE - 1, Integer.MAX_VALUE
+    };
+    for (final int each : probes) {
+      final String label = Integer.toString(each);
+      assertEquals(label, list.includes(each), MessageRangeList.includes(data, each));
+      assertEquals(label, list.includes(each), copy.includes(each));
+    }
+  }
+
+  @Test
+  public void manyRangesRoundTrip() {
+    final MessageRangeList list = new MessageRangeList();
+    for (int idx = 0; idx < 1000; ++idx) {
+      list.add(idx * 3, idx * 3 + 1);
+    }
+    assertEquals(1000, list.size());
+    final MessageRangeList copy = MessageRangeList.fromByteArray(list.toByteArray());
+    assertEquals(list.encode(), copy.encode());
+    assertEquals(list.encode(), MessageRangeList.decode(list.encode()).encode());
+
+    // The copy must still be modifiable
+    //
+    copy.add(2);
+    assertEquals(0, copy.getMin(0));
+    assertEquals(4, copy.getMax(0));
+    assertEquals(999, copy.size());
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void unknownVersionIsRejected() {
+    MessageRangeList.fromByteArray(new byte[] {2, 0});
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void unknownVersionIsRejectedByIncludes() {
+    MessageRangeList.includes(new byte[] {0, 1, 1, 1}, 1);
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void emptyDataIsRejected() {
+    MessageRangeList.fromByteArray(new byte[0]);
+  }
+}